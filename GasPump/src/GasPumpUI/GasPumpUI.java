@@ -1,8 +1,6 @@
 package GasPumpUI;
 
-import Server.DeviceConstants;
-import Server.IOPortServer;
-import Server.Message;
+import Server.DeviceArgs;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.HPos;
@@ -19,28 +17,38 @@ import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 
 import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * A JavaFX application that serves as a functional mockup of a gas pump's digital touch screen.
- * It uses an IOPort to handle all communication and a ScreenParser to render the UI.
+ * It renders the frames received by a {@link Screen} using a ScreenParser, and forwards button presses to it.
  */
 public class GasPumpUI extends Application {
 
     private static final int NUM_ROWS = 5;
     private static final int NUM_COLS = 2;
     private final ScreenParser parser = new ScreenParser();
+    private static volatile Screen boundScreen;
     private GridPane gridPane;
-    private IOPortServer mainIOPort;
+    private long renderedFrameCount = 0;
 
+    public static void bind(Screen screen) {
+        boundScreen = screen;
+    }
+
+    /**
+     * Main entry point. Pass {@code --headless} to run the screen without a window
+     * and {@code --pump=N} to serve a pump other than pump 0.
+     */
     public static void main(String[] args) {
-        launch(args);
+        bind(new Screen(DeviceArgs.pumpIndex(args), Executors.newSingleThreadScheduledExecutor()));
+        if (!DeviceArgs.isHeadless(args)) {
+            launch(args);
+        }
     }
 
     @Override
     public void start(Stage primaryStage) {
-        // Instantiate the IOPort for device ID 0. It starts running automatically.
-        mainIOPort = new IOPortServer(DeviceConstants.SCREEN_PORT);
-
         primaryStage.setTitle("Gas Pump UI Mockup");
         gridPane = createGridPane();
         gridPane.setPadding(new Insets(10,10,10,10));
@@ -48,21 +56,22 @@ public class GasPumpUI extends Application {
         primaryStage.setScene(scene);
         primaryStage.show();
 
-        // Start a timer to poll for new messages from the IOPort.
+        // Start a timer to poll for new frames from the Screen.
         startMessagePolling();
     }
 
     /**
-     * Creates and starts an AnimationTimer that runs on every frame, checking the IOPort
-     * for new messages to process, and updates the screen as new messages are processed.
+     * Creates and starts an AnimationTimer that runs on every frame, checking the Screen
+     * for new frames, and updates the screen as new frames arrive.
      */
     private void startMessagePolling() {
         AnimationTimer messagePoller = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                Message newMessage = mainIOPort.get();
-                if (newMessage != null) {
-                    processScreenMessage(newMessage.toString());
+                long frameCount = boundScreen.getFrameCount();
+                if (frameCount != renderedFrameCount) {
+                    renderedFrameCount = frameCount;
+                    processScreenMessage(boundScreen.getFrame());
                 }
             }
         };
@@ -92,8 +101,8 @@ public class GasPumpUI extends Application {
 
             // Set a single action handler for all buttons
             currentButton.setOnAction(event -> {
-                // Send the button press message through the IOPort
-                mainIOPort.send(new Message("b:" + cellId + "//"));
+                // Send the button press message through the Screen
+                boundScreen.press(cellId);
 
                 // If the button is mutually exclusive, handle the style change
                 if (info.type() == ScreenParser.BUTTON_TYPE_MUTUALLY_EXCLUSIVE) {
@@ -0,0 +1,97 @@
+package GasPumpUI;
+
+import Server.DeviceConstants;
+import Server.IOPortServer;
+import Server.Log;
+import Server.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The protocol side of the gas pump's touch screen, with no dependency on a display.
+ * It receives screen frames from the main controller, keeps the latest one, and sends
+ * button presses back. {@link GasPumpUI} renders the frames; headless simulators and
+ * scripts read them through {@link #getTexts()} and press buttons with {@link #press(String)}.
+ */
+public class Screen {
+
+    private static final long POLL_INTERVAL_MS = 20;
+
+    private final IOPortServer port;
+    private volatile String frame = "";
+    private volatile long frameCount = 0;
+
+    /**
+     * Initializes the screen for the given pump and starts polling for frames.
+     *
+     * @param pumpIndex The zero-based pump number whose screen port to listen on.
+     * @param scheduler The scheduler that polls this device's port.
+     */
+    public Screen(int pumpIndex, ScheduledExecutorService scheduler) {
+        this.port = new IOPortServer(DeviceConstants.portFor(DeviceConstants.SCREEN_PORT, pumpIndex));
+        port.setName(Log.pumpTag("screen", pumpIndex));
+        scheduler.scheduleWithFixedDelay(this::pollFrames, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void pollFrames() {
+        Message m = port.get();
+        if (m != null) {
+            frame = m.getContent();
+            frameCount++; // Only written from the polling thread
+        }
+    }
+
+    /**
+     * @return The raw protocol text of the most recent frame, or an empty string before the first.
+     */
+    public String getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return The number of frames received so far; changes whenever a new frame arrives.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Extracts the visible text of every text field in the current frame.
+     *
+     * @return The text field contents, in frame order.
+     */
+    public List<String> getTexts() {
+        List<String> texts = new ArrayList<>();
+        for (String command : frame.split(";")) {
+            String trimmed = command.trim();
+            if (trimmed.startsWith("t:")) {
+                String[] parts = trimmed.substring(2).split("/", 5);
+                if (parts.length == 5) texts.add(parts[4]);
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * @param text The text to look for.
+     * @return {@code true} if any text field on the current frame contains the given text.
+     */
+    public boolean showsText(String text) {
+        for (String t : getTexts()) {
+            if (t.contains(text)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Simulates the customer pressing the button in the given cell.
+     *
+     * @param cellId The cell ID of the button (e.g., "8").
+     */
+    public void press(String cellId) {
+        port.send(new Message("b:" + cellId + "//"));
+    }
+}
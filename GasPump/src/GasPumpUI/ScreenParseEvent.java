@@ -0,0 +1,29 @@
+package GasPumpUI;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event spanning one {@link ScreenParser#parse} call.
+ */
+@Name("gaspump.ScreenParse")
+@Label("Screen Parse")
+@Category({"Gas Pump", "Screen"})
+@Description("Parsing one screen message into its text fields and buttons")
+@StackTrace(false)
+class ScreenParseEvent extends jdk.jfr.Event {
+
+    @Label("Message Size")
+    @DataAmount
+    int bytes;
+
+    @Label("Text Fields")
+    int textFields;
+
+    @Label("Buttons")
+    int buttons;
+}
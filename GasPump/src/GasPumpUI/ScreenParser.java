@@ -14,6 +14,7 @@ import java.util.Map;
 
 /**
  * A helper class to encapsulate all message parsing and UI node creation logic.
+ * Each parse is a {@code gaspump.ScreenParse} flight recorder event.
  */
 public class ScreenParser {
     // --- Centralized Style Constants ---
@@ -30,6 +31,8 @@ public class ScreenParser {
     private static final int COLOR_DEFAULT = 0, COLOR_PURPLE = 1, COLOR_RED = 2, COLOR_GREEN = 3, COLOR_BLUE = 4;
 
     public ScreenLayout parse(String message) {
+        ScreenParseEvent event = new ScreenParseEvent();
+        event.begin();
         Map<String, Node> textFields = new HashMap<>();
         Map<String, ButtonInfo> buttons = new HashMap<>();
         String trimmedMessage = message.substring(0, message.length() - 2);
@@ -43,6 +46,12 @@ public class ScreenParser {
                 parseAndCreateButton(trimmedCmd, buttons);
             }
         }
+        if (event.shouldCommit()) {
+            event.bytes = message.length();
+            event.textFields = textFields.size();
+            event.buttons = buttons.size();
+            event.commit();
+        }
         return new ScreenLayout(textFields, buttons);
     }
 
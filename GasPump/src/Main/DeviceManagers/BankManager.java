@@ -1,25 +1,167 @@
 package Main.DeviceManagers;
 
+import Server.Cents;
+import Server.CircuitBreaker;
 import Server.DeviceConstants;
+import Server.FixedPointFormat;
 import Server.IOPort;
+import Server.LinkHealth;
+import Server.LinkMonitor;
+import Server.Log;
 import Server.Message;
+import Server.OverflowPolicy;
+import Server.TraceSession;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages all communication with the bank's server.
  * This class abstracts the low-level network messaging for operations like
  * credit card authorization and final transaction charges. It handles sending
- * requests and waiting for the bank's responses.
+ * requests and waiting for the bank's responses. Each request and its response is a
+ * {@code gaspump.BankRequest} flight recorder event.
+ * <p>
+ * An authorization waits three times the 99th percentile of recent bank round trips (within
+ * bounds) rather than a fixed time, so a lost response sends the customer to "see attendant"
+ * quickly; a charge always waits the full {@link #RESPONSE_TIMEOUT_MS}. With hedging on, a
+ * request the bank has not answered within the 95th percentile round trip is sent again on a
+ * second connection, and whichever answer comes first is used. Every request carries an
+ * idempotency key that the bank echoes, so late answers to earlier requests are ignored and a
+ * hedged charge is captured only once.
+ * <p>
+ * A {@link CircuitBreaker} stops requests after {@link #BREAKER_FAILURES} consecutive failures
+ * (timeouts, "Busy" or "Error"), or as soon as the bank link's heartbeat is down, and lets one
+ * through as a probe every {@link #BREAKER_OPEN_MS}. While it is open, authorizations fail at
+ * once, or are decided by the {@link StandInPolicy} if one is set, and charges fail at once.
+ * The controller normally leaves final charges to a {@link SettlementQueue}, which retries them
+ * until the bank answers.
  */
 public class BankManager {
 
-    private static final long RESPONSE_TIMEOUT_MS = 5000; // 5 seconds
+    private static final long RESPONSE_TIMEOUT_MS = 5000; // 5 seconds; also the longest an authorization waits
+    private static final long MIN_AUTHORIZE_TIMEOUT_MS = 250;
+    private static final int TIMEOUT_P99_MULTIPLE = 3;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 500; // Until enough round trips have been seen
+    private static final long MIN_HEDGE_DELAY_MS = 10;
+    private static final int LATENCY_SAMPLES = 64; // Recent round trips the percentiles are taken over
+    private static final int MIN_LATENCY_SAMPLES = 16;
+    private static final int BANK_QUEUE_LIMIT = 16; // Requests are sent one at a time; more means the bank is unreachable
+    private static final String KEY = ";key=";
+    private static final int BREAKER_FAILURES = 3;
+    private static final long BREAKER_OPEN_MS = 10_000;
+
     private final IOPort bankConnection;
+    private IOPort hedgeConnection; // Opened the first time hedging is turned on
+    private volatile boolean hedging;
+    private LinkMonitor linkMonitor;
+    private TraceSession traceSession;
+    // Responses from both connections, in arrival order
+    private final LinkedBlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+    // The random prefix keeps keys unique across controller restarts, which the bank remembers
+    private final String keyPrefix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + "-";
+    private long keySequence;
+    // Recent round trips in nanoseconds, the oldest overwritten first. Used on the controller thread only.
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private final long[] sortedLatencies = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+    private volatile long authorizeTimeoutMillis = RESPONSE_TIMEOUT_MS;
+    private long hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MS;
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    // Reused to build request lines; a BankManager is only driven by its own pump's controller thread.
+    private final StringBuilder requestBuffer = new StringBuilder(64);
+    private final String logTag;
+    private final CircuitBreaker breaker = new CircuitBreaker(BREAKER_FAILURES, BREAKER_OPEN_MS);
+    private LinkHealth bankHealth;
+    private volatile StandInPolicy standInPolicy;
+    private volatile SettlementQueue settlementQueue; // What cards owe in unsettled sales
+    // The last authorization's limit
+    private long authorizedLimitCents = Long.MAX_VALUE;
+    // What the bank last held on an approval; stand-in approvals stay within it, since the bank declines more
+    private volatile long bankHoldCents = Long.MAX_VALUE;
+
+    /**
+     * Initializes a new BankManager and starts connecting to the bank server in the background.
+     *
+     * @param pumpIndex The pump whose sales are authorized and charged.
+     */
+    public BankManager(int pumpIndex) {
+        this.logTag = Log.pumpTag("bank", pumpIndex);
+        this.bankConnection = openConnection(false);
+    }
+
+    private IOPort openConnection(boolean hedge) {
+        IOPort connection = IOPort.connectInBackground(DeviceConstants.BANK_HOSTNAME, DeviceConstants.BANK_PORT,
+                DeviceConstants.UPSTREAM_CONNECT_TIMEOUT_MS);
+        connection.limitQueue(BANK_QUEUE_LIMIT, OverflowPolicy.REJECT);
+        connection.setMessageHandler(message -> responses.add(new Response(message, hedge)));
+        return connection;
+    }
+
+    /**
+     * @return A future completed once the bank connection is up.
+     */
+    public CompletableFuture<IOPort> whenConnected() {
+        return bankConnection.whenConnected();
+    }
 
     /**
-     * Initializes a new BankManager and establishes a dedicated connection to the bank server.
+     * Turns hedged requests on or off. The second bank connection is opened the first time hedging
+     * is turned on and kept until {@link #close()}.
      */
-    public BankManager() {
-        this.bankConnection = new IOPort(DeviceConstants.BANK_HOSTNAME, DeviceConstants.BANK_PORT);
+    public synchronized void setHedging(boolean hedging) {
+        if (hedging && hedgeConnection == null) {
+            hedgeConnection = openConnection(true);
+            hedgeConnection.setName("bank hedge");
+            if (linkMonitor != null) linkMonitor.watch("bank hedge", hedgeConnection);
+            if (traceSession != null) hedgeConnection.setObserver(traceSession.observe(TraceSession.Link.BANK));
+        }
+        this.hedging = hedging;
+    }
+
+    /**
+     * Watches the bank connection's heartbeat as the "bank" link, and the hedge connection's (once
+     * open) as "bank hedge".
+     */
+    public synchronized void watchLinks(LinkMonitor monitor) {
+        this.linkMonitor = monitor;
+        bankHealth = monitor.watch("bank", bankConnection);
+        if (hedgeConnection != null) monitor.watch("bank hedge", hedgeConnection);
+    }
+
+    /**
+     * Approves cards locally by the given policy while the bank is unreachable, or fails their
+     * authorizations when {@code null} (the default).
+     */
+    public void setStandInPolicy(StandInPolicy policy) {
+        this.standInPolicy = policy;
+    }
+
+    /**
+     * Counts every charge waiting in the given queue, whether the bank or the stand-in policy
+     * approved it, as owed by its card when the stand-in policy decides how much a card may be
+     * approved for. Also has the queue send its batches through this manager's circuit breaker, so
+     * settling the backlog after an outage closes it.
+     */
+    public void setSettlementQueue(SettlementQueue queue) {
+        this.settlementQueue = queue;
+        if (queue != null) queue.setBreaker(breaker);
+    }
+
+    /**
+     * Records this manager's messages in the given session, or stops recording when {@code null}.
+     */
+    public synchronized void setTrace(TraceSession session) {
+        this.traceSession = session;
+        bankConnection.setObserver(session == null ? null : session.observe(TraceSession.Link.BANK));
+        if (hedgeConnection != null) {
+            hedgeConnection.setObserver(session == null ? null : session.observe(TraceSession.Link.BANK));
+        }
     }
 
     /**
@@ -30,21 +172,37 @@ public class BankManager {
      * @return An {@link AuthorizationStatus} enum indicating whether the card was approved, declined, or if an error occurred.
      */
     public AuthorizationStatus authorizeCreditCard(String cardNumber) {
+        authorizedLimitCents = Long.MAX_VALUE;
+        if (!breakerAllows()) {
+            return standIn(cardNumber);
+        }
         String requestString = "Authorize:" + cardNumber;
-        bankConnection.send(new Message(requestString));
-
-        Message response = waitForResponse(RESPONSE_TIMEOUT_MS);
+        String response = request("Authorize", cardNumber, 0, requestString, nextKey(), authorizeTimeoutMillis);
 
-        if (response == null) {
-            System.err.println("Bank authorization timed out for card: " + cardNumber);
-            return AuthorizationStatus.ERROR;
+        if (response == null || isRefusal(response)) {
+            if (response == null) {
+                Log.warn(logTag, "Bank authorization timed out for card ending {}", cardLast4(cardNumber));
+            } else {
+                Log.warn(logTag, "Bank could not authorize card ending {}: {}", cardLast4(cardNumber), response);
+            }
+            return breaker.getState() == CircuitBreaker.State.OPEN ? standIn(cardNumber) : AuthorizationStatus.ERROR;
         }
 
-        return switch (response.getContent()) {
-            case "Approve" -> AuthorizationStatus.APPROVED;
+        if (response.startsWith("Approve:")) { // "Approve:AMOUNT", the amount the bank held
+            try {
+                authorizedLimitCents = Cents.parse(response, "Approve:".length(), response.length());
+            } catch (NumberFormatException e) {
+                Log.warn(logTag, "Received malformed approval from bank: {}", response);
+                return AuthorizationStatus.ERROR;
+            }
+            bankHoldCents = authorizedLimitCents;
+            return AuthorizationStatus.APPROVED;
+        }
+        return switch (response) {
+            case "Approve" -> AuthorizationStatus.APPROVED; // A bank that does not say what it held: no limit
             case "Decline" -> AuthorizationStatus.DECLINED;
             default -> {
-                System.err.println("Received unknown response from bank: " + response.getContent());
+                Log.warn(logTag, "Received unknown response from bank: {}", response);
                 yield AuthorizationStatus.ERROR;
             }
         };
@@ -53,59 +211,276 @@ public class BankManager {
     /**
      * Charges a final amount to a credit card.
      * This method sends the charge request to the bank and blocks until a confirmation response
-     * is received or the request times out.
+     * is received or the request times out. While the bank is unreachable, the charge fails at once.
      *
      * @param cardNumber The credit card number to charge.
-     * @param amount     The transaction amount in dollars.
+     * @param amountCents The transaction amount in cents.
      * @return {@code true} if the charge was successfully confirmed, {@code false} otherwise.
      */
-    public boolean chargeCreditCard(String cardNumber, double amount) {
-        String requestString = String.format("Charge:%s,%.2f", cardNumber, amount);
-        bankConnection.send(new Message(requestString));
-
-        Message response = waitForResponse(RESPONSE_TIMEOUT_MS);
+    public boolean chargeCreditCard(String cardNumber, long amountCents) {
+        if (!breakerAllows()) {
+            Log.warn(logTag, "Bank unavailable; cannot charge card ending {}", cardLast4(cardNumber));
+            return false;
+        }
+        requestBuffer.setLength(0);
+        requestBuffer.append("Charge:").append(cardNumber).append(',');
+        FixedPointFormat.appendCents(requestBuffer, amountCents);
+        String response = request("Charge", cardNumber, amountCents, requestBuffer.toString(), nextKey(), RESPONSE_TIMEOUT_MS);
 
-        if (response == null) {
-            System.err.println("Bank charge confirmation timed out for card: " + cardNumber);
+        if (response == null || isRefusal(response)) {
+            if (response == null) {
+                Log.warn(logTag, "Bank charge confirmation timed out for card ending {}", cardLast4(cardNumber));
+            } else {
+                Log.warn(logTag, "Bank could not charge card ending {}: {}", cardLast4(cardNumber), response);
+            }
             return false;
         }
 
         // The bank simulation responds with "Charged:CARD_NUMBER,AMOUNT" on success.
         // We check if the response starts with "Charged:" as a simple confirmation.
-        return response.getContent().startsWith("Charged:");
+        return response.startsWith("Charged:");
+    }
+
+    /**
+     * Decides an authorization with the stand-in policy while the bank is unreachable.
+     */
+    private AuthorizationStatus standIn(String cardNumber) {
+        StandInPolicy policy = standInPolicy;
+        if (policy == null) {
+            Log.warn(logTag, "Bank unavailable; cannot authorize card ending {}", cardLast4(cardNumber));
+            return AuthorizationStatus.ERROR;
+        }
+        SettlementQueue queue = settlementQueue;
+        long approvable = Math.min(bankHoldCents,
+                policy.approvableCents(cardNumber, queue == null ? 0 : queue.getPendingCents(cardNumber)));
+        if (approvable == 0) {
+            Log.warn(logTag, "Bank unavailable; stand-in policy declines card ending {}", cardLast4(cardNumber));
+            return AuthorizationStatus.DECLINED;
+        }
+        authorizedLimitCents = approvable;
+        Log.info(logTag, "Bank unavailable; card ending {} approved by stand-in for up to ${}", cardLast4(cardNumber), Cents.toString(approvable));
+        return AuthorizationStatus.APPROVED_STAND_IN;
+    }
+
+    /**
+     * Opens the circuit breaker if the bank link's heartbeat is down, then asks it whether a
+     * request may be sent.
+     */
+    private boolean breakerAllows() {
+        if (bankHealth != null && bankHealth.getStatus() == LinkHealth.Status.DOWN
+                && breaker.getState() == CircuitBreaker.State.CLOSED) {
+            Log.warn(logTag, "Bank link is down; failing bank requests fast");
+            breaker.open();
+        }
+        return breaker.allowRequest();
+    }
+
+    private String nextKey() {
+        return keyPrefix + (++keySequence);
+    }
+
+    /**
+     * @return The last four digits of a card number, the most of it that is logged or recorded.
+     */
+    static String cardLast4(String cardNumber) {
+        return cardNumber.length() > 4 ? cardNumber.substring(cardNumber.length() - 4) : cardNumber;
+    }
+
+    private static boolean isRefusal(String response) {
+        return response.equals("Busy") || response.equals("Error");
     }
 
     /**
-     * Waits for a message to arrive from the IOPort's incoming queue.
-     * This method polls the queue and includes a timeout to prevent indefinite blocking.
+     * @return The most the last approved sale may come to, in cents: the amount the bank held if it
+     * approved the sale, or the stand-in limit.
+     */
+    public long getAuthorizedLimitCents() {
+        return authorizedLimitCents;
+    }
+
+    public CircuitBreaker.State getBreakerState() {
+        return breaker.getState();
+    }
+
+    /**
+     * @return The number of times the circuit breaker has opened.
+     */
+    public long getBreakerOpens() {
+        return breaker.getTimesOpened();
+    }
+
+    /**
+     * @return The time an authorization currently waits for the bank, in milliseconds.
+     */
+    public long getAuthorizeTimeoutMillis() {
+        return authorizeTimeoutMillis;
+    }
+
+    /**
+     * @return The number of requests sent again on the hedge connection.
+     */
+    public long getHedgesSent() {
+        return hedgesSent.get();
+    }
+
+    /**
+     * @return The number of hedged requests answered first on the hedge connection.
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * Sends a request to the bank, hedging it if that is on, and waits for the first answer,
+     * recording the round trip as a flight recorder event. A "Busy" or "Error" answer is only
+     * returned once neither connection has anything better to offer, and a request a port refuses
+     * is hedged at once. Nothing is sent on a connection that is down and reconnecting, since it
+     * would only be delivered after the caller has given up. The outcome is recorded in the
+     * circuit breaker.
      *
-     * @param timeoutMillis The maximum time to wait for a response, in milliseconds.
-     * @return The received {@link Message}, or {@code null} if the timeout was reached.
-     */
-    private Message waitForResponse(long timeoutMillis) {
-        long startTime = System.currentTimeMillis();
-        while (System.currentTimeMillis() - startTime < timeoutMillis) {
-            Message response = bankConnection.get();
-            if (response != null) {
-                return response;
+     * @return The response without its key, or {@code null} if the request timed out or could not
+     * be sent.
+     */
+    private String request(String kind, String cardNumber, long amountCents, String requestLine, String key,
+                           long timeoutMillis) {
+        BankRequestEvent event = new BankRequestEvent();
+        event.begin();
+        Message request = new Message(requestLine + KEY + key);
+        IOPort hedge = hedging ? hedgeConnection : null;
+        responses.clear(); // Late answers to requests that timed out
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int outstanding = bankConnection.isConnected() && bankConnection.send(request) ? 1 : 0;
+        boolean hedgePending = hedge != null;
+        long hedgeAt = outstanding == 0 ? start : start + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+        long hedgeSentAt = 0;
+        boolean hedged = false;
+        Response answer = null;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (hedgePending && now - hedgeAt >= 0) {
+                    hedgePending = false;
+                    if (hedge.isConnected() && hedge.send(request)) {
+                        outstanding++;
+                        hedged = true;
+                        hedgeSentAt = now;
+                        hedgesSent.incrementAndGet();
+                    }
+                }
+                if ((outstanding == 0 && !hedgePending) || now - deadline >= 0) break;
+                Response response = responses.poll(hedgePending ? Math.min(hedgeAt, deadline) - now : deadline - now,
+                        TimeUnit.NANOSECONDS);
+                if (response == null || !response.answers(key)) continue;
+                if (response.isRefusal() && (--outstanding > 0 || hedgePending)) {
+                    hedgeAt = System.nanoTime(); // The other connection may do better
+                    continue;
+                }
+                answer = response;
+                break;
             }
-            try {
-                // Sleep briefly to prevent the loop from consuming 100% CPU.
-                Thread.sleep(20);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Preserve the interrupted status
-                System.err.println("BankManager response wait was interrupted.");
-                return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Preserve the interrupted status
+            Log.warn(logTag, "BankManager response wait was interrupted.");
+        }
+
+        if (answer != null) {
+            if (answer.fromHedge()) hedgesWon.incrementAndGet();
+            recordLatency(System.nanoTime() - (answer.fromHedge() ? hedgeSentAt : start));
+        } else if (outstanding > 0) {
+            recordLatency(System.nanoTime() - start); // Timed out: the bank is at least this slow now
+        }
+        CircuitBreaker.State before = breaker.getState();
+        if (answer == null || answer.isRefusal()) {
+            breaker.recordFailure();
+            if (before != CircuitBreaker.State.OPEN && breaker.getState() == CircuitBreaker.State.OPEN) {
+                Log.warn(logTag, "Bank unreachable; failing bank requests fast for {} s", BREAKER_OPEN_MS / 1000);
             }
+        } else {
+            breaker.recordSuccess();
+            if (before == CircuitBreaker.State.HALF_OPEN) Log.info(logTag, "Bank reachable again");
         }
-        return null; // Timeout occurred
+        String response = answer == null ? null : answer.content();
+        if (event.shouldCommit()) {
+            event.request = kind;
+            event.cardLast4 = cardLast4(cardNumber);
+            event.amountCents = amountCents;
+            event.response = response == null ? null : responseKind(response);
+            event.hedged = hedged;
+            event.commit();
+        }
+        return response;
+    }
+
+    /**
+     * @return The response without its details (e.g. "Charged" for "Charged:CARD,AMOUNT"), so
+     * recordings never hold a full card number.
+     */
+    private static String responseKind(String response) {
+        int colon = response.indexOf(':');
+        return colon < 0 ? response : response.substring(0, colon);
+    }
+
+    /**
+     * Adds a round trip to the recent ones and, once there are enough, derives the authorization
+     * timeout from their 99th percentile and the hedge delay from their 95th.
+     */
+    private void recordLatency(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+        int samples = (int) Math.min(latencyCount, LATENCY_SAMPLES);
+        if (samples < MIN_LATENCY_SAMPLES) return;
+        System.arraycopy(latencies, 0, sortedLatencies, 0, samples);
+        Arrays.sort(sortedLatencies, 0, samples);
+        long p95Millis = toMillisRoundingUp(sortedLatencies[(samples - 1) * 95 / 100]);
+        long p99Millis = toMillisRoundingUp(sortedLatencies[(samples - 1) * 99 / 100]);
+        authorizeTimeoutMillis = Math.min(RESPONSE_TIMEOUT_MS, Math.max(MIN_AUTHORIZE_TIMEOUT_MS, p99Millis * TIMEOUT_P99_MULTIPLE));
+        hedgeDelayMillis = Math.max(MIN_HEDGE_DELAY_MS, p95Millis);
+    }
+
+    private static long toMillisRoundingUp(long nanos) {
+        return (nanos + 999_999) / 1_000_000;
     }
 
     /**
-     * Closes the connection to the bank server.
+     * Closes the connections to the bank server.
      */
-    public void close() {
+    public synchronized void close() {
         bankConnection.close();
+        if (hedgeConnection != null) hedgeConnection.close();
+    }
+
+    /**
+     * A message from the bank and whether it came on the hedge connection.
+     */
+    private record Response(Message message, boolean fromHedge) {
+
+        /**
+         * @return Whether this answers the request with the given key. A bank that does not echo
+         * keys answers every request.
+         */
+        boolean answers(String key) {
+            String content = message.getContent();
+            int keyAt = content.indexOf(KEY);
+            return keyAt < 0 || (content.length() - keyAt - KEY.length() == key.length()
+                    && content.startsWith(key, keyAt + KEY.length()));
+        }
+
+        /**
+         * @return Whether the bank refused the request rather than answering it.
+         */
+        boolean isRefusal() {
+            return BankManager.isRefusal(content());
+        }
+
+        /**
+         * @return The message without its key.
+         */
+        String content() {
+            String content = message.getContent();
+            int keyAt = content.indexOf(KEY);
+            return keyAt < 0 ? content : content.substring(0, keyAt);
+        }
     }
 
     /**
@@ -116,6 +491,11 @@ public class BankManager {
          * The bank approved the transaction.
          */
         APPROVED,
+        /**
+         * The bank was unreachable, and the stand-in policy approved the transaction up to
+         * {@link BankManager#getAuthorizedLimitCents()}.
+         */
+        APPROVED_STAND_IN,
         /**
          * The bank declined the transaction.
          */
@@ -123,7 +503,13 @@ public class BankManager {
         /**
          * An error occurred, or the request timed out.
          */
-        ERROR
+        ERROR;
+
+        /**
+         * @return {@code true} if the customer may fuel.
+         */
+        public boolean isApproved() {
+            return this == APPROVED || this == APPROVED_STAND_IN;
+        }
     }
 }
-
@@ -0,0 +1,37 @@
+package Main.DeviceManagers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event spanning one bank request and its response (or timeout).
+ */
+@Name("gaspump.BankRequest")
+@Label("Bank Request")
+@Category({"Gas Pump", "Bank"})
+@Description("A request to the bank, from sending it to receiving the response")
+@StackTrace(false)
+class BankRequestEvent extends jdk.jfr.Event {
+
+    @Label("Request")
+    @Description("Authorize or Charge")
+    String request;
+
+    @Label("Card")
+    @Description("The last four digits of the card number")
+    String cardLast4;
+
+    @Label("Amount (cents)")
+    long amountCents;
+
+    @Label("Response")
+    @Description("The kind of response (e.g. Approve, Charged), or null if the request timed out")
+    String response;
+
+    @Label("Hedged")
+    @Description("Whether the request was also sent on the hedge connection")
+    boolean hedged;
+}
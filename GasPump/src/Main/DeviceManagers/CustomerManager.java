@@ -1,10 +1,15 @@
 package Main.DeviceManagers;
 
 import Server.DeviceConstants;
+import Server.FixedPointFormat;
 import Server.IOPort;
+import Server.LinkMonitor;
 import Server.Message;
+import Server.OverflowPolicy;
+import Server.TraceSession;
+
+import java.util.concurrent.CompletableFuture;
 
-import java.text.DecimalFormat;
 import java.util.List;
 
 /**
@@ -15,18 +20,57 @@ import java.util.List;
 public class CustomerManager {
 
     private static final String CMD_TERMINATOR = "//";
-    private static final DecimalFormat GALS_FORMAT = new DecimalFormat("0.000");
-    private static final DecimalFormat PRICE_FORMAT = new DecimalFormat("$0.00");
+    private static final int SCREEN_QUEUE_LIMIT = 32;
 
     private final IOPort cardReaderConnection;
     private final IOPort screenConnection;
+    // Reused for every screen frame; a CustomerManager is only driven by its own pump's controller thread.
+    private final StringBuilder screenBuffer = new StringBuilder(512);
+
+    /**
+     * Initializes the CustomerManager and starts connecting to both the card reader and screen
+     * devices in the background.
+     *
+     * @param pumpIndex The zero-based pump number whose devices to connect to.
+     */
+    public CustomerManager(int pumpIndex) {
+        this.cardReaderConnection = IOPort.connectInBackground(DeviceConstants.CARD_READER_HOSTNAME,
+                DeviceConstants.portFor(DeviceConstants.CARD_READER_PORT, pumpIndex), DeviceConstants.DEVICE_CONNECT_TIMEOUT_MS);
+        this.screenConnection = IOPort.connectInBackground(DeviceConstants.SCREEN_HOSTNAME,
+                DeviceConstants.portFor(DeviceConstants.SCREEN_PORT, pumpIndex), DeviceConstants.DEVICE_CONNECT_TIMEOUT_MS);
+        // Each screen replaces the last, so a stalled screen only needs the newest few.
+        this.screenConnection.limitQueue(SCREEN_QUEUE_LIMIT, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @return A future completed once the card reader is connected.
+     */
+    public CompletableFuture<IOPort> whenCardReaderConnected() {
+        return cardReaderConnection.whenConnected();
+    }
+
+    /**
+     * @return A future completed once the screen is connected.
+     */
+    public CompletableFuture<IOPort> whenScreenConnected() {
+        return screenConnection.whenConnected();
+    }
+
+    /**
+     * Watches the heartbeats of the card reader and screen connections as the "card reader" and
+     * "screen" links.
+     */
+    public void watchLinks(LinkMonitor monitor) {
+        monitor.watch("card reader", cardReaderConnection);
+        monitor.watch("screen", screenConnection);
+    }
 
     /**
-     * Initializes the CustomerManager and connects to both the card reader and screen devices.
+     * Records this manager's messages in the given session, or stops recording when {@code null}.
      */
-    public CustomerManager() {
-        this.cardReaderConnection = new IOPort(DeviceConstants.CARD_READER_HOSTNAME, DeviceConstants.CARD_READER_PORT);
-        this.screenConnection = new IOPort(DeviceConstants.SCREEN_HOSTNAME, DeviceConstants.SCREEN_PORT);
+    public void setTrace(TraceSession session) {
+        cardReaderConnection.setObserver(session == null ? null : session.observe(TraceSession.Link.CARD_READER));
+        screenConnection.setObserver(session == null ? null : session.observe(TraceSession.Link.SCREEN));
     }
 
     // --- Card Reader Methods ---
@@ -61,6 +105,23 @@ public class CustomerManager {
         return null;
     }
 
+    /**
+     * Checks, without waiting, whether a card has been tapped since the last check.
+     *
+     * @return The 16-digit card number as a string, or null if no card was tapped (or the reader
+     * reported an error).
+     */
+    public String pollCardTap() {
+        Message response = cardReaderConnection.get();
+        if (response == null) return null;
+        String content = response.getContent().replace("//", "").trim();
+        if ("error".equalsIgnoreCase(content)) {
+            System.err.println("Card reader reported an error.");
+            return null;
+        }
+        return content;
+    }
+
     /**
      * Notifies the physical card reader of the transaction status.
      *
@@ -111,35 +172,41 @@ public class CustomerManager {
     }
 
     public void showGradeSelectionScreen(List<FuelGrade> availableGrades) {
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb = newFrame();
         sb.append("t:01/s:3/f:2/c:0/Select Fuel Grade;");
         for (int i = 0; i < availableGrades.size(); i++) {
             FuelGrade grade = availableGrades.get(i);
             int cell = 2 + i;
-            sb.append(String.format("t:%d/s:2/f:1/c:3/%s (%s);", cell, grade.name(), PRICE_FORMAT.format(grade.pricePerGallon())));
-            sb.append(String.format("b:%d/m;", cell));
+            sb.append("t:").append(cell).append("/s:2/f:1/c:3/").append(grade.name()).append(" (");
+            FixedPointFormat.appendDollars(sb, grade.centsPerGallon()).append(");");
+            sb.append("b:").append(cell).append("/m;");
         }
         sb.append("t:8/s:1/f:1/c:0/Cancel;b:8/x;");
-        sb.append(CMD_TERMINATOR);
-        sendToScreen(sb.toString());
+        sendToScreen(sb);
     }
 
-    public void showPumpingScreen(String gradeName, double gallons, double total) {
-        String message = "t:0/s:2/f:1/c:0/Fueling: " + gradeName + ";" +
-                "t:2/s:2/f:1/c:0/Gallons Dispensed:;" +
-                "t:3/s:3/f:2/c:0/" + GALS_FORMAT.format(gallons) + " gal;" +
-                "t:4/s:2/f:1/c:0/Total Cost:;" +
-                "t:5/s:3/f:2/c:0/" + PRICE_FORMAT.format(total) + ";" +
-                "t:8/s:1/f:1/c:2/Pause;b:8/x;" + CMD_TERMINATOR;
-        sendToScreen(message);
+    public void showPumpingScreen(String gradeName, long milliGallons, long totalCents) {
+        StringBuilder sb = newFrame();
+        sb.append("t:0/s:2/f:1/c:0/Fueling: ").append(gradeName).append(';')
+                .append("t:2/s:2/f:1/c:0/Gallons Dispensed:;")
+                .append("t:3/s:3/f:2/c:0/");
+        FixedPointFormat.appendGallons(sb, milliGallons).append(" gal;")
+                .append("t:4/s:2/f:1/c:0/Total Cost:;")
+                .append("t:5/s:3/f:2/c:0/");
+        FixedPointFormat.appendDollars(sb, totalCents).append(';')
+                .append("t:8/s:1/f:1/c:2/Pause;b:8/x;");
+        sendToScreen(sb);
     }
 
-    public void showThankYouScreen(double gallons, double total) {
-        String message = "t:01/s:3/f:2/c:1/Thank You!;" +
-                "t:3/s:2/f:1/c:0/Total Gallons: " + GALS_FORMAT.format(gallons) + ";" +
-                "t:4/s:2/f:1/c:0/Total Charge: " + PRICE_FORMAT.format(total) + ";" +
-                "t:67/s:2/f:1/c:0/Your receipt will be emailed to you.;" + CMD_TERMINATOR;
-        sendToScreen(message);
+    public void showThankYouScreen(long milliGallons, long totalCents) {
+        StringBuilder sb = newFrame();
+        sb.append("t:01/s:3/f:2/c:1/Thank You!;")
+                .append("t:3/s:2/f:1/c:0/Total Gallons: ");
+        FixedPointFormat.appendGallons(sb, milliGallons).append(';')
+                .append("t:4/s:2/f:1/c:0/Total Charge: ");
+        FixedPointFormat.appendDollars(sb, totalCents).append(';')
+                .append("t:67/s:2/f:1/c:0/Your receipt will be emailed to you.;");
+        sendToScreen(sb);
     }
 
     public void showMessage(String messageText) {
@@ -152,6 +219,22 @@ public class CustomerManager {
         screenConnection.send(new Message(finalMessage));
     }
 
+    /**
+     * Clears and returns the reusable screen buffer for building the next frame.
+     */
+    private StringBuilder newFrame() {
+        screenBuffer.setLength(0);
+        return screenBuffer;
+    }
+
+    /**
+     * Terminates a frame built in the screen buffer and sends it.
+     */
+    private void sendToScreen(StringBuilder frame) {
+        frame.append(CMD_TERMINATOR);
+        screenConnection.sendLatest(frame); // The screen only shows the newest frame
+    }
+
     /**
      * Closes connections to both the card reader and the screen.
      */
@@ -5,8 +5,8 @@ package Main.DeviceManagers;
  * Using a record is a concise way to bundle related data (name, price, octane) together.
  *
  * @param name           The display name of the fuel (e.g., "Regular").
- * @param pricePerGallon The price of the fuel per gallon.
+ * @param centsPerGallon The price of the fuel per gallon, in cents (e.g., 459 for $4.59).
  * @param octaneRating   The octane rating (e.g., 87).
  */
-public record FuelGrade(String name, double pricePerGallon, int octaneRating) {
+public record FuelGrade(String name, long centsPerGallon, int octaneRating) {
 }
@@ -1,25 +1,21 @@
 package Main.DeviceManagers;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import Server.Cents;
+import Server.MilliGallons;
 
 /**
  * A data record representing a real-time update from the flow meter during fueling.
  * It encapsulates the gallons dispensed and the total cost at a specific moment.
  *
- * @param gallons   The total volume of fuel dispensed so far.
- * @param totalCost The total cost of the transaction so far.
+ * @param milliGallons The total volume of fuel dispensed so far, in thousandths of a gallon.
+ * @param totalCents   The total cost of the transaction so far, in cents.
  */
-public record FuelingUpdate(double gallons, double totalCost) {
-
-    // Regex to find "0.000 gal" and "$0.00" within the flow meter's screen protocol message.
-    private static final Pattern GALLONS_PATTERN = Pattern.compile("(\\d+\\.\\d+)\\s+gal");
-    private static final Pattern COST_PATTERN = Pattern.compile("\\$(\\d+\\.\\d+)");
+public record FuelingUpdate(long milliGallons, long totalCents) {
 
     /**
      * Parses a raw message string from the FlowMeter device to extract fueling data.
      * The FlowMeter sends screen protocol messages like: "t:3/s:3/st:2/c:0/1.234 gal;t:5/s:3/st:2/c:0/$5.67;"
-     * This method uses regex to find the relevant numbers within that string.
+     * This method finds the "0.000 gal" and "$0.00" fields within that string.
      *
      * @param rawMessage The message from the FlowMeter.
      * @return A new {@link FuelingUpdate} object, or {@code null} if parsing fails.
@@ -27,19 +23,86 @@ public record FuelingUpdate(double gallons, double totalCost) {
     public static FuelingUpdate parseFrom(String rawMessage) {
         if (rawMessage == null) return null;
 
-        try {
-            Matcher gallonsMatcher = GALLONS_PATTERN.matcher(rawMessage);
-            Matcher costMatcher = COST_PATTERN.matcher(rawMessage);
+        long milliGallons = milliGallonsIn(rawMessage);
+        long totalCents = totalCentsIn(rawMessage);
+        if (milliGallons < 0 || totalCents < 0) return null; // Return null if the fields are not found
+        return new FuelingUpdate(milliGallons, totalCents);
+    }
 
-            if (gallonsMatcher.find() && costMatcher.find()) {
-                double gallons = Double.parseDouble(gallonsMatcher.group(1));
-                double totalCost = Double.parseDouble(costMatcher.group(1));
-                return new FuelingUpdate(gallons, totalCost);
+    /**
+     * Finds the first volume written as "0.000 gal" in a flow meter message, without creating objects.
+     *
+     * @param message The message from the FlowMeter.
+     * @return The volume in milli-gallons, or -1 if the message has none.
+     */
+    public static long milliGallonsIn(CharSequence message) {
+        for (int start = 0; start < message.length(); start++) {
+            if (!isDigitRunStart(message, start)) continue;
+            int end = decimalEnd(message, start);
+            if (end < 0) continue;
+            int unit = end;
+            while (unit < message.length() && Character.isWhitespace(message.charAt(unit))) unit++;
+            if (unit > end && regionMatches(message, unit, "gal")) {
+                return MilliGallons.parse(message, start, end);
             }
-        } catch (NumberFormatException e) {
-            System.err.println("Could not parse fueling update from message: " + rawMessage);
-            return null;
         }
-        return null; // Return null if patterns are not found
+        return -1;
+    }
+
+    /**
+     * Finds the first amount written as "$0.00" in a flow meter message, without creating objects.
+     *
+     * @param message The message from the FlowMeter.
+     * @return The amount in cents, or -1 if the message has none.
+     */
+    public static long totalCentsIn(CharSequence message) {
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) != '$') continue;
+            int end = decimalEnd(message, i + 1);
+            if (end >= 0) return Cents.parse(message, i + 1, end);
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a flow meter message is the final reading of a sale the meter stopped at its
+     * dollar limit, which ends with "limit-reached", without creating objects.
+     *
+     * @param message The message from the FlowMeter.
+     * @return {@code true} if the meter stopped at the limit.
+     */
+    public static boolean limitReachedIn(CharSequence message) {
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) == 'l' && regionMatches(message, i, "limit-reached")) return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigitRunStart(CharSequence text, int i) {
+        return isDigit(text.charAt(i)) && (i == 0 || !isDigit(text.charAt(i - 1)));
+    }
+
+    /**
+     * @return The end of the number matching {@code \d+\.\d+} at {@code start}, or -1 if there is none.
+     */
+    private static int decimalEnd(CharSequence text, int start) {
+        int i = start;
+        while (i < text.length() && isDigit(text.charAt(i))) i++;
+        if (i == start || i >= text.length() || text.charAt(i) != '.') return -1;
+        int fraction = ++i;
+        while (i < text.length() && isDigit(text.charAt(i))) i++;
+        return i == fraction ? -1 : i;
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String word) {
+        if (start + word.length() > text.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (text.charAt(start + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 }
@@ -1,47 +1,166 @@
 package Main.DeviceManagers;
 
+import Server.Cents;
 import Server.DeviceConstants;
+import Server.FixedPointFormat;
 import Server.IOPort;
+import Server.LinkMonitor;
+import Server.Log;
 import Server.Message;
+import Server.OverflowPolicy;
+import Server.TraceSession;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages all communication with the main gas station server.
- * This class is responsible for fetching up-to-date fuel prices and logging
- * completed transactions for the station's records.
+ * This class is responsible for keeping up-to-date fuel prices and logging
+ * completed transactions for the station's records. The station pushes a new, versioned
+ * {@link PriceList} whenever its prices change; the latest one is cached here as an immutable
+ * snapshot, so reading prices never needs a round trip. Every list confirmed by the station is also
+ * saved to a local snapshot file; at startup a recent enough snapshot is used straight away, so the
+ * pump can open before the station answers, and is replaced as soon as the station sends its
+ * current list. While fueling, it reports the running volume
+ * so the station can track its tanks, and it listens for the station's pushes withdrawing grades
+ * whose tanks have run low (and restoring them after a refill).
  */
 public class GasStationManager {
 
     private static final long RESPONSE_TIMEOUT_MS = 5000; // 5 seconds
+    private static final int STATION_QUEUE_LIMIT = 256;
+    private static final long STATION_BLOCK_MS = 2000;
+    // A saved price list older than this is not trusted at startup
+    public static final long DEFAULT_SNAPSHOT_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
     private final IOPort stationConnection;
+    private final int pumpIndex;
+    private final String logTag;
+    private TraceSession trace;
+    // Reused to build sale log lines; a GasStationManager is only driven by its own pump's controller thread.
+    private final StringBuilder logBuffer = new StringBuilder(128);
+    // Tags running totals and the sale they belong to, so the station can tell a late total from a new sale.
+    // Starting from the clock keeps a restarted controller's numbers apart from those the station last saw.
+    private long saleNumber = System.currentTimeMillis();
+    private final Set<String> unavailableGrades = ConcurrentHashMap.newKeySet();
+    // The newest price list the station has sent; replaced, never mutated
+    private volatile PriceList priceList;
+    private final Object priceListArrived = new Object();
+    // False while priceList is the startup snapshot rather than a list the station has sent
+    private volatile boolean priceListConfirmed = false;
+    private volatile long priceListSavedAt;
+    private final Path snapshotFile;
+    private final long snapshotMaxAgeMillis;
 
     /**
-     * Initializes a new GasStationManager and establishes a connection to the station server.
+     * Initializes a new GasStationManager with the default price snapshot staleness limit.
+     *
+     * @param pumpIndex The pump this manager reports sales for.
+     */
+    public GasStationManager(int pumpIndex) {
+        this(pumpIndex, DEFAULT_SNAPSHOT_MAX_AGE_MS);
+    }
+
+    /**
+     * Initializes a new GasStationManager, loads the saved price snapshot
+     * ({@code prices-pump-N.snapshot}) if it is recent enough, and starts connecting to the station
+     * server in the background.
+     *
+     * @param pumpIndex            The pump this manager reports sales for.
+     * @param snapshotMaxAgeMillis How old a saved price list may be and still be used before the station confirms it.
+     */
+    public GasStationManager(int pumpIndex, long snapshotMaxAgeMillis) {
+        this.pumpIndex = pumpIndex;
+        this.logTag = Log.pumpTag("station-link", pumpIndex);
+        this.snapshotFile = Path.of("prices-pump-" + pumpIndex + ".snapshot");
+        this.snapshotMaxAgeMillis = snapshotMaxAgeMillis;
+        loadSnapshot();
+        this.stationConnection = IOPort.connectInBackground(DeviceConstants.GAS_STATION_HOSTNAME,
+                DeviceConstants.GAS_STATION_PORT, DeviceConstants.UPSTREAM_CONNECT_TIMEOUT_MS);
+        this.stationConnection.setName("gas station");
+        this.stationConnection.setMessageHandler(this::onMessage);
+        // Sales must reach the station, so a stalled station slows the sender rather than losing them.
+        this.stationConnection.limitQueue(STATION_QUEUE_LIMIT, OverflowPolicy.BLOCK, STATION_BLOCK_MS);
+        if (!priceListConfirmed) {
+            // Reconcile the snapshot in the background; the reply replaces it whatever its version.
+            stationConnection.send(new Message("get-prices"));
+        }
+    }
+
+    /**
+     * @return A future completed once the station connection is up.
      */
-    public GasStationManager() {
-        this.stationConnection = new IOPort(DeviceConstants.GAS_STATION_HOSTNAME, DeviceConstants.GAS_STATION_PORT); // Using a placeholder port
+    public CompletableFuture<IOPort> whenConnected() {
+        return stationConnection.whenConnected();
     }
 
     /**
-     * Fetches the list of available fuel grades and their current prices from the gas station server.
-     * This is a blocking call that waits for the server to respond or for the request to time out.
+     * Watches the station connection's heartbeat as the "gas station" link.
+     */
+    public void watchLinks(LinkMonitor monitor) {
+        monitor.watch("gas station", stationConnection);
+    }
+
+    /**
+     * Records this manager's messages in the given session, and tags logged sales with its ID, or
+     * stops when {@code null}.
+     */
+    public void setTrace(TraceSession session) {
+        this.trace = session;
+        stationConnection.setObserver(session == null ? null : session.observe(TraceSession.Link.GAS_STATION));
+    }
+
+    /**
+     * Returns the station's current fuel grades and prices. Only the first call, before the station
+     * has sent any price list, asks the server and blocks until it responds or the request times out.
      *
      * @return A list of {@link FuelGrade} objects. Returns an empty list if the request fails or times out.
      */
     public List<FuelGrade> getAvailableFuelGrades() {
-        System.out.println("Requesting fuel prices from station server...");
-        stationConnection.send(new Message("get-prices"));
+        PriceList prices = getPriceList();
+        return prices != null ? prices.grades() : Collections.emptyList();
+    }
 
-        Message response = waitForResponse(RESPONSE_TIMEOUT_MS);
-        if (response == null) {
-            System.err.println("Error: Timed out waiting for price list from station server.");
-            return Collections.emptyList();
-        }
+    /**
+     * Returns the newest price list. If the station has not confirmed a list yet and the startup
+     * snapshot is missing or has grown too old, asks the station and waits for it.
+     * A sale should hold on to the returned snapshot so a price change mid-sale does not affect it.
+     *
+     * @return The current {@link PriceList}, or {@code null} if the request times out.
+     */
+    public PriceList getPriceList() {
+        PriceList prices = priceList;
+        if (prices != null && (priceListConfirmed || isFresh(priceListSavedAt))) return prices;
 
-        return parsePriceList(response.getContent());
+        Log.info(logTag, "Requesting fuel prices from station server...");
+        stationConnection.send(new Message("get-prices"));
+        long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MS;
+        synchronized (priceListArrived) {
+            while (!priceListConfirmed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    Log.error(logTag, "Timed out waiting for price list from station server.");
+                    return null;
+                }
+                try {
+                    priceListArrived.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+        return priceList;
     }
 
     /**
@@ -50,14 +169,161 @@ public class GasStationManager {
      *
      * @param cardNumber The customer's credit card number.
      * @param grade      The {@link FuelGrade} that was dispensed.
-     * @param gallons    The total volume of fuel dispensed.
-     * @param totalCost  The final cost of the transaction.
+     * @param milliGallons The total volume of fuel dispensed, in milli-gallons.
+     * @param totalCents   The final cost of the transaction, in cents.
      */
-    public void logTransaction(String cardNumber, FuelGrade grade, double gallons, double totalCost) {
-        String logMessage = String.format("log-sale:card=%s,grade=%s,gallons=%.3f,cost=%.2f",
-                cardNumber, grade.name(), gallons, totalCost);
-        stationConnection.send(new Message(logMessage));
-        System.out.println("Transaction logged to station server.");
+    public void logTransaction(String cardNumber, FuelGrade grade, long milliGallons, long totalCents) {
+        logBuffer.setLength(0);
+        logBuffer.append("log-sale:card=").append(cardNumber).append(",grade=").append(grade.name()).append(",gallons=");
+        FixedPointFormat.appendGallons(logBuffer, milliGallons).append(",cost=");
+        FixedPointFormat.appendCents(logBuffer, totalCents).append(",pump=").append(pumpIndex).append(",sale=").append(saleNumber);
+        if (trace != null) logBuffer.append(",session=").append(trace.getId());
+        if (!stationConnection.send(new Message(logBuffer.toString()))) {
+            Log.error(logTag, "Could not queue transaction log for the station server: {} cents", totalCents);
+            return;
+        }
+        Log.info(logTag, "Transaction logged to station server: {} cents", totalCents);
+    }
+
+    /**
+     * Starts a new sale: the running totals and log that follow are the station's for a new sale, even
+     * if the previous one was never logged (its charge failed), so its totals are not carried over.
+     */
+    public void beginSale() {
+        saleNumber++;
+    }
+
+    /**
+     * Reports how much fuel the current sale has dispensed so far, so the station can draw it from
+     * the grade's tank as it flows. This is a non-blocking, "fire-and-forget" operation.
+     *
+     * @param grade        The {@link FuelGrade} being dispensed.
+     * @param milliGallons The volume dispensed so far in this sale.
+     */
+    public void reportDispensing(FuelGrade grade, long milliGallons) {
+        logBuffer.setLength(0);
+        logBuffer.append("dispensing:pump=").append(pumpIndex).append(",sale=").append(saleNumber).append(",grade=").append(grade.name()).append(",gallons=");
+        FixedPointFormat.appendGallons(logBuffer, milliGallons);
+        // The volume is cumulative, so only the newest matters, and it can wait behind requests;
+        // if it arrives after its sale is logged, the station ignores it
+        stationConnection.sendLatest(logBuffer, Message.Priority.BULK);
+    }
+
+    /**
+     * @return {@code true} unless the station has withdrawn the grade because its tank is low.
+     */
+    public boolean isAvailable(FuelGrade grade) {
+        return !unavailableGrades.contains(grade.name());
+    }
+
+    /**
+     * @param grades The grades the station sells.
+     * @return The grades whose tanks currently have fuel, in the same order.
+     */
+    public List<FuelGrade> filterAvailable(List<FuelGrade> grades) {
+        List<FuelGrade> available = new ArrayList<>(grades.size());
+        for (FuelGrade grade : grades) {
+            if (isAvailable(grade)) available.add(grade);
+        }
+        return available;
+    }
+
+    /**
+     * Handles every message from the station: price lists replace the cached one if they are newer,
+     * and availability pushes update the unavailable grades.
+     */
+    private void onMessage(Message message) {
+        String content = message.getContent();
+        if (content.startsWith("prices:v=")) {
+            int colon = content.indexOf(':', "prices:v=".length());
+            int dash = content.indexOf('-', "prices:v=".length());
+            try {
+                long epoch = Long.parseLong(content, "prices:v=".length(), dash, 10);
+                long version = Long.parseLong(content, dash + 1, colon, 10);
+                String grades = content.substring(colon + 1);
+                updatePriceList(new PriceList(epoch, version, parsePriceList(grades)), grades);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                Log.error(logTag, "Error parsing price list: '{}'", content);
+            }
+        } else if (content.startsWith("grade-unavailable:")) {
+            String grade = content.substring("grade-unavailable:".length());
+            unavailableGrades.add(grade);
+            Log.info(logTag, "Station withdrew {} from sale.", grade);
+        } else if (content.startsWith("grade-available:")) {
+            unavailableGrades.remove(content.substring("grade-available:".length()));
+        } else {
+            Log.warn(logTag, "Unexpected message from station server: {}", content);
+        }
+    }
+
+    /**
+     * Installs a price list sent by the station and saves it as the new snapshot. The first list after
+     * startup always replaces the snapshot, whatever its version; after that, a list replaces the
+     * current one only if it is newer, which a restarted station's lists are by their later epoch.
+     */
+    private void updatePriceList(PriceList prices, String rawGrades) {
+        synchronized (priceListArrived) {
+            PriceList current = priceList;
+            if (priceListConfirmed && !prices.isNewerThan(current)) return; // Stale or repeated push
+            if (!priceListConfirmed && current != null
+                    && (current.epoch() != prices.epoch() || current.version() != prices.version())) {
+                Log.info(logTag, "Reconciled saved price list v{} with station v{}.", current.version(), prices.version());
+            }
+            priceList = prices;
+            priceListSavedAt = System.currentTimeMillis();
+            priceListConfirmed = true;
+            priceListArrived.notifyAll();
+        }
+        Log.info(logTag, "Price list updated to version {}.", prices.version());
+        saveSnapshot(prices, rawGrades);
+    }
+
+    private boolean isFresh(long savedAtMillis) {
+        return System.currentTimeMillis() - savedAtMillis <= snapshotMaxAgeMillis;
+    }
+
+    /**
+     * Loads the saved price list, if there is one and it is not older than the staleness limit.
+     */
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) return;
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(snapshotFile)) {
+            p.load(reader);
+            long epoch = Long.parseLong(p.getProperty("epoch", "0")); // Not in snapshots saved before epochs
+            long version = Long.parseLong(p.getProperty("version"));
+            long savedAt = Long.parseLong(p.getProperty("savedAt"));
+            List<FuelGrade> grades = parsePriceList(p.getProperty("prices"));
+            if (!isFresh(savedAt)) {
+                Log.info(logTag, "Ignoring stale price snapshot v{} from {}.", version, snapshotFile);
+            } else if (!grades.isEmpty()) {
+                priceList = new PriceList(epoch, version, grades);
+                priceListSavedAt = savedAt;
+                Log.info(logTag, "Loaded price snapshot v{} from {}.", version, snapshotFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.error(logTag, "Error reading price snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Saves a confirmed price list, replacing the previous snapshot atomically.
+     */
+    private void saveSnapshot(PriceList prices, String rawGrades) {
+        Properties p = new Properties();
+        p.setProperty("epoch", Long.toString(prices.epoch()));
+        p.setProperty("version", Long.toString(prices.version()));
+        p.setProperty("savedAt", Long.toString(priceListSavedAt));
+        p.setProperty("prices", rawGrades);
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                p.store(writer, "Last price list confirmed by the station");
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.error(logTag, "Error saving price snapshot {}: {}", snapshotFile, e.getMessage());
+        }
     }
 
     /**
@@ -81,40 +347,16 @@ public class GasStationManager {
                 try {
                     String name = parts[0].trim();
                     int octane = Integer.parseInt(parts[1].trim());
-                    double price = Double.parseDouble(parts[2].trim());
-                    grades.add(new FuelGrade(name, price, octane));
+                    long centsPerGallon = Cents.parse(parts[2].trim());
+                    grades.add(new FuelGrade(name, centsPerGallon, octane));
                 } catch (NumberFormatException e) {
-                    System.err.println("Error parsing price data entry: '" + entry + "' - " + e.getMessage());
+                    Log.error(logTag, "Error parsing price data entry: '{}' - {}", entry, e.getMessage());
                 }
             }
         }
         return grades;
     }
 
-    /**
-     * Waits for a message to arrive from the IOPort's incoming queue.
-     * This method polls the queue and includes a timeout to prevent indefinite blocking.
-     *
-     * @param timeoutMillis The maximum time to wait for a response, in milliseconds.
-     * @return The received {@link Message}, or {@code null} if the timeout was reached.
-     */
-    private Message waitForResponse(long timeoutMillis) {
-        long startTime = System.currentTimeMillis();
-        while (System.currentTimeMillis() - startTime < timeoutMillis) {
-            Message response = stationConnection.get();
-            if (response != null) {
-                return response;
-            }
-            try {
-                Thread.sleep(20); // Poll every 20ms
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return null;
-            }
-        }
-        return null; // Timeout
-    }
-
     /**
      * Closes the connection to the gas station server.
      */
@@ -0,0 +1,28 @@
+package Main.DeviceManagers;
+
+import java.util.List;
+
+/**
+ * One version of the station's price list. Each time the station changes its prices it pushes a
+ * new version to every pump; a pump keeps the latest one and each sale uses the version that was
+ * current when the customer tapped their card, even if prices change mid-sale.
+ *
+ * @param epoch   When the station that numbered this version started, in epoch ms; a restarted
+ *                station numbers its versions from 1 again under a later epoch.
+ * @param version The station's version number; later lists from the same station have higher numbers.
+ * @param grades  The grades on sale at this version's prices (immutable).
+ */
+public record PriceList(long epoch, long version, List<FuelGrade> grades) {
+
+    public PriceList {
+        grades = List.copyOf(grades);
+    }
+
+    /**
+     * @return Whether this list replaces another: it comes from a later station start, or from the
+     * same one with a higher version.
+     */
+    public boolean isNewerThan(PriceList other) {
+        return epoch != other.epoch ? epoch > other.epoch : version > other.version;
+    }
+}
@@ -1,53 +1,146 @@
 package Main.DeviceManagers;
 
 import Server.DeviceConstants;
+import Server.FixedPointFormat;
 import Server.IOPort;
+import Server.LinkMonitor;
+import Server.Log;
 import Server.Message;
+import Server.TraceSession;
 
 /**
  * Manages the physical components of the fuel dispensing system.
  * This class abstracts the low-level control of the pump motor, flow meter,
  * and hose sensors, providing a simple, unified interface for the main
  * control logic to start, stop, and monitor the fueling process.
+ * The devices are not needed until a customer is ready to pump, so they are connected lazily:
+ * on {@link #connect()} or the first call that uses them.
+ * Every command is sent with {@link Message.Priority#CONTROL} priority, so it goes ahead of anything
+ * else queued for the devices, and all in one lane, so a stop never overtakes the start before it.
  */
 public class PumpAssemblyManager {
 
-    private final IOPort pumpConnection;
-    private final IOPort flowMeterConnection;
-    private final IOPort hoseConnection;
+    private final int pumpIndex;
+    private final String logTag;
+    // Created on first use; a PumpAssemblyManager is only driven by its own pump's controller thread.
+    private IOPort pumpConnection;
+    private IOPort flowMeterConnection;
+    private IOPort hoseConnection;
+    private LinkMonitor linkMonitor;
+    private TraceSession trace;
+    // Reused to build flow meter commands; only driven by this pump's controller thread.
+    private final StringBuilder commandBuffer = new StringBuilder(64);
+    // The latest flow meter line and the values parsed from it, reused for every update.
+    private final StringBuilder flowLine = new StringBuilder(128);
+    private long updateMilliGallons;
+    private long updateTotalCents;
+    private boolean updateLimitReached;
+
+    /**
+     * Initializes the manager. No connections are made until the devices are first needed.
+     *
+     * @param pumpIndex The zero-based pump number whose devices to connect to.
+     */
+    public PumpAssemblyManager(int pumpIndex) {
+        this.pumpIndex = pumpIndex;
+        this.logTag = Log.pumpTag("pump-assembly", pumpIndex);
+    }
+
     /**
-     * Initializes the manager and establishes connections to the pump, flow meter, and hose devices.
+     * Watches the heartbeats of the pump, flow meter, and hose connections as the "pump",
+     * "flow meter", and "hose" links, once they are made.
      */
-    public PumpAssemblyManager() {
-        this.pumpConnection = new IOPort(DeviceConstants.PUMP_HOSTNAME, DeviceConstants.PUMP_PORT);
-        this.flowMeterConnection = new IOPort(DeviceConstants.FLOW_METER_HOSTNAME, DeviceConstants.FLOW_METER_PORT);
-        this.hoseConnection = new IOPort(DeviceConstants.HOSE_HOSTNAME, DeviceConstants.HOSE_PORT);
+    public void watchLinks(LinkMonitor monitor) {
+        this.linkMonitor = monitor;
+        if (pumpConnection != null) watchConnections();
+    }
+
+    private void watchConnections() {
+        linkMonitor.watch("pump", pumpConnection);
+        linkMonitor.watch("flow meter", flowMeterConnection);
+        linkMonitor.watch("hose", hoseConnection);
+    }
+
+    /**
+     * Records this manager's messages in the given session, or stops recording when {@code null}.
+     * Devices not connected yet are traced once they are.
+     */
+    public void setTrace(TraceSession session) {
+        this.trace = session;
+        if (pumpConnection != null) observeConnections();
+    }
+
+    private void observeConnections() {
+        pumpConnection.setObserver(trace == null ? null : trace.observe(TraceSession.Link.PUMP));
+        flowMeterConnection.setObserver(trace == null ? null : trace.observe(TraceSession.Link.FLOW_METER));
+        hoseConnection.setObserver(trace == null ? null : trace.observe(TraceSession.Link.HOSE));
+    }
+
+    /**
+     * Starts connecting to the pump, flow meter, and hose devices in the background, if not already
+     * connected or connecting. Commands sent before the connections are up are delivered once they are.
+     * A port that has been closed (by {@link #close()}) is replaced by a new one, which is watched
+     * and traced like the one it replaces; a port whose device restarted reconnects by itself.
+     */
+    public void connect() {
+        if (isOpen(pumpConnection) && isOpen(flowMeterConnection) && isOpen(hoseConnection)) return;
+        if (!isOpen(pumpConnection)) {
+            if (pumpConnection != null) pumpConnection.close(); // Stops it reconnecting alongside its replacement
+            pumpConnection = IOPort.connectInBackground(DeviceConstants.PUMP_HOSTNAME,
+                    DeviceConstants.portFor(DeviceConstants.PUMP_PORT, pumpIndex), DeviceConstants.DEVICE_CONNECT_TIMEOUT_MS);
+        }
+        if (!isOpen(flowMeterConnection)) {
+            if (flowMeterConnection != null) flowMeterConnection.close(); // Stops it reconnecting alongside its replacement
+            flowMeterConnection = IOPort.connectInBackground(DeviceConstants.FLOW_METER_HOSTNAME,
+                    DeviceConstants.portFor(DeviceConstants.FLOW_METER_PORT, pumpIndex), DeviceConstants.DEVICE_CONNECT_TIMEOUT_MS);
+            flowMeterConnection.useLatestLine(); // Readings arrive several times a second; only the newest matters
+        }
+        if (!isOpen(hoseConnection)) {
+            if (hoseConnection != null) hoseConnection.close(); // Stops it reconnecting alongside its replacement
+            hoseConnection = IOPort.connectInBackground(DeviceConstants.HOSE_HOSTNAME,
+                    DeviceConstants.portFor(DeviceConstants.HOSE_PORT, pumpIndex), DeviceConstants.DEVICE_CONNECT_TIMEOUT_MS);
+        }
+        if (linkMonitor != null) watchConnections();
+        if (trace != null) observeConnections();
+    }
+
+    private static boolean isOpen(IOPort port) {
+        return port != null && !port.isClosed();
     }
 
     /**
      * Starts the fueling process.
      * The flow rate is fixed within the FlowMeter device as per the SRS.
-     * This method only needs to send the price and gas type.
+     * This method only needs to send the price, the sale's dollar limit and gas type. The flow
+     * meter stops at the limit itself; see {@link #isUpdateLimitReached()}.
      *
-     * @param grade The selected {@link FuelGrade} to be dispensed.
+     * @param grade      The selected {@link FuelGrade} to be dispensed.
+     * @param limitCents The most the sale may come to, in cents, or {@link Long#MAX_VALUE} for no limit.
      */
-    public void startPumping(FuelGrade grade) {
-        System.out.println("Pump Assembly: Starting pump for " + grade.name());
-        pumpConnection.send(new Message("on"));
-        String startCommand = String.format("CMD:START ppg=%.2f gas=%s//",
-                grade.pricePerGallon(), grade.name());
-        flowMeterConnection.send(new Message(startCommand));
-        hoseConnection.send(new Message("CMD:FUELING:START//"));
+    public void startPumping(FuelGrade grade, long limitCents) {
+        connect();
+        Log.info(logTag, "Starting pump for {}", grade.name());
+        pumpConnection.send(new Message("on"), Message.Priority.CONTROL);
+        commandBuffer.setLength(0);
+        commandBuffer.append("CMD:START ppg=");
+        FixedPointFormat.appendCents(commandBuffer, grade.centsPerGallon());
+        if (limitCents != Long.MAX_VALUE) {
+            FixedPointFormat.appendCents(commandBuffer.append(" limit="), limitCents);
+        }
+        commandBuffer.append(" gas=").append(grade.name()).append("//"); // The gas type runs to the end, so it goes last
+        flowMeterConnection.send(new Message(commandBuffer.toString()), Message.Priority.CONTROL);
+        hoseConnection.send(new Message("CMD:FUELING:START//"), Message.Priority.CONTROL);
     }
 
     /**
      * Stops the fueling process.
      */
     public void stopPumping() {
-        System.out.println("Pump Assembly: Stopping pump.");
-        pumpConnection.send(new Message("off"));
-        flowMeterConnection.send(new Message("CMD:PAUSE//"));
-        hoseConnection.send(new Message("CMD:FUELING:STOP//"));
+        connect();
+        Log.info(logTag, "Stopping pump.");
+        pumpConnection.send(new Message("off"), Message.Priority.CONTROL);
+        flowMeterConnection.send(new Message("CMD:PAUSE//"), Message.Priority.CONTROL);
+        hoseConnection.send(new Message("CMD:FUELING:STOP//"), Message.Priority.CONTROL);
     }
 
     /**
@@ -55,22 +148,55 @@ public class PumpAssemblyManager {
      * This should be called after a transaction is complete.
      */
     public void resetFlowMeter() {
-        System.out.println("Pump Assembly: Resetting flow meter.");
-        flowMeterConnection.send(new Message("CMD:RESET//"));
+        connect();
+        Log.info(logTag, "Resetting flow meter.");
+        flowMeterConnection.send(new Message("CMD:RESET//"), Message.Priority.CONTROL);
     }
 
     /**
-     * Checks for and processes real-time updates from the flow meter.
+     * Checks for and processes real-time updates from the flow meter. Creates no objects, so it can
+     * be called for every update of a sale; read the values with {@link #getUpdateMilliGallons()}
+     * and {@link #getUpdateTotalCents()}.
      *
-     * @return A {@link FuelingUpdate} containing the latest gallons and total cost,
-     * or {@code null} if no new update is available.
+     * @return {@code true} if a new update arrived and was parsed.
      */
-    public FuelingUpdate getFuelingUpdate() {
-        Message updateMessage = flowMeterConnection.get();
-        if (updateMessage != null) {
-            return FuelingUpdate.parseFrom(updateMessage.getContent());
+    public boolean pollFuelingUpdate() {
+        connect();
+        if (!flowMeterConnection.pollLine(flowLine)) return false;
+        try {
+            long milliGallons = FuelingUpdate.milliGallonsIn(flowLine);
+            long totalCents = FuelingUpdate.totalCentsIn(flowLine);
+            if (milliGallons < 0 || totalCents < 0) return false;
+            updateMilliGallons = milliGallons;
+            updateTotalCents = totalCents;
+            updateLimitReached = FuelingUpdate.limitReachedIn(flowLine);
+            return true;
+        } catch (NumberFormatException e) {
+            System.err.println("Could not parse fueling update from message: " + flowLine);
+            return false;
         }
-        return null;
+    }
+
+    /**
+     * @return The volume dispensed so far, as of the last update {@link #pollFuelingUpdate()} accepted.
+     */
+    public long getUpdateMilliGallons() {
+        return updateMilliGallons;
+    }
+
+    /**
+     * @return The cost so far, in cents, as of the last update {@link #pollFuelingUpdate()} accepted.
+     */
+    public long getUpdateTotalCents() {
+        return updateTotalCents;
+    }
+
+    /**
+     * @return {@code true} if the last update {@link #pollFuelingUpdate()} accepted is the flow
+     * meter's final reading at the sale's dollar limit: the meter has stopped, and the pump should too.
+     */
+    public boolean isUpdateLimitReached() {
+        return updateLimitReached;
     }
 
     /**
@@ -80,6 +206,7 @@ public class PumpAssemblyManager {
      * or {@code null} if no new event has occurred.
      */
     public HoseEvent getHoseEvent() {
+        connect();
         Message eventMessage = hoseConnection.get();
         if (eventMessage != null) {
             String content = eventMessage.getContent().replace("//", "").trim();
@@ -98,16 +225,18 @@ public class PumpAssemblyManager {
      * Turns the pump motor off, pauses the flow meter, and asks the hose UI to pause.
      */
     public void pausePumping() {
-        System.out.println("Pump Assembly: Pausing pump.");
-        pumpConnection.send(new Message("off"));
-        flowMeterConnection.send(new Message("CMD:PAUSE//"));
-        hoseConnection.send(new Message("CMD:FUELING:PAUSE//"));
+        connect();
+        Log.info(logTag, "Pausing pump.");
+        pumpConnection.send(new Message("off"), Message.Priority.CONTROL);
+        flowMeterConnection.send(new Message("CMD:PAUSE//"), Message.Priority.CONTROL);
+        hoseConnection.send(new Message("CMD:FUELING:PAUSE//"), Message.Priority.CONTROL);
     }
 
     /**
      * Closes connections to all pump assembly devices.
      */
     public void close() {
+        if (pumpConnection == null) return;
         pumpConnection.close();
         flowMeterConnection.close();
         hoseConnection.close();
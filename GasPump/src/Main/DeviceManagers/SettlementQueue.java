@@ -0,0 +1,494 @@
+package Main.DeviceManagers;
+
+import Server.Cents;
+import Server.CircuitBreaker;
+import Server.DeviceConstants;
+import Server.FixedPointFormat;
+import Server.IOPort;
+import Server.LinkMonitor;
+import Server.Log;
+import Server.Message;
+import Server.OverflowPolicy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable queue of final charges waiting to be captured by the bank, so a sale is complete once
+ * its charge is on disk rather than once the bank confirms it.
+ * <p>
+ * Charges are appended to a log file ({@code settlement-pump-N.log}) and forced to disk before
+ * {@link #add} returns. A background sender captures them with the bank in batches of up to
+ * {@link #BATCH_LIMIT} on its own "bank settlement" connection, and appends a line for each one
+ * the bank captured or declined. A charge gets an idempotency key when it is queued and keeps it
+ * through every retry, including after a restart, when the log is read back and the unsettled
+ * charges are sent again; the bank captures it once however often it is sent. A batch the bank
+ * does not answer is retried with exponential backoff. While the connection is down (it reconnects
+ * by itself), nothing is sent, and sending resumes within a second of it coming back.
+ * <p>
+ * With a {@link CircuitBreaker} set (see {@link #setBreaker}), batches go through it like the
+ * pump's other bank requests: none is sent while it is open, and once it half-opens a batch may be
+ * its probe. Every batch sent is an outcome for it: a batch the bank answers closes it, so an
+ * outage is over for the pump's customers as soon as the backlog settles, and one it does not
+ * answer counts as a failure.
+ * <p>
+ * The checkpoint file ({@code settlement-pump-N.checkpoint}) holds the log offset before which
+ * every charge is settled, so recovery reads only the tail. Once nothing is waiting and the log
+ * has grown past {@link #COMPACT_BYTES}, the log is emptied. Unlike the station's sale journal,
+ * the log keeps full card numbers, since the bank needs them to capture.
+ * <p>
+ * Log lines:
+ * <pre>
+ * C key card cents epochMillis   a charge was queued
+ * S key C|D                      the bank captured (C) or declined (D) it
+ * </pre>
+ */
+public class SettlementQueue implements AutoCloseable {
+
+    private static final int BATCH_LIMIT = 32;
+    private static final long BATCH_LINGER_MS = 500; // Charges queued this soon after the first share its batch
+    private static final long RESPONSE_TIMEOUT_MS = 5000;
+    private static final long MIN_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 60_000;
+    private static final long COMPACT_BYTES = 1 << 20;
+    private static final int BANK_QUEUE_LIMIT = 4; // One batch is in flight at a time
+    private static final String KEY = ";key=";
+
+    private final String logTag;
+    private final Path checkpointFile;
+    private final FileChannel log;
+    private final IOPort bankConnection;
+    private final LinkedBlockingQueue<Message> responses = new LinkedBlockingQueue<>();
+    // The random prefix keeps keys unique across restarts, since the bank remembers them
+    private final String keyPrefix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + "-";
+    private final Thread sender;
+    private volatile boolean closed = false;
+    private volatile CircuitBreaker breaker;
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong declined = new AtomicLong();
+    private final AtomicLong batchesAnswered = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+
+    // --- Guarded by this ---
+    private final LinkedHashMap<String, Charge> pending = new LinkedHashMap<>(); // Oldest first
+    private final Map<String, Long> pendingCentsByCard = new HashMap<>();
+    private long pendingCents;
+    private long keySequence;
+    private long logEnd;
+    private long checkpoint;
+
+    /**
+     * Opens (or creates) the settlement log of a pump ({@code settlement-pump-N.log} in the working
+     * directory), reads back its unsettled charges, and starts sending them to the bank.
+     *
+     * @param pumpIndex The pump whose sales are settled.
+     * @throws IOException if the log cannot be opened or read.
+     */
+    public SettlementQueue(int pumpIndex) throws IOException {
+        this(pumpIndex, Path.of("settlement-pump-" + pumpIndex + ".log"));
+    }
+
+    /**
+     * Opens (or creates) a settlement log, reads back its unsettled charges, and starts sending them
+     * to the bank. The checkpoint is kept next to the log.
+     *
+     * @param pumpIndex The pump whose sales are settled.
+     * @param logFile   The log file.
+     * @throws IOException if the log cannot be opened or read.
+     */
+    public SettlementQueue(int pumpIndex, Path logFile) throws IOException {
+        this.logTag = Log.pumpTag("settlement", pumpIndex);
+        String name = logFile.getFileName().toString();
+        this.checkpointFile = logFile.resolveSibling(
+                (name.endsWith(".log") ? name.substring(0, name.length() - 4) : name) + ".checkpoint");
+        this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        if (!pending.isEmpty()) {
+            Log.info(logTag, "{} charges from {} waiting to be settled.", pending.size(), logFile);
+        }
+
+        this.bankConnection = IOPort.connectInBackground(DeviceConstants.BANK_HOSTNAME, DeviceConstants.BANK_PORT,
+                DeviceConstants.UPSTREAM_CONNECT_TIMEOUT_MS);
+        this.bankConnection.setName("bank settlement");
+        this.bankConnection.limitQueue(BANK_QUEUE_LIMIT, OverflowPolicy.REJECT);
+        this.bankConnection.setMessageHandler(responses::add);
+        this.sender = new Thread(this::sendLoop, "settlement[" + pumpIndex + "]");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Watches the settlement connection's heartbeat as the "bank settlement" link. A sale does not
+     * need it, so it is not one of the links a session waits for.
+     */
+    public void watchLinks(LinkMonitor monitor) {
+        monitor.watch("bank settlement", bankConnection);
+    }
+
+    /**
+     * Sends batches through the given breaker (the one guarding the pump's other bank requests) and
+     * records their outcomes in it, or stops using one when {@code null}.
+     */
+    public void setBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Queues a final charge and forces it to disk.
+     *
+     * @param cardNumber The card to charge.
+     * @param cents      The amount to charge, in cents.
+     * @return {@code true} if the charge is durably queued; {@code false} if it could not be written.
+     */
+    public synchronized boolean add(String cardNumber, long cents) {
+        if (closed) return false;
+        Charge charge = new Charge(keyPrefix + (++keySequence), cardNumber, cents, logEnd);
+        long start = logEnd;
+        try {
+            append("C " + charge.key() + " " + cardNumber + " " + cents + " " + System.currentTimeMillis() + "\n");
+            log.force(false);
+        } catch (IOException e) {
+            Log.error(logTag, "Could not queue charge of {} for settlement: {}", Cents.toString(cents), e.getMessage());
+            try {
+                log.truncate(start); // Leave no partial line for the next charge to follow
+                logEnd = start;
+            } catch (IOException ignored) {
+                // Recovery drops a partial last line
+            }
+            return false;
+        }
+        addPending(charge);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return The number of charges the bank has not settled yet.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return The total of the charges the bank has not settled yet, in cents.
+     */
+    public synchronized long getPendingCents() {
+        return pendingCents;
+    }
+
+    /**
+     * @param cardNumber The card to look up.
+     * @return What the card owes in charges the bank has not settled yet, in cents.
+     */
+    public synchronized long getPendingCents(String cardNumber) {
+        return pendingCentsByCard.getOrDefault(cardNumber, 0L);
+    }
+
+    /**
+     * @return How long the oldest unsettled charge has been waiting, in milliseconds, or 0 if none is.
+     */
+    public synchronized long getOldestPendingMillis() {
+        Iterator<Charge> oldest = pending.values().iterator();
+        return oldest.hasNext() ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.next().queuedNanos()) : 0;
+    }
+
+    /**
+     * @return The number of charges the bank has captured.
+     */
+    public long getCaptured() {
+        return captured.get();
+    }
+
+    /**
+     * @return The number of charges the bank has declined.
+     */
+    public long getDeclined() {
+        return declined.get();
+    }
+
+    /**
+     * @return The number of batches the bank has answered.
+     */
+    public long getBatchesAnswered() {
+        return batchesAnswered.get();
+    }
+
+    /**
+     * @return The number of batches that timed out or were refused, and will be sent again.
+     */
+    public long getBatchesFailed() {
+        return batchesFailed.get();
+    }
+
+    /**
+     * Stops the sender and closes the log and the bank connection. Unsettled charges stay in the
+     * log for the next start.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        sender.interrupt();
+        try {
+            sender.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        bankConnection.close();
+        synchronized (this) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                Log.error(logTag, "Error closing settlement log: {}", e.getMessage());
+            }
+        }
+    }
+
+    // --- Sending ---
+
+    private void sendLoop() {
+        long retryMillis = MIN_RETRY_MS;
+        try {
+            while (!closed) {
+                List<Charge> batch = nextBatch();
+                if (batch == null) return;
+                if (!bankConnection.isConnected()) { // Reconnecting; the port reported the loss
+                    Thread.sleep(MIN_RETRY_MS);
+                    continue;
+                }
+                CircuitBreaker currentBreaker = breaker;
+                if (currentBreaker != null && !currentBreaker.allowRequest()) { // Open, or another call is the probe
+                    Thread.sleep(MIN_RETRY_MS);
+                    continue;
+                }
+                String response = sendBatch(batch);
+                if (response == null || !response.startsWith("Batch:")) {
+                    batchesFailed.incrementAndGet();
+                    if (currentBreaker != null) currentBreaker.recordFailure();
+                    Log.warn(logTag, "Bank did not settle a batch ({}); {} charges waiting",
+                            response == null ? "no answer" : response, getPendingCount());
+                    Log.info(logTag, "Retrying settlement in {} ms", retryMillis);
+                    Thread.sleep(retryMillis);
+                    retryMillis = Math.min(MAX_RETRY_MS, retryMillis * 2);
+                    continue;
+                }
+                batchesAnswered.incrementAndGet();
+                if (currentBreaker != null) {
+                    boolean wasOpen = currentBreaker.getState() != CircuitBreaker.State.CLOSED;
+                    currentBreaker.recordSuccess();
+                    if (wasOpen) Log.info(logTag, "Bank settled a batch; bank requests go through again");
+                }
+                retryMillis = MIN_RETRY_MS;
+                settle(response);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Waits for charges to settle, gives later ones a moment to join them, and takes the oldest.
+     *
+     * @return Up to {@link #BATCH_LIMIT} of the oldest unsettled charges, or {@code null} once closed.
+     */
+    private List<Charge> nextBatch() throws InterruptedException {
+        synchronized (this) {
+            while (pending.isEmpty() && !closed) wait();
+            if (closed) return null;
+            if (pending.size() < BATCH_LIMIT) wait(BATCH_LINGER_MS); // add() wakes it early; that is fine
+            if (closed) return null;
+            List<Charge> batch = new ArrayList<>(Math.min(pending.size(), BATCH_LIMIT));
+            for (Charge charge : pending.values()) {
+                if (batch.size() == BATCH_LIMIT) break;
+                batch.add(charge);
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Sends a batch to the bank and waits for its answer.
+     *
+     * @return The answer without its key, or {@code null} if the bank did not answer in time.
+     */
+    private String sendBatch(List<Charge> batch) throws InterruptedException {
+        String batchKey;
+        synchronized (this) {
+            batchKey = keyPrefix + (++keySequence);
+        }
+        StringBuilder line = new StringBuilder(16 + batch.size() * 48).append("BatchCapture:");
+        for (Charge charge : batch) {
+            if (line.length() > "BatchCapture:".length()) line.append('|');
+            line.append(charge.key()).append(',').append(charge.cardNumber()).append(',');
+            FixedPointFormat.appendCents(line, charge.cents());
+        }
+        line.append(KEY).append(batchKey);
+
+        responses.clear(); // Late answers to batches that timed out
+        if (!bankConnection.send(new Message(line.toString()))) return null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+        while (true) {
+            Message response = responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (response == null) return null;
+            String content = response.getContent();
+            int keyAt = content.indexOf(KEY);
+            if (keyAt < 0) return content;
+            if (content.startsWith(batchKey, keyAt + KEY.length()) && content.length() == keyAt + KEY.length() + batchKey.length()) {
+                return content.substring(0, keyAt);
+            }
+        }
+    }
+
+    /**
+     * Records each result of an answered batch, then moves the checkpoint past what is settled.
+     *
+     * @param response "Batch:" and each charge's key with its result, e.g. "Batch:K1=Charged|K2=Decline".
+     */
+    private synchronized void settle(String response) {
+        try {
+            for (String item : response.substring("Batch:".length()).split("\\|")) {
+                int equals = item.indexOf('=');
+                if (equals < 0) continue;
+                Charge charge = pending.get(item.substring(0, equals));
+                if (charge == null) continue; // Already settled
+                boolean capturedCharge = item.startsWith("Charged", equals + 1);
+                append("S " + charge.key() + (capturedCharge ? " C\n" : " D\n"));
+                removePending(charge);
+                if (capturedCharge) {
+                    captured.incrementAndGet();
+                } else {
+                    declined.incrementAndGet();
+                    Log.error(logTag, "Bank declined the settlement of {} for card ending {}; see attendant",
+                            Cents.toString(charge.cents()), BankManager.cardLast4(charge.cardNumber()));
+                }
+            }
+            advanceCheckpoint();
+        } catch (IOException e) {
+            // The charges still pending are sent again; the bank captures each key once
+            Log.error(logTag, "Error writing settlement log: {}", e.getMessage());
+        }
+    }
+
+    // --- Log and checkpoint ---
+
+    private void append(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            logEnd += log.write(bytes, logEnd);
+        }
+    }
+
+    /**
+     * Moves the checkpoint to the oldest unsettled charge (or the end of the log), emptying the log
+     * first if nothing is waiting and it has grown large. The new checkpoint is written before the
+     * log is emptied: a checkpoint past the end of the log means it was emptied since.
+     */
+    private void advanceCheckpoint() throws IOException {
+        if (pending.isEmpty() && logEnd >= COMPACT_BYTES) {
+            writeCheckpoint(0);
+            log.truncate(0);
+            logEnd = 0;
+            return;
+        }
+        long settledUpTo = pending.isEmpty() ? logEnd : pending.values().iterator().next().offset();
+        if (settledUpTo != checkpoint) writeCheckpoint(settledUpTo);
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        Files.writeString(temp, offset + "\n", StandardCharsets.US_ASCII);
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = offset;
+    }
+
+    /**
+     * Reads the log from the checkpoint and rebuilds the unsettled charges. A partial last line,
+     * left by a crash while appending, is cut off.
+     */
+    private void recover() throws IOException {
+        long size = log.size();
+        checkpoint = 0;
+        if (Files.exists(checkpointFile)) {
+            try {
+                checkpoint = Long.parseLong(Files.readString(checkpointFile, StandardCharsets.US_ASCII).trim());
+            } catch (NumberFormatException e) {
+                Log.warn(logTag, "Ignoring unreadable settlement checkpoint {}", checkpointFile);
+            }
+        }
+        if (checkpoint > size) checkpoint = 0; // The log was emptied after the checkpoint was written
+
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - checkpoint));
+        while (tail.hasRemaining() && log.read(tail, checkpoint + tail.position()) >= 0) {
+            // Read until full
+        }
+        byte[] bytes = tail.array();
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            replay(new String(bytes, lineStart, i - lineStart, StandardCharsets.US_ASCII), checkpoint + lineStart);
+            lineStart = i + 1;
+        }
+        logEnd = checkpoint + lineStart;
+        if (logEnd < size) {
+            Log.warn(logTag, "Cutting off a partial line at the end of the settlement log ({} bytes)", size - logEnd);
+            log.truncate(logEnd);
+        }
+    }
+
+    private void replay(String line, long offset) {
+        String[] fields = line.split(" ");
+        try {
+            if (fields[0].equals("C") && fields.length == 5) {
+                addPending(new Charge(fields[1], fields[2], Long.parseLong(fields[3]), offset));
+            } else if (fields[0].equals("S") && fields.length == 3) {
+                Charge charge = pending.get(fields[1]);
+                if (charge != null) removePending(charge);
+            } else {
+                Log.warn(logTag, "Ignoring settlement log line '{}'", line);
+            }
+        } catch (NumberFormatException e) {
+            Log.warn(logTag, "Ignoring settlement log line '{}'", line);
+        }
+    }
+
+    private void addPending(Charge charge) {
+        pending.put(charge.key(), charge);
+        pendingCentsByCard.merge(charge.cardNumber(), charge.cents(), Long::sum);
+        pendingCents += charge.cents();
+    }
+
+    private void removePending(Charge charge) {
+        pending.remove(charge.key());
+        pendingCentsByCard.computeIfPresent(charge.cardNumber(), (card, owed) -> owed == charge.cents() ? null : owed - charge.cents());
+        pendingCents -= charge.cents();
+    }
+
+    /**
+     * An unsettled charge, with the offset of its line in the log. Charges read back from the log
+     * count their wait from the restart.
+     */
+    private record Charge(String key, String cardNumber, long cents, long offset, long queuedNanos) {
+        Charge(String key, String cardNumber, long cents, long offset) {
+            this(key, cardNumber, cents, offset, System.nanoTime());
+        }
+    }
+}
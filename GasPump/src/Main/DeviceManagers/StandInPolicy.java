@@ -0,0 +1,76 @@
+package Main.DeviceManagers;
+
+import Server.Cents;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Decides which cards the pump approves on its own while the bank is unreachable (see
+ * {@link BankManager#setStandInPolicy(StandInPolicy)}). A card is approved for up to the floor
+ * limit, less what it already owes in sales that have not been settled with the bank yet, unless
+ * it is on the blocklist. The floor limit covers everything the card has pending, charges the bank
+ * approved itself as well as stand-in ones: while the bank is down, neither kind has been settled. Policies are loaded from a properties file, for example:
+ * <pre>
+ * # dollars a card may owe in unsettled sales
+ * floorLimit=50.00
+ * # cards never approved without the bank
+ * blocklist=4000123412341234,4000567856785678
+ * </pre>
+ */
+public final class StandInPolicy {
+
+    private final long floorLimitCents;
+    private final Set<String> blocklist;
+
+    /**
+     * @param floorLimitCents The most a card may owe in unsettled sales, in cents.
+     * @param blocklist       Cards never approved without the bank.
+     */
+    public StandInPolicy(long floorLimitCents, Set<String> blocklist) {
+        this.floorLimitCents = floorLimitCents;
+        this.blocklist = Set.copyOf(blocklist);
+    }
+
+    /**
+     * Loads a policy from a properties file.
+     *
+     * @param file The policy file.
+     * @return The parsed policy.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if a value is malformed.
+     */
+    public static StandInPolicy load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            p.load(reader);
+        }
+        try {
+            Set<String> blocklist = new HashSet<>();
+            for (String card : p.getProperty("blocklist", "").split(",")) {
+                if (!card.isBlank()) blocklist.add(card.trim());
+            }
+            return new StandInPolicy(Cents.parse(p.getProperty("floorLimit", "0").trim()), blocklist);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid stand-in policy " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param cardNumber The card to approve.
+     * @param owedCents  What the card already owes in unsettled sales, stand-in or not, in cents.
+     * @return The most the card may be approved for, in cents, or 0 if it may not be approved.
+     */
+    public long approvableCents(String cardNumber, long owedCents) {
+        return blocklist.contains(cardNumber) ? 0 : Math.max(0, floorLimitCents - owedCents);
+    }
+
+    public long getFloorLimitCents() {
+        return floorLimitCents;
+    }
+}
@@ -1,5 +1,7 @@
 package Main.DeviceManagers;
 
+import Server.Log;
+
 /**
  * A non-blocking timer manager for handling inactivity timeouts in the gas pump's state machine.
  * This class allows the main control loop to set a timer for a specific duration and then
@@ -10,11 +12,28 @@ public class TimerManager {
     private long startTimeMillis;
     private long durationMillis;
     private boolean isRunning;
+    // Whether the current timer's expiry has been logged; it is logged once, not on every check
+    private boolean timeoutLogged;
+    private final String logTag;
 
     /**
      * Initializes a new TimerManager.
      */
     public TimerManager() {
+        this("timer");
+    }
+
+    /**
+     * Initializes a new TimerManager whose log lines are tagged with the given pump.
+     *
+     * @param pumpIndex The zero-based pump number this timer belongs to.
+     */
+    public TimerManager(int pumpIndex) {
+        this(Log.pumpTag("timer", pumpIndex));
+    }
+
+    private TimerManager(String logTag) {
+        this.logTag = logTag;
         this.isRunning = false;
         this.startTimeMillis = 0;
         this.durationMillis = 0;
@@ -28,13 +47,14 @@ public class TimerManager {
      */
     public void setTimer(int seconds) {
         if (seconds <= 0) {
-            System.err.println("Timer duration must be positive.");
+            Log.warn(logTag, "Timer duration must be positive.");
             return;
         }
         this.durationMillis = seconds * 1000L;
         this.startTimeMillis = System.currentTimeMillis();
         this.isRunning = true;
-        System.out.println("Timer set for " + seconds + " seconds.");
+        this.timeoutLogged = false;
+        Log.debug(logTag, "Timer set for {} seconds.", seconds);
     }
 
     /**
@@ -45,7 +65,7 @@ public class TimerManager {
         if (isRunning) {
             this.isRunning = false;
             this.startTimeMillis = 0;
-            System.out.println("Timer reset.");
+            Log.debug(logTag, "Timer reset.");
         }
     }
 
@@ -63,7 +83,10 @@ public class TimerManager {
 
         long elapsed = System.currentTimeMillis() - startTimeMillis;
         if (elapsed >= durationMillis) {
-            System.out.println("Timer timed out after " + (durationMillis / 1000) + " seconds.");
+            if (!timeoutLogged) {
+                Log.info(logTag, "Timer timed out after {} seconds.", durationMillis / 1000);
+                timeoutLogged = true;
+            }
             // We keep isRunning = true so that it continuously reports as timed out
             // until it is explicitly reset. This prevents race conditions in the main loop.
             return true;
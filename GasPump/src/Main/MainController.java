@@ -1,8 +1,25 @@
 package Main;
 
 import Main.DeviceManagers.*;
+import Server.Cents;
+import Server.DeviceArgs;
+import Server.DeviceConstants;
+import Server.LinkMonitor;
+import Server.Log;
+import Server.MetricsRegistry;
+import Server.MetricsServer;
+import Server.TraceFile;
+import Server.TraceSession;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * The main controller for the gas pump.
@@ -12,35 +29,238 @@ import java.util.List;
  */
 public class MainController {
 
+    // How long startup waits for the devices needed before the first sale
+    private static final long STARTUP_BARRIER_MS = 10_000;
+    // The links a sale needs; a new session is refused while any of them is degraded or down
+    private static final String[] SESSION_LINKS = {"bank", "card reader", "screen", "pump", "flow meter", "hose"};
+    // With a stand-in policy, sales go on while the bank is down
+    private static final String[] STAND_IN_SESSION_LINKS = {"card reader", "screen", "pump", "flow meter", "hose"};
+
     // --- Managers ---
     private final BankManager bankManager;
     private final CustomerManager customerManager;
     private final GasStationManager gasStationManager;
     private final PumpAssemblyManager pumpAssemblyManager;
     private final TimerManager timerManager;
+    // Null if its log could not be opened; final charges then go straight to the bank
+    private final SettlementQueue settlementQueue;
+    private final LinkMonitor linkMonitor;
+    private final int pumpIndex;
+    private final String logTag;
+    // Where finished session traces go, or null when tracing is off
+    private TraceFile traceFile;
+
+    // --- Metrics ---
+    private final MetricsRegistry metrics = MetricsRegistry.forProcess();
+    private final MetricsRegistry.Counter[] stateEntries = new MetricsRegistry.Counter[PumpState.values().length];
+    private final MetricsRegistry.Histogram[] stateDwell = new MetricsRegistry.Histogram[PumpState.values().length];
+    private final MetricsRegistry.Counter[] authorizations =
+            new MetricsRegistry.Counter[BankManager.AuthorizationStatus.values().length];
+    private final MetricsRegistry.Histogram authorizationLatency;
+    private final MetricsRegistry.Counter chargesSucceeded;
+    private final MetricsRegistry.Counter chargesFailed;
+    private final MetricsRegistry.Histogram chargeLatency;
+    private final MetricsRegistry.Counter flowUpdates;
+    private final MetricsRegistry.Counter limitStops;
+    private long stateEnteredNanos;
+    // Spans the stay in the current state, while a flight recording enables it
+    private StateTransitionEvent stateEvent;
 
     // --- FSM and Session State ---
-    private PumpState currentState;
-    private List<FuelGrade> availableFuelGrades;
+    // Volatile so the metrics endpoint can read it
+    private volatile PumpState currentState;
+    // The price list pinned for the current sale; later price changes apply to the next sale
+    private PriceList sessionPrices;
     private String currentCardNumber;
     private FuelGrade selectedFuelGrade;
-    private double gallonsDispensed;
-    private double totalCost;
+    private long milliGallonsDispensed;
+    private long totalCents;
+    private final long startNanos;
+    private TraceSession trace;
+    // What IDLE is currently showing: the welcome screen, or "Pump Unavailable" while a link is unusable
+    private boolean welcomeShown;
+    private String unusableLink;
+    private String[] sessionLinks = SESSION_LINKS;
+    private long authorizedLimitCents = Long.MAX_VALUE;
+
+    /**
+     * @param pumpIndex The zero-based pump number this controller drives. Each pump's
+     *                  devices listen on their own ports (see {@link DeviceConstants#portFor}).
+     */
+    public MainController(int pumpIndex) {
+        this(pumpIndex, GasStationManager.DEFAULT_SNAPSHOT_MAX_AGE_MS);
+    }
+
+    /**
+     * @param pumpIndex                 The zero-based pump number this controller drives.
+     * @param priceSnapshotMaxAgeMillis How old the saved price list may be and still let the pump open
+     *                                  before the station has confirmed its prices.
+     */
+    public MainController(int pumpIndex, long priceSnapshotMaxAgeMillis) {
+        this(pumpIndex, priceSnapshotMaxAgeMillis, DeviceConstants.HEARTBEAT_INTERVAL_MS, DeviceConstants.DEGRADED_RTT_MS);
+    }
+
+    /**
+     * @param pumpIndex                 The zero-based pump number this controller drives.
+     * @param priceSnapshotMaxAgeMillis How old the saved price list may be and still let the pump open
+     *                                  before the station has confirmed its prices.
+     * @param heartbeatMillis           The time between heartbeat pings on every link.
+     * @param degradedRttMillis         The average heartbeat round trip above which a link is degraded.
+     */
+    public MainController(int pumpIndex, long priceSnapshotMaxAgeMillis, long heartbeatMillis, long degradedRttMillis) {
+        // Initialize all the manager components. They connect in the background, all at once;
+        // run() waits for the ones the first states need.
+        this.startNanos = System.nanoTime();
+        this.pumpIndex = pumpIndex;
+        this.logTag = Log.pumpTag("controller", pumpIndex);
+        this.bankManager = new BankManager(pumpIndex);
+        this.customerManager = new CustomerManager(pumpIndex);
+        this.gasStationManager = new GasStationManager(pumpIndex, priceSnapshotMaxAgeMillis);
+        this.pumpAssemblyManager = new PumpAssemblyManager(pumpIndex);
+        this.timerManager = new TimerManager(pumpIndex);
+        SettlementQueue queue = null;
+        try {
+            queue = new SettlementQueue(pumpIndex);
+        } catch (IOException e) {
+            System.err.println("Error opening settlement log: " + e.getMessage() + "; final charges go straight to the bank");
+        }
+        this.settlementQueue = queue;
+        bankManager.setSettlementQueue(queue);
 
-    public MainController() {
-        // Initialize all the manager components
-        this.bankManager = new BankManager();
-        this.customerManager = new CustomerManager();
-        this.gasStationManager = new GasStationManager();
-        this.pumpAssemblyManager = new PumpAssemblyManager();
-        this.timerManager = new TimerManager();
+        String pump = String.valueOf(pumpIndex);
+        for (PumpState state : PumpState.values()) {
+            stateEntries[state.ordinal()] = metrics.counter("gaspump_state_entries_total",
+                    "Times the controller entered a state", "pump", pump, "state", state.name());
+            stateDwell[state.ordinal()] = metrics.histogram("gaspump_state_dwell_seconds",
+                    "Time spent in a state before leaving it", "pump", pump, "state", state.name());
+            metrics.gauge("gaspump_state", "1 for the controller's current state",
+                    () -> currentState == state ? 1 : 0, "pump", pump, "state", state.name());
+        }
+        for (BankManager.AuthorizationStatus status : BankManager.AuthorizationStatus.values()) {
+            authorizations[status.ordinal()] = metrics.counter("gaspump_authorizations_total",
+                    "Card authorizations by result", "pump", pump, "result", status.name());
+        }
+        this.authorizationLatency = metrics.histogram("gaspump_authorization_seconds",
+                "Time to get a card authorization from the bank", "pump", pump);
+        this.chargesSucceeded = metrics.counter("gaspump_charges_total", "Final charges by result",
+                "pump", pump, "result", "CHARGED");
+        this.chargesFailed = metrics.counter("gaspump_charges_total", "Final charges by result",
+                "pump", pump, "result", "FAILED");
+        this.chargeLatency = metrics.histogram("gaspump_charge_seconds",
+                "Time to record the final charge: queued for settlement, or confirmed by the bank", "pump", pump);
+        this.flowUpdates = metrics.counter("gaspump_flow_updates_total",
+                "Flow meter readings processed while fueling", "pump", pump);
+        this.limitStops = metrics.counter("gaspump_fueling_limit_stops_total",
+                "Sales the flow meter stopped at their authorized dollar limit", "pump", pump);
+        metrics.counter("gaspump_bank_hedges_total", "Bank requests sent again on the hedge connection, by which answered first",
+                () -> bankManager.getHedgesSent() - bankManager.getHedgesWon(), "pump", pump, "winner", "primary");
+        metrics.counter("gaspump_bank_hedges_total", "Bank requests sent again on the hedge connection, by which answered first",
+                bankManager::getHedgesWon, "pump", pump, "winner", "hedge");
+        metrics.gauge("gaspump_bank_breaker_state", "The bank circuit breaker: 0 closed, 1 open, 2 half-open",
+                () -> bankManager.getBreakerState().ordinal(), "pump", pump);
+        metrics.counter("gaspump_bank_breaker_opens_total", "Times the bank circuit breaker opened",
+                bankManager::getBreakerOpens, "pump", pump);
+        if (settlementQueue != null) {
+            metrics.gauge("gaspump_settlement_pending", "Final charges waiting to be captured by the bank",
+                    settlementQueue::getPendingCount, "pump", pump);
+            metrics.gauge("gaspump_settlement_pending_dollars", "Total of the final charges waiting to be captured by the bank",
+                    () -> settlementQueue.getPendingCents() / 100.0, "pump", pump);
+            metrics.gauge("gaspump_settlement_oldest_seconds", "How long the oldest unsettled charge has waited",
+                    () -> settlementQueue.getOldestPendingMillis() / 1e3, "pump", pump);
+            metrics.counter("gaspump_settlements_total", "Final charges settled by the bank, by result",
+                    settlementQueue::getCaptured, "pump", pump, "result", "captured");
+            metrics.counter("gaspump_settlements_total", "Final charges settled by the bank, by result",
+                    settlementQueue::getDeclined, "pump", pump, "result", "declined");
+            metrics.counter("gaspump_settlement_batches_total", "Batch captures sent to the bank, by result",
+                    settlementQueue::getBatchesAnswered, "pump", pump, "result", "answered");
+            metrics.counter("gaspump_settlement_batches_total", "Batch captures sent to the bank, by result",
+                    settlementQueue::getBatchesFailed, "pump", pump, "result", "failed");
+        }
+        metrics.gauge("gaspump_bank_authorize_timeout_seconds", "How long an authorization currently waits for the bank",
+                () -> bankManager.getAuthorizeTimeoutMillis() / 1e3, "pump", pump);
+
+        this.linkMonitor = new LinkMonitor(heartbeatMillis, degradedRttMillis, metrics);
+        bankManager.watchLinks(linkMonitor);
+        customerManager.watchLinks(linkMonitor);
+        gasStationManager.watchLinks(linkMonitor);
+        pumpAssemblyManager.watchLinks(linkMonitor);
+        if (settlementQueue != null) settlementQueue.watchLinks(linkMonitor);
     }
 
+    /**
+     * Starts a controller. An optional first argument selects the pump number (default 0);
+     * {@code --price-max-age-minutes=N} limits how old a saved price list may be to open without the station;
+     * {@code --heartbeat-ms=N} and {@code --degraded-rtt-ms=N} tune link health monitoring;
+     * {@code --trace=file} appends a trace of every session to the file (see {@link Server.TraceSummary});
+     * {@code --metrics-port=N} serves the controller's metrics at {@code http://localhost:N/metrics};
+     * {@code --hedge-bank} sends slow bank requests again on a second connection;
+     * {@code --stand-in=file} approves cards by the given {@link StandInPolicy} while the bank is down.
+     */
     public static void main(String[] args) {
-        MainController controller = new MainController();
+        int pumpIndex = args.length > 0 && !args[0].startsWith("--") ? Integer.parseInt(args[0]) : 0;
+        long priceMaxAgeMillis = DeviceArgs.intOption(args, "--price-max-age-minutes=",
+                (int) (GasStationManager.DEFAULT_SNAPSHOT_MAX_AGE_MS / 60_000)) * 60_000L;
+        int heartbeatMillis = DeviceArgs.intOption(args, "--heartbeat-ms=", DeviceConstants.HEARTBEAT_INTERVAL_MS);
+        int degradedRttMillis = DeviceArgs.intOption(args, "--degraded-rtt-ms=", DeviceConstants.DEGRADED_RTT_MS);
+        MainController controller = new MainController(pumpIndex, priceMaxAgeMillis, heartbeatMillis, degradedRttMillis);
+        controller.setBankHedging(DeviceArgs.hasFlag(args, "--hedge-bank"));
+        String standInFile = DeviceArgs.option(args, "--stand-in=");
+        if (standInFile != null) {
+            try {
+                controller.setStandInPolicy(StandInPolicy.load(Path.of(standInFile)));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error loading stand-in policy " + standInFile + ": " + e.getMessage() + "; stand-in is off");
+            }
+        }
+        String traceFile = DeviceArgs.option(args, "--trace=");
+        if (traceFile != null) {
+            try {
+                controller.setTraceFile(new TraceFile(Path.of(traceFile)));
+            } catch (IOException e) {
+                System.err.println("Error opening trace file " + traceFile + ": " + e.getMessage() + "; tracing is off");
+            }
+        }
+        int metricsPort = DeviceArgs.intOption(args, "--metrics-port=", 0);
+        if (metricsPort > 0) {
+            try {
+                MetricsServer.start(metricsPort, controller.getMetrics());
+            } catch (IOException e) {
+                System.err.println("Error starting metrics endpoint on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
         controller.run();
     }
 
+    /**
+     * Traces every session from now on to the given file, or stops tracing when {@code null}.
+     */
+    public void setTraceFile(TraceFile traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Turns hedged bank requests on or off (see {@link BankManager#setHedging(boolean)}).
+     */
+    public void setBankHedging(boolean hedging) {
+        bankManager.setHedging(hedging);
+    }
+
+    /**
+     * Approves cards by the given policy while the bank is unreachable, and keeps selling while the
+     * bank link is down; {@code null} turns stand-in off.
+     */
+    public void setStandInPolicy(StandInPolicy policy) {
+        bankManager.setStandInPolicy(policy);
+        sessionLinks = policy == null ? SESSION_LINKS : STAND_IN_SESSION_LINKS;
+    }
+
+    /**
+     * @return The controller's metrics: state transitions, bank latencies, flow updates and link traffic.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
     // --- State Handler Methods ---
 
     /**
@@ -48,10 +268,15 @@ public class MainController {
      */
     public void run() {
         System.out.println("Gas Pump Controller starting up...");
+        awaitStartupConnections();
         currentState = PumpState.OFF;
+        stateEntries[currentState.ordinal()].increment();
+        stateEnteredNanos = System.nanoTime();
+        beginStateEvent();
 
         try {
             while (true) {
+                PumpState previousState = currentState;
                 switch (currentState) {
                     case OFF -> handleOffState();
                     case STANDBY -> handleStandbyState();
@@ -66,6 +291,19 @@ public class MainController {
                     case TRANSACTION_COMPLETE ->
                             handleTransactionCompleteState();
                 }
+                if (currentState != previousState) {
+                    long now = System.nanoTime();
+                    stateDwell[previousState.ordinal()].record(now - stateEnteredNanos);
+                    stateEntries[currentState.ordinal()].increment();
+                    stateEnteredNanos = now;
+                    if (stateEvent != null) {
+                        stateEvent.pump = pumpIndex;
+                        stateEvent.from = previousState.name();
+                        stateEvent.to = currentState.name();
+                        stateEvent.commit();
+                    }
+                    beginStateEvent();
+                }
                 Thread.sleep(100);
             }
         } catch (InterruptedException e) {
@@ -74,20 +312,67 @@ public class MainController {
         } finally {
             // Clean up connections on exit
             bankManager.close();
+            if (settlementQueue != null) settlementQueue.close();
             customerManager.close();
             gasStationManager.close();
             pumpAssemblyManager.close();
+            if (traceFile != null) traceFile.close();
+        }
+    }
+
+    /**
+     * Waits until the bank, station, card reader and screen are connected (or the startup barrier
+     * times out), logging when each came up. The connections were opened concurrently, so startup
+     * takes as long as the slowest one. The pump, flow meter and hose are not needed until a customer
+     * is ready to pump, so they are left out of the barrier and connect once a card is tapped.
+     */
+    private void awaitStartupConnections() {
+        Map<String, CompletableFuture<?>> devices = new LinkedHashMap<>();
+        devices.put("bank", bankManager.whenConnected());
+        devices.put("gas station", gasStationManager.whenConnected());
+        devices.put("card reader", customerManager.whenCardReaderConnected());
+        devices.put("screen", customerManager.whenScreenConnected());
+        devices.forEach((name, connected) -> connected.thenRun(() ->
+                System.out.println("[Startup] +" + elapsedMillis() + " ms " + name + " connected")));
+
+        try {
+            CompletableFuture.allOf(devices.values().toArray(new CompletableFuture<?>[0]))
+                    .get(STARTUP_BARRIER_MS, TimeUnit.MILLISECONDS);
+            System.out.println("[Startup] +" + elapsedMillis() + " ms ready");
+        } catch (TimeoutException | ExecutionException e) {
+            devices.forEach((name, connected) -> {
+                if (!connected.isDone()) System.err.println("[Startup] " + name + " is still connecting; continuing without it");
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the flight recorder event for the state just entered, if a recording enables it.
+     */
+    private void beginStateEvent() {
+        StateTransitionEvent event = new StateTransitionEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            stateEvent = event;
+        } else {
+            stateEvent = null;
         }
     }
 
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
     private void handleOffState() {
         customerManager.showMessage("Pump Unavailable");
         currentState = PumpState.STANDBY;
     }
 
     private void handleStandbyState() {
-        availableFuelGrades = gasStationManager.getAvailableFuelGrades();
-        if (availableFuelGrades != null && !availableFuelGrades.isEmpty()) {
+        PriceList prices = gasStationManager.getPriceList();
+        if (prices != null && !prices.grades().isEmpty()) {
             System.out.println("Successfully fetched price list.");
             currentState = PumpState.IDLE;
         } else {
@@ -95,22 +380,60 @@ public class MainController {
         }
     }
 
+    /**
+     * Shows the welcome screen and checks for a card tap. While a link the sale needs is degraded or
+     * down, shows "Pump Unavailable" instead and ignores taps, rather than starting a sale that
+     * would fail partway through. A device that restarts comes back by itself, since its port
+     * reconnects; the welcome screen is then shown again.
+     */
     private void handleIdleState() {
         resetSession();
-        customerManager.showWelcomeScreen();
-        String card = customerManager.waitForCardTap(Long.MAX_VALUE);
-        if (card != null) {
-            currentCardNumber = card;
-            currentState = PumpState.WAITING_FOR_AUTHORIZATION;
+        String unusable = linkMonitor.firstUnusable(sessionLinks);
+        if (unusable != null) {
+            if (!unusable.equals(unusableLink)) {
+                Log.warn(logTag, "Refusing new sessions: {} link is {}", unusable, linkMonitor.get(unusable).getStatus());
+                customerManager.showMessage("Pump Unavailable");
+                unusableLink = unusable;
+                welcomeShown = false;
+            }
+            customerManager.pollCardTap(); // Discard taps while unavailable
+            return;
+        }
+        if (unusableLink != null) { // Its port reconnected; redraw the screen, which may have restarted too
+            Log.info(logTag, "Accepting sessions again: {} link is back", unusableLink);
+            unusableLink = null;
         }
+        if (!welcomeShown) {
+            customerManager.showWelcomeScreen();
+            welcomeShown = true;
+        }
+        String card = customerManager.pollCardTap();
+        if (card == null) return;
+        welcomeShown = false;
+        startTrace();
+        beginStage(TraceSession.Stage.CARD_TAP);
+        currentCardNumber = card;
+        gasStationManager.beginSale();
+        pumpAssemblyManager.connect(); // Warm up the pump devices while the card is authorized
+        sessionPrices = gasStationManager.getPriceList();
+        if (sessionPrices == null) { // Saved prices went stale and the station has not answered
+            currentState = PumpState.OFF;
+            return;
+        }
+        currentState = PumpState.WAITING_FOR_AUTHORIZATION;
     }
 
     private void handleWaitingForAuthorizationState() {
+        beginStage(TraceSession.Stage.AUTHORIZE);
         customerManager.showAuthorizingScreen();
+        long requestNanos = System.nanoTime();
         BankManager.AuthorizationStatus status = bankManager.authorizeCreditCard(currentCardNumber);
-        customerManager.notifyCardReader(status == BankManager.AuthorizationStatus.APPROVED);
+        authorizationLatency.recordSince(requestNanos);
+        authorizations[status.ordinal()].increment();
+        customerManager.notifyCardReader(status.isApproved());
 
-        if (status == BankManager.AuthorizationStatus.APPROVED) {
+        if (status.isApproved()) {
+            authorizedLimitCents = bankManager.getAuthorizedLimitCents();
             currentState = PumpState.SELECT_GAS;
         } else {
             currentState = PumpState.NO_AUTHORIZATION;
@@ -118,6 +441,7 @@ public class MainController {
     }
 
     private void handleNoAuthorizationState() {
+        finishTrace(TraceSession.Outcome.DECLINED);
         customerManager.showMessage("Authorization Failed");
         try {
             Thread.sleep(5000);
@@ -128,7 +452,20 @@ public class MainController {
     }
 
     private void handleSelectGasState() {
-        customerManager.showGradeSelectionScreen(availableFuelGrades);
+        // Only offer grades whose tanks the station has not withdrawn
+        List<FuelGrade> offeredGrades = gasStationManager.filterAvailable(sessionPrices.grades());
+        if (offeredGrades.isEmpty()) {
+            customerManager.showMessage("No fuel available. Please see attendant.");
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            currentState = PumpState.IDLE;
+            return;
+        }
+        beginStage(TraceSession.Stage.SELECT_GRADE);
+        customerManager.showGradeSelectionScreen(offeredGrades);
         timerManager.setTimer(15);
 
         while (!timerManager.isTimedOut()) {
@@ -136,8 +473,8 @@ public class MainController {
             if (buttonId != null) {
                 try {
                     int gradeIndex = Integer.parseInt(buttonId) - 2;
-                    if (gradeIndex >= 0 && gradeIndex < availableFuelGrades.size()) {
-                        selectedFuelGrade = availableFuelGrades.get(gradeIndex);
+                    if (gradeIndex >= 0 && gradeIndex < offeredGrades.size()) {
+                        selectedFuelGrade = offeredGrades.get(gradeIndex);
                         timerManager.resetTimer();
                         currentState = PumpState.READY_TO_PUMP;
                         return;
@@ -155,6 +492,7 @@ public class MainController {
     }
 
     private void handleReadyToPumpState() {
+        beginStage(TraceSession.Stage.NOZZLE_ATTACH);
         customerManager.showMessage("Ready to Pump. Please connect nozzle.");
         timerManager.setTimer(15);
         while (!timerManager.isTimedOut()) {
@@ -169,7 +507,12 @@ public class MainController {
     }
 
     private void handleFuelingState() {
-        pumpAssemblyManager.startPumping(selectedFuelGrade);
+        beginStage(TraceSession.Stage.FUELING);
+        if (totalCents >= authorizedLimitCents) { // Back from a pause with nothing left to pump
+            currentState = PumpState.TRANSACTION_COMPLETE;
+            return;
+        }
+        pumpAssemblyManager.startPumping(selectedFuelGrade, authorizedLimitCents); // The flow meter stops at the limit
         customerManager.showPumpingScreen(selectedFuelGrade.name(), 0, 0);
 
         while (true) {
@@ -185,11 +528,18 @@ public class MainController {
                 return;
             }
 
-            FuelingUpdate update = pumpAssemblyManager.getFuelingUpdate();
-            if (update != null) {
-                gallonsDispensed = update.gallons();
-                totalCost = update.totalCost();
-                customerManager.showPumpingScreen(selectedFuelGrade.name(), gallonsDispensed, totalCost);
+            if (pumpAssemblyManager.pollFuelingUpdate()) {
+                flowUpdates.increment();
+                milliGallonsDispensed = pumpAssemblyManager.getUpdateMilliGallons();
+                totalCents = pumpAssemblyManager.getUpdateTotalCents();
+                customerManager.showPumpingScreen(selectedFuelGrade.name(), milliGallonsDispensed, totalCents);
+                gasStationManager.reportDispensing(selectedFuelGrade, milliGallonsDispensed);
+                if (pumpAssemblyManager.isUpdateLimitReached()) { // The meter has stopped; now the pump
+                    limitStops.increment();
+                    pumpAssemblyManager.stopPumping();
+                    currentState = PumpState.TRANSACTION_COMPLETE;
+                    return;
+                }
             }
 
             String buttonId = customerManager.waitForButtonPress(100);
@@ -201,6 +551,7 @@ public class MainController {
     }
 
     private void handlePausedState() {
+        beginStage(TraceSession.Stage.PAUSED);
         pumpAssemblyManager.pausePumping();
         customerManager.showMessage("Fueling paused — reconnect within 15 seconds");
         timerManager.setTimer(15);
@@ -222,18 +573,26 @@ public class MainController {
     }
 
     private void handleTransactionCompleteState() {
-        System.out.printf("Transaction complete. Charging card %s for $%.2f%n", currentCardNumber, totalCost);
-        boolean chargeSuccess = bankManager.chargeCreditCard(currentCardNumber, totalCost);
+        System.out.println("Transaction complete. Charging card " + currentCardNumber + " for $" + Cents.toString(totalCents));
+        beginStage(TraceSession.Stage.CHARGE);
+        long requestNanos = System.nanoTime();
+        boolean chargeSuccess = settlementQueue != null
+                ? settlementQueue.add(currentCardNumber, totalCents) // The bank captures it in the background
+                : bankManager.chargeCreditCard(currentCardNumber, totalCents);
+        chargeLatency.recordSince(requestNanos);
+        (chargeSuccess ? chargesSucceeded : chargesFailed).increment();
 
         if (chargeSuccess) {
-            gasStationManager.logTransaction(currentCardNumber, selectedFuelGrade, gallonsDispensed, totalCost);
-            customerManager.showThankYouScreen(gallonsDispensed, totalCost);
+            beginStage(TraceSession.Stage.LOG_TRANSACTION);
+            gasStationManager.logTransaction(currentCardNumber, selectedFuelGrade, milliGallonsDispensed, totalCents);
+            customerManager.showThankYouScreen(milliGallonsDispensed, totalCents);
         } else {
             customerManager.showMessage("Final charge failed. Please see attendant.");
         }
 
         // Reset the flow meter for the next customer.
         pumpAssemblyManager.resetFlowMeter();
+        finishTrace(chargeSuccess ? TraceSession.Outcome.COMPLETED : TraceSession.Outcome.CHARGE_FAILED);
 
         try {
             Thread.sleep(10000);
@@ -244,11 +603,47 @@ public class MainController {
     }
 
     private void resetSession() {
+        finishTrace(TraceSession.Outcome.ABANDONED); // Back to IDLE before the sale completed
         currentCardNumber = null;
         selectedFuelGrade = null;
-        gallonsDispensed = 0.0;
-        totalCost = 0.0;
+        sessionPrices = null;
+        milliGallonsDispensed = 0;
+        totalCents = 0;
+        authorizedLimitCents = Long.MAX_VALUE;
         timerManager.resetTimer();
     }
-}
 
+    // --- Tracing ---
+
+    /**
+     * Starts tracing a new session, if tracing is on, and has every manager record its messages in it.
+     */
+    private void startTrace() {
+        if (traceFile == null) return;
+        trace = new TraceSession(TraceSession.newId(pumpIndex), pumpIndex);
+        setManagerTraces(trace);
+    }
+
+    private void beginStage(TraceSession.Stage stage) {
+        if (trace != null) trace.begin(stage);
+    }
+
+    /**
+     * Ends the current session's trace, if any, and writes it to the trace file.
+     */
+    private void finishTrace(TraceSession.Outcome outcome) {
+        if (trace == null) return;
+        trace.finish(outcome);
+        setManagerTraces(null);
+        traceFile.write(trace);
+        Log.debug("trace", "Session {} {}", trace.getId(), outcome);
+        trace = null;
+    }
+
+    private void setManagerTraces(TraceSession session) {
+        bankManager.setTrace(session);
+        customerManager.setTrace(session);
+        gasStationManager.setTrace(session);
+        pumpAssemblyManager.setTrace(session);
+    }
+}
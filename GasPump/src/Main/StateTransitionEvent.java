@@ -0,0 +1,28 @@
+package Main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event spanning the controller's stay in one state; it is committed when the
+ * controller leaves the state, so its duration is the dwell time.
+ */
+@Name("gaspump.StateTransition")
+@Label("State Transition")
+@Category({"Gas Pump", "Controller"})
+@Description("The controller's stay in a state, ending with the transition to the next one")
+@StackTrace(false)
+class StateTransitionEvent extends jdk.jfr.Event {
+
+    @Label("Pump")
+    int pump;
+
+    @Label("From")
+    String from;
+
+    @Label("To")
+    String to;
+}
@@ -1,43 +1,121 @@
 package Server;
 
-import java.io.BufferedReader;
+import jdk.jfr.EventType;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * An abstract base class for a robust, two-way communication port.
  * It handles the common logic of message queuing and threaded I/O.
  * Subclasses are responsible for establishing the connection as either a client or a server.
+ * <p>
+ * Lines are UTF-8 on both ends, whatever the platform's locale. For streams of updates where only
+ * the newest matters, such as screen frames and flow meter readings, {@link #sendLatest} and
+ * {@link #useLatestLine} pass lines through buffers the port reuses, so a steady stream of updates
+ * creates no objects on either end (with no observer attached and no capture running).
+ * <p>
+ * Outgoing messages wait in one lane per {@link Message.Priority}, and the writer always takes the
+ * next message from the most urgent lane that has one, so a stop command is never queued behind
+ * telemetry: it waits at most for the line being written (and whatever the socket's buffers
+ * already hold).
+ * <p>
+ * Each lane but {@link Message.Priority#CONTROL} holds at most {@link #DEFAULT_QUEUE_LIMIT} messages
+ * unless {@link #limitQueue} says otherwise, so a stalled peer cannot make the port grow without
+ * bound; what happens to a message that does not fit is the port's {@link OverflowPolicy}.
+ * <p>
+ * Every port answers heartbeat pings from its peer, and a port can send its own (see
+ * {@link #enableHeartbeat}) to measure the link's round-trip time and liveness. Heartbeat lines
+ * start with {@code ~} and are never delivered as messages.
+ * <p>
+ * A {@link PortObserver} can be attached to see every message with the time it was sent or received.
+ * Each message read or written is also a {@code gaspump.PortIO} flight recorder event, which costs
+ * nothing unless a recording enables it. With {@code -Dgaspump.capture=file}, every message is also
+ * written to a {@link TrafficCapture}.
  */
 abstract class AbstractIOPort {
 
+    // Stands in the queue for the line held by sendLatest
+    private static final Message LATEST_LINE = new Message("");
+    // Message.Priority.values() makes a new array on every call
+    private static final Message.Priority[] PRIORITIES = Message.Priority.values();
+
+    /**
+     * The most messages a lane holds before its overflow policy applies, unless the port is given
+     * its own limit.
+     */
+    public static final int DEFAULT_QUEUE_LIMIT = 10_000;
+
     private final AtomicReference<Message> latestMessage = new AtomicReference<>();
-    private final BlockingQueue<Message> outQueue = new LinkedBlockingQueue<>();
+    // The outgoing lanes, indexed by Message.Priority ordinal. Guarded by outQueue, which the writer
+    // thread waits on. Their arrays are reused, so queuing does not allocate.
+    private final Object outQueue = new Object();
+    private final List<ArrayDeque<Message>> lanes = List.of(new ArrayDeque<>(), new ArrayDeque<>(), new ArrayDeque<>());
+    private final LineBuffer latestOut = new LineBuffer();
+    private boolean latestOutQueued;
+    private Message.Priority latestOutPriority;
+    private boolean latestOutSealed; // A message was queued behind it, so it may no longer be replaced
+    private long latestOutQueuedNanos;
+    private int queueLimit = DEFAULT_QUEUE_LIMIT; // Per lane; guarded by outQueue
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private long blockNanos;
+    private int blockedSenders; // Waiting for room under OverflowPolicy.BLOCK
+    private volatile LineBuffer latestIn; // Set by useLatestLine; guarded by itself
+    private boolean latestInFresh;
+    private volatile Consumer<Message> messageHandler;
+    private volatile PortObserver observer;
+    private PortStatistics statistics = new PortStatistics();
+    private volatile String name;
+    private volatile boolean closed = false;
 
-    protected Socket socket;
-    protected PrintWriter out;
-    protected BufferedReader in;
+    private static final TrafficCapture CAPTURE = TrafficCapture.process();
+    // Checked before creating an event, so that no event objects are made while no recording wants them
+    private static final EventType PORT_IO = EventType.getEventType(PortIOEvent.class);
+
+    // Heartbeat lines: "~ping:<sender nanoTime>", answered with "~pong:<same value>"
+    private static final String PING = "~ping:";
+    private static final String PONG = "~pong:";
+    // One thread sends the pings of every port in the process
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "io-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile LinkHealth linkHealth;
+    private ScheduledFuture<?> heartbeat;
+
+    protected volatile Socket socket;
 
     private Thread readerThread;
     private Thread writerThread;
 
     /**
      * Initializes the input/output streams and starts the dedicated reader and writer threads.
-     * This method should be called by a subclass constructor once the socket is connected.
+     * This method should be called by a subclass once the socket is connected (again, if the
+     * subclass accepts a new peer after {@link #connectionLost()}).
      *
      * @throws IOException if an I/O error occurs when creating the streams.
      */
     protected void initializeStreamsAndThreads() throws IOException {
-        this.out = new PrintWriter(socket.getOutputStream(), true);
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        // Messages are short request/response lines; don't let Nagle's algorithm hold them back.
+        socket.setTcpNoDelay(true);
 
-        this.readerThread = new Thread(this::readFromSocket);
-        this.writerThread = new Thread(this::writeToSocket);
+        // Each connection gets its own threads, bound to its own socket and streams.
+        Socket current = socket;
+        LineReader reader = new LineReader(current.getInputStream());
+        LineWriter writer = new LineWriter(current.getOutputStream());
+        String ports = current.getLocalPort() + "->" + current.getPort();
+        this.readerThread = new Thread(() -> readFromSocket(current, reader), "io-read-" + ports);
+        this.writerThread = new Thread(() -> writeToSocket(current, writer), "io-write-" + ports);
         this.readerThread.setDaemon(true);
         this.writerThread.setDaemon(true);
         this.readerThread.start();
@@ -48,47 +126,474 @@ abstract class AbstractIOPort {
      * Reads lines from the socket, converts them to Message objects, and places them in the
      * incoming message queue. This method runs in its own thread.
      */
-    private void readFromSocket() {
+    private void readFromSocket(Socket current, LineReader reader) {
+        LineBuffer line = new LineBuffer();
         try {
-            String line;
-            while ((line = in.readLine()) != null) {
-                latestMessage.set(Message.fromString(line));
+            while (reader.readLine(line)) {
+                if (line.startsWith("~")) {
+                    handleHeartbeat(line);
+                    continue;
+                }
+                statistics.received(line.length());
+                if (PORT_IO.isEnabled()) {
+                    PortIOEvent event = new PortIOEvent();
+                    event.port = getName();
+                    event.direction = "read";
+                    event.bytes = line.length() + 1;
+                    event.commit();
+                }
+                LineBuffer latest = latestIn;
+                PortObserver currentObserver = observer;
+                // A line kept in the latest-line buffer only becomes a Message if someone looks at it
+                Message message = latest == null || currentObserver != null || CAPTURE != null
+                        ? Message.fromString(line.toString()) : null;
+                long now = System.nanoTime();
+                if (CAPTURE != null) CAPTURE.received(this, message.getContent(), now);
+                if (currentObserver != null) currentObserver.onReceived(message, now);
+                Consumer<Message> handler = messageHandler;
+                if (latest != null) {
+                    synchronized (latest) {
+                        latest.set(line);
+                        if (latestInFresh) statistics.dropped(); // The previous line was never read
+                        latestInFresh = true;
+                    }
+                } else if (handler != null) {
+                    handler.accept(message);
+                } else if (latestMessage.getAndSet(message) != null) {
+                    statistics.dropped(); // The previous message was never read
+                }
             }
         } catch (Exception e) {
             // This is expected when the connection is closed by either party.
             if (!isClosed()) {
-                System.err.println("Connection lost while reading: " + e.getMessage());
+                Log.warn("port", "Connection {} lost while reading: {}", getName(), e.getMessage());
             }
         } finally {
-            close();
+            if (socket == current) {
+                connectionLost();
+            }
         }
     }
 
+    private void handleHeartbeat(LineBuffer line) {
+        if (line.startsWith(PING)) {
+            send(new Message(PONG + line.subSequence(PING.length(), line.length())), Message.Priority.CONTROL);
+        } else if (line.startsWith(PONG) && linkHealth != null) {
+            try {
+                linkHealth.pongReceived(Long.parseLong(line, PONG.length(), line.length(), 10), System.nanoTime());
+            } catch (NumberFormatException e) {
+                Log.warn("port", "Malformed heartbeat on {}: {}", getName(), line.toString()); // The buffer is reused
+            }
+        }
+    }
+
+    /**
+     * Starts sending heartbeat pings to the peer every {@code intervalMillis} while connected, and
+     * measuring the replies. Calling it again returns the existing measurements.
+     *
+     * @param intervalMillis    The time between pings.
+     * @param degradedRttMillis The average round-trip time above which the link counts as degraded.
+     * @return The link's health, updated as pongs arrive.
+     */
+    public synchronized LinkHealth enableHeartbeat(long intervalMillis, long degradedRttMillis) {
+        if (linkHealth == null) {
+            linkHealth = new LinkHealth(intervalMillis, degradedRttMillis, this::isConnected);
+            heartbeat = HEARTBEATS.scheduleAtFixedRate(this::sendPing, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return linkHealth;
+    }
+
+    /**
+     * @return The link's health, or {@code null} if the heartbeat is not enabled.
+     */
+    public LinkHealth getLinkHealth() {
+        return linkHealth;
+    }
+
+    private void sendPing() {
+        if (!isConnected()) return;
+        long now = System.nanoTime();
+        linkHealth.pingSent(now);
+        send(new Message(PING + now), Message.Priority.CONTROL);
+    }
+
     /**
-     * Takes a message object from the outgoing queue, converts it to a string,
+     * Called when the peer disconnects or the connection fails. By default the port is closed;
+     * a server port may instead wait for a new peer.
+     */
+    protected void connectionLost() {
+        close();
+    }
+
+    /**
+     * Takes a message object from the most urgent outgoing lane, converts it to a string,
      * and sends it over the socket. This method runs in its own thread.
      */
-    private void writeToSocket() {
+    private void writeToSocket(Socket current, LineWriter writer) {
+        LineBuffer frame = new LineBuffer(); // This thread's copy of the line held by sendLatest
         try {
             while (!Thread.currentThread().isInterrupted()) {
-                Message msg = outQueue.take(); // Blocks until a message is available
-                out.println(msg);
+                Message msg;
+                long queuedNanos;
+                Message.Priority priority;
+                synchronized (outQueue) {
+                    while ((priority = nextLane()) == null) outQueue.wait(); // Blocks until a message is available
+                    msg = lanes.get(priority.ordinal()).poll();
+                    if (blockedSenders > 0) outQueue.notifyAll(); // There is room now
+                    if (msg == LATEST_LINE) {
+                        frame.set(latestOut);
+                        latestOutQueued = false;
+                        latestOutSealed = false;
+                        queuedNanos = latestOutQueuedNanos;
+                    } else {
+                        queuedNanos = msg.queuedNanos;
+                    }
+                }
+                CharSequence content = msg == LATEST_LINE ? frame : msg.getContent();
+                PortIOEvent event = PORT_IO.isEnabled() ? new PortIOEvent() : null;
+                long queueWait = event != null && queuedNanos != 0 ? System.nanoTime() - queuedNanos : 0;
+                if (event != null) event.begin();
+                writer.writeLine(content);
+                if (content.isEmpty() || content.charAt(0) != '~') {
+                    statistics.sent(content.length());
+                    if (event != null && event.shouldCommit()) {
+                        event.port = getName();
+                        event.direction = "write";
+                        event.bytes = content.length() + 1;
+                        event.queueWait = queueWait;
+                        event.priority = priority.name();
+                        event.commit();
+                    }
+                    long now = System.nanoTime();
+                    PortObserver currentObserver = observer;
+                    if (currentObserver != null || CAPTURE != null) {
+                        Message sent = msg == LATEST_LINE ? new Message(frame.toString()) : msg;
+                        if (CAPTURE != null) CAPTURE.sent(this, sent.getContent(), now);
+                        if (currentObserver != null) currentObserver.onSent(sent, now);
+                    }
+                }
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt(); // Preserve the interrupted status
-            System.err.println("Writer thread interrupted.");
+            Log.debug("port", "Writer thread of {} interrupted", getName()); // How close() stops it
+        } catch (IOException e) {
+            if (!isClosed()) {
+                Log.warn("port", "Connection {} lost while writing: {}", getName(), e.getMessage());
+            }
+            try {
+                current.close(); // The reader sees the failure and reports the lost connection
+            } catch (IOException ignored) {
+                // Ignore errors on close.
+            }
         }
     }
 
     /**
-     * Queues a message to be sent asynchronously.
+     * @return The most urgent priority with a message waiting, or {@code null} if none has. The
+     * caller holds the outQueue lock.
+     */
+    private Message.Priority nextLane() {
+        for (Message.Priority priority : PRIORITIES) {
+            if (!lanes.get(priority.ordinal()).isEmpty()) return priority;
+        }
+        return null;
+    }
+
+    /**
+     * Bounds each lane of the send queue, except {@link Message.Priority#CONTROL}: stop commands
+     * and heartbeats are few, and losing or delaying one costs more than the memory it takes.
+     *
+     * @param capacity    The most messages a lane holds.
+     * @param policy      What to do with a message sent to a full lane.
+     * @param blockMillis For {@link OverflowPolicy#BLOCK}, how long a sender waits for room.
+     */
+    public void limitQueue(int capacity, OverflowPolicy policy, long blockMillis) {
+        if (capacity < 1) throw new IllegalArgumentException("Queue limit must be at least 1: " + capacity);
+        synchronized (outQueue) {
+            this.queueLimit = capacity;
+            this.overflowPolicy = policy;
+            this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+        }
+    }
+
+    /**
+     * Bounds each lane of the send queue with a policy that never waits (see
+     * {@link #limitQueue(int, OverflowPolicy, long)}).
+     */
+    public void limitQueue(int capacity, OverflowPolicy policy) {
+        limitQueue(capacity, policy, 0);
+    }
+
+    /**
+     * Queues a message to be sent asynchronously, with {@link Message.Priority#INTERACTIVE}
+     * priority. A port that is still connecting keeps the message and sends it once connected.
      *
      * @param message The Message object to send.
+     * @return false if the message was not queued: the port is closed, or the lane was full and
+     * the port's {@link OverflowPolicy} refused it.
      */
-    public void send(Message message) {
-        if (!isClosed() && message != null) {
-            outQueue.add(message);
+    public boolean send(Message message) {
+        return send(message, Message.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Queues a message to be sent asynchronously, ahead of any queued messages of lower priority.
+     * A port that is still connecting keeps the message and sends it once connected.
+     *
+     * @param message  The Message object to send.
+     * @param priority The lane to queue it in.
+     * @return false if the message was not queued: the port is closed, or the lane was full and
+     * the port's {@link OverflowPolicy} refused it.
+     */
+    public boolean send(Message message, Message.Priority priority) {
+        if (message == null) return false;
+        if (isClosed()) {
+            statistics.dropped();
+            return false;
+        }
+        if (PORT_IO.isEnabled()) message.queuedNanos = System.nanoTime();
+        synchronized (outQueue) {
+            ArrayDeque<Message> lane = lanes.get(priority.ordinal());
+            if (isFull(lane, priority) && !makeRoom(lane, message.getContent())) return false;
+            lane.add(message);
+            if (latestOutQueued && latestOutPriority == priority) latestOutSealed = true;
+            outQueue.notifyAll();
         }
+        return true;
+    }
+
+    /**
+     * @return true if the lane has no room for another message. The caller holds the outQueue lock.
+     */
+    private boolean isFull(ArrayDeque<Message> lane, Message.Priority priority) {
+        return priority != Message.Priority.CONTROL && lane.size() >= queueLimit;
+    }
+
+    /**
+     * Makes room in a full lane for a new message, as the port's overflow policy says. The caller
+     * holds the outQueue lock.
+     *
+     * @param lane    The full lane.
+     * @param content The new message's text.
+     * @return false if the new message must not be queued.
+     */
+    private boolean makeRoom(ArrayDeque<Message> lane, CharSequence content) {
+        switch (overflowPolicy) {
+            case BLOCK -> {
+                long deadline = System.nanoTime() + blockNanos;
+                blockedSenders++;
+                try {
+                    long remaining;
+                    while (lane.size() >= queueLimit && !isClosed() && (remaining = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(outQueue, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blockedSenders--;
+                }
+                if (lane.size() < queueLimit) return true;
+            }
+            case DROP_OLDEST -> {
+                discard(lane.pollFirst());
+                return true;
+            }
+            case CONFLATE -> {
+                for (Iterator<Message> it = lane.iterator(); it.hasNext(); ) {
+                    Message queued = it.next();
+                    if (sameKey(queued == LATEST_LINE ? latestOut : queued.getContent(), content)) {
+                        it.remove();
+                        discard(queued);
+                        return true;
+                    }
+                }
+                discard(lane.pollFirst());
+                return true;
+            }
+            case REJECT -> {
+            }
+        }
+        statistics.overflowed(); // The new message itself
+        return false;
+    }
+
+    /**
+     * Counts a message removed from a lane to make room. The caller holds the outQueue lock.
+     */
+    private void discard(Message message) {
+        if (message == LATEST_LINE) {
+            latestOutQueued = false;
+            latestOutSealed = false;
+        }
+        statistics.overflowed();
+    }
+
+    /**
+     * @return true if both messages have the same text up to their first ':' (see {@link OverflowPolicy#CONFLATE}).
+     */
+    private static boolean sameKey(CharSequence a, CharSequence b) {
+        for (int i = 0; ; i++) {
+            boolean aEnded = i == a.length() || a.charAt(i) == ':';
+            boolean bEnded = i == b.length() || b.charAt(i) == ':';
+            if (aEnded || bEnded) return aEnded && bEnded;
+            if (a.charAt(i) != b.charAt(i)) return false;
+        }
+    }
+
+    /**
+     * Queues a line with {@link Message.Priority#INTERACTIVE} priority that replaces the one from
+     * the previous call if that one has not been written yet (see {@link #sendLatest(CharSequence, Message.Priority)}).
+     *
+     * @param line The line to send.
+     * @return false if the line was not queued (see {@link #send(Message)}).
+     */
+    public boolean sendLatest(CharSequence line) {
+        return sendLatest(line, Message.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Queues a line that replaces the one from the previous call if that one has not been written
+     * yet, for streams where only the newest line matters (such as screen frames). The line is
+     * copied into a buffer the port reuses, so the caller may reuse its own and nothing is
+     * allocated. Lines keep their order with {@link #send}: once a message of the same priority
+     * is queued behind a line, that line is written as it was. A line that replaces another
+     * keeps its place in the other's lane.
+     *
+     * @param line     The line to send.
+     * @param priority The lane to queue it in.
+     * @return false if the line was not queued: the port is closed, or the lane was full and the
+     * port's {@link OverflowPolicy} refused it.
+     */
+    public boolean sendLatest(CharSequence line, Message.Priority priority) {
+        if (isClosed()) {
+            statistics.dropped();
+            return false;
+        }
+        long queuedNanos = PORT_IO.isEnabled() ? System.nanoTime() : 0;
+        synchronized (outQueue) {
+            if (latestOutQueued && !latestOutSealed) {
+                statistics.dropped(); // Replaced before it was written
+            } else {
+                Message.Priority lanePriority = latestOutQueued ? latestOutPriority : priority;
+                ArrayDeque<Message> lane = lanes.get(lanePriority.ordinal());
+                if (isFull(lane, lanePriority) && !makeRoom(lane, line)) return false;
+                if (latestOutQueued) {
+                    // Rare: the line is pinned in place by later messages, so queue this one normally
+                    Message message = new Message(line.toString());
+                    message.queuedNanos = queuedNanos;
+                    lane.add(message);
+                    outQueue.notifyAll();
+                    return true;
+                }
+                lane.add(LATEST_LINE);
+                latestOutQueued = true;
+                latestOutPriority = lanePriority;
+            }
+            latestOut.set(line);
+            latestOutQueuedNanos = queuedNanos;
+            outQueue.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Keeps only the latest received line, in a buffer the port reuses, instead of a Message for
+     * {@link #get()}. Read it with {@link #pollLine}. No objects are created per line unless an
+     * observer is attached or traffic is captured. Lines that arrived before the call are still
+     * kept for {@link #get()}; later ones never are.
+     */
+    public void useLatestLine() {
+        if (latestIn == null) latestIn = new LineBuffer();
+    }
+
+    /**
+     * Takes the line received since the last call, if any (see {@link #useLatestLine}).
+     *
+     * @param into Receives the line, replacing its contents.
+     * @return true if there was a new line.
+     */
+    public boolean pollLine(StringBuilder into) {
+        LineBuffer latest = latestIn;
+        if (latest == null) return false;
+        synchronized (latest) {
+            if (!latestInFresh) return false;
+            latest.copyTo(into);
+            latestInFresh = false;
+            return true;
+        }
+    }
+
+    /**
+     * Names the port in flight recorder events, e.g. after the device or server it talks to.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The port's name, or its local and remote socket ports if it has none.
+     */
+    public String getName() {
+        String n = name;
+        if (n != null) return n;
+        Socket s = socket;
+        return s == null ? "unconnected" : s.getLocalPort() + "->" + s.getPort();
+    }
+
+    /**
+     * @return The traffic totals of this port.
+     */
+    public PortStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Counts this port's traffic in the given totals instead of its own, e.g. to total every
+     * connection of a server. Must be called before the port starts reading and writing.
+     */
+    protected void useStatistics(PortStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return The number of messages waiting to be written.
+     */
+    public int getQueueDepth() {
+        synchronized (outQueue) {
+            int depth = 0;
+            for (ArrayDeque<Message> lane : lanes) depth += lane.size();
+            return depth;
+        }
+    }
+
+    /**
+     * @return The number of messages of the given priority waiting to be written.
+     */
+    public int getQueueDepth(Message.Priority priority) {
+        synchronized (outQueue) {
+            return lanes.get(priority.ordinal()).size();
+        }
+    }
+
+    /**
+     * Delivers every received message to the given handler, on the reader thread, instead of
+     * keeping only the latest one for {@link #get()}. Use this for request/response servers
+     * where no message may be dropped. The handler must not block for long.
+     *
+     * @param handler The handler to call for each message, or {@code null} to go back to polling.
+     */
+    public void setMessageHandler(Consumer<Message> handler) {
+        this.messageHandler = handler;
+    }
+
+    /**
+     * Attaches an observer that sees every message sent and received from now on, replacing any
+     * previous one.
+     *
+     * @param observer The observer, or {@code null} to stop observing.
+     */
+    public void setObserver(PortObserver observer) {
+        this.observer = observer;
     }
 
     /**
@@ -111,18 +616,46 @@ abstract class AbstractIOPort {
     }
 
     /**
-     * Checks if the port's socket connection is closed or not initialized.
+     * Checks if the port has been closed, failed to connect, or lost its connection.
+     * A port that is still connecting is not closed.
      *
      * @return true if the connection is closed, false otherwise.
      */
-    private boolean isClosed() {
-        return socket == null || socket.isClosed();
+    public boolean isClosed() {
+        return closed || (socket != null && socket.isClosed());
+    }
+
+    /**
+     * @return true once {@link #close()} has been called, whatever the state of the connection.
+     */
+    protected boolean isCloseRequested() {
+        return closed;
+    }
+
+    /**
+     * @return true once the port has a live connection to its peer.
+     */
+    public boolean isConnected() {
+        Socket s = socket;
+        return !closed && s != null && !s.isClosed();
     }
 
     /**
      * Closes the connection and all associated resources cleanly. (Safe to call multiple times.)
      */
     public void close() {
+        closed = true;
+        synchronized (this) {
+            if (heartbeat != null) heartbeat.cancel(false);
+        }
+        closeConnection();
+    }
+
+    /**
+     * Stops the reader and writer threads and closes the current socket, without closing the port.
+     * Messages still queued are kept for the next connection.
+     */
+    protected void closeConnection() {
         if (writerThread != null) {
             writerThread.interrupt();
         }
@@ -131,8 +664,7 @@ abstract class AbstractIOPort {
         }
 
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
+            // Closing the socket unblocks a reader still waiting for a line, and closes its streams.
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
@@ -0,0 +1,59 @@
+package Server;
+
+/**
+ * Currency amounts as a primitive {@code long} number of cents.
+ * The meter, screen, bank and station log all use these helpers, so an amount is
+ * computed once and then formatted identically at every hop.
+ */
+public final class Cents {
+
+    private static final int SCALE = FixedPointFormat.CENTS_SCALE;
+
+    private Cents() {
+    }
+
+    /**
+     * Computes the cost of a volume of fuel at a unit price, rounded half-up to the nearest cent.
+     *
+     * @param centsPerGallon The unit price in cents per gallon.
+     * @param milliGallons   The volume in thousandths of a gallon.
+     * @return The cost in cents.
+     */
+    public static long costOf(long centsPerGallon, long milliGallons) {
+        return (centsPerGallon * milliGallons + 500) / 1000;
+    }
+
+    /**
+     * Parses a dollar amount such as "12.34" or "$12.34" into cents.
+     *
+     * @param text The amount to parse.
+     * @return The amount in cents.
+     * @throws NumberFormatException if the text is not a valid amount.
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a dollar amount from a region of a larger character sequence.
+     *
+     * @param text  The characters to parse.
+     * @param start The index of the first character (inclusive).
+     * @param end   The index of the last character (exclusive).
+     * @return The amount in cents.
+     * @throws NumberFormatException if the region is not a valid amount.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        return FixedPointFormat.parse(text, start, end, SCALE);
+    }
+
+    /**
+     * Formats an amount as dollars with two decimals (e.g., "12.34"), without a currency sign.
+     *
+     * @param cents The amount in cents.
+     * @return The formatted amount.
+     */
+    public static String toString(long cents) {
+        return FixedPointFormat.appendCents(new StringBuilder(12), cents).toString();
+    }
+}
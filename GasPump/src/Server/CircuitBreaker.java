@@ -0,0 +1,92 @@
+package Server;
+
+/**
+ * Stops calls to a failing upstream server for a while, instead of letting each one wait out its
+ * timeout. After a number of consecutive failures the breaker is {@link State#OPEN} and refuses
+ * calls; once its open time has passed it lets the next call through as a probe
+ * ({@link State#HALF_OPEN}), which closes it on success and opens it again on failure. Only one
+ * probe is out at a time: other calls are refused until its outcome is recorded.
+ * <p>
+ * Outcomes may be recorded from several threads, e.g. by a sender working in the background as well
+ * as by the calls it guards; the state may be read from any thread.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * Whether calls go through.
+     */
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private volatile State state = State.CLOSED;
+    private volatile long timesOpened;
+    private int consecutiveFailures;
+    private long openedNanos;
+    private boolean probeInFlight;
+
+    /**
+     * @param failureThreshold The consecutive failures that open the breaker.
+     * @param openMillis       How long the breaker stays open before it lets a probe through.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000;
+    }
+
+    /**
+     * @return {@code true} if a call may be made now; when the open time has passed, the first call
+     * is the probe, and the caller must record its outcome.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedNanos >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state != State.HALF_OPEN) return state == State.CLOSED;
+        if (probeInFlight) return false;
+        probeInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records a call that the server answered, closing the breaker.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a call that failed, opening the breaker if it was the probe or one too many.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Opens the breaker at once, e.g. when the link to the server is known to be down. Restarts the
+     * open time if it is already open.
+     */
+    public synchronized void open() {
+        if (state != State.OPEN) timesOpened++;
+        probeInFlight = false;
+        state = State.OPEN;
+        openedNanos = System.nanoTime();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the breaker has opened.
+     */
+    public long getTimesOpened() {
+        return timesOpened;
+    }
+}
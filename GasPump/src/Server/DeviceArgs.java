@@ -0,0 +1,76 @@
+package Server;
+
+/**
+ * Parses the command-line options shared by every device simulator.
+ * <ul>
+ *     <li>{@code --headless} runs the device's protocol logic without opening a window.</li>
+ *     <li>{@code --pump=N} selects which pump's ports the device listens on (default 0).</li>
+ * </ul>
+ */
+public final class DeviceArgs {
+
+    private static final String HEADLESS = "--headless";
+    private static final String PUMP_PREFIX = "--pump=";
+
+    private DeviceArgs() {
+    }
+
+    /**
+     * @param args The program arguments.
+     * @return {@code true} if the device should run without a display.
+     */
+    public static boolean isHeadless(String[] args) {
+        for (String arg : args) {
+            if (HEADLESS.equals(arg)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param args The program arguments.
+     * @param flag The flag, e.g. "--hedge-bank".
+     * @return {@code true} if the flag is among the arguments.
+     */
+    public static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (flag.equals(arg)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param args The program arguments.
+     * @return The zero-based pump index given with {@code --pump=N}, or 0 if absent.
+     */
+    public static int pumpIndex(String[] args) {
+        return intOption(args, PUMP_PREFIX, 0);
+    }
+
+    /**
+     * Reads an integer option of the form {@code prefixN}.
+     *
+     * @param args         The program arguments.
+     * @param prefix       The option prefix including '=', e.g. "--pumps=".
+     * @param defaultValue The value used when the option is absent.
+     * @return The parsed value, or {@code defaultValue}.
+     * @throws NumberFormatException if the option is present but not a number.
+     */
+    public static int intOption(String[] args, String prefix, int defaultValue) {
+        String value = option(args, prefix);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Reads a string option of the form {@code prefixValue}.
+     *
+     * @param args   The program arguments.
+     * @param prefix The option prefix including '=', e.g. "--script=".
+     * @return The option value, or {@code null} if absent.
+     */
+    public static String option(String[] args, String prefix) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return null;
+    }
+}
@@ -25,4 +25,29 @@ public class DeviceConstants {
     public static final String HOSE_HOSTNAME = "localhost";
     public static final int HOSE_PORT = 1240;
 
+    // Per-pump devices (pump, card reader, flow meter, screen, hose) of pump N listen on
+    // their base port + N * PUMP_PORT_STRIDE, so many dispensers can share one machine.
+    // The bank and gas station are shared by every pump and always use their base port.
+    public static final int PUMP_PORT_STRIDE = 100;
+
+    /**
+     * Returns the port a per-pump device of the given pump listens on.
+     *
+     * @param basePort  The device's base port (e.g., {@link #HOSE_PORT}).
+     * @param pumpIndex The zero-based pump number.
+     * @return The port number for that pump's device.
+     */
+    public static int portFor(int basePort, int pumpIndex) {
+        return basePort + pumpIndex * PUMP_PORT_STRIDE;
+    }
+
+    // Timeout for each attempt to connect to a device on the pump itself
+    public static final int DEVICE_CONNECT_TIMEOUT_MS = 2000;
+    // Timeout for each attempt to connect to the bank or gas station, which may be remote
+    public static final int UPSTREAM_CONNECT_TIMEOUT_MS = 5000;
+
+    // Time between heartbeat pings on each controller link
+    public static final int HEARTBEAT_INTERVAL_MS = 1000;
+    // Average heartbeat round trip above which a link counts as degraded
+    public static final int DEGRADED_RTT_MS = 250;
 }
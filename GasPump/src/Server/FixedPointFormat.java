@@ -0,0 +1,148 @@
+package Server;
+
+/**
+ * Allocation-free parsing and formatting for decimal fixed-point values stored as a primitive {@code long}.
+ * A value with {@code scale} fractional digits is stored as {@code value * 10^scale}, so
+ * "4.59" with scale 2 is held as {@code 459}. Nothing here goes through {@code double},
+ * {@code java.text} or {@link java.util.Formatter}.
+ * <p>
+ * All methods are static and keep no state, so they are safe to call from any number of
+ * pump threads at once. Callers supply (and typically reuse) the destination buffer.
+ */
+public final class FixedPointFormat {
+
+    /** Fractional digits used for currency (cents). */
+    public static final int CENTS_SCALE = 2;
+    /** Fractional digits used for fuel volume (milli-gallons). */
+    public static final int MILLI_GALLONS_SCALE = 3;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L};
+
+    private FixedPointFormat() {
+    }
+
+    /**
+     * Parses a decimal number such as "12.345" into a scaled long.
+     * A leading '$' is skipped. Fractional digits beyond the scale are rounded half-up.
+     *
+     * @param text  The characters to parse.
+     * @param start The index of the first character (inclusive).
+     * @param end   The index of the last character (exclusive).
+     * @param scale The number of fractional digits kept.
+     * @return The scaled value.
+     * @throws NumberFormatException if the text is not a plain decimal number, or its scaled value does not fit in a long.
+     */
+    public static long parse(CharSequence text, int start, int end, int scale) {
+        try {
+            return parseExact(text, start, end, scale);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Fixed-point value out of range: " + text.subSequence(start, end));
+        }
+    }
+
+    /** Parses as {@link #parse}, throwing {@link ArithmeticException} when the scaled value overflows. */
+    private static long parseExact(CharSequence text, int start, int end, int scale) {
+        int i = start;
+        if (i < end && text.charAt(i) == '$') i++;
+        boolean negative = false;
+        if (i < end && text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        if (i >= end) throw new NumberFormatException("Empty fixed-point value");
+
+        long whole = 0;
+        int digits = 0;
+        while (i < end && text.charAt(i) != '.') {
+            whole = Math.addExact(Math.multiplyExact(whole, 10), digit(text.charAt(i++)));
+            digits++;
+        }
+
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end) {
+            i++; // skip '.'
+            while (i < end) {
+                int d = digit(text.charAt(i++));
+                if (fractionDigits < scale) {
+                    fraction = fraction * 10 + d;
+                    fractionDigits++;
+                } else if (fractionDigits == scale) {
+                    roundUp = d >= 5;
+                    fractionDigits++;
+                }
+                digits++;
+            }
+        }
+        if (digits == 0) throw new NumberFormatException("No digits in fixed-point value");
+
+        long scaled = Math.addExact(Math.multiplyExact(whole, POWERS_OF_TEN[scale]),
+                fraction * POWERS_OF_TEN[scale - Math.min(fractionDigits, scale)] + (roundUp ? 1 : 0));
+        return negative ? -scaled : scaled;
+    }
+
+    /**
+     * Appends a scaled long as a decimal number with exactly {@code scale} fractional digits.
+     *
+     * @param sb    The builder to append to.
+     * @param value The scaled value.
+     * @param scale The number of fractional digits.
+     * @return The same builder, for chaining.
+     */
+    public static StringBuilder append(StringBuilder sb, long value, int scale) {
+        if (value < 0) {
+            sb.append('-');
+            value = -value;
+        }
+        long unit = POWERS_OF_TEN[scale];
+        sb.append(value / unit);
+        if (scale > 0) {
+            sb.append('.');
+            long fraction = value % unit;
+            for (long p = unit / 10; p > 0; p /= 10) {
+                sb.append((char) ('0' + (fraction / p) % 10));
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a volume in gallons with three decimals (e.g., "1.234").
+     *
+     * @param sb           The builder to append to.
+     * @param milliGallons The volume in milli-gallons.
+     * @return The same builder, for chaining.
+     */
+    public static StringBuilder appendGallons(StringBuilder sb, long milliGallons) {
+        return append(sb, milliGallons, MILLI_GALLONS_SCALE);
+    }
+
+    /**
+     * Appends an amount with two decimals and no currency sign (e.g., "12.34"),
+     * as used in bank and station protocol messages.
+     *
+     * @param sb    The builder to append to.
+     * @param cents The amount in cents.
+     * @return The same builder, for chaining.
+     */
+    public static StringBuilder appendCents(StringBuilder sb, long cents) {
+        return append(sb, cents, CENTS_SCALE);
+    }
+
+    /**
+     * Appends an amount with a leading dollar sign (e.g., "$12.34"), as shown on screens.
+     *
+     * @param sb    The builder to append to.
+     * @param cents The amount in cents.
+     * @return The same builder, for chaining.
+     */
+    public static StringBuilder appendDollars(StringBuilder sb, long cents) {
+        return appendCents(sb.append('$'), cents);
+    }
+
+    private static int digit(char c) {
+        if (c < '0' || c > '9') throw new NumberFormatException("Invalid digit '" + c + "' in fixed-point value");
+        return c - '0';
+    }
+}
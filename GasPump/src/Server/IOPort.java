@@ -1,15 +1,32 @@
 package Server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A two-way communication port that acts as a CLIENT.
  * It connects to a specified server and then uses threaded, non-blocking I/O
- * for sending and receiving messages.
+ * for sending and receiving messages. A port can also connect in the background
+ * (see {@link #connectInBackground}), in which case messages sent before the
+ * connection is up are queued and delivered once it is.
+ * <p>
+ * If an established connection is lost (the server restarted, say), the port is not closed: it
+ * reconnects in the background with the same backoff, the way {@link IOPortServer} goes back to
+ * listening. Messages sent in the meantime are queued for the new connection.
  */
 public class IOPort extends AbstractIOPort {
 
+    // Retry delays for background connections, doubling up to the maximum
+    private static final long FIRST_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 2000;
+
+    private final String host;
+    private final int port;
+    private final CompletableFuture<IOPort> connected = new CompletableFuture<>();
+    private volatile int connectTimeoutMillis;
+
     /**
      * Initializes the IOPort as a CLIENT, connecting to a server at the specified host and port.
      * This constructor is blocking and will not return until a connection is established or fails.
@@ -18,14 +35,119 @@ public class IOPort extends AbstractIOPort {
      * @param port The port number of the server to connect to.
      */
     public IOPort(String host, int port) {
+        this(host, port, 0);
+    }
+
+    /**
+     * Initializes the IOPort as a CLIENT, connecting to a server at the specified host and port.
+     * This constructor is blocking and will not return until a connection is established, fails,
+     * or the timeout expires.
+     *
+     * @param host                 The hostname or IP address of the server to connect to.
+     * @param port                 The port number of the server to connect to.
+     * @param connectTimeoutMillis The connect timeout, or 0 to wait as long as the OS allows.
+     */
+    public IOPort(String host, int port, int connectTimeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
         try {
-            System.out.println("[CLIENT] Connecting to server at " + host + ":" + port + "...");
-            this.socket = new Socket(host, port);
-            System.out.println("[CLIENT] Connection established successfully to " + socket.getInetAddress());
-            initializeStreamsAndThreads();
+            Log.info("client", "Connecting to server at {}:{}...", host, port);
+            connect(connectTimeoutMillis);
         } catch (IOException e) {
-            System.err.println("FATAL: Client IOPort failed to connect to " + host + ":" + port + ": " + e.getMessage());
+            Log.error("client", "Client IOPort failed to connect to {}: {}", host + ":" + port, e.getMessage());
             close(); // Ensure all resources are cleaned up on failure
+            connected.completeExceptionally(e);
         }
     }
+
+    private IOPort(String host, int port, int connectTimeoutMillis, String threadName) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        startConnector(threadName);
+    }
+
+    private void startConnector(String threadName) {
+        Thread connector = new Thread(() -> connectWithRetry(connectTimeoutMillis), threadName);
+        connector.setDaemon(true);
+        connector.start();
+    }
+
+    /**
+     * Creates a CLIENT port that connects on a background thread and returns immediately.
+     * Each attempt gives up after {@code connectTimeoutMillis}; failed attempts are retried with
+     * backoff until the port connects or is closed, so the server may start later than the client.
+     * Messages sent in the meantime are queued, and {@link #get()} returns {@code null} until connected.
+     *
+     * @param host                 The hostname or IP address of the server to connect to.
+     * @param port                 The port number of the server to connect to.
+     * @param connectTimeoutMillis The timeout for each connection attempt.
+     * @return The (possibly not yet connected) port.
+     */
+    public static IOPort connectInBackground(String host, int port, int connectTimeoutMillis) {
+        return new IOPort(host, port, connectTimeoutMillis, "connect-" + host + ":" + port);
+    }
+
+    /**
+     * @return A future completed with this port once it is connected (or exceptionally if a blocking connect failed).
+     */
+    public CompletableFuture<IOPort> whenConnected() {
+        return connected;
+    }
+
+    /**
+     * @return The server's address, as {@code host:port}.
+     */
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    private void connect(int connectTimeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        this.socket = s;
+        initializeStreamsAndThreads();
+        Log.info("client", "Connection established successfully to {} in {} ms", getAddress(),
+                (System.nanoTime() - start) / 1_000_000);
+        connected.complete(this);
+    }
+
+    private void connectWithRetry(int connectTimeoutMillis) {
+        long retryDelay = FIRST_RETRY_MS;
+        boolean reported = false;
+        while (!isClosed()) {
+            try {
+                connect(connectTimeoutMillis);
+                if (isClosed()) close(); // Closed while the connection was being set up
+                return;
+            } catch (IOException e) {
+                if (!reported) {
+                    Log.warn("client", "{} is not reachable yet ({}); retrying in the background", getAddress(), e.getMessage());
+                    reported = true;
+                }
+            }
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_MS);
+        }
+    }
+
+    @Override
+    protected void connectionLost() {
+        if (isCloseRequested()) return;
+        Log.warn("client", "Lost the connection to {}; reconnecting in the background", getAddress());
+        closeConnection();
+        this.socket = null; // Not closed: sends queue up for the next connection
+        startConnector("reconnect-" + getAddress());
+    }
 }
@@ -0,0 +1,147 @@
+package Server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A SERVER port that accepts any number of client connections, such as every pump
+ * controller talking to the shared bank or gas station.
+ * It binds immediately and accepts in a background thread; each accepted client gets its own
+ * {@link Connection} with the usual threaded I/O, which is handed to a callback.
+ */
+public class IOPortMultiServer {
+
+    private final ServerSocket serverSocket;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final Consumer<Connection> onConnect;
+    private final PortStatistics statistics = new PortStatistics();
+
+    /**
+     * Binds the server to the given port and starts accepting clients in the background.
+     *
+     * @param port      The port number to listen on.
+     * @param onConnect Called on the accept thread for each new client, before any of its
+     *                  messages are read. Typically installs a message handler. The client is
+     *                  already connected, so broadcasts made meanwhile reach it as well.
+     * @throws IOException if the port cannot be bound.
+     */
+    public IOPortMultiServer(int port, Consumer<Connection> onConnect) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.onConnect = onConnect;
+        Log.info("server", "Listening for multiple clients on port {}...", port);
+
+        Thread acceptThread = new Thread(this::acceptClients, "accept-" + port);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void acceptClients() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Log.info("server", "Client connected from {}:{}", socket.getInetAddress(), socket.getPort());
+                Connection connection = new Connection(socket, statistics, connections::remove);
+                connections.add(connection); // First, so no broadcast misses it while onConnect runs
+                onConnect.accept(connection);
+                try {
+                    connection.start();
+                } catch (IOException e) {
+                    connection.close();
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.warn("server", "Failed to accept client on port {}: {}", serverSocket.getLocalPort(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a message to every currently connected client.
+     *
+     * @param message The message to send.
+     */
+    public void broadcast(Message message) {
+        for (Connection connection : connections) {
+            connection.send(message);
+        }
+    }
+
+    /**
+     * @return The currently connected clients. A connection leaves the list as soon as it closes,
+     * whichever side closed it.
+     */
+    public List<Connection> getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return The traffic totals of every connection this server has accepted.
+     */
+    public PortStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return The number of messages waiting to be written, across every connection.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Connection connection : connections) depth += connection.getQueueDepth();
+        return depth;
+    }
+
+    /**
+     * Stops accepting clients and closes every connection.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore errors on close.
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * One accepted client connection.
+     */
+    public static class Connection extends AbstractIOPort {
+
+        private final Consumer<Connection> onClose;
+
+        private Connection(Socket socket, PortStatistics statistics, Consumer<Connection> onClose) {
+            this.socket = socket;
+            this.onClose = onClose;
+            useStatistics(statistics);
+        }
+
+        /**
+         * Closes the connection and removes it from its server's connections. A lost connection is
+         * closed this way too.
+         */
+        @Override
+        public void close() {
+            super.close();
+            onClose.accept(this);
+        }
+
+        private void start() throws IOException {
+            initializeStreamsAndThreads();
+        }
+
+        /**
+         * @return The client's address and port, for logging.
+         */
+        public String getRemoteAddress() {
+            return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+    }
+}
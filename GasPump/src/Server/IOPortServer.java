@@ -2,31 +2,109 @@ package Server;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 /**
  * A, two-way communication port that acts as a SERVER.
  * It listens on a specified port for a single client connection and then uses
  * threaded, non-blocking I/O for sending and receiving messages.
+ * <p>
+ * The port is bound as soon as it is created, but clients are accepted on a background thread,
+ * so a device can start (and show its window) before its controller connects. Messages sent
+ * while no client is connected are queued and delivered once one is. If the client disconnects,
+ * the port goes back to listening for the next one.
  */
 public class IOPortServer extends AbstractIOPort {
 
+    /**
+     * The state of the port's connection.
+     */
+    public enum State {LISTENING, CONNECTED, CLOSED}
+
+    private final int port;
+    private ServerSocket serverSocket;
+    private final CompletableFuture<IOPortServer> connected = new CompletableFuture<>();
+    // Released when the current client disconnects, so the accept thread can take the next one
+    private final Semaphore disconnected = new Semaphore(0);
+
     /**
      * Initializes the IOPort as a SERVER, listening on the specified port.
-     * NOTE: This constructor is blocking and will NOT return until a client connects.
+     * Returns as soon as the port is bound; clients are accepted in the background.
      *
      * @param port The port number to listen on.
      */
     public IOPortServer(int port) {
-        // Using try-with-resources for the ServerSocket to ensure it's always closed
-        // after a connection is made or an error occurs.
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("[SERVER] Listening on port " + port + "...");
-            this.socket = serverSocket.accept(); // Blocks until a client connects
-            System.out.println("[SERVER] Client connected from " + socket.getInetAddress());
-            initializeStreamsAndThreads();
+        this.port = port;
+        try {
+            this.serverSocket = new ServerSocket(port);
+            Log.info("server", "Listening on port {}...", port);
+            Thread acceptThread = new Thread(this::acceptClients, "accept-" + port);
+            acceptThread.setDaemon(true);
+            acceptThread.start();
         } catch (IOException e) {
-            System.err.println("FATAL: Server IOPort failed to initialize on port " + port + ": " + e.getMessage());
+            Log.error("server", "Server IOPort failed to initialize on port {}: {}", port, e.getMessage());
             close(); // Ensure all resources are cleaned up on failure
+            connected.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return Whether the port is waiting for a client, connected to one, or closed.
+     */
+    public State getState() {
+        if (isClosed()) return State.CLOSED;
+        return isConnected() ? State.CONNECTED : State.LISTENING;
+    }
+
+    /**
+     * @return A future completed when the first client connects.
+     */
+    public CompletableFuture<IOPortServer> whenConnected() {
+        return connected;
+    }
+
+    private void acceptClients() {
+        while (!isClosed()) {
+            try {
+                Socket client = serverSocket.accept(); // Blocks until a client connects
+                if (isClosed()) {
+                    client.close();
+                    return;
+                }
+                this.socket = client;
+                Log.info("server", "Client connected from {} on port {}", client.getInetAddress(), port);
+                initializeStreamsAndThreads();
+                connected.complete(this);
+                disconnected.acquire(); // Serve this client until it goes away
+            } catch (IOException e) {
+                if (!isClosed()) {
+                    Log.warn("server", "Server IOPort on port {} failed to accept a client: {}", port, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void connectionLost() {
+        if (isCloseRequested()) return;
+        Log.info("server", "Client disconnected from port {}; listening again.", port);
+        closeConnection();
+        this.socket = null; // Back to listening: sends queue up for the next client
+        disconnected.release();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            // Ignore errors on close.
         }
+        disconnected.release();
     }
 }
@@ -0,0 +1,140 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of latencies (or any non-negative long values).
+ * Values are bucketed on a log scale with 16 linear sub-buckets per power of two, which keeps
+ * the relative error of any reported percentile under about 6%. Recording is a few bit
+ * operations and atomic increments, so it is safe to call on hot paths from many threads, and
+ * percentiles can be read at any time without stopping writers.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value. Negative values are recorded as zero.
+     *
+     * @param value The value to record, e.g. a latency in nanoseconds.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) break;
+        }
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return The sum of all values recorded.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return The mean of all values recorded, or 0 if none.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns an upper bound for the value at the given percentile.
+     *
+     * @param percentile The percentile, from 0 to 100 (e.g., 99.9).
+     * @return The highest value in the bucket holding that percentile, capped at the maximum
+     * recorded value, or 0 if nothing has been recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with a reset may be partly lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return The number of buckets; bucket {@code i} covers values up to {@link #bucketUpperBound(int)}.
+     */
+    public static int bucketCount() {
+        return BUCKETS;
+    }
+
+    /**
+     * @param bucket A bucket index, from 0 to {@link #bucketCount()} - 1.
+     * @return The highest value that falls into the bucket.
+     */
+    public static long bucketUpperBound(int bucket) {
+        return highestValueOf(bucket);
+    }
+
+    /**
+     * @param bucket A bucket index.
+     * @return The number of values recorded in the bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value; // Small values are exact
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long next = (SUB_BUCKETS + subBucket + 1) << shift;
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package Server;
+
+/**
+ * A reusable line of characters. Ports read into and write from these so that a steady stream of
+ * lines needs no new objects: the array only grows when a longer line comes along.
+ * <p>
+ * Not thread-safe; a buffer is owned by one thread or guarded by its owner's lock.
+ */
+final class LineBuffer implements CharSequence {
+
+    private char[] chars = new char[256];
+    private int length;
+
+    /**
+     * Replaces the contents with the given characters.
+     */
+    void set(CharSequence text) {
+        int n = text.length();
+        ensureCapacity(n);
+        if (text instanceof LineBuffer other) {
+            System.arraycopy(other.chars, 0, chars, 0, n);
+        } else {
+            for (int i = 0; i < n; i++) chars[i] = text.charAt(i);
+        }
+        length = n;
+    }
+
+    /**
+     * Copies the contents into a builder, replacing what it held.
+     */
+    void copyTo(StringBuilder sb) {
+        sb.setLength(0);
+        sb.append(chars, 0, length);
+    }
+
+    /**
+     * @return The backing array, with room for at least {@code capacity} characters. Its first
+     * {@link #length()} characters are the line; callers filling it directly then call {@link #setLength}.
+     */
+    char[] ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            char[] grown = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+        return chars;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * @return true if the line starts with the given prefix.
+     */
+    boolean startsWith(String prefix) {
+        if (prefix.length() > length) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) throw new IndexOutOfBoundsException(index);
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,133 @@
+package Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads newline-terminated UTF-8 lines from a socket into a {@link LineBuffer}, without creating
+ * objects per line (unlike {@link java.io.BufferedReader#readLine()}, which makes a new String, and
+ * {@link java.io.InputStreamReader}, which wraps every read in a new buffer).
+ * A trailing carriage return is dropped; malformed UTF-8 becomes U+FFFD.
+ */
+final class LineReader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+    private byte[] lineBytes = new byte[256];
+
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line, blocking until it is complete.
+     *
+     * @param line Receives the line, without its terminator.
+     * @return false at the end of the stream.
+     * @throws IOException if the socket fails.
+     */
+    boolean readLine(LineBuffer line) throws IOException {
+        int lineLength = 0;
+        boolean ascii = true;
+        while (true) {
+            if (position == limit) {
+                int n = in.read(buffer);
+                if (n < 0) {
+                    if (lineLength == 0) return false;
+                    break; // A last line without a terminator
+                }
+                position = 0;
+                limit = n;
+            }
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                if (buffer[position] < 0) ascii = false;
+                position++;
+            }
+            int count = position - start;
+            if (lineLength + count > lineBytes.length) {
+                byte[] grown = new byte[Math.max(lineLength + count, lineBytes.length * 2)];
+                System.arraycopy(lineBytes, 0, grown, 0, lineLength);
+                lineBytes = grown;
+            }
+            System.arraycopy(buffer, start, lineBytes, lineLength, count);
+            lineLength += count;
+            if (position < limit) {
+                position++; // Consume the '\n'
+                break;
+            }
+        }
+        if (lineLength > 0 && lineBytes[lineLength - 1] == '\r') lineLength--;
+
+        // UTF-8 never takes more chars than bytes
+        char[] chars = line.ensureCapacity(lineLength);
+        if (ascii) {
+            for (int i = 0; i < lineLength; i++) chars[i] = (char) lineBytes[i];
+            line.setLength(lineLength);
+        } else {
+            line.setLength(decode(lineBytes, lineLength, chars));
+        }
+        return true;
+    }
+
+    /**
+     * Decodes UTF-8, replacing each malformed sequence with U+FFFD.
+     *
+     * @return The number of chars written.
+     */
+    private static int decode(byte[] bytes, int length, char[] chars) {
+        int n = 0;
+        int i = 0;
+        while (i < length) {
+            int b = bytes[i++] & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+                continue;
+            }
+            int extra;
+            int codePoint;
+            if (b >= 0xC2 && b <= 0xDF) {
+                extra = 1;
+                codePoint = b & 0x1F;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                extra = 2;
+                codePoint = b & 0x0F;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                extra = 3;
+                codePoint = b & 0x07;
+            } else {
+                chars[n++] = REPLACEMENT;
+                continue;
+            }
+            boolean valid = i + extra <= length;
+            int end = Math.min(i + extra, length);
+            while (i < end) {
+                int continuation = bytes[i] & 0xFF;
+                if ((continuation & 0xC0) != 0x80) {
+                    valid = false; // Leave the byte to start the next sequence
+                    break;
+                }
+                codePoint = codePoint << 6 | continuation & 0x3F;
+                i++;
+            }
+            // Reject overlong forms, surrogates and values past U+10FFFF
+            if (!valid || (extra == 2 && (codePoint < 0x800 || Character.isSurrogate((char) codePoint)))
+                    || (extra == 3 && (codePoint < 0x10000 || codePoint > 0x10FFFF))) {
+                chars[n++] = REPLACEMENT;
+                continue;
+            }
+            if (extra == 3) {
+                // Four bytes become a surrogate pair
+                chars[n++] = Character.highSurrogate(codePoint);
+                chars[n++] = Character.lowSurrogate(codePoint);
+            } else {
+                chars[n++] = (char) codePoint;
+            }
+        }
+        return n;
+    }
+}
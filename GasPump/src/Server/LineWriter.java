@@ -0,0 +1,54 @@
+package Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes lines to a socket as UTF-8, each followed by {@code '\n'}, with one socket write per line
+ * and no objects created per line (unlike {@link java.io.PrintWriter} over an
+ * {@link java.io.OutputStreamWriter}, which wraps every write in a new buffer). The socket itself
+ * only makes a new buffer when a line is longer than any it has written before.
+ */
+final class LineWriter {
+
+    private final OutputStream out;
+    private byte[] bytes = new byte[512];
+
+    LineWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes one line and its terminator.
+     *
+     * @throws IOException if the socket fails.
+     */
+    void writeLine(CharSequence line) throws IOException {
+        int length = line.length();
+        if (length * 3 + 1 > bytes.length) bytes = new byte[Math.max(length * 3 + 1, bytes.length * 2)];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                bytes[n++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[n++] = (byte) (0xC0 | c >> 6);
+                bytes[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, line.charAt(++i));
+                bytes[n++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[n++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[n++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[n++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                bytes[n++] = '?'; // An unpaired surrogate, as the JDK's encoder writes it
+            } else {
+                bytes[n++] = (byte) (0xE0 | c >> 12);
+                bytes[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        bytes[n++] = '\n';
+        out.write(bytes, 0, n);
+    }
+}
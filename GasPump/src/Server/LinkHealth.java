@@ -0,0 +1,129 @@
+package Server;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Liveness and round-trip latency of one link, measured by the heartbeat of an IOPort
+ * (see {@link IOPort#enableHeartbeat}).
+ * <p>
+ * Each pong updates an exponentially weighted moving average of the round-trip time and a
+ * {@link LatencyHistogram} covering the current one-minute window, so percentiles follow recent
+ * behaviour rather than the whole uptime. A link is {@link Status#DEGRADED} when its average or p99
+ * round trip is too slow or pongs are late, and {@link Status#DOWN} when it is disconnected or
+ * silent for several heartbeat intervals.
+ */
+public final class LinkHealth {
+
+    /**
+     * The health of a link.
+     */
+    public enum Status {UNKNOWN, HEALTHY, DEGRADED, DOWN}
+
+    // Weight of the newest sample in the moving average
+    private static final double EWMA_ALPHA = 0.2;
+    private static final long WINDOW_NANOS = 60_000_000_000L;
+    // Percentiles of a window with fewer samples fall back to the previous window
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    // Silent for this many intervals: DEGRADED; for the larger number: DOWN
+    private static final int LATE_INTERVALS = 2;
+    private static final int DOWN_INTERVALS = 5;
+
+    private final long intervalNanos;
+    private final long degradedRttNanos;
+    private final BooleanSupplier connected;
+
+    // Written only by the port's reader thread (pongs) or heartbeat thread (pings)
+    private volatile double ewmaRttNanos = -1;
+    private volatile long firstPingNanos = 0;
+    private volatile long lastPongNanos = 0;
+    private volatile long pingsSent = 0;
+    private volatile long pongsReceived = 0;
+    private volatile LatencyHistogram window = new LatencyHistogram();
+    private volatile LatencyHistogram previousWindow = new LatencyHistogram();
+    private volatile long windowStartNanos = System.nanoTime();
+
+    LinkHealth(long intervalMillis, long degradedRttMillis, BooleanSupplier connected) {
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.degradedRttNanos = degradedRttMillis * 1_000_000;
+        this.connected = connected;
+    }
+
+    void pingSent(long nowNanos) {
+        if (firstPingNanos == 0) firstPingNanos = nowNanos;
+        pingsSent++;
+    }
+
+    void pongReceived(long sentNanos, long nowNanos) {
+        long rtt = nowNanos - sentNanos;
+        if (nowNanos - windowStartNanos > WINDOW_NANOS) {
+            previousWindow = window;
+            window = new LatencyHistogram();
+            windowStartNanos = nowNanos;
+        }
+        window.record(rtt);
+        double ewma = ewmaRttNanos;
+        ewmaRttNanos = ewma < 0 ? rtt : ewma + EWMA_ALPHA * (rtt - ewma);
+        lastPongNanos = nowNanos;
+        pongsReceived++;
+    }
+
+    /**
+     * @return The link's current health.
+     */
+    public Status getStatus() {
+        if (!connected.getAsBoolean()) return Status.DOWN;
+        if (firstPingNanos == 0) return Status.UNKNOWN;
+        long silentNanos = System.nanoTime() - Math.max(lastPongNanos, firstPingNanos);
+        if (silentNanos > DOWN_INTERVALS * intervalNanos) return Status.DOWN;
+        if (silentNanos > LATE_INTERVALS * intervalNanos) return Status.DEGRADED;
+        if (pongsReceived == 0) return Status.UNKNOWN;
+        if (ewmaRttNanos > degradedRttNanos || getRttPercentileNanos(99) > 2 * degradedRttNanos) return Status.DEGRADED;
+        return Status.HEALTHY;
+    }
+
+    /**
+     * @return {@code true} unless the link is degraded or down.
+     */
+    public boolean isUsable() {
+        Status status = getStatus();
+        return status == Status.HEALTHY || status == Status.UNKNOWN;
+    }
+
+    /**
+     * @return The moving average round-trip time in nanoseconds, or -1 before the first pong.
+     */
+    public long getEwmaRttNanos() {
+        return (long) ewmaRttNanos;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return That percentile of the round-trip times in the current window, in nanoseconds.
+     */
+    public long getRttPercentileNanos(double percentile) {
+        LatencyHistogram current = window;
+        return (current.getCount() >= MIN_WINDOW_SAMPLES ? current : previousWindow).valueAtPercentile(percentile);
+    }
+
+    /**
+     * @return The threshold above which the average round trip makes the link degraded, in nanoseconds.
+     */
+    public long getDegradedRttNanos() {
+        return degradedRttNanos;
+    }
+
+    /**
+     * @return The number of heartbeats sent that have not (yet) been answered.
+     */
+    public long getUnansweredPings() {
+        return pingsSent - pongsReceived;
+    }
+
+    /**
+     * @return A one-line summary, e.g. {@code HEALTHY rtt ewma=412us p50=380us p99=950us unanswered=0}.
+     */
+    public String summary() {
+        return getStatus() + " rtt ewma=" + getEwmaRttNanos() / 1000 + "us p50=" + getRttPercentileNanos(50) / 1000
+                + "us p99=" + getRttPercentileNanos(99) / 1000 + "us unanswered=" + getUnansweredPings();
+    }
+}
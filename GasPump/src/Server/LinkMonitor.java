@@ -0,0 +1,120 @@
+package Server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the health of a controller's named links (bank, card reader, ...), each measured by
+ * its port's heartbeat. It logs every change of a link's {@link LinkHealth.Status}, warns as soon
+ * as a link's p99 round trip rises above half the degraded threshold (before the link is degraded
+ * and customers notice), and can log a periodic report of every link. Given a
+ * {@link MetricsRegistry}, it also exports each link's traffic, queue depth and health.
+ */
+public class LinkMonitor {
+
+    private static final String LOG_TAG = "link";
+    private final long intervalMillis;
+    private final long degradedRttMillis;
+    private final Map<String, LinkHealth> links = new ConcurrentSkipListMap<>();
+    private final Map<String, LinkHealth.Status> lastStatus = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> warned = new ConcurrentHashMap<>();
+    private final MetricsRegistry metrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "link-monitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param intervalMillis    The heartbeat interval of every watched link.
+     * @param degradedRttMillis The average round-trip time above which a link counts as degraded.
+     */
+    public LinkMonitor(long intervalMillis, long degradedRttMillis) {
+        this(intervalMillis, degradedRttMillis, null);
+    }
+
+    /**
+     * @param intervalMillis    The heartbeat interval of every watched link.
+     * @param degradedRttMillis The average round-trip time above which a link counts as degraded.
+     * @param metrics           Where to export each watched link's metrics, or {@code null}.
+     */
+    public LinkMonitor(long intervalMillis, long degradedRttMillis, MetricsRegistry metrics) {
+        this.metrics = metrics;
+        this.intervalMillis = intervalMillis;
+        this.degradedRttMillis = degradedRttMillis;
+        scheduler.scheduleAtFixedRate(this::checkLinks, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables the heartbeat on a port and watches it under the given name, which also names the port.
+     *
+     * @return The link's health.
+     */
+    public LinkHealth watch(String name, IOPort port) {
+        LinkHealth health = port.enableHeartbeat(intervalMillis, degradedRttMillis);
+        port.setName(name);
+        links.put(name, health);
+        if (metrics != null) {
+            metrics.registerPort(name, port.getStatistics(), port::getQueueDepth);
+            metrics.gauge("gaspump_link_rtt_seconds", "Moving average of a link's heartbeat round trip",
+                    () -> Math.max(0, health.getEwmaRttNanos()) / 1e9, "link", name);
+            metrics.gauge("gaspump_link_status", "Link health: 0 unknown, 1 healthy, 2 degraded, 3 down",
+                    () -> health.getStatus().ordinal(), "link", name);
+        }
+        return health;
+    }
+
+    /**
+     * @param names The links a task needs; names that are not watched are ignored.
+     * @return The first of those links that is degraded or down, or {@code null} if all are usable.
+     */
+    public String firstUnusable(String... names) {
+        for (String name : names) {
+            LinkHealth health = links.get(name);
+            if (health != null && !health.isUsable()) return name;
+        }
+        return null;
+    }
+
+    /**
+     * @return The health of a watched link, or {@code null} if it is not watched.
+     */
+    public LinkHealth get(String name) {
+        return links.get(name);
+    }
+
+    /**
+     * Logs a summary of every link every {@code periodSeconds}.
+     */
+    public void startReporting(long periodSeconds) {
+        scheduler.scheduleAtFixedRate(() -> links.forEach((name, health) ->
+                Log.info(LOG_TAG, "{}: {}", name, health.summary())), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    private void checkLinks() {
+        links.forEach((name, health) -> {
+            LinkHealth.Status status = health.getStatus();
+            LinkHealth.Status previous = lastStatus.put(name, status);
+            if (previous != null && previous != status) {
+                if (status == LinkHealth.Status.DOWN) {
+                    Log.warn(LOG_TAG, "{} is now {}", name, health.summary());
+                } else {
+                    Log.info(LOG_TAG, "{} is now {}", name, health.summary());
+                }
+            }
+            boolean p99High = health.getRttPercentileNanos(99) > health.getDegradedRttNanos() / 2;
+            if (p99High != warned.getOrDefault(name, false)) {
+                warned.put(name, p99High);
+                if (p99High) {
+                    Log.warn(LOG_TAG, "{} p99 round trip is rising: {}", name, health.summary());
+                } else {
+                    Log.info(LOG_TAG, "{} p99 round trip is back to normal: {}", name, health.summary());
+                }
+            }
+        });
+    }
+}
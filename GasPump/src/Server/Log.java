@@ -0,0 +1,293 @@
+package Server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous logger for hot paths. A call only claims a slot in a preallocated ring buffer
+ * and stores its arguments there; a background thread formats the entries and writes them out in
+ * batches, so callers never wait on the {@code PrintStream} lock or build the message text.
+ * <p>
+ * Messages are templates with {@code {}} placeholders, filled from the arguments by the writer:
+ * <pre>{@code Log.info(tag, "Flow meter started at {} cents/gal", centsPerGallon);}</pre>
+ * Tags name the component that logged, usually per pump (see {@link #pumpTag}). When the buffer is
+ * full the entry is dropped and counted rather than blocking the caller; the writer reports drops.
+ * <p>
+ * Lines at {@link Level#WARN} and above go to standard error, the rest to standard output. The
+ * level can be set with {@link #setLevel} or the {@code gaspump.log.level} system property, and the
+ * buffer size with {@code gaspump.log.buffer} (a power of two, default 8192).
+ */
+public final class Log {
+
+    public enum Level {DEBUG, INFO, WARN, ERROR}
+
+    // Tells the writer which arguments an entry holds
+    private static final byte NO_ARGS = 0;
+    private static final byte ONE_ARG = 1;
+    private static final byte TWO_ARGS = 2;
+    private static final byte LONG_ARG = 3;
+
+    /**
+     * A preallocated ring slot. Its fields are written by the producer that claimed it and read by
+     * the writer once the slot's sequence is published.
+     */
+    private static final class Entry {
+        long timeMillis;
+        Level level;
+        String tag;
+        String message;
+        byte args;
+        Object first;
+        Object second;
+        long number;
+    }
+
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(64, Integer.getInteger("gaspump.log.buffer", 8192)));
+    private static final int MASK = CAPACITY - 1;
+    private static final Entry[] RING = new Entry[CAPACITY];
+    // The sequence number last published in each slot; -1 while never used
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final AtomicLongArray PUBLISHED = new AtomicLongArray(CAPACITY);
+    private static volatile long consumed;
+    private static final LongAdder[] DROPPED = new LongAdder[Level.values().length];
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static volatile Level threshold = Level.valueOf(System.getProperty("gaspump.log.level", "INFO").toUpperCase());
+    private static volatile PrintStream out = System.out;
+    private static volatile PrintStream err = System.err;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Entry();
+            PUBLISHED.set(i, -1);
+        }
+        for (int i = 0; i < DROPPED.length; i++) {
+            DROPPED[i] = new LongAdder();
+        }
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000), "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @return The tag for a per-pump component, e.g. {@code flow-meter[3]}. Build it once and keep it.
+     */
+    public static String pumpTag(String component, int pumpIndex) {
+        return component + "[" + pumpIndex + "]";
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    public static Level getLevel() {
+        return threshold;
+    }
+
+    /**
+     * @return true if messages at this level are logged; check it before computing costly arguments.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold.ordinal();
+    }
+
+    /**
+     * Sends future output to the given streams (e.g. a null stream for benchmarks).
+     */
+    public static void setOutput(PrintStream normal, PrintStream warnings) {
+        out = normal;
+        err = warnings;
+    }
+
+    /**
+     * @return The number of entries dropped so far at the given level because the buffer was full.
+     */
+    public static long getDropped(Level level) {
+        return DROPPED[level.ordinal()].sum();
+    }
+
+    /**
+     * @return The number of entries dropped so far at any level.
+     */
+    public static long getDropped() {
+        long total = 0;
+        for (LongAdder dropped : DROPPED) total += dropped.sum();
+        return total;
+    }
+
+    public static void debug(String tag, String message) {
+        log(Level.DEBUG, tag, message, NO_ARGS, null, null, 0);
+    }
+
+    public static void debug(String tag, String message, Object arg) {
+        log(Level.DEBUG, tag, message, ONE_ARG, arg, null, 0);
+    }
+
+    public static void debug(String tag, String message, Object first, Object second) {
+        log(Level.DEBUG, tag, message, TWO_ARGS, first, second, 0);
+    }
+
+    public static void debug(String tag, String message, long number) {
+        log(Level.DEBUG, tag, message, LONG_ARG, null, null, number);
+    }
+
+    public static void info(String tag, String message) {
+        log(Level.INFO, tag, message, NO_ARGS, null, null, 0);
+    }
+
+    public static void info(String tag, String message, Object arg) {
+        log(Level.INFO, tag, message, ONE_ARG, arg, null, 0);
+    }
+
+    public static void info(String tag, String message, Object first, Object second) {
+        log(Level.INFO, tag, message, TWO_ARGS, first, second, 0);
+    }
+
+    public static void info(String tag, String message, long number) {
+        log(Level.INFO, tag, message, LONG_ARG, null, null, number);
+    }
+
+    public static void warn(String tag, String message) {
+        log(Level.WARN, tag, message, NO_ARGS, null, null, 0);
+    }
+
+    public static void warn(String tag, String message, Object arg) {
+        log(Level.WARN, tag, message, ONE_ARG, arg, null, 0);
+    }
+
+    public static void warn(String tag, String message, Object first, Object second) {
+        log(Level.WARN, tag, message, TWO_ARGS, first, second, 0);
+    }
+
+    public static void warn(String tag, String message, long number) {
+        log(Level.WARN, tag, message, LONG_ARG, null, null, number);
+    }
+
+    public static void error(String tag, String message) {
+        log(Level.ERROR, tag, message, NO_ARGS, null, null, 0);
+    }
+
+    public static void error(String tag, String message, Object arg) {
+        log(Level.ERROR, tag, message, ONE_ARG, arg, null, 0);
+    }
+
+    public static void error(String tag, String message, Object first, Object second) {
+        log(Level.ERROR, tag, message, TWO_ARGS, first, second, 0);
+    }
+
+    public static void error(String tag, String message, long number) {
+        log(Level.ERROR, tag, message, LONG_ARG, null, null, number);
+    }
+
+    private static void log(Level level, String tag, String message, byte args, Object first, Object second, long number) {
+        if (level.ordinal() < threshold.ordinal()) return;
+        long seq;
+        do {
+            seq = CLAIMED.get();
+            if (seq - consumed >= CAPACITY) { // The writer has not freed this slot yet
+                DROPPED[level.ordinal()].increment();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(seq, seq + 1));
+
+        int index = (int) (seq & MASK);
+        Entry entry = RING[index];
+        entry.timeMillis = System.currentTimeMillis();
+        entry.level = level;
+        entry.tag = tag;
+        entry.message = message;
+        entry.args = args;
+        entry.first = first;
+        entry.second = second;
+        entry.number = number;
+        PUBLISHED.lazySet(index, seq);
+    }
+
+    /**
+     * Waits until everything logged before this call has been written, or the timeout passes.
+     *
+     * @return true if the buffer was drained in time.
+     */
+    public static boolean flush(long timeoutMillis) {
+        long target = CLAIMED.get();
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        while (consumed < target) {
+            if (System.nanoTime() > deadline) return false;
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    private static void writeLoop() {
+        StringBuilder normal = new StringBuilder(4096);
+        StringBuilder warnings = new StringBuilder(1024);
+        long reportedDrops = 0;
+        while (true) {
+            long next = consumed;
+            int written = 0;
+            // Drain a batch of published entries, freeing each slot as soon as it is formatted
+            while (written < 256) {
+                int index = (int) (next & MASK);
+                if (PUBLISHED.get(index) != next) break;
+                Entry entry = RING[index];
+                format(entry, entry.level.ordinal() >= Level.WARN.ordinal() ? warnings : normal);
+                entry.first = null;
+                entry.second = null;
+                consumed = ++next;
+                written++;
+            }
+            if (normal.length() > 0) {
+                out.print(normal);
+                out.flush();
+                normal.setLength(0);
+            }
+            if (warnings.length() > 0) {
+                err.print(warnings);
+                err.flush();
+                warnings.setLength(0);
+            }
+            if (written == 0) {
+                long drops = getDropped();
+                if (drops != reportedDrops) {
+                    err.println("[Log] " + (drops - reportedDrops) + " messages dropped; the log buffer was full");
+                    reportedDrops = drops;
+                }
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder sb) {
+        TIME.formatTo(Instant.ofEpochMilli(entry.timeMillis), sb);
+        sb.append(' ').append(entry.level).append(" [").append(entry.tag).append("] ");
+        String message = entry.message;
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while ((at = message.indexOf("{}", from)) >= 0) {
+            sb.append(message, from, at);
+            switch (entry.args) {
+                case ONE_ARG -> sb.append(argIndex == 0 ? entry.first : "{}");
+                case TWO_ARGS -> sb.append(argIndex == 0 ? entry.first : argIndex == 1 ? entry.second : "{}");
+                case LONG_ARG -> {
+                    if (argIndex == 0) sb.append(entry.number);
+                    else sb.append("{}");
+                }
+                default -> sb.append("{}");
+            }
+            argIndex++;
+            from = at + 2;
+        }
+        sb.append(message, from, message.length()).append(System.lineSeparator());
+    }
+}
@@ -7,6 +7,9 @@ package Server;
  */
 public class Message {
     private final String CONTENT;
+    // When a port queued this message to send, while port I/O flight recording is on; 0 otherwise.
+    // A message broadcast to several ports keeps the latest time.
+    volatile long queuedNanos;
 
     public Message(String CONTENT) {
         this.CONTENT = CONTENT;
@@ -25,4 +28,17 @@ public class Message {
     public String toString() {
         return CONTENT;
     }
+
+    /**
+     * How urgently a port writes a message. A port writes every queued message of a higher
+     * priority before any of a lower one; messages of the same priority keep their order.
+     */
+    public enum Priority {
+        /** Commands that stop or pause the hardware, and heartbeats. */
+        CONTROL,
+        /** Requests, replies, and screens someone is waiting on. The default. */
+        INTERACTIVE,
+        /** Telemetry that can wait behind everything else, such as running totals. */
+        BULK
+    }
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+package Server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of counters, gauges and histograms, written out in the Prometheus text format (see
+ * {@link MetricsServer}).
+ * <p>
+ * Registering a metric is done once, off the hot path. Recording is lock-free: counters are
+ * {@link LongAdder}s and histograms are {@link LatencyHistogram}s, and gauges or counters kept
+ * elsewhere (e.g. {@link PortStatistics}) are only read when the metrics are scraped.
+ * <p>
+ * Labels are given as name/value pairs: {@code counter("x_total", "...", "pump", "0", "state", "IDLE")}.
+ */
+public final class MetricsRegistry {
+
+    // Upper bounds of the exported histogram buckets, in seconds
+    private static final double[] BUCKET_SECONDS =
+            {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM;
+
+        String text() {
+            return name().toLowerCase();
+        }
+    }
+
+    private record Family(String name, String help, Type type, List<Series> series) {
+    }
+
+    /**
+     * One labelled time series of a family: a counter, a histogram or a function read at scrape time.
+     */
+    private record Series(String labels, Object source) {
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A distribution of durations, recorded in nanoseconds and exported in seconds.
+     */
+    public static final class Histogram {
+        private final LatencyHistogram nanos = new LatencyHistogram();
+
+        public void record(long durationNanos) {
+            nanos.record(durationNanos);
+        }
+
+        /**
+         * Records the time since {@code startNanos} (a {@link System#nanoTime()} value).
+         */
+        public void recordSince(long startNanos) {
+            nanos.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * @return A registry with the metrics every process has (such as dropped log entries).
+     */
+    public static MetricsRegistry forProcess() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("gaspump_log_dropped_total", "Log entries dropped because the log buffer was full", Log::getDropped);
+        return registry;
+    }
+
+    /**
+     * @return The counter with the given name and labels, created on first use.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) getOrAdd(name, help, Type.COUNTER, labels, new Counter());
+    }
+
+    /**
+     * Exports a count kept elsewhere; it is read when the metrics are scraped.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        replace(name, help, Type.COUNTER, labels, value);
+    }
+
+    /**
+     * Exports a value that can go up and down; it is read when the metrics are scraped.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        replace(name, help, Type.GAUGE, labels, value);
+    }
+
+    /**
+     * @return The histogram with the given name and labels, created on first use.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getOrAdd(name, help, Type.HISTOGRAM, labels, new Histogram());
+    }
+
+    /**
+     * Exports a port's (or server's) traffic totals and queue depth, labelled with {@code port=name}.
+     */
+    public void registerPort(String name, PortStatistics statistics, LongSupplier queueDepth) {
+        counter("gaspump_port_messages_total", "Messages sent or received on a port",
+                statistics::getMessagesSent, "port", name, "direction", "out");
+        counter("gaspump_port_messages_total", "Messages sent or received on a port",
+                statistics::getMessagesReceived, "port", name, "direction", "in");
+        counter("gaspump_port_bytes_total", "Bytes sent or received on a port",
+                statistics::getBytesSent, "port", name, "direction", "out");
+        counter("gaspump_port_bytes_total", "Bytes sent or received on a port",
+                statistics::getBytesReceived, "port", name, "direction", "in");
+        counter("gaspump_port_dropped_total", "Messages replaced before they were read, or sent on a closed port",
+                statistics::getMessagesDropped, "port", name);
+        counter("gaspump_port_overflow_total", "Messages refused or discarded because a port's send queue was full",
+                statistics::getMessagesOverflowed, "port", name);
+        gauge("gaspump_port_queue_depth", "Messages waiting to be written on a port",
+                queueDepth::getAsLong, "port", name);
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type, new CopyOnWriteArrayList<>()));
+        if (family.type() != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type().text());
+        }
+        return family;
+    }
+
+    private synchronized Object getOrAdd(String name, String help, Type type, String[] labels, Object created) {
+        Family family = family(name, help, type);
+        String labelText = labelText(labels);
+        for (Series series : family.series()) {
+            if (series.labels().equals(labelText)) return series.source();
+        }
+        family.series().add(new Series(labelText, created));
+        return created;
+    }
+
+    private synchronized void replace(String name, String help, Type type, String[] labels, Object source) {
+        Family family = family(name, help, type);
+        String labelText = labelText(labels);
+        family.series().removeIf(series -> series.labels().equals(labelText));
+        family.series().add(new Series(labelText, source));
+    }
+
+    private static String labelText(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name/value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') sb.append('\\').append(ch);
+                else if (ch == '\n') sb.append("\\n");
+                else sb.append(ch);
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writeTo(StringBuilder out) {
+        families.values().stream().sorted((a, b) -> a.name().compareTo(b.name())).forEach(family -> {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type().text()).append('\n');
+            for (Series series : family.series()) {
+                if (series.source() instanceof Histogram histogram) {
+                    writeHistogram(out, family.name(), series.labels(), histogram.nanos);
+                } else {
+                    sample(out, family.name(), series.labels(), null);
+                    out.append(' ');
+                    Object source = series.source();
+                    if (source instanceof Counter counter) out.append(counter.get());
+                    else if (source instanceof LongSupplier value) out.append(value.getAsLong());
+                    else out.append(((DoubleSupplier) source).getAsDouble());
+                    out.append('\n');
+                }
+            }
+        });
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram nanos) {
+        // Read every bucket once, so the cumulative counts, _count and _sum agree with each other
+        int buckets = LatencyHistogram.bucketCount();
+        long total = 0;
+        int bucket = 0;
+        for (double bound : BUCKET_SECONDS) {
+            long boundNanos = (long) (bound * 1e9);
+            while (bucket < buckets && LatencyHistogram.bucketUpperBound(bucket) <= boundNanos) {
+                total += nanos.getBucketCount(bucket++);
+            }
+            sample(out, name + "_bucket", labels, String.valueOf(bound));
+            out.append(' ').append(total).append('\n');
+        }
+        while (bucket < buckets) total += nanos.getBucketCount(bucket++);
+        sample(out, name + "_bucket", labels, "+Inf");
+        out.append(' ').append(total).append('\n');
+        sample(out, name + "_sum", labels, null);
+        out.append(' ').append(nanos.getSum() / 1e9).append('\n');
+        sample(out, name + "_count", labels, null);
+        out.append(' ').append(total).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String le) {
+        out.append(name);
+        if (!labels.isEmpty() || le != null) {
+            out.append('{').append(labels);
+            if (le != null) out.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            out.append('}');
+        }
+    }
+}
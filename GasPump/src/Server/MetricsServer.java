@@ -0,0 +1,60 @@
+package Server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP endpoint serving a {@link MetricsRegistry} at {@code /metrics} in the Prometheus
+ * text format, for a scraper or {@code curl} on the same machine. It listens on the loopback
+ * interface only and answers on its own daemon thread.
+ */
+public final class MetricsServer {
+
+    private MetricsServer() {
+    }
+
+    /**
+     * Starts serving the registry.
+     *
+     * @param port     The local port to listen on.
+     * @param registry The metrics to serve.
+     * @return The running server; {@code stop(0)} it to shut it down.
+     * @throws IOException if the port cannot be bound.
+     */
+    public static HttpServer start(int port, MetricsRegistry registry) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> serve(exchange, registry));
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-" + port);
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        System.out.println("[Metrics] Serving http://localhost:" + port + "/metrics");
+        return server;
+    }
+
+    private static void serve(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(8192);
+            registry.writeTo(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package Server;
+
+/**
+ * Fuel volumes as a primitive {@code long} number of thousandths of a gallon,
+ * which is the resolution the flow meter reports and the screen displays.
+ */
+public final class MilliGallons {
+
+    private static final int SCALE = FixedPointFormat.MILLI_GALLONS_SCALE;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private MilliGallons() {
+    }
+
+    /**
+     * Computes the volume dispensed at a constant flow rate, truncated to whole milli-gallons.
+     *
+     * @param elapsedNanos         The time spent dispensing, in nanoseconds.
+     * @param milliGallonsPerSecond The flow rate in milli-gallons per second.
+     * @return The dispensed volume in milli-gallons.
+     */
+    public static long fromFlow(long elapsedNanos, long milliGallonsPerSecond) {
+        return elapsedNanos * milliGallonsPerSecond / NANOS_PER_SECOND;
+    }
+
+    /**
+     * Computes how long dispensing a volume takes at a constant flow rate, rounded up so that
+     * {@link #fromFlow} gives the volume back.
+     *
+     * @param milliGallons          The volume to dispense, in milli-gallons.
+     * @param milliGallonsPerSecond The flow rate in milli-gallons per second.
+     * @return The time spent dispensing, in nanoseconds.
+     */
+    public static long flowNanos(long milliGallons, long milliGallonsPerSecond) {
+        return (milliGallons * NANOS_PER_SECOND + milliGallonsPerSecond - 1) / milliGallonsPerSecond;
+    }
+
+    /**
+     * Computes the largest volume whose cost, as {@link Cents#costOf} rounds it, does not exceed an amount.
+     *
+     * @param centsPerGallon The unit price, in cents per gallon; must be positive.
+     * @param cents          The amount, in cents.
+     * @return The volume in milli-gallons.
+     */
+    public static long forCost(long centsPerGallon, long cents) {
+        return (cents * 1000 + 499) / centsPerGallon;
+    }
+
+    /**
+     * Parses a volume such as "1.234" into milli-gallons.
+     *
+     * @param text The volume to parse.
+     * @return The volume in milli-gallons.
+     * @throws NumberFormatException if the text is not a valid volume.
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a volume from a region of a larger character sequence.
+     *
+     * @param text  The characters to parse.
+     * @param start The index of the first character (inclusive).
+     * @param end   The index of the last character (exclusive).
+     * @return The volume in milli-gallons.
+     * @throws NumberFormatException if the region is not a valid volume.
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        return FixedPointFormat.parse(text, start, end, SCALE);
+    }
+
+    /**
+     * Formats a volume in gallons with three decimals (e.g., "1.234").
+     *
+     * @param milliGallons The volume in milli-gallons.
+     * @return The formatted volume.
+     */
+    public static String toString(long milliGallons) {
+        return FixedPointFormat.appendGallons(new StringBuilder(12), milliGallons).toString();
+    }
+}
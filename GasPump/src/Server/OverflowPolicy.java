@@ -0,0 +1,29 @@
+package Server;
+
+/**
+ * What a port does with a message sent while the lane it goes to is full (see
+ * {@link IOPort#limitQueue(int, OverflowPolicy, long)}). A message that does not fit is counted in
+ * {@link PortStatistics#getMessagesOverflowed()}, whichever message it is.
+ */
+public enum OverflowPolicy {
+    /**
+     * Waits up to the port's block timeout for the writer to make room, then rejects the message.
+     * Slows the sender to the peer's pace; for replies and records that must not be lost.
+     */
+    BLOCK,
+    /**
+     * Discards the oldest message in the lane to make room. For streams where newer lines
+     * supersede older ones, such as screens.
+     */
+    DROP_OLDEST,
+    /**
+     * Discards the queued message with the same key as the new one, or the oldest if none has it.
+     * A message's key is its text up to the first {@code ':'} (its command, e.g. "dispensing"),
+     * or all of it if it has none.
+     */
+    CONFLATE,
+    /**
+     * Refuses the new message; {@code send} returns {@code false}.
+     */
+    REJECT
+}
@@ -0,0 +1,41 @@
+package Server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A flight recorder event for one message read from or written to a port. A write's duration is
+ * the time spent writing it to the socket; its queue wait is the time it spent in its lane of the
+ * port's outgoing queue before that.
+ */
+@Name("gaspump.PortIO")
+@Label("Port I/O")
+@Category({"Gas Pump", "Transport"})
+@Description("A message read from or written to a device or server port")
+@StackTrace(false)
+class PortIOEvent extends jdk.jfr.Event {
+
+    @Label("Port")
+    String port;
+
+    @Label("Direction")
+    @Description("read or write")
+    String direction;
+
+    @Label("Bytes")
+    @DataAmount
+    int bytes;
+
+    @Label("Queue Wait")
+    @Timespan
+    long queueWait;
+
+    @Label("Priority")
+    @Description("The lane a write was queued in")
+    String priority;
+}
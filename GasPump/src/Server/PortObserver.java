@@ -0,0 +1,27 @@
+package Server;
+
+/**
+ * Observes the messages a port sends and receives, with the time each one went out on or came in
+ * from the socket. Heartbeat lines are not observed.
+ * <p>
+ * Observers are called on the port's reader and writer threads, so they must be quick and must not
+ * block.
+ */
+public interface PortObserver {
+
+    /**
+     * Called after a message was written to the socket.
+     *
+     * @param message   The message sent.
+     * @param nanoTime  {@link System#nanoTime()} when it was written.
+     */
+    void onSent(Message message, long nanoTime);
+
+    /**
+     * Called when a message was read from the socket, before it is delivered.
+     *
+     * @param message   The message received.
+     * @param nanoTime  {@link System#nanoTime()} when it was read.
+     */
+    void onReceived(Message message, long nanoTime);
+}
@@ -0,0 +1,69 @@
+package Server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of the traffic on a port (or on every connection of a multi-client server).
+ * Counting is a {@link LongAdder} increment, so it is cheap on the reader and writer threads and
+ * can be read at any time.
+ */
+public final class PortStatistics {
+
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    private final LongAdder messagesOverflowed = new LongAdder();
+
+    void sent(int lineLength) {
+        messagesSent.increment();
+        bytesSent.add(lineLength + 1); // Messages are ASCII lines; count the newline too
+    }
+
+    void received(int lineLength) {
+        messagesReceived.increment();
+        bytesReceived.add(lineLength + 1);
+    }
+
+    void dropped() {
+        messagesDropped.increment();
+    }
+
+    void overflowed() {
+        messagesOverflowed.increment();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return The messages lost: received ones replaced by a newer one before they were read (see
+     * {@link IOPort#get()}), lines replaced before they were written (see {@link IOPort#sendLatest}),
+     * and ones sent on a closed port.
+     */
+    public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    /**
+     * @return The messages lost because the send queue was full: ones refused, and ones discarded
+     * to make room (see {@link OverflowPolicy}).
+     */
+    public long getMessagesOverflowed() {
+        return messagesOverflowed.sum();
+    }
+}
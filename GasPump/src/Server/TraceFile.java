@@ -0,0 +1,148 @@
+package Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * An append-only binary file of finished {@link TraceSession}s.
+ * <p>
+ * The file starts with a magic number and format version. Each session follows as one record:
+ * <pre>
+ * long id, short pump, long start epoch ms, byte outcome, int duration us, int dropped,
+ * byte span count,    per span:    byte stage, int start us, int duration us
+ * short message count, per message: byte (link &lt;&lt; 1 | sent), int time us
+ * </pre>
+ * A typical sale takes a few kilobytes, most of it the flow meter and screen updates while fueling.
+ * A record cut short by a crash is ignored when the file is read.
+ */
+public final class TraceFile implements AutoCloseable {
+
+    private static final int MAGIC = 0x47505452; // "GPTR"
+    private static final byte VERSION = 1;
+
+    private final Path path;
+    private final DataOutputStream out;
+
+    /**
+     * Opens the file for appending, creating it if needed.
+     */
+    public TraceFile(Path path) throws IOException {
+        this.path = path;
+        boolean empty = !Files.exists(path) || Files.size(path) == 0;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 16 * 1024));
+        if (empty) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.flush();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Appends a finished session. A failure is reported and the session is lost; tracing never
+     * interrupts a sale.
+     */
+    public synchronized void write(TraceSession session) {
+        try {
+            out.writeLong(session.getId());
+            out.writeShort(session.getPumpIndex());
+            out.writeLong(session.getStartEpochMillis());
+            out.writeByte(session.getOutcome().ordinal());
+            out.writeInt(session.getDurationMicros());
+            out.writeInt(session.getDropped());
+            int spans = session.getSpanCount();
+            out.writeByte(spans);
+            for (int i = 0; i < spans; i++) {
+                out.writeByte(session.getSpanStage(i).ordinal());
+                out.writeInt(session.getSpanStartMicros(i));
+                out.writeInt(session.getSpanDurationMicros(i));
+            }
+            int messages = session.getMessageCount();
+            out.writeShort(messages);
+            for (int i = 0; i < messages; i++) {
+                out.writeByte(session.getMessageLink(i).ordinal() << 1 | (session.isMessageSent(i) ? 1 : 0));
+                out.writeInt(session.getMessageMicros(i));
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error writing trace of session " + session.getId() + " to " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads every complete session in a trace file, in the order they were written.
+     *
+     * @param path     The trace file.
+     * @param consumer Called with each session.
+     * @return The number of sessions read.
+     * @throws IOException if the file cannot be read or is not a trace file.
+     */
+    public static int read(Path path, Consumer<TraceSession> consumer) throws IOException {
+        TraceSession.Stage[] stages = TraceSession.Stage.values();
+        TraceSession.Link[] links = TraceSession.Link.values();
+        TraceSession.Outcome[] outcomes = TraceSession.Outcome.values();
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " trace file");
+            }
+            while (true) {
+                long id;
+                try {
+                    id = in.readLong();
+                } catch (EOFException e) {
+                    return count; // Clean end of file
+                }
+                try {
+                    int pump = in.readShort();
+                    long start = in.readLong();
+                    TraceSession.Outcome outcome = outcomes[in.readByte()];
+                    int duration = in.readInt();
+                    int dropped = in.readInt();
+                    int spans = in.readUnsignedByte();
+                    int[] spanData = new int[spans * 3];
+                    for (int i = 0; i < spanData.length; i += 3) {
+                        spanData[i] = in.readByte();
+                        spanData[i + 1] = in.readInt();
+                        spanData[i + 2] = in.readInt();
+                    }
+                    int messages = in.readUnsignedShort();
+                    TraceSession session = TraceSession.restored(id, pump, start, outcome, duration, dropped, spans, messages);
+                    for (int i = 0; i < spanData.length; i += 3) {
+                        session.restoreSpan(stages[spanData[i]], spanData[i + 1], spanData[i + 2]);
+                    }
+                    for (int i = 0; i < messages; i++) {
+                        int linkAndDirection = in.readByte();
+                        session.restoreMessage(links[linkAndDirection >> 1], (linkAndDirection & 1) == 1, in.readInt());
+                    }
+                    consumer.accept(session);
+                    count++;
+                } catch (EOFException e) {
+                    System.err.println("Ignoring a truncated trace record at the end of " + path);
+                    return count;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Ignore errors on close.
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package Server;
+
+/**
+ * The trace of one customer session at a pump, from card tap to the logged sale: a span for each
+ * {@link Stage} the controller went through, and the time of every message sent or received on
+ * each {@link Link} while the session was open.
+ * <p>
+ * Times are kept in microseconds from the start of the session in preallocated arrays, so recording
+ * does not allocate. A session holds up to {@value #MAX_SPANS} spans and {@value #MAX_MESSAGES}
+ * messages; later ones are counted as dropped. Sessions are written with {@link TraceFile} and
+ * summarized with {@link TraceSummary}.
+ */
+public final class TraceSession {
+
+    /**
+     * The stages of a session. A stage can occur more than once (e.g. fueling after a pause).
+     */
+    public enum Stage {CARD_TAP, AUTHORIZE, SELECT_GRADE, NOZZLE_ATTACH, FUELING, PAUSED, CHARGE, LOG_TRANSACTION}
+
+    /**
+     * The links a controller talks over.
+     */
+    public enum Link {BANK, GAS_STATION, CARD_READER, SCREEN, PUMP, FLOW_METER, HOSE}
+
+    /**
+     * How a session ended.
+     */
+    public enum Outcome {COMPLETED, DECLINED, CHARGE_FAILED, ABANDONED}
+
+    public static final int MAX_SPANS = 64;
+    public static final int MAX_MESSAGES = 1024;
+
+    private final long id;
+    private final int pumpIndex;
+    private final long startEpochMillis;
+    private final long startNanos;
+
+    private final byte[] spanStages;
+    private final int[] spanStartMicros;
+    private final int[] spanDurationMicros;
+    private int spanCount;
+    private Stage openStage;
+    private long openStartNanos;
+
+    private final byte[] messageLinks;
+    private final boolean[] messageSent;
+    private final int[] messageMicros;
+    private int messageCount;
+    private int dropped;
+
+    private Outcome outcome;
+    private int durationMicros;
+
+    /**
+     * Starts tracing a new session now.
+     *
+     * @param id        The session ID (see {@link #newId}).
+     * @param pumpIndex The pump the session is at.
+     */
+    public TraceSession(long id, int pumpIndex) {
+        this(id, pumpIndex, System.currentTimeMillis(), MAX_SPANS, MAX_MESSAGES);
+    }
+
+    private TraceSession(long id, int pumpIndex, long startEpochMillis, int spans, int messages) {
+        this.id = id;
+        this.pumpIndex = pumpIndex;
+        this.startEpochMillis = startEpochMillis;
+        this.startNanos = System.nanoTime();
+        this.spanStages = new byte[spans];
+        this.spanStartMicros = new int[spans];
+        this.spanDurationMicros = new int[spans];
+        this.messageLinks = new byte[messages];
+        this.messageSent = new boolean[messages];
+        this.messageMicros = new int[messages];
+    }
+
+    /**
+     * Rebuilds a finished session read back from a trace file, sized for its contents.
+     */
+    static TraceSession restored(long id, int pumpIndex, long startEpochMillis, Outcome outcome, int durationMicros,
+                                 int dropped, int spans, int messages) {
+        TraceSession session = new TraceSession(id, pumpIndex, startEpochMillis, spans, messages);
+        session.outcome = outcome;
+        session.durationMicros = durationMicros;
+        session.dropped = dropped;
+        return session;
+    }
+
+    void restoreSpan(Stage stage, int startMicros, int durationMicros) {
+        spanStages[spanCount] = (byte) stage.ordinal();
+        spanStartMicros[spanCount] = startMicros;
+        spanDurationMicros[spanCount] = durationMicros;
+        spanCount++;
+    }
+
+    void restoreMessage(Link link, boolean sent, int micros) {
+        messageLinks[messageCount] = (byte) link.ordinal();
+        messageSent[messageCount] = sent;
+        messageMicros[messageCount] = micros;
+        messageCount++;
+    }
+
+    /**
+     * @return A session ID unique across pumps: the start time in milliseconds, with the pump number
+     * in the low 10 bits.
+     */
+    public static long newId(int pumpIndex) {
+        return (System.currentTimeMillis() << 10) | (pumpIndex & 0x3FF);
+    }
+
+    /**
+     * Ends the open span, if any, and opens one for the given stage.
+     */
+    public synchronized void begin(Stage stage) {
+        if (outcome != null) return;
+        long now = System.nanoTime();
+        closeSpan(now);
+        openStage = stage;
+        openStartNanos = now;
+    }
+
+    /**
+     * Ends the open span, if any.
+     */
+    public synchronized void end() {
+        if (outcome == null) closeSpan(System.nanoTime());
+    }
+
+    /**
+     * Ends the open span and the session. Messages after this are not recorded.
+     */
+    public synchronized void finish(Outcome outcome) {
+        if (this.outcome != null) return;
+        long now = System.nanoTime();
+        closeSpan(now);
+        this.outcome = outcome;
+        this.durationMicros = micros(now);
+    }
+
+    private void closeSpan(long now) {
+        if (openStage == null) return;
+        if (spanCount < spanStages.length) {
+            spanStages[spanCount] = (byte) openStage.ordinal();
+            spanStartMicros[spanCount] = micros(openStartNanos);
+            spanDurationMicros[spanCount] = (int) Math.min(Integer.MAX_VALUE, (now - openStartNanos) / 1000);
+            spanCount++;
+        } else {
+            dropped++;
+        }
+        openStage = null;
+    }
+
+    /**
+     * @return An observer that records a port's messages in this session as the given link.
+     */
+    public PortObserver observe(Link link) {
+        return new PortObserver() {
+            @Override
+            public void onSent(Message message, long nanoTime) {
+                recordMessage(link, true, nanoTime);
+            }
+
+            @Override
+            public void onReceived(Message message, long nanoTime) {
+                recordMessage(link, false, nanoTime);
+            }
+        };
+    }
+
+    private synchronized void recordMessage(Link link, boolean sent, long nanoTime) {
+        if (outcome != null) return;
+        if (messageCount == messageLinks.length) {
+            dropped++;
+            return;
+        }
+        messageLinks[messageCount] = (byte) link.ordinal();
+        messageSent[messageCount] = sent;
+        messageMicros[messageCount] = micros(nanoTime);
+        messageCount++;
+    }
+
+    private int micros(long nanoTime) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, (nanoTime - startNanos) / 1000));
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getPumpIndex() {
+        return pumpIndex;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * @return How the session ended, or {@code null} while it is open.
+     */
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+
+    public synchronized int getDurationMicros() {
+        return durationMicros;
+    }
+
+    /**
+     * @return The number of spans and messages that did not fit.
+     */
+    public synchronized int getDropped() {
+        return dropped;
+    }
+
+    public synchronized int getSpanCount() {
+        return spanCount;
+    }
+
+    public synchronized Stage getSpanStage(int span) {
+        return Stage.values()[spanStages[span]];
+    }
+
+    public synchronized int getSpanStartMicros(int span) {
+        return spanStartMicros[span];
+    }
+
+    public synchronized int getSpanDurationMicros(int span) {
+        return spanDurationMicros[span];
+    }
+
+    public synchronized int getMessageCount() {
+        return messageCount;
+    }
+
+    public synchronized Link getMessageLink(int message) {
+        return Link.values()[messageLinks[message]];
+    }
+
+    /**
+     * @return true if the message was sent by the controller, false if it was received.
+     */
+    public synchronized boolean isMessageSent(int message) {
+        return messageSent[message];
+    }
+
+    public synchronized int getMessageMicros(int message) {
+        return messageMicros[message];
+    }
+}
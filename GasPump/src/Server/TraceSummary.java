@@ -0,0 +1,111 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Prints latency percentiles from one or more {@link TraceFile}s: the time each session spent in
+ * each stage (repeated stages summed), the whole session, and for each link the time from a message
+ * sent to the next one received on that link (the device or server's reply time).
+ * <p>
+ * Usage: {@code TraceSummary trace-file...}
+ */
+public class TraceSummary {
+
+    private final Map<TraceSession.Stage, LatencyHistogram> stages = new EnumMap<>(TraceSession.Stage.class);
+    private final Map<TraceSession.Link, LatencyHistogram> replies = new EnumMap<>(TraceSession.Link.class);
+    private final Map<TraceSession.Outcome, Integer> outcomes = new EnumMap<>(TraceSession.Outcome.class);
+    private final long[] sent = new long[TraceSession.Link.values().length];
+    private final long[] received = new long[TraceSession.Link.values().length];
+    private final LatencyHistogram sessions = new LatencyHistogram();
+    private long dropped;
+
+    public TraceSummary() {
+        for (TraceSession.Stage stage : TraceSession.Stage.values()) stages.put(stage, new LatencyHistogram());
+        for (TraceSession.Link link : TraceSession.Link.values()) replies.put(link, new LatencyHistogram());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceSummary trace-file...");
+            return;
+        }
+        TraceSummary summary = new TraceSummary();
+        for (String file : args) {
+            TraceFile.read(Path.of(file), summary::add);
+        }
+        summary.print();
+    }
+
+    /**
+     * Adds one finished session to the summary.
+     */
+    public void add(TraceSession session) {
+        outcomes.merge(session.getOutcome(), 1, Integer::sum);
+        sessions.record(session.getDurationMicros());
+        dropped += session.getDropped();
+
+        long[] stageMicros = new long[TraceSession.Stage.values().length];
+        boolean[] seen = new boolean[stageMicros.length];
+        for (int i = 0; i < session.getSpanCount(); i++) {
+            int stage = session.getSpanStage(i).ordinal();
+            stageMicros[stage] += session.getSpanDurationMicros(i);
+            seen[stage] = true;
+        }
+        for (TraceSession.Stage stage : TraceSession.Stage.values()) {
+            if (seen[stage.ordinal()]) stages.get(stage).record(stageMicros[stage.ordinal()]);
+        }
+
+        // Pair each link's sends with the next message received on it
+        int[] pendingSend = new int[sent.length];
+        Arrays.fill(pendingSend, -1);
+        for (int i = 0; i < session.getMessageCount(); i++) {
+            int link = session.getMessageLink(i).ordinal();
+            int micros = session.getMessageMicros(i);
+            if (session.isMessageSent(i)) {
+                sent[link]++;
+                if (pendingSend[link] < 0) pendingSend[link] = micros;
+            } else {
+                received[link]++;
+                if (pendingSend[link] >= 0) {
+                    replies.get(TraceSession.Link.values()[link]).record(micros - pendingSend[link]);
+                    pendingSend[link] = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the summary to standard output.
+     */
+    public void print() {
+        System.out.println("Sessions: " + sessions.getCount() + " " + outcomes
+                + (dropped > 0 ? " (" + dropped + " spans/messages dropped)" : ""));
+        System.out.println();
+        printHeader("Stage");
+        stages.forEach((stage, histogram) -> printRow(stage.name(), histogram));
+        printRow("SESSION", sessions);
+        System.out.println();
+        System.out.printf("%-16s %8s %8s%n", "Link", "sent", "received");
+        for (TraceSession.Link link : TraceSession.Link.values()) {
+            System.out.printf("%-16s %8d %8d%n", link, sent[link.ordinal()], received[link.ordinal()]);
+        }
+        System.out.println();
+        printHeader("Reply time");
+        replies.forEach((link, histogram) -> printRow(link.name(), histogram));
+    }
+
+    private static void printHeader(String title) {
+        System.out.printf("%-16s %8s %10s %10s %10s %10s%n", title, "count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    }
+
+    private static void printRow(String name, LatencyHistogram micros) {
+        if (micros.getCount() == 0) return;
+        System.out.printf("%-16s %8d %10.2f %10.2f %10.2f %10.2f%n", name, micros.getCount(),
+                micros.valueAtPercentile(50) / 1000.0, micros.valueAtPercentile(90) / 1000.0,
+                micros.valueAtPercentile(99) / 1000.0, micros.getMax() / 1000.0);
+    }
+}
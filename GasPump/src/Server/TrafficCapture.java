@@ -0,0 +1,275 @@
+package Server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every message sent or received on every port of the process into a binary capture file,
+ * for {@link TrafficReplay} to play back later. Heartbeat lines are not captured.
+ * <p>
+ * Capturing is turned on for a whole process with {@code -Dgaspump.capture=file}, so the controller,
+ * the device simulators, the bank and the gas station can each be captured without code changes.
+ * Recording a message appends it to a buffer under a lock; the buffer is flushed every second and
+ * when the process exits.
+ * <p>
+ * The file starts with a magic number, a format version and the start time in epoch milliseconds.
+ * Each record follows:
+ * <pre>
+ * PORT:     byte 0, short port id, byte role (0 client, 1 server), int socket port, UTF name
+ * SENT:     byte 1, short port id, varlong nanos since the previous record, UTF payload
+ * RECEIVED: byte 2, short port id, varlong nanos since the previous record, UTF payload
+ * </pre>
+ * A port is described once, before its first message. Its socket port is the server's port: the
+ * remote port for a client, the local one for a server. A record cut short by a crash is ignored
+ * when the file is read.
+ */
+public final class TrafficCapture {
+
+    private static final int MAGIC = 0x47504350; // "GPCP"
+    private static final byte VERSION = 1;
+    private static final byte PORT = 0;
+    private static final byte SENT = 1;
+    private static final byte RECEIVED = 2;
+    private static final int MAX_PORTS = Short.MAX_VALUE;
+    // Longest payload writeUTF always accepts (3 bytes per char at most); the devices' lines are far shorter
+    private static final int MAX_PAYLOAD = 65535 / 3;
+
+    /**
+     * A port as described in a capture file.
+     *
+     * @param id         The port's id within the file.
+     * @param client     true if the captured process connected to the server; false if it was the server.
+     * @param socketPort The server's port number.
+     * @param name       The port's name when its first message was captured.
+     */
+    public record PortInfo(int id, boolean client, int socketPort, String name) {
+    }
+
+    /**
+     * One captured message.
+     *
+     * @param port    The id of the port it crossed.
+     * @param sent    true if the captured process sent it, false if it received it.
+     * @param nanos   Nanoseconds since the start of the capture.
+     * @param payload The message content.
+     */
+    public record Record(int port, boolean sent, long nanos, String payload) {
+    }
+
+    private static final TrafficCapture PROCESS = fromProperty();
+
+    private final Path path;
+    private final DataOutputStream out;
+    private final Map<AbstractIOPort, Integer> portIds = new IdentityHashMap<>();
+    private long lastNanos = System.nanoTime();
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Creates (or truncates) a capture file.
+     */
+    public TrafficCapture(Path path) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+    }
+
+    /**
+     * @return The process-wide capture named by the {@code gaspump.capture} property, or
+     * {@code null} if capturing is off.
+     */
+    static TrafficCapture process() {
+        return PROCESS;
+    }
+
+    private static TrafficCapture fromProperty() {
+        String file = System.getProperty("gaspump.capture");
+        if (file == null || file.isBlank()) return null;
+        try {
+            TrafficCapture capture = new TrafficCapture(Path.of(file));
+            ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "capture-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(capture::flush, 1, 1, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(capture::close, "capture-close"));
+            Log.info("capture", "Capturing port traffic to {}", file);
+            return capture;
+        } catch (IOException e) {
+            System.err.println("Cannot capture port traffic to " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Records a message the port wrote to its socket.
+     */
+    void sent(AbstractIOPort port, String payload, long nanoTime) {
+        append(port, SENT, payload, nanoTime);
+    }
+
+    /**
+     * Records a message the port read from its socket.
+     */
+    void received(AbstractIOPort port, String payload, long nanoTime) {
+        append(port, RECEIVED, payload, nanoTime);
+    }
+
+    private synchronized void append(AbstractIOPort port, byte kind, String payload, long nanoTime) {
+        if (closed) return;
+        if (payload.length() > MAX_PAYLOAD) {
+            dropped++;
+            return;
+        }
+        try {
+            Integer id = portIds.get(port);
+            if (id == null) {
+                if (portIds.size() == MAX_PORTS) {
+                    dropped++;
+                    return;
+                }
+                id = portIds.size();
+                portIds.put(port, id);
+                Socket s = port.socket;
+                boolean client = port instanceof IOPort;
+                out.writeByte(PORT);
+                out.writeShort(id);
+                out.writeByte(client ? 0 : 1);
+                out.writeInt(s == null ? 0 : client ? s.getPort() : s.getLocalPort());
+                out.writeUTF(port.getName());
+            }
+            // Threads can reach the lock out of time order; keep the timeline monotonic
+            long delta = Math.max(0, nanoTime - lastNanos);
+            lastNanos += delta;
+            out.writeByte(kind);
+            out.writeShort(id);
+            writeVarLong(delta);
+            out.writeUTF(payload);
+        } catch (IOException e) {
+            System.err.println("Error writing traffic capture " + path + ": " + e.getMessage() + "; capture stopped");
+            closed = true;
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed capture timestamp");
+    }
+
+    /**
+     * @return The number of messages that could not be captured.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Writes buffered records to the file.
+     */
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error writing traffic capture " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes and closes the file; later messages are not captured.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Ignore errors on close.
+        }
+    }
+
+    /**
+     * Reads every complete record of a capture file, in the order they were written.
+     *
+     * @param path The capture file.
+     * @return The ports, in id order, and the messages.
+     * @throws IOException if the file cannot be read or is not a capture file.
+     */
+    public static Contents read(Path path) throws IOException {
+        List<PortInfo> ports = new ArrayList<>();
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException(path + " is not a version " + VERSION + " capture file");
+            }
+            in.readLong(); // Start time, for people reading the file
+            long nanos = 0;
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    return new Contents(ports, records); // Clean end of file
+                }
+                try {
+                    int id = in.readShort();
+                    if (kind == PORT) {
+                        boolean client = in.readByte() == 0;
+                        int socketPort = in.readInt();
+                        ports.add(new PortInfo(id, client, socketPort, in.readUTF()));
+                    } else if (kind == SENT || kind == RECEIVED) {
+                        nanos += readVarLong(in);
+                        records.add(new Record(id, kind == SENT, nanos, in.readUTF()));
+                    } else {
+                        throw new IOException("Unknown record type " + kind + " in " + path);
+                    }
+                } catch (EOFException e) {
+                    System.err.println("Ignoring a truncated capture record at the end of " + path);
+                    return new Contents(ports, records);
+                }
+            }
+        }
+    }
+
+    /**
+     * The contents of a capture file.
+     */
+    public record Contents(List<PortInfo> ports, List<Record> records) {
+    }
+}
@@ -0,0 +1,464 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays a {@link TrafficCapture} back against a live process, to check that it still behaves the
+ * same and to time it against real traffic. The process under test (the controller or any device)
+ * is started as usual; the replay takes the place of everything it talks to. Ports it connected to
+ * are served by the replay, and ports it served are connected to.
+ * <p>
+ * The messages the process received are sent to it again, and the messages it sends are checked
+ * against the ones it sent in the capture. Before sending a message, the replay waits for the last
+ * message the process sent before it in the capture, so it never runs ahead of the process; a
+ * process that takes {@code --gate-ms} longer than it did in the capture is given up on. The replay
+ * then keeps the captured gap since that message, divided by {@code --speed}; a speed of 0 sends as
+ * soon as the process is ready.
+ * <p>
+ * Parts of messages that differ from run to run (such as session IDs) are masked with
+ * {@code --mask=REGEX} before comparing; {@code session=\d+} and bank idempotency keys (including
+ * those of each charge in a batch capture) are always masked. A captured reply that carries a key
+ * is sent with the key of the last request the process sent on that endpoint instead, since the
+ * process makes new keys on every run; a batch reply gets the charge keys of the last batch, in
+ * order. The exit status is 1
+ * if any message differed, was missing or was extra.
+ * <p>
+ * Usage: {@code TrafficReplay capture-file [--speed=X] [--gate-ms=N] [--connect-ms=N] [--mask=REGEX]... [--list | --dump]}
+ */
+public class TrafficReplay {
+
+    private static final Pattern SESSION_ID = Pattern.compile("session=\\d+");
+    private static final Pattern IDEMPOTENCY_KEY = Pattern.compile("(?<=;key=)[\\w-]+");
+    // The key of each charge in a "BatchCapture:K,CARD,AMOUNT|..." request or "Batch:K=Charged|..." reply
+    private static final Pattern BATCH_ITEM_KEY = Pattern.compile("(?<=BatchCapture:|Batch:|\\|)\\w+-\\d+(?=[,=])");
+    private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    // How far ahead the comparison looks to resynchronize after a missing or extra message
+    private static final int RESYNC_WINDOW = 8;
+    private static final int MAX_REPORTED_DIFFERENCES = 20;
+
+    /**
+     * A message the process sent during the replay, masked, with the time it arrived.
+     */
+    private record Received(String content, long nanos) {
+    }
+
+    /**
+     * One port of the replay, standing in for the peer of one or more captured ports.
+     */
+    private static final class Endpoint {
+        final String name;
+        final boolean serve;
+        final int socketPort;
+        final List<String> expected = new ArrayList<>();
+        final List<Received> actual = new ArrayList<>();
+        AbstractIOPort port;
+        int gateCursor;
+        int outputsPassed; // Expected messages the replay has passed in the capture's timeline
+        int outputsSinceInput; // Of those, the ones after the last input
+        int differed;
+        int missing;
+        int extra;
+        String lastKey; // The idempotency key of the process's last request on this endpoint
+        List<String> lastBatchKeys = List.of(); // The charge keys of its last batch capture
+
+        Endpoint(String name, boolean serve, int socketPort) {
+            this.name = name;
+            this.serve = serve;
+            this.socketPort = socketPort;
+        }
+    }
+
+    private final TrafficCapture.Contents capture;
+    private final double speed;
+    private final long gateNanos;
+    private final List<Pattern> masks;
+    private final Map<Integer, Endpoint> endpointsById = new HashMap<>();
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final LatencyHistogram recordedReaction = new LatencyHistogram();
+    private final LatencyHistogram replayReaction = new LatencyHistogram();
+    private final List<String> differences = new ArrayList<>();
+    private long lastInjectNanos;
+    private boolean awaitingReaction;
+    private long lastOutputNanos;
+    private int stalls;
+
+    public TrafficReplay(TrafficCapture.Contents capture, double speed, long gateMillis, List<Pattern> masks) {
+        this.capture = capture;
+        this.speed = speed;
+        this.gateNanos = TimeUnit.MILLISECONDS.toNanos(gateMillis);
+        this.masks = new ArrayList<>(masks);
+        this.masks.add(SESSION_ID);
+        this.masks.add(IDEMPOTENCY_KEY);
+        this.masks.add(BATCH_ITEM_KEY);
+
+        // A process that connected several times to one server is served by one replay port
+        for (TrafficCapture.PortInfo info : capture.ports()) {
+            String key = info.client() ? "serve:" + info.socketPort() : "connect:" + info.id();
+            Endpoint endpoint = endpoints.computeIfAbsent(key, k -> new Endpoint(info.name(), info.client(), info.socketPort()));
+            endpointsById.put(info.id(), endpoint);
+        }
+        for (TrafficCapture.Record record : capture.records()) {
+            if (record.sent()) endpointsById.get(record.port()).expected.add(mask(record.payload()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || args[0].startsWith("--")) {
+            System.err.println("Usage: TrafficReplay capture-file [--speed=X] [--gate-ms=N] [--connect-ms=N] [--mask=REGEX]... [--list | --dump]");
+            return;
+        }
+        TrafficCapture.Contents capture = TrafficCapture.read(Path.of(args[0]));
+        if (hasFlag(args, "--list") || hasFlag(args, "--dump")) {
+            describe(capture, hasFlag(args, "--dump"));
+            return;
+        }
+        String speedOption = DeviceArgs.option(args, "--speed=");
+        List<Pattern> masks = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--mask=")) masks.add(Pattern.compile(arg.substring("--mask=".length())));
+        }
+        TrafficReplay replay = new TrafficReplay(capture, speedOption == null ? 1 : Double.parseDouble(speedOption),
+                DeviceArgs.intOption(args, "--gate-ms=", 5000), masks);
+        boolean same = replay.open(DeviceArgs.intOption(args, "--connect-ms=", 60_000));
+        if (same) {
+            replay.run();
+            same = replay.report();
+        }
+        replay.close();
+        System.exit(same ? 0 : 1);
+    }
+
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equals(flag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Prints the ports of a capture with their message counts, and with {@code dump} every message.
+     */
+    private static void describe(TrafficCapture.Contents capture, boolean dump) {
+        int[] sent = new int[capture.ports().size()];
+        int[] received = new int[sent.length];
+        for (TrafficCapture.Record record : capture.records()) {
+            if (record.sent()) sent[record.port()]++;
+            else received[record.port()]++;
+            if (dump) {
+                System.out.printf("%12.6f s  %-16s %s %s%n", record.nanos() / 1e9,
+                        capture.ports().get(record.port()).name(), record.sent() ? "->" : "<-", record.payload());
+            }
+        }
+        List<TrafficCapture.Record> records = capture.records();
+        double seconds = records.isEmpty() ? 0 : (records.get(records.size() - 1).nanos() - records.get(0).nanos()) / 1e9;
+        System.out.printf("%d messages over %.1f s%n", records.size(), seconds);
+        System.out.printf("%-4s %-16s %-7s %6s %8s %8s%n", "id", "port", "role", "socket", "sent", "received");
+        for (TrafficCapture.PortInfo info : capture.ports()) {
+            System.out.printf("%-4d %-16s %-7s %6d %8d %8d%n", info.id(), info.name(), info.client() ? "client" : "server",
+                    info.socketPort(), sent[info.id()], received[info.id()]);
+        }
+    }
+
+    /**
+     * Opens a port for every endpoint and waits until the process under test connects to (or accepts)
+     * the first of them. Processes that connect to some devices only when needed, like the controller
+     * to the pump, get the rest later; messages for them are queued until then.
+     *
+     * @return false if a port could not be opened or nothing connected within the timeout.
+     */
+    public boolean open(int connectMillis) throws InterruptedException {
+        List<CompletableFuture<?>> connected = new ArrayList<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            AbstractIOPort port;
+            if (endpoint.serve) {
+                IOPortServer server = new IOPortServer(endpoint.socketPort);
+                if (server.isClosed()) return false; // Could not bind; the port logged why
+                connected.add(server.whenConnected());
+                port = server;
+            } else {
+                IOPort client = IOPort.connectInBackground("localhost", endpoint.socketPort, 1000);
+                connected.add(client.whenConnected());
+                port = client;
+            }
+            port.setMessageHandler(message -> outputReceived(endpoint, message.getContent()));
+            port.setName(endpoint.name);
+            endpoint.port = port;
+        }
+        System.out.println("Waiting for the process under test on ports " + portList() + "...");
+        try {
+            CompletableFuture.anyOf(connected.toArray(new CompletableFuture<?>[0])).get(connectMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("The process under test did not connect within " + connectMillis + " ms");
+            return false;
+        }
+    }
+
+    private String portList() {
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint endpoint : endpoints.values()) {
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append(endpoint.name).append(endpoint.serve ? " (serving " : " (connecting to ").append(endpoint.socketPort).append(')');
+        }
+        return sb.toString();
+    }
+
+    private synchronized void outputReceived(Endpoint endpoint, String content) {
+        long now = System.nanoTime();
+        Matcher key = IDEMPOTENCY_KEY.matcher(content);
+        if (key.find()) endpoint.lastKey = key.group();
+        if (content.startsWith("BatchCapture:")) {
+            List<String> batchKeys = new ArrayList<>();
+            Matcher item = BATCH_ITEM_KEY.matcher(content);
+            while (item.find()) batchKeys.add(item.group());
+            endpoint.lastBatchKeys = batchKeys;
+        }
+        endpoint.actual.add(new Received(mask(content), now));
+        lastOutputNanos = now;
+        if (awaitingReaction) {
+            replayReaction.record(now - lastInjectNanos);
+            awaitingReaction = false;
+        }
+        notifyAll();
+    }
+
+    private String mask(String content) {
+        for (Pattern mask : masks) content = mask.matcher(content).replaceAll("*");
+        return content;
+    }
+
+    /**
+     * Sends the captured input to the process, paced and gated as described above, then waits for
+     * it to go quiet.
+     */
+    public void run() throws InterruptedException {
+        List<TrafficCapture.Record> records = capture.records();
+        if (records.isEmpty()) return;
+        long start = System.nanoTime();
+        long anchorReal = start;
+        long anchorRecorded = records.get(0).nanos();
+        TrafficCapture.Record lastOutput = null;
+        int lastOutputIndex = 0;
+        boolean outputSinceInput = false;
+        TrafficCapture.Record lastInput = null;
+        for (TrafficCapture.Record record : records) {
+            if (record.sent()) {
+                if (lastInput != null && !outputSinceInput) {
+                    recordedReaction.record(record.nanos() - lastInput.nanos());
+                }
+                lastOutput = record;
+                outputSinceInput = true;
+                Endpoint endpoint = endpointsById.get(record.port());
+                lastOutputIndex = endpoint.outputsPassed++;
+                endpoint.outputsSinceInput++;
+                continue;
+            }
+            if (outputSinceInput) {
+                long arrived = awaitOutput(lastOutput, lastOutputIndex, lastInput);
+                if (arrived < 0) {
+                    stalls++;
+                    anchorReal = System.nanoTime();
+                    anchorRecorded = record.nanos();
+                } else {
+                    anchorReal = arrived;
+                    anchorRecorded = lastOutput.nanos();
+                }
+            }
+            if (speed > 0) {
+                long due = anchorReal + (long) ((record.nanos() - anchorRecorded) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            inject(endpointsById.get(record.port()), record.payload());
+            for (Endpoint endpoint : endpoints.values()) endpoint.outputsSinceInput = 0;
+            anchorReal = lastInjectNanos;
+            anchorRecorded = record.nanos();
+            lastInput = record;
+            outputSinceInput = false;
+        }
+        if (outputSinceInput) {
+            if (awaitOutput(lastOutput, lastOutputIndex, lastInput) < 0) stalls++;
+        }
+        awaitQuiet();
+        System.out.printf("Replayed %d messages in %.2f s (captured over %.2f s)%n", records.size(),
+                (System.nanoTime() - start) / 1e9, (records.get(records.size() - 1).nanos() - records.get(0).nanos()) / 1e9);
+    }
+
+    private synchronized void inject(Endpoint endpoint, String payload) {
+        if (endpoint.lastKey != null) payload = IDEMPOTENCY_KEY.matcher(payload).replaceFirst(endpoint.lastKey);
+        if (payload.startsWith("Batch:")) {
+            Iterator<String> batchKeys = endpoint.lastBatchKeys.iterator();
+            payload = BATCH_ITEM_KEY.matcher(payload).replaceAll(item -> batchKeys.hasNext() ? batchKeys.next() : item.group());
+        }
+        endpoint.port.send(new Message(payload));
+        lastInjectNanos = System.nanoTime();
+        awaitingReaction = true;
+    }
+
+    /**
+     * Waits for the process to send the captured output again, after the last one a gate matched on
+     * its endpoint. A process that polls its latest message may skip outputs when input arrives faster
+     * than captured, so one of the few expected after it also counts, as does sending as many messages
+     * on the endpoint since the last input as in the capture. The process gets as long as it took in
+     * the capture since the input before it (its timers do not speed up with the replay), plus the
+     * gate timeout.
+     *
+     * @param output      The captured output.
+     * @param index       Its index among the endpoint's expected messages.
+     * @param inputBefore The last input before it in the capture, or {@code null}.
+     * @return The time the output arrived, or -1 on timeout.
+     */
+    private synchronized long awaitOutput(TrafficCapture.Record output, int index, TrafficCapture.Record inputBefore)
+            throws InterruptedException {
+        Endpoint endpoint = endpointsById.get(output.port());
+        long captured = inputBefore == null ? 0 : output.nanos() - inputBefore.nanos();
+        long deadline = System.nanoTime() + captured + gateNanos;
+        int scanned = endpoint.gateCursor;
+        int sinceInput = 0;
+        while (true) {
+            for (; scanned < endpoint.actual.size(); scanned++) {
+                Received received = endpoint.actual.get(scanned);
+                if (inputBefore != null && received.nanos() > lastInjectNanos) sinceInput++;
+                if (indexOf(endpoint.expected, index, received.content(), content -> content) >= 0
+                        || sinceInput == endpoint.outputsSinceInput) {
+                    endpoint.gateCursor = scanned + 1;
+                    return received.nanos();
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                System.err.println("Timed out waiting for " + endpoint.name + " #" + index + ": " + endpoint.expected.get(index));
+                return -1;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private synchronized void awaitQuiet() throws InterruptedException {
+        long deadline = System.nanoTime() + gateNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long quietFor = now - Math.max(lastOutputNanos, lastInjectNanos);
+            if (quietFor >= QUIET_NANOS || now >= deadline) return;
+            TimeUnit.NANOSECONDS.timedWait(this, Math.min(QUIET_NANOS - quietFor, deadline - now));
+        }
+    }
+
+    /**
+     * Compares what the process sent with the capture and prints the results.
+     *
+     * @return true if every endpoint got exactly the captured messages.
+     */
+    public synchronized boolean report() {
+        boolean same = true;
+        System.out.println();
+        System.out.printf("%-16s %8s %8s %8s %8s %8s%n", "Port", "expected", "actual", "differed", "missing", "extra");
+        for (Endpoint endpoint : endpoints.values()) {
+            compare(endpoint);
+            System.out.printf("%-16s %8d %8d %8d %8d %8d%n", endpoint.name, endpoint.expected.size(),
+                    endpoint.actual.size(), endpoint.differed, endpoint.missing, endpoint.extra);
+            same &= endpoint.differed == 0 && endpoint.missing == 0 && endpoint.extra == 0;
+        }
+        if (stalls > 0) System.out.println(stalls + " gate(s) timed out waiting for the process");
+        if (!differences.isEmpty()) {
+            System.out.println();
+            differences.forEach(System.out::println);
+        }
+        System.out.println();
+        System.out.printf("%-16s %8s %10s %10s %10s %10s%n", "Reaction time", "count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        printRow("captured", recordedReaction);
+        printRow("replayed", replayReaction);
+        System.out.println(same ? "Same output as captured" : "Output differs from the capture");
+        return same;
+    }
+
+    /**
+     * Aligns the endpoint's actual messages with the expected ones, skipping over a missing or extra
+     * message when the next few line up again.
+     */
+    private void compare(Endpoint endpoint) {
+        List<String> expected = endpoint.expected;
+        List<Received> actual = endpoint.actual;
+        int e = 0;
+        int a = 0;
+        while (e < expected.size() || a < actual.size()) {
+            if (e == expected.size()) {
+                extra(endpoint, a++);
+            } else if (a == actual.size()) {
+                missing(endpoint, e++);
+            } else if (expected.get(e).equals(actual.get(a).content())) {
+                e++;
+                a++;
+            } else {
+                int extraBefore = indexOf(actual, a + 1, expected.get(e), Received::content);
+                int missingBefore = indexOf(expected, e + 1, actual.get(a).content(), s -> s);
+                if (extraBefore >= 0 && (missingBefore < 0 || extraBefore <= missingBefore)) {
+                    extra(endpoint, a++);
+                } else if (missingBefore >= 0) {
+                    missing(endpoint, e++);
+                } else {
+                    difference(endpoint, "#" + e + " expected: " + expected.get(e));
+                    difference(endpoint, "#" + a + " got:      " + actual.get(a).content());
+                    endpoint.differed++;
+                    e++;
+                    a++;
+                }
+            }
+        }
+    }
+
+    private void extra(Endpoint endpoint, int a) {
+        difference(endpoint, "#" + a + " extra:    " + endpoint.actual.get(a).content());
+        endpoint.extra++;
+    }
+
+    private void missing(Endpoint endpoint, int e) {
+        difference(endpoint, "#" + e + " missing:  " + endpoint.expected.get(e));
+        endpoint.missing++;
+    }
+
+    /**
+     * @return How far past {@code from} the content occurs within the resync window, or -1.
+     */
+    private static <T> int indexOf(List<T> list, int from, String content, Function<T, String> contentOf) {
+        for (int i = from; i < Math.min(list.size(), from + RESYNC_WINDOW); i++) {
+            if (contentOf.apply(list.get(i)).equals(content)) return i - from;
+        }
+        return -1;
+    }
+
+    private void difference(Endpoint endpoint, String text) {
+        if (differences.size() < MAX_REPORTED_DIFFERENCES) differences.add(endpoint.name + ": " + text);
+        else if (differences.size() == MAX_REPORTED_DIFFERENCES) differences.add("...");
+    }
+
+    private static void printRow(String name, LatencyHistogram nanos) {
+        if (nanos.getCount() == 0) return;
+        System.out.printf("%-16s %8d %10.2f %10.2f %10.2f %10.2f%n", name, nanos.getCount(),
+                nanos.valueAtPercentile(50) / 1e6, nanos.valueAtPercentile(90) / 1e6,
+                nanos.valueAtPercentile(99) / 1e6, nanos.getMax() / 1e6);
+    }
+
+    /**
+     * Closes every port of the replay.
+     */
+    public void close() {
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.port != null) endpoint.port.close();
+        }
+    }
+}
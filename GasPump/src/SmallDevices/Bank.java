@@ -1,127 +1,291 @@
-
 package SmallDevices;
 
+import Server.Cents;
+import Server.DeviceArgs;
 import Server.DeviceConstants;
-import Server.IOPortServer;
+import Server.FixedPointFormat;
+import Server.IOPortMultiServer;
+import Server.LatencyHistogram;
 import Server.Message;
+import Server.MetricsRegistry;
+import Server.MetricsServer;
+import Server.OverflowPolicy;
 
-import javafx.application.Application;
-import javafx.stage.Stage;
-import javafx.scene.Scene;
-import javafx.scene.layout.VBox;
-import javafx.scene.control.Label;
-import javafx.scene.shape.Rectangle;
-import javafx.scene.paint.Color;
-import javafx.scene.layout.StackPane;
-import javafx.geometry.Insets;
-import javafx.geometry.Pos;
-import javafx.animation.AnimationTimer;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * A simulation of the bank that authorizes and charges credit cards.
+ * It accepts any number of pump controller connections and processes their requests on a
+ * bounded worker pool against an in-memory {@link BankLedger}, so it can stand in for the
+ * real bank when load testing a whole station. Throughput and latency percentiles are
+ * reported periodically. Responses can be delayed, dropped or withheld according to a
+ * {@link FaultProfile}. It runs headless or with a {@link BankUI} status window.
+ * <p>
+ * An authorization is answered {@code Approve:AMOUNT}, the amount held on the card and the most
+ * its final charge may be, or {@code Decline}.
+ * <p>
+ * A request may end with an idempotency key, {@code ;key=K}; its response (even "Busy" or
+ * "Error") then ends with the same key, and a charge repeated with the key is captured only once.
+ * <p>
+ * A pump's settlement queue captures several charges in one request,
+ * {@code BatchCapture:K1,CARD,AMOUNT|K2,CARD,AMOUNT...}, each with its own idempotency key; the
+ * response, {@code Batch:K1=Charged|K2=Decline...}, gives each charge's result by its key.
+ * <p>
+ * Usage: {@code Bank [--headless] [--workers=N] [--queue=N] [--report-seconds=N] [--faults=profile.properties]
+ * [--metrics-port=N]}
+ */
 public class Bank {
+    // Largest single charge the bank will accept ($200.00); also the amount held on authorization
+    private static final long MAX_CHARGE_CENTS = 20000;
+    private static final long STATUS_RESET_MS = 5000;
+    private static final int CONNECTION_QUEUE_LIMIT = 256;
+    private static final long CONNECTION_BLOCK_MS = 1000;
+    private static final String KEY = ";key=";
+    private final BankLedger ledger;
     // Holds the current status message for the UI
-    public static final AtomicReference<String> state = new AtomicReference<>("Waiting for transaction/card");
-
-    public static void main(String[] args) {
-        Bank bank = new Bank();
-        StatusUI.bindBank(bank);
-        new Thread(() -> {
-            IOPortServer bankPort = new IOPortServer(DeviceConstants.BANK_PORT);
-            System.out.println("Bank is running.");
-            while (true) {
-                Message msg = bankPort.get();
-                if (msg != null) {
-                    System.out.println(msg);
-                    String content = msg.toString();
-                    if (content.startsWith("Authorize:")) {
-                        String cc = content.substring("Authorize:".length());
-                        authorize(bankPort, cc);
-                    } else if (content.startsWith("Charge:")) {
-                        String chargeData = content.substring("Charge:".length());
-                        String[] parts = chargeData.split(",");
-                        String cc = parts[0];
-                        double dollars = Double.parseDouble(parts[1]);
-                        charge(bankPort, cc, dollars);
-                    }
-                }
-            }
-        }).start();
-        Application.launch(StatusUI.class, args);
+    private final AtomicReference<String> state = new AtomicReference<>("Waiting for transaction/card");
+    private final FaultInjector faults;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bank-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private int reportSeconds;
+    private final MetricsRegistry metrics = MetricsRegistry.forProcess();
+    private final MetricsRegistry.Counter authorizeRequests = metrics.counter("gaspump_bank_requests_total",
+            "Requests processed by type", "type", "authorize");
+    private final MetricsRegistry.Counter chargeRequests = metrics.counter("gaspump_bank_requests_total",
+            "Requests processed by type", "type", "charge");
+    private final MetricsRegistry.Counter batchRequests = metrics.counter("gaspump_bank_requests_total",
+            "Requests processed by type", "type", "batch");
+    private final MetricsRegistry.Counter refusedRequests = metrics.counter("gaspump_bank_refused_total",
+            "Requests refused because every worker was busy and the queue was full");
+    private final MetricsRegistry.Histogram requestLatency = metrics.histogram("gaspump_bank_request_seconds",
+            "Time from receiving a request to finishing it, including the wait for a worker");
+
+    /**
+     * Creates the bank with a bounded worker pool.
+     *
+     * @param workerThreads The number of worker threads processing requests.
+     * @param queueCapacity The number of requests that may wait for a worker before new ones are refused.
+     * @param faultProfile  How the bank's responses misbehave; {@link FaultProfile#none()} for a healthy bank.
+     */
+    public Bank(int workerThreads, int queueCapacity, FaultProfile faultProfile) {
+        this(workerThreads, queueCapacity, faultProfile, new BankLedger());
     }
 
-    private static void authorize(IOPortServer port, String cc) {
-        int lastDigit = Integer.parseInt(cc.substring(cc.length() - 1));
-        // If the last digit of the card number is greater than 7, it replies with Decline.
-        if (lastDigit > 7) {
-            state.set("Declined");
-            port.send(new Message("Decline"));
+    /**
+     * Creates the bank with a bounded worker pool over an existing ledger, which outlives the bank:
+     * a bank started again over the same ledger remembers its holds, captures and keys.
+     *
+     * @param workerThreads The number of worker threads processing requests.
+     * @param queueCapacity The number of requests that may wait for a worker before new ones are refused.
+     * @param faultProfile  How the bank's responses misbehave; {@link FaultProfile#none()} for a healthy bank.
+     * @param ledger        The accounts the bank authorizes and charges against.
+     */
+    public Bank(int workerThreads, int queueCapacity, FaultProfile faultProfile, BankLedger ledger) {
+        this.ledger = ledger;
+        this.faults = new FaultInjector(faultProfile);
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "bank-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Main entry point. Pass {@code --headless} to run without the status window.
+     */
+    public static void main(String[] args) throws IOException {
+        Bank bank = new Bank(DeviceArgs.intOption(args, "--workers=", Runtime.getRuntime().availableProcessors()),
+                DeviceArgs.intOption(args, "--queue=", 1024), FaultProfile.fromArgs(args));
+        bank.start(DeviceConstants.BANK_PORT, DeviceArgs.intOption(args, "--report-seconds=", 10));
+        int metricsPort = DeviceArgs.intOption(args, "--metrics-port=", 0);
+        if (metricsPort > 0) {
+            MetricsServer.start(metricsPort, bank.getMetrics());
+        }
+        System.out.println("Bank is running.");
+        if (!DeviceArgs.isHeadless(args)) {
+            BankUI.launchFor(bank, args);
         } else {
-            state.set("Approved");
-            port.send(new Message("Approve"));
+            try {
+                Thread.currentThread().join(); // The server threads are daemons; keep the JVM alive
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    private static void charge(IOPortServer port, String cc, double dollars) {
-        if (dollars > 200) {
-            state.set("Charge Declined");
-            port.send(new Message("Decline"));
-        } else {
-            state.set(String.format("Charged: $%.2f", dollars));
-            port.send(new Message(String.format("Charged:%s,%.2f", cc, dollars)));
-            // Reset status after 5 seconds
-            new Thread(() -> {
+    /**
+     * @return The outcome of the latest request, as shown in the status window.
+     */
+    public String getStatus() {
+        return state.get();
+    }
+
+    /**
+     * Starts accepting controller connections and, if {@code reportSeconds > 0}, periodic statistics.
+     *
+     * @param port          The port to listen on.
+     * @param reportSeconds The statistics reporting interval, or 0 to disable reports.
+     * @return The server accepting connections.
+     * @throws IOException if the port cannot be bound.
+     */
+    public IOPortMultiServer start(int port, int reportSeconds) throws IOException {
+        IOPortMultiServer server = new IOPortMultiServer(port,
+                connection -> {
+                    // Replies must not be lost, so a client that stops reading holds up its own workers instead
+                    connection.limitQueue(CONNECTION_QUEUE_LIMIT, OverflowPolicy.BLOCK, CONNECTION_BLOCK_MS);
+                    connection.setMessageHandler(msg -> submit(connection, msg));
+                });
+        this.reportSeconds = reportSeconds;
+        metrics.registerPort("controllers", server.getStatistics(), server::getQueueDepth);
+        metrics.gauge("gaspump_connections", "Controllers currently connected", () -> server.getConnections().size());
+        metrics.gauge("gaspump_bank_worker_queue_depth", "Requests waiting for a worker", () -> workers.getQueue().size());
+        metrics.counter("gaspump_bank_captured_cents_total", "Cents captured by final charges", ledger::getTotalCapturedCents);
+        if (reportSeconds > 0) {
+            scheduler.scheduleAtFixedRate(this::reportStatistics, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        }
+        return server;
+    }
+
+    /**
+     * @return The bank's metrics: requests, refusals, latency, queue depth and controller traffic.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Hands a request to the worker pool, refusing it immediately if the pool is saturated.
+     */
+    private void submit(IOPortMultiServer.Connection connection, Message msg) {
+        long receivedNanos = System.nanoTime();
+        try {
+            workers.execute(() -> {
                 try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException e) {
-                    // ignore
-                }
-                // Only reset if state still shows the charged amount
-                if (state.get().startsWith("Charged: $")) {
-                    state.set("Waiting for transaction/card");
+                    handle(connection, msg.getContent());
+                } catch (RuntimeException e) {
+                    System.err.println("Bank failed to process '" + msg.getContent() + "': " + e.getMessage());
+                    connection.send(new Message(withKey("Error", msg.getContent())));
                 }
-            }).start();
+                long elapsed = System.nanoTime() - receivedNanos;
+                latency.record(elapsed);
+                requestLatency.record(elapsed);
+                requests.incrementAndGet();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            refusedRequests.increment();
+            connection.send(new Message(withKey("Busy", msg.getContent())));
         }
     }
 
-    // Nested JavaFX UI class
-    public static class StatusUI extends Application {
-        private static Bank bankInstance;
-        public static void bindBank(Bank bank) {
-            bankInstance = bank;
+    private void handle(IOPortMultiServer.Connection connection, String content) {
+        int keyAt = content.indexOf(KEY);
+        int end = keyAt < 0 ? content.length() : keyAt;
+        if (content.startsWith("Authorize:")) {
+            authorizeRequests.increment();
+            String cc = content.substring("Authorize:".length(), end);
+            faults.send(connection::send, new Message(withKey(authorize(cc), content)));
+        } else if (content.startsWith("Charge:")) {
+            chargeRequests.increment();
+            int comma = content.indexOf(',');
+            String cc = content.substring("Charge:".length(), comma);
+            long cents = Cents.parse(content, comma + 1, end);
+            String key = keyAt < 0 ? null : content.substring(keyAt + KEY.length());
+            faults.send(connection::send, new Message(withKey(charge(cc, cents, key), content)));
+        } else if (content.startsWith("BatchCapture:")) {
+            batchRequests.increment();
+            faults.send(connection::send, new Message(withKey(captureBatch(content, "BatchCapture:".length(), end), content)));
+        } else {
+            System.err.println("Bank received unknown request: " + content);
         }
+    }
 
-        @Override
-        public void start(Stage stage) {
-            Rectangle rect = new Rectangle(400, 120, Color.LIGHTBLUE);
-            rect.setArcWidth(24);
-            rect.setArcHeight(24);
-
-            Label title = new Label("Group 6 Bank (A Bank You Can Trust)");
-            title.setStyle("-fx-font-size: 20px; -fx-font-weight: bold;");
-            Label status = new Label();
-            status.setStyle("-fx-font-size: 18px;");
-
-            VBox vbox = new VBox(16, title, status);
-            vbox.setAlignment(Pos.CENTER);
-            vbox.setPadding(new Insets(24, 24, 24, 24));
-
-            StackPane root = new StackPane(rect, vbox);
-            root.setPadding(new Insets(16));
-            Scene scene = new Scene(root, 500, 200);
-
-            // AnimationTimer to update status label continuously
-            AnimationTimer timer = new AnimationTimer() {
-                @Override
-                public void handle(long now) {
-                    status.setText(Bank.state.get());
-                }
-            };
-            timer.start();
+    private String authorize(String cc) {
+        int lastDigit = cc.charAt(cc.length() - 1) - '0';
+        // If the last digit of the card number is greater than 7, it replies with Decline.
+        if (lastDigit > 7) {
+            state.set("Declined");
+            return "Decline";
+        }
+        ledger.placeHold(cc, MAX_CHARGE_CENTS);
+        state.set("Approved");
+        return FixedPointFormat.appendCents(new StringBuilder(16).append("Approve:"), MAX_CHARGE_CENTS).toString();
+    }
 
-            stage.setTitle("Bank Status");
-            stage.setScene(scene);
-            stage.setResizable(false);
-            stage.show();
+    /**
+     * Captures each charge of a batch under its own key.
+     *
+     * @return "Batch:" and each charge's key with its result, e.g. "Batch:K1=Charged|K2=Decline".
+     */
+    private String captureBatch(String content, int start, int end) {
+        StringBuilder response = new StringBuilder(end - start).append("Batch:");
+        int itemStart = start;
+        while (itemStart < end) {
+            int itemEnd = content.indexOf('|', itemStart);
+            if (itemEnd < 0 || itemEnd > end) itemEnd = end;
+            int firstComma = content.indexOf(',', itemStart);
+            int secondComma = content.indexOf(',', firstComma + 1);
+            String key = content.substring(itemStart, firstComma);
+            String cc = content.substring(firstComma + 1, secondComma);
+            long cents = Cents.parse(content, secondComma + 1, itemEnd);
+            chargeRequests.increment();
+            if (response.length() > "Batch:".length()) response.append('|');
+            response.append(key).append('=').append(charge(cc, cents, key).startsWith("Charged:") ? "Charged" : "Decline");
+            itemStart = itemEnd + 1;
         }
+        return response.toString();
+    }
+
+    /**
+     * @return The response followed by the request's idempotency key, if it has one.
+     */
+    private static String withKey(String response, String request) {
+        int keyAt = request.indexOf(KEY);
+        return keyAt < 0 ? response : response + request.substring(keyAt);
+    }
+
+    private String charge(String cc, long cents, String key) {
+        if (cents > MAX_CHARGE_CENTS || !ledger.capture(cc, cents, key)) {
+            state.set("Charge Declined");
+            return "Decline";
+        }
+        StringBuilder sb = new StringBuilder(48);
+        String status = FixedPointFormat.appendDollars(sb.append("Charged: "), cents).toString();
+        state.set(status);
+        // Reset status after 5 seconds, but only if it still shows this charge
+        scheduler.schedule(() -> state.compareAndSet(status, "Waiting for transaction/card"),
+                STATUS_RESET_MS, TimeUnit.MILLISECONDS);
+        sb.setLength(0);
+        sb.append("Charged:").append(cc).append(',');
+        return FixedPointFormat.appendCents(sb, cents).toString();
+    }
+
+    /**
+     * Prints throughput and latency percentiles for the last interval, then starts a new interval.
+     */
+    private void reportStatistics() {
+        long count = requests.getAndSet(0);
+        System.out.printf("[Bank] %d req/s (%d refused), queue %d, latency us p50=%d p90=%d p99=%d max=%d, captured $%s, %s%n",
+                count / reportSeconds, rejected.getAndSet(0), workers.getQueue().size(),
+                latency.valueAtPercentile(50) / 1000, latency.valueAtPercentile(90) / 1000,
+                latency.valueAtPercentile(99) / 1000, latency.getMax() / 1000,
+                Cents.toString(ledger.getTotalCapturedCents()), faults.summary());
+        latency.reset();
     }
 }
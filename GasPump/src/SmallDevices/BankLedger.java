@@ -0,0 +1,171 @@
+package SmallDevices;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bank simulation's in-memory ledger of card holds and captures.
+ * Cards are spread over a fixed number of stripes, each guarded by its own lock, so requests
+ * for different cards rarely contend while each card's hold/capture sequence stays consistent.
+ */
+public class BankLedger {
+
+    private static final int STRIPES = 64; // Power of two, so a mask picks the stripe
+    // A key must outlive every resend of its charge: pumps' settlement queues retry for as long as
+    // the bank is away and resend unsettled charges after a restart, so keys are kept for days. The
+    // count bound only caps memory (about half a million keys in all).
+    private static final long KEY_RETENTION_NANOS = TimeUnit.DAYS.toNanos(7);
+    private static final int KEYS_PER_STRIPE = 8192;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public BankLedger() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Places a hold on a card for up to the given amount, replacing any earlier hold.
+     *
+     * @param cardNumber The card to hold funds on.
+     * @param holdCents  The amount held, in cents.
+     */
+    public void placeHold(String cardNumber, long holdCents) {
+        Stripe stripe = stripeFor(cardNumber);
+        synchronized (stripe) {
+            Account account = stripe.accounts.computeIfAbsent(cardNumber, k -> new Account());
+            account.heldCents = holdCents;
+            account.holds++;
+        }
+    }
+
+    /**
+     * Captures an amount against a card and releases its hold.
+     * A capture is refused if the card has a hold smaller than the amount.
+     *
+     * @param cardNumber The card to charge.
+     * @param cents      The amount to capture, in cents.
+     * @return {@code true} if the amount was captured.
+     */
+    public boolean capture(String cardNumber, long cents) {
+        Stripe stripe = stripeFor(cardNumber);
+        synchronized (stripe) {
+            Account account = stripe.accounts.computeIfAbsent(cardNumber, k -> new Account());
+            if (account.heldCents > 0 && cents > account.heldCents) {
+                return false;
+            }
+            account.heldCents = 0;
+            account.capturedCents += cents;
+            account.captures++;
+            return true;
+        }
+    }
+
+    /**
+     * Captures an amount against a card once per idempotency key. A request repeated with the same
+     * key (a pump's hedged charge, or a settlement resent after an outage or a restart) gets the
+     * first attempt's result without capturing again. Keys are remembered for
+     * {@link #KEY_RETENTION_NANOS}, or until a stripe holds {@link #KEYS_PER_STRIPE} newer ones.
+     *
+     * @param cardNumber The card to charge.
+     * @param cents      The amount to capture, in cents.
+     * @param key        The request's idempotency key, or {@code null} to capture unconditionally.
+     * @return {@code true} if the amount was captured, now or by an earlier request with the key.
+     */
+    public boolean capture(String cardNumber, long cents, String key) {
+        if (key == null) {
+            return capture(cardNumber, cents);
+        }
+        Stripe stripe = stripeFor(cardNumber);
+        synchronized (stripe) {
+            long now = System.nanoTime();
+            stripe.forgetExpiredKeys(now);
+            KeyedCapture earlier = stripe.capturesByKey.get(key);
+            if (earlier != null) {
+                return earlier.captured();
+            }
+            boolean captured = capture(cardNumber, cents); // Reentrant: the stripe lock is already held
+            stripe.capturesByKey.put(key, new KeyedCapture(captured, now));
+            return captured;
+        }
+    }
+
+    /**
+     * @param cardNumber The card to look up.
+     * @return The number of captures made on the card so far.
+     */
+    public int getCaptureCount(String cardNumber) {
+        Stripe stripe = stripeFor(cardNumber);
+        synchronized (stripe) {
+            Account account = stripe.accounts.get(cardNumber);
+            return account == null ? 0 : account.captures;
+        }
+    }
+
+    /**
+     * @param cardNumber The card to look up.
+     * @return The total captured on the card so far, in cents.
+     */
+    public long getCapturedCents(String cardNumber) {
+        Stripe stripe = stripeFor(cardNumber);
+        synchronized (stripe) {
+            Account account = stripe.accounts.get(cardNumber);
+            return account == null ? 0 : account.capturedCents;
+        }
+    }
+
+    /**
+     * @return The total captured across all cards, in cents.
+     */
+    public long getTotalCapturedCents() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Account account : stripe.accounts.values()) {
+                    total += account.capturedCents;
+                }
+            }
+        }
+        return total;
+    }
+
+    private Stripe stripeFor(String cardNumber) {
+        int h = cardNumber.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static final class Stripe {
+        private final Map<String, Account> accounts = new HashMap<>();
+        // Oldest first
+        private final Map<String, KeyedCapture> capturesByKey = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, KeyedCapture> eldest) {
+                return size() > KEYS_PER_STRIPE;
+            }
+        };
+
+        private void forgetExpiredKeys(long now) {
+            Iterator<KeyedCapture> it = capturesByKey.values().iterator();
+            while (it.hasNext() && now - it.next().atNanos() > KEY_RETENTION_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The result of a keyed capture, and when it was made.
+     */
+    private record KeyedCapture(boolean captured, long atNanos) {
+    }
+
+    private static final class Account {
+        private long heldCents;
+        private long capturedCents;
+        private int holds;
+        private int captures;
+    }
+}
@@ -0,0 +1,67 @@
+package SmallDevices;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Stage;
+
+/**
+ * A JavaFX status window for the {@link Bank} simulation, showing the outcome of the latest request.
+ */
+public class BankUI extends Application {
+    private static volatile Bank boundBank;
+
+    public static void bind(Bank bank) {
+        boundBank = bank;
+    }
+
+    /**
+     * Binds the bank and launches the JavaFX application. Blocks until the window is closed.
+     */
+    public static void launchFor(Bank bank, String[] args) {
+        bind(bank);
+        Application.launch(BankUI.class, args);
+    }
+
+    @Override
+    public void start(Stage stage) {
+        Rectangle rect = new Rectangle(400, 120, Color.LIGHTBLUE);
+        rect.setArcWidth(24);
+        rect.setArcHeight(24);
+
+        Label title = new Label("Group 6 Bank (A Bank You Can Trust)");
+        title.setStyle("-fx-font-size: 20px; -fx-font-weight: bold;");
+        Label status = new Label();
+        status.setStyle("-fx-font-size: 18px;");
+
+        VBox vbox = new VBox(16, title, status);
+        vbox.setAlignment(Pos.CENTER);
+        vbox.setPadding(new Insets(24, 24, 24, 24));
+
+        StackPane root = new StackPane(rect, vbox);
+        root.setPadding(new Insets(16));
+        Scene scene = new Scene(root, 500, 200);
+
+        // AnimationTimer to update status label continuously
+        AnimationTimer timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (boundBank == null) return;
+                status.setText(boundBank.getStatus());
+            }
+        };
+        timer.start();
+
+        stage.setTitle("Bank Status");
+        stage.setScene(scene);
+        stage.setResizable(false);
+        stage.show();
+    }
+}
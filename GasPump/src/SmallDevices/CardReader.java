@@ -1,151 +1,110 @@
 package SmallDevices;
 
-
+import Server.DeviceArgs;
 import Server.DeviceConstants;
 import Server.IOPortServer;
+import Server.Log;
 import Server.Message;
-import javafx.animation.PauseTransition;
-import javafx.application.Application;
-import javafx.application.Platform;
-import javafx.geometry.Insets;
-import javafx.geometry.Pos;
-import javafx.scene.Scene;
-import javafx.scene.control.Button;
-import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.StackPane;
-import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import javafx.stage.Stage;
-import javafx.util.Duration;
 
-import java.io.File;
-import java.net.MalformedURLException;
-import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Simulates a physical card reader device. It runs as a JavaFX application
- * and listens for a connection from the main controller. When the user simulates
- * a card tap, it sends a 16-digit number to the controller. It also changes color
- * based on "approved" or "declined" messages it receives back.
+ * Simulates a physical card reader device. It listens for a connection from the main controller.
+ * When a card is tapped, it sends a 16-digit number to the controller, and it tracks the
+ * "approved" or "declined" messages it receives back. The device runs headless or with
+ * its {@link CardReaderUI}.
  */
-public class CardReader extends Application {
+public class CardReader {
+
+    private static final long POLL_INTERVAL_MS = 50;
+    private static final long DECLINED_DISPLAY_MS = 5000;
 
-    private IOPortServer commManager;
-    private Rectangle outerRect;
+    private final IOPortServer commManager;
+    private final ScheduledExecutorService scheduler;
+    private final Random rng = new Random();
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.READY);
 
     /**
-     * The main entry point for the CardReader application.
-     * This simply launches the JavaFX UI.
+     * Initializes the card reader for the given pump and starts listening for controller messages.
+     *
+     * @param pumpIndex The zero-based pump number whose card reader port to listen on.
+     * @param scheduler The scheduler that polls this device's port.
      */
-    public static void main(String[] args) {
-        launch(args);
-    }
-
-    @Override
-    public void start(Stage primaryStage) {
-        // The IOPort must be initialized here, within the JavaFX application thread.
-        this.commManager = new IOPortServer(DeviceConstants.CARD_READER_PORT);
-
-        // Start a separate thread to listen for messages from the MainController
-        // This prevents the UI from freezing while waiting for network input.
-        Thread messageListenerThread = new Thread(this::listenForMessages);
-        messageListenerThread.setDaemon(true); // Allows the app to exit cleanly
-        messageListenerThread.start();
-
-        // Create and display the UI
-        BorderPane root = createUI();
-        Scene scene = new Scene(root, 500, 250);
-        primaryStage.setTitle("Card Reader UI Mockup");
-        primaryStage.setScene(scene);
-        primaryStage.show();
+    public CardReader(int pumpIndex, ScheduledExecutorService scheduler) {
+        this.commManager = new IOPortServer(DeviceConstants.portFor(DeviceConstants.CARD_READER_PORT, pumpIndex));
+        commManager.setName(Log.pumpTag("card-reader", pumpIndex));
+        this.scheduler = scheduler;
+        scheduler.scheduleWithFixedDelay(this::pollMessages, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Continuously listens for incoming messages from the MainController and
-     * processes them on the JavaFX application thread.
+     * The main entry point for the CardReader device. Pass {@code --headless} to run
+     * without the JavaFX window and {@code --pump=N} to serve a pump other than pump 0.
      */
-    private void listenForMessages() {
-        while (true) {
-            Message msg = commManager.get();
-            if (msg != null) {
-                // UI updates must be run on the JavaFX application thread.
-                Platform.runLater(() -> processMessage(msg.getContent()));
-            }
-            try {
-                // A brief pause to prevent the loop from consuming 100% CPU.
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
+    public static void main(String[] args) {
+        CardReader reader = new CardReader(DeviceArgs.pumpIndex(args), Executors.newSingleThreadScheduledExecutor());
+        if (!DeviceArgs.isHeadless(args)) {
+            CardReaderUI.launchFor(reader, args);
         }
     }
 
-    private BorderPane createUI() {
-        // Outer rectangle
-        outerRect = new Rectangle(300, 200, Color.GREEN);
-        outerRect.setArcWidth(30);
-        outerRect.setArcHeight(30);
-
-        // Inner rectangle
-        Rectangle innerRect = new Rectangle(200, 150, Color.YELLOW);
-        innerRect.setArcWidth(30);
-        innerRect.setArcHeight(30);
+    /**
+     * Simulates tapping a card with a random 16-digit number.
+     *
+     * @return The card number that was sent.
+     */
+    public String tap() {
+        String cardNumber = generate16DigitNumber();
+        tap(cardNumber);
+        return cardNumber;
+    }
 
-        // Load tapHere image
-        ImageView tapIcon = new ImageView(
-                new Image(
-                        Objects.requireNonNull(CardReader.class.getResource("/tapHere.png"),
-                                "Missing resource: /tapHere.png"
-                        ).toExternalForm()
-                )
-        );
-        
-        tapIcon.setFitWidth(180);
-        tapIcon.setFitHeight(180);
-        tapIcon.setPreserveRatio(true);
+    /**
+     * Simulates tapping a specific card.
+     *
+     * @param cardNumber The card number to send to the controller.
+     */
+    public void tap(String cardNumber) {
+        commManager.send(new Message(cardNumber + "//"));
+        status.set(Status.PROCESSING);
+    }
 
-        // Side Panel
-        Button payButton = new Button("(Simulate Card Tap)");
-        payButton.setOnAction(e -> {
-            commManager.send(new Message(generate16DigitNumber() + "//"));
-            outerRect.setFill(Color.ORANGE); // Change color to indicate processing
-        });
-        VBox buttonBox = new VBox(30, payButton);
-        buttonBox.setPadding(new Insets(20));
-        buttonBox.setAlignment(Pos.CENTER_RIGHT);
+    /**
+     * @return The reader's current status, as it would be shown on the physical device.
+     */
+    public Status getStatus() {
+        return status.get();
+    }
 
-        // Main layout
-        BorderPane root = new BorderPane();
-        StackPane stack = new StackPane(outerRect, innerRect, tapIcon);
-        root.setCenter(stack);
-        root.setRight(buttonBox);
-        return root;
+    private void pollMessages() {
+        Message msg = commManager.get();
+        if (msg != null) {
+            processMessage(msg.getContent());
+        }
     }
 
     /**
-     * Processes messages received from the MainController to update the UI color.
+     * Processes messages received from the MainController to update the reader status.
      *
      * @param message The raw message content (e.g., "approved//").
      */
     private void processMessage(String message) {
         String cleanMessage = message.replace("//", "").trim().toLowerCase();
         switch (cleanMessage) {
-            case "approved" -> outerRect.setFill(Color.LIMEGREEN);
+            case "approved" -> status.set(Status.APPROVED);
             case "declined" -> {
-                outerRect.setFill(Color.RED);
-                // After 5 seconds, revert the color back to green.
-                PauseTransition delay = new PauseTransition(Duration.seconds(5));
-                delay.setOnFinished(event -> outerRect.setFill(Color.GREEN));
-                delay.play();
+                status.set(Status.DECLINED);
+                // After 5 seconds, revert back to ready.
+                scheduler.schedule(() -> status.compareAndSet(Status.DECLINED, Status.READY),
+                        DECLINED_DISPLAY_MS, TimeUnit.MILLISECONDS);
             }
-            case "complete" -> outerRect.setFill(Color.GREEN);
-            case "error" -> outerRect.setFill(Color.RED);
-            default -> // Default to green if the message is unrecognized
-                    outerRect.setFill(Color.GREEN);
+            case "error" -> status.set(Status.ERROR);
+            default -> // "complete" or unrecognized messages return the reader to ready
+                    status.set(Status.READY);
         }
     }
 
@@ -156,10 +115,20 @@ public class CardReader extends Application {
      */
     private String generate16DigitNumber() {
         StringBuilder sb = new StringBuilder(16);
-        java.util.Random r = new java.util.Random();
         for (int i = 0; i < 16; i++) {
-            sb.append(r.nextInt(10));
+            sb.append(rng.nextInt(10));
         }
         return sb.toString();
     }
+
+    /**
+     * The states a card reader can display.
+     */
+    public enum Status {
+        READY,      // Waiting for a card
+        PROCESSING, // Card sent, waiting for the controller
+        APPROVED,
+        DECLINED,
+        ERROR
+    }
 }
@@ -0,0 +1,106 @@
+package SmallDevices;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Stage;
+
+import java.util.Objects;
+
+/**
+ * A JavaFX UI for the {@link CardReader} device. The outer frame changes color with the
+ * reader's status; all protocol handling lives in {@link CardReader}.
+ */
+public class CardReaderUI extends Application {
+
+    private static volatile CardReader boundReader;
+    private Rectangle outerRect;
+
+    public static void bind(CardReader reader) {
+        boundReader = reader;
+    }
+
+    /**
+     * Binds the card reader and launches the JavaFX application. Blocks until the window is closed.
+     */
+    public static void launchFor(CardReader reader, String[] args) {
+        bind(reader);
+        Application.launch(CardReaderUI.class, args);
+    }
+
+    @Override
+    public void start(Stage primaryStage) {
+        // Create and display the UI
+        BorderPane root = createUI();
+        Scene scene = new Scene(root, 500, 250);
+        primaryStage.setTitle("Card Reader UI Mockup");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+
+        // Mirror the reader's status every frame.
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                outerRect.setFill(colorFor(boundReader.getStatus()));
+            }
+        }.start();
+    }
+
+    private BorderPane createUI() {
+        // Outer rectangle
+        outerRect = new Rectangle(300, 200, Color.GREEN);
+        outerRect.setArcWidth(30);
+        outerRect.setArcHeight(30);
+
+        // Inner rectangle
+        Rectangle innerRect = new Rectangle(200, 150, Color.YELLOW);
+        innerRect.setArcWidth(30);
+        innerRect.setArcHeight(30);
+
+        // Load tapHere image
+        ImageView tapIcon = new ImageView(
+                new Image(
+                        Objects.requireNonNull(CardReaderUI.class.getResource("/tapHere.png"),
+                                "Missing resource: /tapHere.png"
+                        ).toExternalForm()
+                )
+        );
+
+        tapIcon.setFitWidth(180);
+        tapIcon.setFitHeight(180);
+        tapIcon.setPreserveRatio(true);
+
+        // Side Panel
+        Button payButton = new Button("(Simulate Card Tap)");
+        payButton.setOnAction(e -> boundReader.tap());
+        VBox buttonBox = new VBox(30, payButton);
+        buttonBox.setPadding(new Insets(20));
+        buttonBox.setAlignment(Pos.CENTER_RIGHT);
+
+        // Main layout
+        BorderPane root = new BorderPane();
+        StackPane stack = new StackPane(outerRect, innerRect, tapIcon);
+        root.setCenter(stack);
+        root.setRight(buttonBox);
+        return root;
+    }
+
+    private static Color colorFor(CardReader.Status status) {
+        return switch (status) {
+            case PROCESSING -> Color.ORANGE; // Indicates processing
+            case APPROVED -> Color.LIMEGREEN;
+            case DECLINED, ERROR -> Color.RED;
+            case READY -> Color.GREEN;
+        };
+    }
+}
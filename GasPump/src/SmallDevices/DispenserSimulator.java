@@ -0,0 +1,87 @@
+package SmallDevices;
+
+import GasPumpUI.Screen;
+import Server.DeviceArgs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many headless dispensers in one JVM for capacity and soak testing.
+ * Each dispenser is a full set of per-pump devices (pump, card reader, flow meter, hose and screen)
+ * listening on the ports for its pump number, so one {@code MainController N} per dispenser can drive it.
+ * All devices share a small scheduler instead of running their own threads and windows.
+ * <p>
+ * Usage: {@code DispenserSimulator [--pumps=N] [--first=K] [--script=commands.txt]}
+ * <p>
+ * Dispensers can be driven from Java through {@link #getDispensers()}, or from a command file
+ * (see {@link SimulatorScript}).
+ */
+public class DispenserSimulator {
+
+    private final List<Dispenser> dispensers;
+
+    /**
+     * Starts the devices for pumps {@code firstPump} to {@code firstPump + count - 1}. Device ports
+     * accept their controllers in the background, so this returns as soon as every port is bound.
+     *
+     * @param firstPump The first pump number to simulate.
+     * @param count     The number of dispensers to simulate.
+     * @param scheduler The scheduler shared by every device's periodic cycle.
+     */
+    public DispenserSimulator(int firstPump, int count, ScheduledExecutorService scheduler) {
+        List<Dispenser> started = new ArrayList<>(count);
+        for (int pumpIndex = firstPump; pumpIndex < firstPump + count; pumpIndex++) {
+            Pump pump = new Pump(pumpIndex);
+            scheduler.scheduleWithFixedDelay(pump::run, 0, 20, TimeUnit.MILLISECONDS);
+            started.add(new Dispenser(pumpIndex, pump, new CardReader(pumpIndex, scheduler),
+                    new FlowMeter(pumpIndex, scheduler), new Hose(pumpIndex, scheduler), new Screen(pumpIndex, scheduler)));
+        }
+        this.dispensers = List.copyOf(started);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = DeviceArgs.intOption(args, "--pumps=", 1);
+        int first = DeviceArgs.intOption(args, "--first=", 0);
+        String script = DeviceArgs.option(args, "--script=");
+
+        ScheduledExecutorService scheduler =
+                Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        System.out.println("[Simulator] Starting " + count + " headless dispenser(s) from pump " + first + "...");
+        DispenserSimulator simulator = new DispenserSimulator(first, count, scheduler);
+        System.out.println("[Simulator] All dispensers are listening for their controllers.");
+
+        if (script != null) {
+            new SimulatorScript(simulator.getDispensers()).run(Path.of(script));
+            System.out.println("[Simulator] Script finished.");
+            scheduler.shutdownNow();
+            System.exit(0);
+        }
+    }
+
+    /**
+     * @return The simulated dispensers, in pump order.
+     */
+    public List<Dispenser> getDispensers() {
+        return dispensers;
+    }
+
+    /**
+     * The devices that make up one simulated dispenser.
+     *
+     * @param pumpIndex  The pump number whose ports the devices listen on.
+     * @param pump       The pump motor.
+     * @param cardReader The card reader.
+     * @param flowMeter  The flow meter.
+     * @param hose       The hose, latch and vehicle tank.
+     * @param screen     The touch screen.
+     */
+    public record Dispenser(int pumpIndex, Pump pump, CardReader cardReader, FlowMeter flowMeter,
+                            Hose hose, Screen screen) {
+    }
+}
@@ -0,0 +1,78 @@
+package SmallDevices;
+
+import Server.Message;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Applies a {@link FaultProfile} to the responses of a simulated server.
+ * Instead of sending a response directly, the server passes it to {@link #send(Consumer, Message)},
+ * which may delay, drop, duplicate or reorder it, or swallow it during a scheduled outage.
+ * Delayed responses are sent from a scheduler thread, so the caller never blocks.
+ */
+public class FaultInjector {
+
+    private final FaultProfile profile;
+    private final long startMillis = System.currentTimeMillis();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fault-injector");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+
+    public FaultInjector(FaultProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Sends a response according to the profile.
+     *
+     * @param sink    Where the response is finally sent, e.g. {@code connection::send}.
+     * @param message The response.
+     */
+    public void send(Consumer<Message> sink, Message message) {
+        if (profile.isInOutage(System.currentTimeMillis() - startMillis) || profile.shouldDrop()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long delayMs = profile.nextDelayMs();
+        if (profile.shouldReorder()) {
+            reordered.incrementAndGet();
+            delayMs += profile.getReorderDelayMs();
+        }
+        deliver(sink, message, delayMs);
+        if (profile.shouldDuplicate()) {
+            duplicated.incrementAndGet();
+            deliver(sink, message, delayMs + profile.nextDelayMs());
+        }
+    }
+
+    /**
+     * @return {@code true} if the server is currently in a scheduled outage.
+     */
+    public boolean isInOutage() {
+        return profile.isInOutage(System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * @return A one-line summary of the faults injected so far.
+     */
+    public String summary() {
+        return "dropped=" + dropped.get() + " duplicated=" + duplicated.get() + " reordered=" + reordered.get();
+    }
+
+    private void deliver(Consumer<Message> sink, Message message, long delayMs) {
+        if (delayMs <= 0) {
+            sink.accept(message);
+        } else {
+            scheduler.schedule(() -> sink.accept(message), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package SmallDevices;
+
+import Server.DeviceArgs;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Describes how a simulated upstream server (the bank or gas station) misbehaves:
+ * how long its replies take, how often they are dropped, duplicated or reordered, and when it is down.
+ * Profiles are loaded from a properties file, for example:
+ * <pre>
+ * # fixed | lognormal | bimodal
+ * latency=bimodal
+ * # lognormal and bimodal: median and spread of the normal responses
+ * latency.medianMs=40
+ * latency.sigma=0.5
+ * # bimodal: chance a response stalls, and how long a stalled response takes
+ * latency.stallProbability=0.02
+ * latency.stallMs=4000
+ * # fixed: every response takes this long
+ * latency.fixedMs=20
+ * # chances a response is never sent, sent twice, or held back so later ones overtake it
+ * drop=0.01
+ * duplicate=0.005
+ * reorder=0.01
+ * reorder.delayMs=500
+ * # startMs+durationMs after startup; no responses while down
+ * outages=30000+10000,120000+5000
+ * # optional: repeat the outage schedule with this period
+ * outages.repeatMs=600000
+ * # optional: make a run reproducible
+ * seed=42
+ * </pre>
+ * Comments must be on lines of their own: a trailing comment would be read as part of the value.
+ * Unset keys default to a well-behaved server that answers immediately.
+ */
+public final class FaultProfile {
+
+    private final LatencyDistribution latency;
+    private final double dropProbability;
+    private final double duplicateProbability;
+    private final double reorderProbability;
+    private final long reorderDelayMs;
+    private final long[] outageStartsMs;
+    private final long[] outageEndsMs;
+    private final long outageRepeatMs;
+    private final Random random;
+
+    private FaultProfile(Properties p) {
+        this.random = p.containsKey("seed") ? new Random(Long.parseLong(p.getProperty("seed"))) : new Random();
+        this.latency = parseLatency(p);
+        this.dropProbability = doubleProperty(p, "drop", 0);
+        this.duplicateProbability = doubleProperty(p, "duplicate", 0);
+        this.reorderProbability = doubleProperty(p, "reorder", 0);
+        this.reorderDelayMs = longProperty(p, "reorder.delayMs", 500);
+        this.outageRepeatMs = longProperty(p, "outages.repeatMs", 0);
+
+        List<long[]> outages = new ArrayList<>();
+        String outageList = p.getProperty("outages", "").trim();
+        if (!outageList.isEmpty()) {
+            for (String window : outageList.split(",")) {
+                String[] parts = window.trim().split("\\+");
+                long start = Long.parseLong(parts[0].trim());
+                outages.add(new long[]{start, start + Long.parseLong(parts[1].trim())});
+            }
+        }
+        this.outageStartsMs = outages.stream().mapToLong(w -> w[0]).toArray();
+        this.outageEndsMs = outages.stream().mapToLong(w -> w[1]).toArray();
+    }
+
+    /**
+     * @return A profile for a server that always answers immediately and never fails.
+     */
+    public static FaultProfile none() {
+        return new FaultProfile(new Properties());
+    }
+
+    /**
+     * Loads a profile from a properties file.
+     *
+     * @param file The profile file.
+     * @return The parsed profile.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if a value is malformed.
+     */
+    public static FaultProfile load(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            p.load(reader);
+        }
+        try {
+            return new FaultProfile(p);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid fault profile " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the profile named by a {@code --faults=path} argument, or {@link #none()} if absent.
+     */
+    public static FaultProfile fromArgs(String[] args) throws IOException {
+        String path = DeviceArgs.option(args, "--faults=");
+        if (path == null) return none();
+        System.out.println("Using fault profile " + path);
+        return load(Path.of(path));
+    }
+
+    /**
+     * @return A delay for the next response, in milliseconds.
+     */
+    long nextDelayMs() {
+        return latency.nextDelayMs(random);
+    }
+
+    boolean shouldDrop() {
+        return chance(dropProbability);
+    }
+
+    boolean shouldDuplicate() {
+        return chance(duplicateProbability);
+    }
+
+    boolean shouldReorder() {
+        return chance(reorderProbability);
+    }
+
+    long getReorderDelayMs() {
+        return reorderDelayMs;
+    }
+
+    /**
+     * @param elapsedMs Milliseconds since the server started.
+     * @return {@code true} if the server is in a scheduled outage at that time.
+     */
+    boolean isInOutage(long elapsedMs) {
+        long t = outageRepeatMs > 0 ? elapsedMs % outageRepeatMs : elapsedMs;
+        for (int i = 0; i < outageStartsMs.length; i++) {
+            if (t >= outageStartsMs[i] && t < outageEndsMs[i]) return true;
+        }
+        return false;
+    }
+
+    private boolean chance(double probability) {
+        return probability > 0 && random.nextDouble() < probability;
+    }
+
+    private static LatencyDistribution parseLatency(Properties p) {
+        String kind = p.getProperty("latency", "fixed").trim();
+        return switch (kind) {
+            case "fixed" -> new Fixed(longProperty(p, "latency.fixedMs", 0));
+            case "lognormal" -> new LogNormal(doubleProperty(p, "latency.medianMs", 20),
+                    doubleProperty(p, "latency.sigma", 0.5));
+            case "bimodal" -> new Bimodal(new LogNormal(doubleProperty(p, "latency.medianMs", 20),
+                    doubleProperty(p, "latency.sigma", 0.5)),
+                    doubleProperty(p, "latency.stallProbability", 0.01),
+                    longProperty(p, "latency.stallMs", 5000));
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + kind);
+        };
+    }
+
+    private static double doubleProperty(Properties p, String key, double defaultValue) {
+        String value = p.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    private static long longProperty(Properties p, String key, long defaultValue) {
+        String value = p.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * A distribution of response times.
+     */
+    interface LatencyDistribution {
+        long nextDelayMs(Random random);
+    }
+
+    /**
+     * Every response takes the same time.
+     */
+    record Fixed(long delayMs) implements LatencyDistribution {
+        public long nextDelayMs(Random random) {
+            return delayMs;
+        }
+    }
+
+    /**
+     * Response times follow a log-normal distribution: most are near the median, with a long right tail.
+     */
+    record LogNormal(double medianMs, double sigma) implements LatencyDistribution {
+        public long nextDelayMs(Random random) {
+            return Math.round(medianMs * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    /**
+     * Mostly log-normal response times, but a fraction of responses stall for a long time,
+     * as when an upstream server pauses or a request is retried behind the scenes.
+     */
+    record Bimodal(LogNormal normal, double stallProbability, long stallMs) implements LatencyDistribution {
+        public long nextDelayMs(Random random) {
+            if (random.nextDouble() < stallProbability) return stallMs;
+            return normal.nextDelayMs(random);
+        }
+    }
+}
@@ -1,59 +1,65 @@
 package SmallDevices;
 
+import Server.Cents;
+import Server.DeviceArgs;
 import Server.DeviceConstants;
+import Server.FixedPointFormat;
 import Server.IOPortServer;
+import Server.Log;
 import Server.Message;
-import javafx.animation.AnimationTimer;
-import javafx.application.Application;
-import javafx.geometry.Insets;
-import javafx.geometry.Pos;
-import javafx.scene.Scene;
-import javafx.scene.control.Label;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.StackPane;
-import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Rectangle;
-import javafx.stage.Stage;
-
-import java.text.DecimalFormat;
+import Server.OverflowPolicy;
+import Server.MilliGallons;
+
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * FlowMeter simulates a fuel pump by computing the number of gallons dispensed and the total price based on elapsed time.
- * As per SRS 6.3, the flow rate is fixed and internal to this device. This version includes a StatusUI for visualization.
+ * As per SRS 6.3, the flow rate is fixed and internal to this device. It runs headless or with a {@link FlowMeterUI}
+ * for visualization.
+ * <p>
+ * {@code CMD:START} may carry the sale's dollar limit ({@code CMD:START ppg=4.59 limit=200.00 gas=Regular//}).
+ * Every reading is checked against it: once the cost reaches the limit, the meter stops counting at the largest
+ * volume the limit pays for, and sends that reading followed by {@code limit-reached} so the controller turns the
+ * pump off.
  */
 public class FlowMeter {
     // The flow rate is fixed as per SRS 6.3.
-    private static final double FLOW_RATE_GPS = 0.15; // Gallons Per Second (equivalent to 9 gal/min)
-    // --- Formatters ---
-    private static final DecimalFormat GALLONS_FORMAT = new DecimalFormat("0.000");
-    private static final DecimalFormat COST_FORMAT = new DecimalFormat("$0.00");
-    private final IOPortServer flowPort = new IOPortServer(DeviceConstants.FLOW_METER_PORT);
+    static final long FLOW_RATE_MGPS = 150; // Milli-gallons Per Second (0.15 gal/s, equivalent to 9 gal/min)
+    private static final int QUEUE_LIMIT = 32;
+    private final IOPortServer flowPort;
+    private final String logTag;
     // --- State Variables ---
-    private final AtomicReference<Double> pricePerGallon = new AtomicReference<>(4.59);
+    private final AtomicLong centsPerGallon = new AtomicLong(459);
     private final AtomicReference<String> gasType = new AtomicReference<>("");
     private final AtomicBoolean isFueling = new AtomicBoolean(false);
+    private final AtomicLong limitCents = new AtomicLong(Long.MAX_VALUE); // No limit unless CMD:START gives one
     private long lastStartNanos;
-    private double accumulatedSeconds = 0.0;
-    private volatile double lastGallons = 0.0;
-    private volatile double lastTotal = 0.0;
+    private long accumulatedNanos = 0;
+    private volatile long lastMilliGallons = 0;
+    private volatile long lastCents = 0;
+    // Reused for every update frame; only touched from the single cycle thread.
+    private final StringBuilder frameBuffer = new StringBuilder(96);
 
     /**
-     * Initializes the FlowMeter device.
+     * Initializes the FlowMeter device for the given pump.
+     *
+     * @param pumpIndex The zero-based pump number whose flow meter port to listen on.
+     * @param scheduler The scheduler that runs this device's command polling and ticking.
      */
-    public FlowMeter() {
-        // Start the background thread for command polling and ticking.
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(this::runCycle, 0, 100, TimeUnit.MILLISECONDS);
+    public FlowMeter(int pumpIndex, ScheduledExecutorService scheduler) {
+        this.flowPort = new IOPortServer(DeviceConstants.portFor(DeviceConstants.FLOW_METER_PORT, pumpIndex));
+        this.logTag = Log.pumpTag("flow-meter", pumpIndex);
+        flowPort.setName(logTag);
+        flowPort.limitQueue(QUEUE_LIMIT, OverflowPolicy.DROP_OLDEST); // Readings are cumulative; the newest supersede the rest
+        scheduler.scheduleAtFixedRate(this::runCycle, 0, 100, TimeUnit.MILLISECONDS);
     }
 
-    private static double parsePriceFromCommand(String command, double defaultValue) {
-        final String key = "ppg=";
+    private static long parseCentsFromCommand(String command, String key, long defaultValue) {
         int index = command.indexOf(key);
         if (index < 0) return defaultValue;
         int start = index + key.length();
@@ -61,18 +67,21 @@ public class FlowMeter {
         while (end < command.length() && (Character.isDigit(command.charAt(end)) || command.charAt(end) == '.'))
             end++;
         try {
-            return Double.parseDouble(command.substring(start, end));
-        } catch (Exception e) {
+            return Cents.parse(command, start, end);
+        } catch (NumberFormatException e) {
             return defaultValue;
         }
     }
 
     /**
-     * Main entry point for running the FlowMeter device with its status UI.
+     * Main entry point for running the FlowMeter device. Pass {@code --headless} to run
+     * without the status UI and {@code --pump=N} to serve a pump other than pump 0.
      */
     public static void main(String[] args) {
-        StatusUI.bind(new FlowMeter());
-        Application.launch(StatusUI.class, args);
+        FlowMeter flowMeter = new FlowMeter(DeviceArgs.pumpIndex(args), Executors.newSingleThreadScheduledExecutor());
+        if (!DeviceArgs.isHeadless(args)) {
+            FlowMeterUI.launchFor(flowMeter, args);
+        }
     }
 
     /**
@@ -101,12 +110,32 @@ public class FlowMeter {
      */
     private void tick() {
         if (!isFueling.get()) return;
-        double elapsed = accumulatedSeconds + (System.nanoTime() - lastStartNanos) / 1e9;
-        double gallons = elapsed * FLOW_RATE_GPS; // Use the fixed internal rate
-        double total = gallons * pricePerGallon.get();
-        lastGallons = gallons;
-        lastTotal = total;
-        sendPort(updateMessage(gallons, total));
+        long elapsedNanos = accumulatedNanos + (System.nanoTime() - lastStartNanos);
+        long milliGallons = MilliGallons.fromFlow(elapsedNanos, FLOW_RATE_MGPS); // Use the fixed internal rate
+        long cents = Cents.costOf(centsPerGallon.get(), milliGallons);
+        if (cents >= limitCents.get() && centsPerGallon.get() > 0) {
+            stopAtLimit();
+            return;
+        }
+        lastMilliGallons = milliGallons;
+        lastCents = cents;
+        sendPort(updateMessage(milliGallons, cents));
+    }
+
+    /**
+     * Stops counting at the largest volume the limit pays for, as if the meter had stopped the
+     * moment it got there, and reports it as the final reading of the sale.
+     */
+    private void stopAtLimit() {
+        long milliGallons = MilliGallons.forCost(centsPerGallon.get(), limitCents.get());
+        long cents = Cents.costOf(centsPerGallon.get(), milliGallons);
+        isFueling.set(false);
+        accumulatedNanos = MilliGallons.flowNanos(milliGallons, FLOW_RATE_MGPS);
+        lastMilliGallons = milliGallons;
+        lastCents = cents;
+        // In the readings' own lane, so it stays the last line the controller reads
+        sendPort(updateMessage(milliGallons, cents).append("limit-reached"));
+        Log.info(logTag, "Limit of ${} reached; flow meter stopped.", Cents.toString(limitCents.get()));
     }
 
     /**
@@ -116,7 +145,8 @@ public class FlowMeter {
      */
     private void handlePortCommand(String command) {
         if (command.startsWith("CMD:START")) {
-            pricePerGallon.set(parsePriceFromCommand(command, pricePerGallon.get()));
+            centsPerGallon.set(parseCentsFromCommand(command, "ppg=", centsPerGallon.get()));
+            limitCents.set(parseCentsFromCommand(command, "limit=", Long.MAX_VALUE));
             int gasIndex = command.indexOf("gas=");
             if (gasIndex != -1) {
                 gasType.set(command.substring(gasIndex + 4).replace("//", "").trim());
@@ -135,7 +165,7 @@ public class FlowMeter {
     public void start() {
         if (isFueling.compareAndSet(false, true)) {
             lastStartNanos = System.nanoTime();
-            System.out.println("Flow meter started.");
+            Log.info(logTag, "Flow meter started.");
         }
     }
 
@@ -144,8 +174,8 @@ public class FlowMeter {
      */
     public void stop() {
         if (isFueling.compareAndSet(true, false)) {
-            accumulatedSeconds += (System.nanoTime() - lastStartNanos) / 1e9;
-            System.out.println("Flow meter stopped.");
+            accumulatedNanos += System.nanoTime() - lastStartNanos;
+            Log.info(logTag, "Flow meter stopped.");
         }
     }
 
@@ -154,93 +184,67 @@ public class FlowMeter {
      */
     public void reset() {
         stop(); // Ensure it's stopped before resetting
-        accumulatedSeconds = 0.0;
-        lastGallons = 0.0;
-        lastTotal = 0.0;
+        accumulatedNanos = 0;
+        limitCents.set(Long.MAX_VALUE);
+        lastMilliGallons = 0;
+        lastCents = 0;
         sendPort(updateMessage(0, 0));
-        System.out.println("Flow meter reset.");
+        Log.info(logTag, "Flow meter reset.");
     }
 
-    private String updateMessage(double gallons, double total) {
-        return "t:2.5/s:2/st:1/c:0/;"
-                + "t:3/s:3/st:2/c:0/" + GALLONS_FORMAT.format(gallons) + " gal;"
-                + "t:5/s:3/st:2/c:0/" + COST_FORMAT.format(total) + ";";
+    /**
+     * @return {@code true} while fuel is flowing.
+     */
+    public boolean isFueling() {
+        return isFueling.get();
     }
 
-    private void sendPort(String s) {
-        if (!s.endsWith("//")) s += "//";
-        flowPort.send(new Message(s));
+    /**
+     * @return The most recently reported volume, in milli-gallons.
+     */
+    public long getLastMilliGallons() {
+        return lastMilliGallons;
     }
 
     /**
-     * A JavaFX UI for visualizing the internal state of the FlowMeter.
+     * @return The most recently reported cost, in cents.
      */
-    public static class StatusUI extends Application {
-        private static volatile FlowMeter boundFlowMeter;
-
-        public static void bind(FlowMeter flowMeter) {
-            boundFlowMeter = flowMeter;
-        }
-
-        @Override
-        public void start(Stage stage) {
-            VBox root = new VBox(10);
-            root.setPadding(new Insets(12));
-            root.setAlignment(Pos.CENTER_LEFT);
-
-            Label statusLabel = new Label("Waiting...");
-            Label gallonsLabel = new Label("Gallons: 0.000");
-            Label totalLabel = new Label("Total:   $0.000");
-            Label gasTypeLabel = new Label("Gas: ");
-            Label rateLabel = new Label("Rate: " + GALLONS_FORMAT.format(FLOW_RATE_GPS) + " gal/s");
-
-            final String labelStyle = "-fx-font-size: 16px;";
-            gallonsLabel.setStyle(labelStyle);
-            totalLabel.setStyle(labelStyle);
-            gasTypeLabel.setStyle(labelStyle);
-            rateLabel.setStyle(labelStyle);
-
-            Rectangle pipeBase = new Rectangle(400, 32, Color.GRAY);
-            Rectangle pipeFlow = new Rectangle(150, 32, Color.GOLD);
-            StackPane pipePane = new StackPane(pipeBase, pipeFlow);
-            Rectangle clip = new Rectangle(400, 32);
-            pipePane.setClip(clip);
-
-            root.getChildren().addAll(statusLabel, pipePane, new HBox(8, gallonsLabel), new HBox(8, totalLabel), new HBox(8, gasTypeLabel), new HBox(8, rateLabel));
-
-            stage.setTitle("FlowMeter Status");
-            stage.setScene(new Scene(root, 420, 230));
-            stage.show();
-            setupAnimationTimer(statusLabel, gallonsLabel, totalLabel, gasTypeLabel, rateLabel, pipeFlow);
-        }
-
-        private void setupAnimationTimer(Label statusLabel, Label gallonsLabel, Label totalLabel, Label gasTypeLabel, Label rateLabel, Rectangle pipeFlow) {
-            final String statusBaseStyle = "-fx-font-size: 18px; -fx-font-weight: bold;";
+    public long getLastCents() {
+        return lastCents;
+    }
 
-            new AnimationTimer() {
-                private double flowOffset = 0;
+    /**
+     * @return The current sale's dollar limit, in cents, or {@link Long#MAX_VALUE} if it has none.
+     */
+    public long getLimitCents() {
+        return limitCents.get();
+    }
 
-                @Override
-                public void handle(long now) {
-                    if (boundFlowMeter == null) return;
+    /**
+     * @return The unit price of the current sale, in cents per gallon.
+     */
+    public long getCentsPerGallon() {
+        return centsPerGallon.get();
+    }
 
-                    boolean isFlowing = boundFlowMeter.isFueling.get();
-                    statusLabel.setText(isFlowing ? "FLOWING" : "STOPPED");
-                    statusLabel.setStyle(statusBaseStyle + (isFlowing ? "-fx-text-fill: green;" : "-fx-text-fill: red;"));
+    /**
+     * @return The name of the fuel grade being dispensed.
+     */
+    public String getGasType() {
+        return gasType.get();
+    }
 
-                    gallonsLabel.setText("Gallons: " + GALLONS_FORMAT.format(boundFlowMeter.lastGallons));
-                    totalLabel.setText("Total:   " + COST_FORMAT.format(boundFlowMeter.lastTotal));
-                    gasTypeLabel.setText("Gas: " + boundFlowMeter.gasType.get());
-                    rateLabel.setText("Rate: " + GALLONS_FORMAT.format(FLOW_RATE_GPS) + " gal/s  @  " + COST_FORMAT.format(boundFlowMeter.pricePerGallon.get()) + "/gal");
+    private StringBuilder updateMessage(long milliGallons, long cents) {
+        StringBuilder sb = frameBuffer;
+        sb.setLength(0);
+        sb.append("t:2.5/s:2/st:1/c:0/;").append("t:3/s:3/st:2/c:0/");
+        FixedPointFormat.appendGallons(sb, milliGallons).append(" gal;").append("t:5/s:3/st:2/c:0/");
+        FixedPointFormat.appendDollars(sb, cents).append(';');
+        return sb;
+    }
 
-                    pipeFlow.setVisible(isFlowing);
-                    if (isFlowing) {
-                        flowOffset = (flowOffset + 2) % 400;
-                        pipeFlow.setTranslateX(-160 + flowOffset);
-                    }
-                }
-            }.start();
-        }
+    private void sendPort(StringBuilder frame) {
+        frame.append("//");
+        flowPort.send(new Message(frame.toString()), Message.Priority.BULK);
     }
 }
-
@@ -0,0 +1,95 @@
+package SmallDevices;
+
+import Server.Cents;
+import Server.MilliGallons;
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Stage;
+
+/**
+ * A JavaFX UI for visualizing the internal state of the {@link FlowMeter}.
+ */
+public class FlowMeterUI extends Application {
+    private static volatile FlowMeter boundFlowMeter;
+
+    public static void bind(FlowMeter flowMeter) {
+        boundFlowMeter = flowMeter;
+    }
+
+    /**
+     * Binds the flow meter and launches the JavaFX application. Blocks until the window is closed.
+     */
+    public static void launchFor(FlowMeter flowMeter, String[] args) {
+        bind(flowMeter);
+        Application.launch(FlowMeterUI.class, args);
+    }
+
+    @Override
+    public void start(Stage stage) {
+        VBox root = new VBox(10);
+        root.setPadding(new Insets(12));
+        root.setAlignment(Pos.CENTER_LEFT);
+
+        Label statusLabel = new Label("Waiting...");
+        Label gallonsLabel = new Label("Gallons: 0.000");
+        Label totalLabel = new Label("Total:   $0.000");
+        Label gasTypeLabel = new Label("Gas: ");
+        Label rateLabel = new Label("Rate: " + MilliGallons.toString(FlowMeter.FLOW_RATE_MGPS) + " gal/s");
+
+        final String labelStyle = "-fx-font-size: 16px;";
+        gallonsLabel.setStyle(labelStyle);
+        totalLabel.setStyle(labelStyle);
+        gasTypeLabel.setStyle(labelStyle);
+        rateLabel.setStyle(labelStyle);
+
+        Rectangle pipeBase = new Rectangle(400, 32, Color.GRAY);
+        Rectangle pipeFlow = new Rectangle(150, 32, Color.GOLD);
+        StackPane pipePane = new StackPane(pipeBase, pipeFlow);
+        Rectangle clip = new Rectangle(400, 32);
+        pipePane.setClip(clip);
+
+        root.getChildren().addAll(statusLabel, pipePane, new HBox(8, gallonsLabel), new HBox(8, totalLabel), new HBox(8, gasTypeLabel), new HBox(8, rateLabel));
+
+        stage.setTitle("FlowMeter Status");
+        stage.setScene(new Scene(root, 420, 230));
+        stage.show();
+        setupAnimationTimer(statusLabel, gallonsLabel, totalLabel, gasTypeLabel, rateLabel, pipeFlow);
+    }
+
+    private void setupAnimationTimer(Label statusLabel, Label gallonsLabel, Label totalLabel, Label gasTypeLabel, Label rateLabel, Rectangle pipeFlow) {
+        final String statusBaseStyle = "-fx-font-size: 18px; -fx-font-weight: bold;";
+
+        new AnimationTimer() {
+            private double flowOffset = 0;
+
+            @Override
+            public void handle(long now) {
+                if (boundFlowMeter == null) return;
+
+                boolean isFlowing = boundFlowMeter.isFueling();
+                statusLabel.setText(isFlowing ? "FLOWING" : "STOPPED");
+                statusLabel.setStyle(statusBaseStyle + (isFlowing ? "-fx-text-fill: green;" : "-fx-text-fill: red;"));
+
+                gallonsLabel.setText("Gallons: " + MilliGallons.toString(boundFlowMeter.getLastMilliGallons()));
+                totalLabel.setText("Total:   $" + Cents.toString(boundFlowMeter.getLastCents()));
+                gasTypeLabel.setText("Gas: " + boundFlowMeter.getGasType());
+                rateLabel.setText("Rate: " + MilliGallons.toString(FlowMeter.FLOW_RATE_MGPS) + " gal/s  @  $" + Cents.toString(boundFlowMeter.getCentsPerGallon()) + "/gal");
+
+                pipeFlow.setVisible(isFlowing);
+                if (isFlowing) {
+                    flowOffset = (flowOffset + 2) % 400;
+                    pipeFlow.setTranslateX(-160 + flowOffset);
+                }
+            }
+        }.start();
+    }
+}
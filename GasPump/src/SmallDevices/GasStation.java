@@ -1,53 +1,345 @@
 package SmallDevices;
 
+import Server.Cents;
+import Server.DeviceArgs;
 import Server.DeviceConstants;
-import Server.IOPortServer;
+import Server.FixedPointFormat;
+import Server.IOPortMultiServer;
 import Server.Message;
+import Server.MetricsRegistry;
+import Server.MetricsServer;
+import Server.OverflowPolicy;
+import Server.MilliGallons;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A simulation of the central Gas Station server.
- * This server listens for connections from gas pump controllers and responds to commands.
- * It provides fuel prices and logs sales data.
+ * This server accepts connections from any number of gas pump controllers and responds to commands.
+ * It provides fuel prices, records every sale in a durable {@link SaleJournal}, which can be
+ * queried for totals, and keeps live per-grade, per-pump and per-minute {@link SalesAggregator} figures.
+ * Prices are versioned: whenever they change, the new list is pushed to every connected pump, and a
+ * pump is sent the current list as soon as it connects. Versions are numbered from 1 under the
+ * station's start time (its epoch, in ms), so a pump can tell a restarted station's list from
+ * a stale one.
+ * It tracks each grade's underground tank in a {@link TankInventory}; when a tank runs low the grade
+ * is pushed to every connected pump as unavailable, and pumps that connect later are told on connect.
+ * Its responses can be delayed, dropped or withheld according to a {@link FaultProfile} given with
+ * {@code --faults=profile.properties}.
+ * <p>
+ * Commands:
+ * <ul>
+ *     <li>{@code get-prices} replies with the current price list, {@code prices:v=E-N:Name,Octane,Price;...}
+ *     (epoch E, version N)</li>
+ *     <li>{@code set-prices:Name,Octane,Price;...} replaces the price list, pushes it to every pump and
+ *     replies with {@code prices-set:v=E-N}</li>
+ *     <li>{@code log-sale:card=C,grade=G,gallons=1.234,cost=5.67[,pump=N,sale=S][,session=ID]} journals a sale (no reply)</li>
+ *     <li>{@code query-sales[:from=ms,to=ms,grade=G,card=C]} replies with
+ *     {@code sales:count=N,gallons=1.234,cost=5.67}; every filter is optional and times are epoch ms</li>
+ *     <li>{@code query-live[:grade=G|:pump=N]} replies with the station, grade or pump aggregates as
+ *     {@code live:minute=N/1.234/5.67,hour=N/1.234/5.67,total=N/1.234/5.67} (count/gallons/cost)</li>
+ *     <li>{@code dispensing:pump=N,sale=S,grade=G,gallons=1.234} reports a pump's running total for its
+ *     sale S (no reply)</li>
+ *     <li>{@code refill:grade=G,gallons=1000.000} delivers fuel to a tank (no reply)</li>
+ *     <li>{@code query-tanks} replies with {@code tanks:Regular=1234.567;...} (gallons)</li>
+ * </ul>
+ * Pushed to pumps: {@code prices:v=E-N:...}, {@code grade-unavailable:G} and {@code grade-available:G}.
+ * <p>
+ * Usage: {@code GasStation [--journal=sales.journal] [--tank-gallons=N] [--tank-low-gallons=N]
+ * [--report-seconds=N] [--faults=profile.properties] [--metrics-port=N]}
  */
 public class GasStation {
 
-    // Hardcoded price list for the simulation.
+    // The price list the station opens with.
     // Format: "Name,Octane,Price;..."
-    private static final String PRICE_LIST_RESPONSE = "Regular,87,4.59;Premium,91,4.99;Super,93,5.19";
-
-    public static void main(String[] args) {
-        // The server listens on a dedicated port.
-        IOPortServer serverPort = new IOPortServer(DeviceConstants.GAS_STATION_PORT);
-        System.out.println("[Gas Station Server] Now running and listening for a connection...");
-
-        while (true) {
-            // Check for incoming messages from the connected pump controller.
-            Message request = serverPort.get();
-            if (request != null) {
-                String command = request.getContent();
-                System.out.println("[Gas Station Server] Received command: " + command);
-
-                if ("get-prices".equals(command)) {
-                    // If the pump asks for prices, send the hardcoded list.
-                    serverPort.send(new Message(PRICE_LIST_RESPONSE));
-                    System.out.println("[Gas Station Server] Sent price list to pump.");
-                } else if (command.startsWith("log-sale:")) {
-                    // If the pump sends a sale log, just print it to the console.
-                    // In a real system, this would write to a database or file.
-                    System.out.println("[Gas Station Server] Logged transaction: " + command.substring(9));
+    private static final String INITIAL_PRICE_LIST = "Regular,87,4.59;Premium,91,4.99;Super,93,5.19";
+    // Longest time a journaled sale waits for its disk flush
+    private static final long JOURNAL_COMMIT_MS = 10;
+    private static final int CONNECTION_QUEUE_LIMIT = 256;
+    private static final long CONNECTION_BLOCK_MS = 1000;
+    private static final int DEFAULT_TANK_GALLONS = 10_000;
+    private static final int DEFAULT_TANK_LOW_GALLONS = 50;
+
+    private final SaleJournal journal;
+    private final SalesAggregator aggregates = new SalesAggregator();
+    private final TankInventory tanks;
+    private final FaultInjector faults;
+    private final AtomicLong salesLogged = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "station-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private IOPortMultiServer server;
+    private final MetricsRegistry metrics = MetricsRegistry.forProcess();
+    private final MetricsRegistry.Counter salesJournaled = metrics.counter("gaspump_station_sales_total",
+            "Sales logged by pumps and journaled");
+    // The current versioned price message; replaced (never mutated) under this lock by setPrices
+    private volatile String priceMessage;
+    private long priceVersion = 0;
+    // Tells this run's versions from those of earlier runs, which also started at 1
+    private final long priceEpoch = System.currentTimeMillis();
+
+    /**
+     * Creates the station server.
+     *
+     * @param journal      Where sales are recorded.
+     * @param tanks        The station's tanks, drawn down as pumps dispense.
+     * @param faultProfile How the station's responses misbehave; {@link FaultProfile#none()} for a healthy server.
+     */
+    public GasStation(SaleJournal journal, TankInventory tanks, FaultProfile faultProfile) {
+        this.journal = journal;
+        this.tanks = tanks;
+        this.faults = new FaultInjector(faultProfile);
+        setPrices(INITIAL_PRICE_LIST);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String journalFile = DeviceArgs.option(args, "--journal=");
+        SaleJournal journal = new SaleJournal(Path.of(journalFile != null ? journalFile : "sales.journal"), JOURNAL_COMMIT_MS);
+        TankInventory tanks = new TankInventory(DeviceArgs.intOption(args, "--tank-low-gallons=", DEFAULT_TANK_LOW_GALLONS) * 1000L);
+        long tankMilliGallons = DeviceArgs.intOption(args, "--tank-gallons=", DEFAULT_TANK_GALLONS) * 1000L;
+        for (String entry : INITIAL_PRICE_LIST.split(";")) {
+            tanks.addTank(entry.substring(0, entry.indexOf(',')), tankMilliGallons);
+        }
+        GasStation station = new GasStation(journal, tanks, FaultProfile.fromArgs(args));
+        station.start(DeviceConstants.GAS_STATION_PORT, DeviceArgs.intOption(args, "--report-seconds=", 10));
+        System.out.println("[Gas Station Server] Now running with " + journal.size() + " journaled sales.");
+        int metricsPort = DeviceArgs.intOption(args, "--metrics-port=", 0);
+        if (metricsPort > 0) {
+            MetricsServer.start(metricsPort, station.getMetrics());
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("[Gas Station Server] Shutting down.");
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close the sale journal: " + e.getMessage());
+            }
+        }));
+        try {
+            Thread.currentThread().join(); // The server threads are daemons; keep the JVM alive
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts accepting controller connections and, if {@code reportSeconds > 0}, periodic ingest reports.
+     *
+     * @param port          The port to listen on.
+     * @param reportSeconds The reporting interval, or 0 to disable reports.
+     * @return The server accepting connections.
+     * @throws IOException if the port cannot be bound.
+     */
+    public IOPortMultiServer start(int port, int reportSeconds) throws IOException {
+        server = new IOPortMultiServer(port, connection -> {
+            // Replies must not be lost, so a controller that stops reading is no longer read from either
+            connection.limitQueue(CONNECTION_QUEUE_LIMIT, OverflowPolicy.BLOCK, CONNECTION_BLOCK_MS);
+            connection.setMessageHandler(msg -> handle(connection, msg.getContent()));
+            synchronized (this) { // Either this list is current, or setPrices broadcasts a newer one after it
+                connection.send(new Message(priceMessage));
+            }
+            for (String grade : tanks.getUnavailableGrades()) {
+                connection.send(new Message("grade-unavailable:" + grade));
+            }
+        });
+        scheduler.scheduleAtFixedRate(aggregates::tick, 1, 1, TimeUnit.SECONDS);
+        IOPortMultiServer started = server;
+        metrics.registerPort("controllers", started.getStatistics(), started::getQueueDepth);
+        metrics.gauge("gaspump_connections", "Controllers currently connected", () -> started.getConnections().size());
+        for (String grade : tanks.getLevels().keySet()) {
+            metrics.gauge("gaspump_station_tank_gallons", "Fuel left in a grade's tank",
+                    () -> tanks.getLevel(grade) / 1000.0, "grade", grade);
+        }
+        if (reportSeconds > 0) {
+            scheduler.scheduleAtFixedRate(() -> {
+                long count = salesLogged.getAndSet(0);
+                if (count > 0) {
+                    System.out.println("[Gas Station Server] " + count / reportSeconds + " sales/s, "
+                            + journal.size() + " journaled");
                 }
+            }, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        }
+        return server;
+    }
+
+    /**
+     * @return The station's metrics: sales, tank levels and controller traffic.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    private void handle(IOPortMultiServer.Connection connection, String command) {
+        try {
+            if ("get-prices".equals(command)) {
+                // If the pump asks for prices, send the current list.
+                faults.send(connection::send, new Message(priceMessage));
+                System.out.println("[Gas Station Server] Sent price list to " + connection.getRemoteAddress());
+            } else if (command.startsWith("set-prices:")) {
+                long version = setPrices(command.substring("set-prices:".length()));
+                faults.send(connection::send, new Message(version > 0 ? "prices-set:v=" + priceEpoch + "-" + version : "Error"));
+            } else if (command.startsWith("log-sale:")) {
+                logSale(command);
+            } else if (command.startsWith("dispensing:")) {
+                dispensing(command);
+            } else if (command.startsWith("refill:")) {
+                refill(command);
+            } else if ("query-tanks".equals(command)) {
+                faults.send(connection::send, new Message(queryTanks()));
+            } else if (command.startsWith("query-sales")) {
+                faults.send(connection::send, new Message(querySales(command)));
+            } else if (command.startsWith("query-live")) {
+                faults.send(connection::send, new Message(queryLive(command)));
+            } else {
+                System.err.println("[Gas Station Server] Unknown command: " + command);
             }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Gas Station Server] Failed to process '" + command + "': " + e.getMessage());
+        }
+    }
 
+    /**
+     * Replaces the price list and pushes the new version to every connected pump.
+     *
+     * @param priceList The new list, {@code Name,Octane,Price;...}.
+     * @return The new version, or -1 if the list is malformed (the current list is kept).
+     */
+    public synchronized long setPrices(String priceList) {
+        for (String entry : priceList.split(";")) {
+            String[] parts = entry.split(",");
             try {
-                // Pause briefly to prevent the loop from running at max speed.
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+                if (parts.length != 3 || parts[0].isBlank()) throw new NumberFormatException("expected Name,Octane,Price");
+                Integer.parseInt(parts[1].trim());
+                Cents.parse(parts[2].trim());
+            } catch (NumberFormatException e) {
+                System.err.println("[Gas Station Server] Rejected price list entry '" + entry + "': " + e.getMessage());
+                return -1;
             }
         }
+        priceVersion++;
+        priceMessage = "prices:v=" + priceEpoch + "-" + priceVersion + ":" + priceList;
+        if (server != null) {
+            server.broadcast(new Message(priceMessage));
+            System.out.println("[Gas Station Server] Pushed price list v" + priceVersion + ": " + priceList);
+        }
+        return priceVersion;
+    }
+
+    private void logSale(String command) throws IOException {
+        String card = field(command, "card=");
+        String grade = field(command, "grade=");
+        String gallons = field(command, "gallons=");
+        String cost = field(command, "cost=");
+        String pump = field(command, "pump=");
+        String sale = field(command, "sale=");
+        if (card == null || grade == null || gallons == null || cost == null) {
+            System.err.println("[Gas Station Server] Malformed sale: " + command);
+            return;
+        }
+        int pumpNumber = pump != null ? Integer.parseInt(pump) : -1;
+        long milliGallons = MilliGallons.parse(gallons);
+        long cents = Cents.parse(cost);
+        long saleNumber = sale != null ? Long.parseLong(sale) : -1;
+        journal.append(card, grade, pumpNumber, milliGallons, cents);
+        aggregates.record(grade, pumpNumber, milliGallons, cents);
+        salesLogged.incrementAndGet();
+        salesJournaled.increment();
+        // Without a sale number the pump's reports cannot be matched to it, so the whole sale is drawn
+        announce(grade, tanks.sold(sale != null ? pumpNumber : -1, saleNumber, grade, milliGallons));
+    }
+
+    private void dispensing(String command) {
+        String pump = field(command, "pump=");
+        String sale = field(command, "sale=");
+        String grade = field(command, "grade=");
+        String gallons = field(command, "gallons=");
+        if (pump == null || sale == null || grade == null || gallons == null) {
+            System.err.println("[Gas Station Server] Malformed dispensing report: " + command);
+            return;
+        }
+        announce(grade, tanks.dispensing(Integer.parseInt(pump), Long.parseLong(sale), grade, MilliGallons.parse(gallons)));
+    }
+
+    private void refill(String command) {
+        String grade = field(command, "grade=");
+        String gallons = field(command, "gallons=");
+        if (grade == null || gallons == null) {
+            System.err.println("[Gas Station Server] Malformed refill: " + command);
+            return;
+        }
+        announce(grade, tanks.refill(grade, MilliGallons.parse(gallons)));
+        System.out.println("[Gas Station Server] Refilled " + grade + " to " + MilliGallons.toString(tanks.getLevel(grade)) + " gal");
+    }
 
-        System.out.println("[Gas Station Server] Shutting down.");
-        serverPort.close();
+    /**
+     * Tells every connected pump when a grade's availability changed.
+     */
+    private void announce(String grade, TankInventory.Change change) {
+        if (change == TankInventory.Change.BECAME_UNAVAILABLE) {
+            System.out.println("[Gas Station Server] " + grade + " tank is low; withdrawing it from sale.");
+            server.broadcast(new Message("grade-unavailable:" + grade));
+        } else if (change == TankInventory.Change.BECAME_AVAILABLE) {
+            System.out.println("[Gas Station Server] " + grade + " is available again.");
+            server.broadcast(new Message("grade-available:" + grade));
+        }
+    }
+
+    private String queryTanks() {
+        StringBuilder sb = new StringBuilder(96).append("tanks:");
+        tanks.getLevels().forEach((grade, milliGallons) ->
+                FixedPointFormat.appendGallons(sb.append(grade).append('='), milliGallons).append(';'));
+        return sb.toString();
+    }
+
+    private String querySales(String command) {
+        String from = field(command, "from=");
+        String to = field(command, "to=");
+        SaleJournal.Totals totals = journal.totals(from != null ? Long.parseLong(from) : Long.MIN_VALUE,
+                to != null ? Long.parseLong(to) : Long.MAX_VALUE, field(command, "grade="), field(command, "card="));
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("sales:count=").append(totals.count()).append(",gallons=");
+        FixedPointFormat.appendGallons(sb, totals.milliGallons()).append(",cost=");
+        return FixedPointFormat.appendCents(sb, totals.cents()).toString();
+    }
+
+    private String queryLive(String command) {
+        String grade = field(command, "grade=");
+        String pump = field(command, "pump=");
+        SalesAggregator.Snapshot snapshot = grade != null ? aggregates.grade(grade)
+                : pump != null ? aggregates.pump(Integer.parseInt(pump)) : aggregates.station();
+        StringBuilder sb = new StringBuilder(96).append("live:minute=");
+        appendTotals(sb, snapshot.minute()).append(",hour=");
+        appendTotals(sb, snapshot.window()).append(",total=");
+        return appendTotals(sb, snapshot.allTime()).toString();
+    }
+
+    private static StringBuilder appendTotals(StringBuilder sb, SalesAggregator.Totals totals) {
+        sb.append(totals.count()).append('/');
+        FixedPointFormat.appendGallons(sb, totals.milliGallons()).append('/');
+        return FixedPointFormat.appendCents(sb, totals.cents());
+    }
+
+    /**
+     * Extracts the value of a {@code key=value} field from a comma-separated command.
+     *
+     * @return The value, or {@code null} if the key is absent.
+     */
+    private static String field(String command, String key) {
+        int start = command.indexOf(key);
+        while (start > 0 && command.charAt(start - 1) != ',' && command.charAt(start - 1) != ':') {
+            start = command.indexOf(key, start + 1);
+        }
+        if (start < 0) return null;
+        start += key.length();
+        int end = command.indexOf(',', start);
+        return command.substring(start, end < 0 ? command.length() : end);
     }
 }
@@ -0,0 +1,120 @@
+package SmallDevices;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+
+/**
+ * A JavaFX UI for the {@link Hose} device: shows the nozzle latch and tank level
+ * and lets the user attach or remove the nozzle. All device logic lives in {@link Hose}.
+ */
+public class HoseUI extends Application {
+
+    private static volatile Hose boundHose;
+
+    public static void bind(Hose hose) {
+        boundHose = hose;
+    }
+
+    /**
+     * Binds the hose and launches the JavaFX application. Blocks until the window is closed.
+     */
+    public static void launchFor(Hose hose, String[] args) {
+        bind(hose);
+        Application.launch(HoseUI.class, args);
+    }
+
+    @Override
+    public void start(Stage primaryStage) {
+
+        // --- Hose assembly UI Components ---
+        double latchRadius = 50;
+        double connectorW = 200;
+        double connectorH = 2 * latchRadius;
+        double hoseHeight = connectorH / 3;
+        double hoseLength = 400;
+
+        // --- Hose and connector ---
+        Rectangle hose = new Rectangle(-hoseLength, connectorH / 2 - hoseHeight / 2, hoseLength, hoseHeight);
+        hose.setFill(Color.BLACK);
+        Rectangle connector = new Rectangle(0, 0, connectorW, connectorH);
+        connector.setArcWidth(60);
+        connector.setArcHeight(60);
+        connector.setFill(Color.SILVER);
+
+        // --- Circular Latch ---
+        Circle latch = new Circle(latchRadius);
+        latch.setFill(null);
+        latch.setStroke(Color.RED);
+        latch.setStrokeWidth(15);
+        latch.setCenterX(connectorW - latchRadius);
+        latch.setCenterY(connectorH / 2);
+
+        // --- Hose and latch pane ---
+        Pane hoseAndLatchPane = new Pane(hose, connector, latch);
+        hoseAndLatchPane.setPrefSize(connectorW, connectorH);
+        hoseAndLatchPane.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        HBox centerRow = new HBox(hoseAndLatchPane);
+        centerRow.setAlignment(Pos.CENTER);
+        VBox hoseAndLatchBox = new VBox(centerRow);
+        hoseAndLatchBox.setAlignment(Pos.CENTER);
+
+        // --- Tank fill meter ---
+        DoubleProperty fillPercent = new SimpleDoubleProperty(boundHose.getFillLevel());
+        // Tank:
+        double tankWidth = 50, tankHeight = 150;
+        Rectangle tankOutline = new Rectangle(tankWidth, tankHeight);
+        tankOutline.setFill(null);
+        tankOutline.setStroke(Color.BLACK);
+        tankOutline.setStrokeWidth(2);
+        // Fill meter:
+        Rectangle tankFill = new Rectangle(tankWidth, tankHeight * fillPercent.get());
+        tankFill.setFill(Color.GOLD);
+        tankFill.heightProperty().bind(fillPercent.multiply(tankHeight));
+        // Pane:
+        StackPane tankPane = new StackPane(tankOutline, tankFill);
+        tankPane.setAlignment(Pos.BOTTOM_CENTER);
+        VBox tankBox = new VBox(5, new Text("Tank"), tankPane);
+        tankBox.setAlignment(Pos.CENTER);
+        tankBox.setPadding(new Insets(10));
+
+        // --- Connect button ---
+        Button connectButton = new Button("Attach/Remove Nozzle");
+        connectButton.setOnAction(e -> boundHose.toggleNozzle());
+        HBox buttonsRow = new HBox(10, connectButton);
+        buttonsRow.setAlignment(Pos.CENTER);
+        VBox bottomBox = new VBox(buttonsRow);
+        bottomBox.setAlignment(Pos.CENTER);
+        bottomBox.setPadding(new Insets(15));
+
+        // --- Overall layout ---
+        BorderPane root = new BorderPane();
+        root.setCenter(hoseAndLatchBox);
+        root.setBottom(bottomBox);
+        root.setRight(tankBox);
+        Scene scene = new Scene(root, 450, 250);
+        primaryStage.setTitle("Gas Hose Mockup");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+
+        // Mirror the device state every frame.
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                latch.setStroke(boundHose.isConnected() ? Color.LIMEGREEN : Color.RED);
+                fillPercent.set(boundHose.getFillLevel());
+            }
+        }.start();
+    }
+}
@@ -1,22 +1,31 @@
 package SmallDevices;
 
+import Server.DeviceArgs;
 import Server.DeviceConstants;
 import Server.IOPort;
 import Server.IOPortServer;
+import Server.Log;
 import Server.Message;
 
 import java.io.IOException;
 
 public class Pump { ;
-    private final IOPortServer statusPort = new IOPortServer(DeviceConstants.PUMP_PORT);
+    private final IOPortServer statusPort;
+    private final String logTag;
 
-    public Pump() {
-        System.out.println("Pump started up...");
+    /**
+     * @param pumpIndex The zero-based pump number whose pump port to listen on.
+     */
+    public Pump(int pumpIndex) {
+        this.statusPort = new IOPortServer(DeviceConstants.portFor(DeviceConstants.PUMP_PORT, pumpIndex));
+        this.logTag = Log.pumpTag("pump", pumpIndex);
+        statusPort.setName(logTag);
+        Log.info(logTag, "Pump started up...");
     }
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
         Thread pumpClientThread = new Thread(() -> {
-            Pump pump = new Pump();
+            Pump pump = new Pump(DeviceArgs.pumpIndex(args));
             while (true) {
                 pump.run();
             }
@@ -29,14 +38,14 @@ public class Pump { ;
      * Turns pump on to push gas through to car
      */
     private void pumpOn() {
-        System.out.println("Pumping gas...");
+        Log.info(logTag, "Pumping gas...");
     }
 
     /**
      * Turns pump off
      */
     private void pumpOff() {
-        System.out.println("Stopping pump.");
+        Log.info(logTag, "Stopping pump.");
     }
 
     public void run() {
@@ -45,13 +54,12 @@ public class Pump { ;
             return; // no message yet
         }
 
-        System.out.println("Pump received: " + msg.getContent());
+        Log.debug(logTag, "Pump received: {}", msg.getContent());
 
         switch (msg.getContent()) {
             case "on" -> pumpOn();
             case "off" -> pumpOff();
-            default ->
-                    System.out.println("Unknown command: " + msg.getContent());
+            default -> Log.warn(logTag, "Unknown command: {}", msg.getContent());
         }
     }
 }
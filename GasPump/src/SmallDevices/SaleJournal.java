@@ -0,0 +1,426 @@
+package SmallDevices;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A durable, append-only journal of completed sales, kept by the gas station server.
+ * <p>
+ * Sales are written as fixed-size binary records into a memory-mapped file, so an append is a
+ * handful of stores into mapped memory. A background committer thread calls {@code force()} on
+ * everything appended since its last pass (group commit), so many sales share one disk flush.
+ * Card numbers are never stored; only a 64-bit hash is kept.
+ * <p>
+ * On open, the journal is scanned and in-memory indexes are rebuilt: prefix sums by record number
+ * (for any time range), per-grade record lists with their own prefix sums, and per-card-hash record
+ * lists. Totals over a time range, optionally for one grade, are therefore answered with a few
+ * binary searches regardless of how many sales are stored.
+ * <p>
+ * Record layout (48 bytes, big-endian):
+ * <pre>
+ *  0 int   MAGIC           written last, marks the record complete
+ *  4 int   milli-gallons
+ *  8 long  timestamp (epoch ms, never decreasing)
+ * 16 long  card hash
+ * 24 int   cents
+ * 28 short pump number, or -1 if unknown
+ * 30 byte  grade name length
+ * 31 byte[13] grade name (ASCII)
+ * 44 int   checksum of bytes 4..43
+ * </pre>
+ */
+public class SaleJournal implements AutoCloseable {
+
+    static final int RECORD_BYTES = 48;
+    private static final int MAGIC = 0x5A1E5A1E;
+    private static final int MAX_GRADE_BYTES = 13;
+    private static final int RECORDS_PER_CHUNK = 1 << 20;
+    private static final long CHUNK_BYTES = (long) RECORDS_PER_CHUNK * RECORD_BYTES;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final Thread committer;
+    private final long commitIntervalMillis;
+    private volatile boolean closed = false;
+
+    // --- Guarded by this ---
+    private int recordCount = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private final LongList timestamps = new LongList();
+    private final LongList prefixMilliGallons = new LongList();
+    private final LongList prefixCents = new LongList();
+    private final Map<String, GradeIndex> grades = new HashMap<>();
+    private final Map<Long, IntList> cards = new HashMap<>();
+
+    // --- Group commit state ---
+    private int committedCount = 0; // Only written by the committer thread, under this
+    private final Object commitSignal = new Object();
+
+    /**
+     * Opens (or creates) a journal, rebuilds its indexes, and starts the group-commit thread.
+     *
+     * @param file                 The journal file.
+     * @param commitIntervalMillis The longest time an appended sale waits before it is forced to disk.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    public SaleJournal(Path file, long commitIntervalMillis) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.commitIntervalMillis = commitIntervalMillis;
+        prefixMilliGallons.add(0);
+        prefixCents.add(0);
+        recover();
+        this.committedCount = recordCount;
+
+        this.committer = new Thread(this::commitLoop, "sale-journal-commit");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Appends a sale. The record is in the mapped file when this returns and reaches the disk
+     * within the commit interval; use {@link #awaitDurable(int, long)} to wait for that.
+     *
+     * @param cardNumber   The customer's card number (only its hash is stored).
+     * @param grade        The fuel grade name.
+     * @param pump         The pump number, or -1 if unknown.
+     * @param milliGallons The volume sold.
+     * @param cents        The amount charged.
+     * @return The record number of the sale.
+     * @throws IOException              if the journal cannot grow.
+     * @throws IllegalArgumentException if a value does not fit its field in the record, or the grade
+     *                                  name is longer than 13 characters or not ASCII.
+     */
+    public synchronized int append(String cardNumber, String grade, int pump, long milliGallons, long cents) throws IOException {
+        if (closed) throw new IOException("Sale journal is closed");
+        checkFits(grade, pump, milliGallons, cents);
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        long cardHash = hashCard(cardNumber);
+
+        int record = recordCount;
+        MappedByteBuffer chunk = chunkFor(record);
+        int base = (record % RECORDS_PER_CHUNK) * RECORD_BYTES;
+        chunk.putInt(base + 4, (int) milliGallons);
+        chunk.putLong(base + 8, timestamp);
+        chunk.putLong(base + 16, cardHash);
+        chunk.putInt(base + 24, (int) cents);
+        chunk.putShort(base + 28, (short) pump);
+        int gradeLength = grade.length();
+        chunk.put(base + 30, (byte) gradeLength);
+        for (int i = 0; i < MAX_GRADE_BYTES; i++) {
+            chunk.put(base + 31 + i, i < gradeLength ? (byte) grade.charAt(i) : 0);
+        }
+        chunk.putInt(base + 44, checksum(chunk, base));
+        chunk.putInt(base, MAGIC);
+
+        index(timestamp, cardHash, grade, milliGallons, cents);
+        synchronized (commitSignal) {
+            commitSignal.notifyAll();
+        }
+        return record;
+    }
+
+    private static void checkFits(String grade, int pump, long milliGallons, long cents) {
+        if (milliGallons != (int) milliGallons) throw new IllegalArgumentException("Volume out of range: " + milliGallons);
+        if (cents != (int) cents) throw new IllegalArgumentException("Amount out of range: " + cents);
+        if (pump != (short) pump) throw new IllegalArgumentException("Pump number out of range: " + pump);
+        if (grade.length() > MAX_GRADE_BYTES) throw new IllegalArgumentException("Grade name too long: " + grade);
+        for (int i = 0; i < grade.length(); i++) {
+            if (grade.charAt(i) > 0x7F) throw new IllegalArgumentException("Grade name not ASCII: " + grade);
+        }
+    }
+
+    /**
+     * Waits until the given record has been forced to disk.
+     *
+     * @param record        A record number returned by {@link #append}.
+     * @param timeoutMillis The longest time to wait.
+     * @return {@code true} if the record is durable.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitDurable(int record, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (commitSignal) {
+            while (committedCount <= record) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                commitSignal.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sums the sales in a time range, optionally for one grade and/or one card.
+     *
+     * @param fromMillis The start of the range (inclusive, epoch ms).
+     * @param toMillis   The end of the range (exclusive, epoch ms).
+     * @param grade      A grade name to restrict to, or {@code null} for all grades.
+     * @param cardNumber A card number to restrict to, or {@code null} for all cards.
+     * @return The count, volume and value of the matching sales.
+     */
+    public synchronized Totals totals(long fromMillis, long toMillis, String grade, String cardNumber) {
+        int from = lowerBound(timestamps.values, recordCount, fromMillis);
+        int to = lowerBound(timestamps.values, recordCount, toMillis);
+        if (from >= to) return Totals.EMPTY;
+
+        if (cardNumber != null) {
+            IntList records = cards.get(hashCard(cardNumber));
+            if (records == null) return Totals.EMPTY;
+            GradeIndex gradeIndex = grade == null ? null : grades.get(grade);
+            if (grade != null && gradeIndex == null) return Totals.EMPTY;
+            long count = 0, milliGallons = 0, cents = 0;
+            for (int i = lowerBound(records.values, records.size, from); i < records.size && records.values[i] < to; i++) {
+                int r = records.values[i];
+                if (gradeIndex != null && Arrays.binarySearch(gradeIndex.records.values, 0, gradeIndex.records.size, r) < 0) continue;
+                count++;
+                milliGallons += prefixMilliGallons.values[r + 1] - prefixMilliGallons.values[r];
+                cents += prefixCents.values[r + 1] - prefixCents.values[r];
+            }
+            return new Totals(count, milliGallons, cents);
+        }
+
+        if (grade != null) {
+            GradeIndex g = grades.get(grade);
+            if (g == null) return Totals.EMPTY;
+            int lo = lowerBound(g.records.values, g.records.size, from);
+            int hi = lowerBound(g.records.values, g.records.size, to);
+            return new Totals(hi - lo,
+                    g.prefixMilliGallons.values[hi] - g.prefixMilliGallons.values[lo],
+                    g.prefixCents.values[hi] - g.prefixCents.values[lo]);
+        }
+
+        return new Totals(to - from,
+                prefixMilliGallons.values[to] - prefixMilliGallons.values[from],
+                prefixCents.values[to] - prefixCents.values[from]);
+    }
+
+    /**
+     * @return The number of sales in the journal.
+     */
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    /**
+     * Forces everything appended so far to disk, stops the committer and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        committer.interrupt();
+        try {
+            committer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitPending();
+        channel.close();
+    }
+
+    // --- Group commit ---
+
+    private void commitLoop() {
+        while (!closed) {
+            try {
+                synchronized (commitSignal) {
+                    commitSignal.wait(commitIntervalMillis);
+                }
+                // Let a burst of appends accumulate so they share one force().
+                Thread.sleep(Math.min(commitIntervalMillis, 2));
+                commitPending();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Sale journal commit failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forces every record appended since the last commit to disk, one range per chunk.
+     */
+    private void commitPending() throws IOException {
+        int end;
+        List<MappedByteBuffer> mapped;
+        synchronized (this) {
+            end = recordCount;
+            mapped = new ArrayList<>(chunks);
+        }
+        int start = committedCount;
+        if (end <= start) return;
+
+        for (int record = start; record < end; ) {
+            int chunkIndex = record / RECORDS_PER_CHUNK;
+            int chunkEnd = Math.min(end, (chunkIndex + 1) * RECORDS_PER_CHUNK);
+            int offset = (record % RECORDS_PER_CHUNK) * RECORD_BYTES;
+            mapped.get(chunkIndex).force(offset, (chunkEnd - record) * RECORD_BYTES);
+            record = chunkEnd;
+        }
+        synchronized (commitSignal) {
+            committedCount = end;
+            commitSignal.notifyAll();
+        }
+    }
+
+    // --- Recovery and indexing ---
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        long chunkCount = (size + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        for (int c = 0; c < chunkCount; c++) {
+            MappedByteBuffer chunk = map(c);
+            for (int slot = 0; slot < RECORDS_PER_CHUNK; slot++) {
+                int base = slot * RECORD_BYTES;
+                if (chunk.getInt(base) != MAGIC || chunk.getInt(base + 44) != checksum(chunk, base)) {
+                    if (recordCount > 0) {
+                        System.out.println("[Sale Journal] Recovered " + recordCount + " sales.");
+                    }
+                    return; // First incomplete record: everything after it was never committed.
+                }
+                int gradeLength = chunk.get(base + 30);
+                StringBuilder grade = new StringBuilder(gradeLength);
+                for (int i = 0; i < gradeLength; i++) grade.append((char) chunk.get(base + 31 + i));
+                index(chunk.getLong(base + 8), chunk.getLong(base + 16), grade.toString(),
+                        chunk.getInt(base + 4), chunk.getInt(base + 24));
+            }
+        }
+    }
+
+    private void index(long timestamp, long cardHash, String grade, long milliGallons, long cents) {
+        int record = recordCount++;
+        lastTimestamp = timestamp;
+        timestamps.add(timestamp);
+        prefixMilliGallons.add(prefixMilliGallons.last() + milliGallons);
+        prefixCents.add(prefixCents.last() + cents);
+        grades.computeIfAbsent(grade, g -> new GradeIndex()).add(record, milliGallons, cents);
+        cards.computeIfAbsent(cardHash, h -> new IntList()).add(record);
+    }
+
+    private MappedByteBuffer chunkFor(int record) throws IOException {
+        int chunkIndex = record / RECORDS_PER_CHUNK;
+        while (chunks.size() <= chunkIndex) {
+            map(chunks.size());
+        }
+        return chunks.get(chunkIndex);
+    }
+
+    private MappedByteBuffer map(int chunkIndex) throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkIndex * CHUNK_BYTES, CHUNK_BYTES);
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    private static int checksum(MappedByteBuffer chunk, int base) {
+        int h = 0x811C9DC5;
+        for (int i = 4; i < 44; i++) {
+            h = (h ^ chunk.get(base + i)) * 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * Hashes a card number with 64-bit FNV-1a, so sales can be grouped by card without storing it.
+     */
+    static long hashCard(String cardNumber) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            h = (h ^ cardNumber.charAt(i)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /**
+     * @return The first index in {@code values[0..size)} whose value is {@code >= key}; values must be sorted.
+     */
+    private static int lowerBound(long[] values, int size, long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int lowerBound(int[] values, int size, int key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The result of a journal query.
+     *
+     * @param count        The number of matching sales.
+     * @param milliGallons Their total volume.
+     * @param cents        Their total value.
+     */
+    public record Totals(long count, long milliGallons, long cents) {
+        static final Totals EMPTY = new Totals(0, 0, 0);
+    }
+
+    /**
+     * The records of one grade, in record order, with prefix sums of their volume and value.
+     */
+    private static final class GradeIndex {
+        private final IntList records = new IntList();
+        private final LongList prefixMilliGallons = new LongList();
+        private final LongList prefixCents = new LongList();
+
+        private GradeIndex() {
+            prefixMilliGallons.add(0);
+            prefixCents.add(0);
+        }
+
+        private void add(int record, long milliGallons, long cents) {
+            records.add(record);
+            prefixMilliGallons.add(prefixMilliGallons.last() + milliGallons);
+            prefixCents.add(prefixCents.last() + cents);
+        }
+    }
+
+    /**
+     * A growable array of primitive longs.
+     */
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        private void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        private long last() {
+            return values[size - 1];
+        }
+    }
+
+    /**
+     * A growable array of primitive ints.
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package SmallDevices;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live sales aggregates for the gas station, updated incrementally as each sale arrives.
+ * <p>
+ * Every sale is counted against three scopes: the whole station, its grade and its pump. For each
+ * scope the aggregator keeps the sale count, milli-gallons and cents over three windows:
+ * <ul>
+ *     <li>the current minute (a tumbling window),</li>
+ *     <li>the last {@value #WINDOW_MINUTES} minutes (a sliding window), and</li>
+ *     <li>all time since the station started.</li>
+ * </ul>
+ * Per-minute values live in a ring of {@value #WINDOW_MINUTES} slots in one primitive
+ * {@link AtomicLongArray}; sliding and all-time values are {@link LongAdder}s, so concurrent pump
+ * connections never contend on a lock. A once-per-second {@link #tick()} retires the oldest minute
+ * from the sliding window and clears its slot before it is reused, which keeps both recording
+ * and queries O(1) regardless of history.
+ */
+public class SalesAggregator {
+
+    static final int WINDOW_MINUTES = 60;
+    static final int MAX_GRADES = 16;
+    static final int MAX_PUMPS = 64;
+
+    // Values tracked for every scope
+    private static final int COUNT = 0, MILLI_GALLONS = 1, CENTS = 2, FIELDS = 3;
+    // Scope layout: station, then grades, then pumps
+    private static final int STATION_SCOPE = 0;
+    private static final int FIRST_GRADE_SCOPE = 1;
+    private static final int FIRST_PUMP_SCOPE = FIRST_GRADE_SCOPE + MAX_GRADES;
+    private static final int SCOPES = FIRST_PUMP_SCOPE + MAX_PUMPS;
+    private static final int SLOT_WIDTH = SCOPES * FIELDS;
+    private static final long MINUTE_MS = 60_000;
+
+    private final AtomicLongArray minuteSlots = new AtomicLongArray(WINDOW_MINUTES * SLOT_WIDTH);
+    private final LongAdder[] window = newAdders();
+    private final LongAdder[] allTime = newAdders();
+    private final ConcurrentHashMap<String, Integer> gradeIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextGradeId = new AtomicInteger();
+    // The minute each ring slot currently holds; only written by tick()
+    private final long[] slotMinute = new long[WINDOW_MINUTES];
+
+    public SalesAggregator() {
+        long minute = System.currentTimeMillis() / MINUTE_MS;
+        for (int i = 0; i < WINDOW_MINUTES; i++) {
+            slotMinute[(int) ((minute - i) % WINDOW_MINUTES)] = minute - i;
+        }
+    }
+
+    /**
+     * Counts one sale in every window of its station, grade and pump scopes.
+     *
+     * @param grade        The fuel grade name.
+     * @param pump         The pump number, or -1 if unknown.
+     * @param milliGallons The volume sold.
+     * @param cents        The amount charged.
+     */
+    public void record(String grade, int pump, long milliGallons, long cents) {
+        int base = (int) ((System.currentTimeMillis() / MINUTE_MS) % WINDOW_MINUTES) * SLOT_WIDTH;
+        add(base, STATION_SCOPE, milliGallons, cents);
+        int gradeId = gradeId(grade);
+        if (gradeId >= 0) add(base, FIRST_GRADE_SCOPE + gradeId, milliGallons, cents);
+        if (pump >= 0 && pump < MAX_PUMPS) add(base, FIRST_PUMP_SCOPE + pump, milliGallons, cents);
+    }
+
+    /**
+     * Advances the window to the current time. Call about once a second: shortly before each minute
+     * ends, the slot the next minute will use is retired from the sliding window and cleared.
+     */
+    public void tick() {
+        long now = System.currentTimeMillis();
+        long nextMinute = now / MINUTE_MS + 1;
+        // Retire early only in the last seconds of a minute, so the sliding window stays close to full.
+        long prepareThrough = now % MINUTE_MS >= MINUTE_MS - 2_000 ? nextMinute : nextMinute - 1;
+        for (long minute = prepareThrough - WINDOW_MINUTES + 1; minute <= prepareThrough; minute++) {
+            int slot = (int) (minute % WINDOW_MINUTES);
+            if (slotMinute[slot] >= minute) continue;
+            int base = slot * SLOT_WIDTH;
+            for (int i = 0; i < SLOT_WIDTH; i++) {
+                long expired = minuteSlots.getAndSet(base + i, 0);
+                if (expired != 0) window[i].add(-expired);
+            }
+            slotMinute[slot] = minute;
+        }
+    }
+
+    /**
+     * @return The station-wide aggregates.
+     */
+    public Snapshot station() {
+        return snapshot(STATION_SCOPE);
+    }
+
+    /**
+     * @return The aggregates for one grade (all zero if it has never sold).
+     */
+    public Snapshot grade(String grade) {
+        Integer id = gradeIds.get(grade);
+        return id == null || id < 0 ? Snapshot.EMPTY : snapshot(FIRST_GRADE_SCOPE + id);
+    }
+
+    /**
+     * @return The aggregates for one pump (all zero if it is out of range or has never sold).
+     */
+    public Snapshot pump(int pump) {
+        return pump < 0 || pump >= MAX_PUMPS ? Snapshot.EMPTY : snapshot(FIRST_PUMP_SCOPE + pump);
+    }
+
+    private Snapshot snapshot(int scope) {
+        int slot = (int) (System.currentTimeMillis() / MINUTE_MS % WINDOW_MINUTES);
+        int field = scope * FIELDS;
+        int minute = slot * SLOT_WIDTH + field;
+        return new Snapshot(
+                new Totals(minuteSlots.get(minute + COUNT), minuteSlots.get(minute + MILLI_GALLONS), minuteSlots.get(minute + CENTS)),
+                new Totals(window[field + COUNT].sum(), window[field + MILLI_GALLONS].sum(), window[field + CENTS].sum()),
+                new Totals(allTime[field + COUNT].sum(), allTime[field + MILLI_GALLONS].sum(), allTime[field + CENTS].sum()));
+    }
+
+    private void add(int base, int scope, long milliGallons, long cents) {
+        int field = scope * FIELDS;
+        minuteSlots.getAndIncrement(base + field + COUNT);
+        minuteSlots.getAndAdd(base + field + MILLI_GALLONS, milliGallons);
+        minuteSlots.getAndAdd(base + field + CENTS, cents);
+        window[field + COUNT].increment();
+        window[field + MILLI_GALLONS].add(milliGallons);
+        window[field + CENTS].add(cents);
+        allTime[field + COUNT].increment();
+        allTime[field + MILLI_GALLONS].add(milliGallons);
+        allTime[field + CENTS].add(cents);
+    }
+
+    /**
+     * @return The dense id of a grade, assigning one on first sight, or -1 once {@value #MAX_GRADES} are in use.
+     */
+    private int gradeId(String grade) {
+        Integer id = gradeIds.get(grade);
+        if (id != null) return id;
+        if (nextGradeId.get() >= MAX_GRADES) return -1;
+        return gradeIds.computeIfAbsent(grade, g -> {
+            int next = nextGradeId.getAndIncrement();
+            return next < MAX_GRADES ? next : -1;
+        });
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[SLOT_WIDTH];
+        for (int i = 0; i < adders.length; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * Sale count, volume and value over one window.
+     */
+    public record Totals(long count, long milliGallons, long cents) {
+    }
+
+    /**
+     * The aggregates of one scope over the current minute, the sliding window and all time.
+     */
+    public record Snapshot(Totals minute, Totals window, Totals allTime) {
+        static final Snapshot EMPTY = new Snapshot(new Totals(0, 0, 0), new Totals(0, 0, 0), new Totals(0, 0, 0));
+    }
+}
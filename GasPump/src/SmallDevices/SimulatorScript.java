@@ -0,0 +1,107 @@
+package SmallDevices;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Drives simulated dispensers from a command file, one command per line.
+ * Blank lines and lines starting with '#' are ignored. The {@code <pump>} argument is a pump
+ * number or {@code *} for every dispenser.
+ * <pre>
+ * wait &lt;ms&gt;                              Sleep for the given time.
+ * tap &lt;pump&gt; [card]                     Tap a card (random 16-digit number if omitted).
+ * attach &lt;pump&gt;                         Attach the nozzle to the vehicle.
+ * remove &lt;pump&gt;                         Remove the nozzle from the vehicle.
+ * press &lt;pump&gt; &lt;cell&gt;                   Press the screen button in the given cell.
+ * await-screen &lt;pump&gt; &lt;ms&gt; &lt;text...&gt;    Wait until the screen shows the text, or fail.
+ * </pre>
+ */
+public class SimulatorScript {
+
+    private static final long AWAIT_POLL_MS = 20;
+
+    private final List<DispenserSimulator.Dispenser> dispensers;
+
+    public SimulatorScript(List<DispenserSimulator.Dispenser> dispensers) {
+        this.dispensers = dispensers;
+    }
+
+    /**
+     * Runs every command in the file in order.
+     *
+     * @param file The command file.
+     * @throws IOException           if the file cannot be read.
+     * @throws InterruptedException  if interrupted while waiting.
+     * @throws IllegalStateException if a command is malformed or an await times out.
+     */
+    public void run(Path file) throws IOException, InterruptedException {
+        List<String> lines = Files.readAllLines(file);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                execute(line);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException(file + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs a single command line.
+     *
+     * @param line The command, e.g. "press 0 2".
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void execute(String line) throws InterruptedException {
+        String[] words = line.split("\\s+", 4);
+        switch (words[0]) {
+            case "wait" -> Thread.sleep(Long.parseLong(arg(words, 1)));
+            case "tap" -> forEach(arg(words, 1), d -> {
+                if (words.length > 2) d.cardReader().tap(words[2]);
+                else d.cardReader().tap();
+            });
+            case "attach" -> forEach(arg(words, 1), d -> d.hose().attach());
+            case "remove" -> forEach(arg(words, 1), d -> d.hose().remove());
+            case "press" -> forEach(arg(words, 1), d -> d.screen().press(arg(words, 2)));
+            case "await-screen" -> awaitScreen(arg(words, 1), Long.parseLong(arg(words, 2)), arg(words, 3));
+            default -> throw new IllegalArgumentException("Unknown command: " + words[0]);
+        }
+    }
+
+    private void awaitScreen(String target, long timeoutMillis, String text) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (DispenserSimulator.Dispenser d : select(target)) {
+            while (!d.screen().showsText(text)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Pump " + d.pumpIndex() + " did not show \"" + text
+                            + "\" within " + timeoutMillis + " ms; screen: " + d.screen().getTexts());
+                }
+                Thread.sleep(AWAIT_POLL_MS);
+            }
+        }
+    }
+
+    private void forEach(String target, Consumer<DispenserSimulator.Dispenser> action) {
+        select(target).forEach(action);
+    }
+
+    private List<DispenserSimulator.Dispenser> select(String target) {
+        if ("*".equals(target)) return dispensers;
+        int pumpIndex = Integer.parseInt(target);
+        for (DispenserSimulator.Dispenser d : dispensers) {
+            if (d.pumpIndex() == pumpIndex) return List.of(d);
+        }
+        throw new IllegalArgumentException("No simulated dispenser for pump " + pumpIndex);
+    }
+
+    private static String arg(String[] words, int index) {
+        if (index >= words.length) {
+            throw new IllegalArgumentException("Missing argument " + index + " for '" + words[0] + "'");
+        }
+        return words[index];
+    }
+}
@@ -0,0 +1,169 @@
+package SmallDevices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The station's underground tanks, one per fuel grade.
+ * <p>
+ * Levels are drawn down by the live volume each pump reports while fueling, then settled when the
+ * pump logs its sale, so a tank reflects fuel as it leaves rather than when it is paid for. Reports
+ * and sales carry the pump's sale number: a report that arrives after its sale has been settled
+ * (the pump sends it in a lower-priority lane) is ignored rather than drawn a second time, and the
+ * first report of a new sale is measured from zero even if the last one was never logged. Every
+ * update is a compare-and-set, so any number of pump connections can dispense concurrently without
+ * a lock. When a tank falls below its low-level threshold, exactly one caller
+ * is told (via {@link Change#BECAME_UNAVAILABLE}) so the station can tell every pump; a refill
+ * above the threshold is reported the same way.
+ */
+public class TankInventory {
+
+    static final int MAX_PUMPS = 64;
+
+    /**
+     * Whether an update moved a tank across its low-level threshold.
+     */
+    public enum Change {NONE, BECAME_UNAVAILABLE, BECAME_AVAILABLE}
+
+    private final Map<String, Tank> tanks = new ConcurrentHashMap<>();
+    private final long lowThresholdMilliGallons;
+    // Each pump's latest sale: its number, the volume drawn for it so far, and whether it is settled
+    private final AtomicReferenceArray<PumpSale> sales = new AtomicReferenceArray<>(MAX_PUMPS);
+
+    /**
+     * @param lowThresholdMilliGallons Below this level a grade is withdrawn from sale.
+     */
+    public TankInventory(long lowThresholdMilliGallons) {
+        this.lowThresholdMilliGallons = lowThresholdMilliGallons;
+    }
+
+    /**
+     * Adds a tank for a grade, replacing any previous tank of that grade.
+     */
+    public void addTank(String grade, long milliGallons) {
+        tanks.put(grade, new Tank(milliGallons, milliGallons < lowThresholdMilliGallons));
+    }
+
+    /**
+     * Records a pump's live total for a sale, drawing the increase since its last report. A report for
+     * a sale other than the pump's latest starts a new one; a report for a settled sale is ignored.
+     *
+     * @param pump              The pump number.
+     * @param sale              The pump's number for the sale.
+     * @param grade             The grade being dispensed.
+     * @param totalMilliGallons The volume dispensed so far in this sale.
+     * @return Whether the draw made the grade unavailable.
+     */
+    public Change dispensing(int pump, long sale, String grade, long totalMilliGallons) {
+        if (pump < 0 || pump >= MAX_PUMPS) return Change.NONE;
+        PumpSale current;
+        long drawn;
+        do {
+            current = sales.get(pump);
+            boolean same = current != null && current.number() == sale;
+            if (same && current.settled()) return Change.NONE; // Overtaken by its sale
+            drawn = same ? current.drawnMilliGallons() : 0;
+            if (totalMilliGallons <= drawn) return Change.NONE;
+        } while (!sales.compareAndSet(pump, current, new PumpSale(sale, totalMilliGallons, false)));
+        return draw(grade, totalMilliGallons - drawn);
+    }
+
+    /**
+     * Settles a completed sale, drawing whatever the pump's live reports did not already cover.
+     *
+     * @param pump              The pump number, or -1 if unknown (the whole sale is drawn).
+     * @param sale              The pump's number for the sale.
+     * @param grade             The grade sold.
+     * @param totalMilliGallons The final volume of the sale.
+     * @return Whether the draw made the grade unavailable.
+     */
+    public Change sold(int pump, long sale, String grade, long totalMilliGallons) {
+        if (pump < 0 || pump >= MAX_PUMPS) return draw(grade, totalMilliGallons);
+        PumpSale current;
+        long drawn;
+        do {
+            current = sales.get(pump);
+            boolean same = current != null && current.number() == sale;
+            if (same && current.settled()) return Change.NONE; // Already settled
+            drawn = same ? current.drawnMilliGallons() : 0;
+        } while (!sales.compareAndSet(pump, current, new PumpSale(sale, Math.max(drawn, totalMilliGallons), true)));
+        return draw(grade, totalMilliGallons - drawn);
+    }
+
+    /**
+     * Delivers fuel into a tank.
+     *
+     * @return Whether the delivery made the grade available again.
+     */
+    public Change refill(String grade, long milliGallons) {
+        Tank tank = tanks.get(grade);
+        if (tank == null) return Change.NONE;
+        long level = tank.milliGallons.addAndGet(milliGallons);
+        if (level >= lowThresholdMilliGallons && tank.low.compareAndSet(true, false)) {
+            return Change.BECAME_AVAILABLE;
+        }
+        return Change.NONE;
+    }
+
+    /**
+     * @return The level of a grade's tank, or 0 if there is none.
+     */
+    public long getLevel(String grade) {
+        Tank tank = tanks.get(grade);
+        return tank == null ? 0 : tank.milliGallons.get();
+    }
+
+    /**
+     * @return The grades currently withdrawn from sale.
+     */
+    public List<String> getUnavailableGrades() {
+        List<String> grades = new ArrayList<>();
+        tanks.forEach((grade, tank) -> {
+            if (tank.low.get()) grades.add(grade);
+        });
+        return grades;
+    }
+
+    /**
+     * @return The tanks' levels by grade.
+     */
+    public Map<String, Long> getLevels() {
+        Map<String, Long> levels = new TreeMap<>();
+        tanks.forEach((grade, tank) -> levels.put(grade, tank.milliGallons.get()));
+        return levels;
+    }
+
+    private Change draw(String grade, long milliGallons) {
+        Tank tank = tanks.get(grade);
+        if (tank == null || milliGallons <= 0) return Change.NONE;
+        long level;
+        long next;
+        do {
+            level = tank.milliGallons.get();
+            next = Math.max(0, level - milliGallons); // A tank cannot go below empty
+        } while (!tank.milliGallons.compareAndSet(level, next));
+        if (next < lowThresholdMilliGallons && tank.low.compareAndSet(false, true)) {
+            return Change.BECAME_UNAVAILABLE;
+        }
+        return Change.NONE;
+    }
+
+    private record PumpSale(long number, long drawnMilliGallons, boolean settled) {
+    }
+
+    private static final class Tank {
+        private final AtomicLong milliGallons;
+        private final AtomicBoolean low;
+
+        private Tank(long milliGallons, boolean low) {
+            this.milliGallons = new AtomicLong(milliGallons);
+            this.low = new AtomicBoolean(low);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package Tests;
+
+import Server.IOPort;
+import Server.IOPortServer;
+import Server.Message;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a stop command takes to reach its device while the same link is saturated
+ * with telemetry. A background thread keeps a deep backlog of bulk lines queued on the port, and a
+ * stop line is sent every few milliseconds; the device end records when each one arrives. The run
+ * is repeated with the stops in the {@link Message.Priority#CONTROL} lane and in the telemetry's
+ * own lane, which is how every message was queued before lanes existed.
+ */
+public class BenchmarkControlLatency {
+
+    private static final int PORT = 7345;
+    private static final int STOPS = 300;
+    private static final long STOP_INTERVAL_MILLIS = 5;
+    private static final int BACKLOG = 2000; // Telemetry lines kept queued on the port
+    private static final String TELEMETRY = "dispensing:pump=0,sale=1,grade=Regular,gallons=" + "1".repeat(100);
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Control Latency Benchmark Starting ---");
+        IOPortServer device = new IOPortServer(PORT);
+        long[] received = new long[STOPS];
+        device.setMessageHandler(message -> {
+            String content = message.getContent();
+            if (content.startsWith("stop:")) received[Integer.parseInt(content, 5, content.length(), 10)] = System.nanoTime();
+        });
+        IOPort controller = new IOPort("localhost", PORT);
+        device.whenConnected().get(5, TimeUnit.SECONDS);
+
+        run(controller, received, Message.Priority.BULK); // Warm up
+        for (Message.Priority lane : new Message.Priority[]{Message.Priority.BULK, Message.Priority.CONTROL}) {
+            long[] latencies = run(controller, received, lane);
+            System.out.printf("Stops in the %-7s lane: p50 %8.3f ms, p99 %8.3f ms, max %8.3f ms%n", lane,
+                    latencies[STOPS / 2] / 1e6, latencies[STOPS * 99 / 100] / 1e6, latencies[STOPS - 1] / 1e6);
+        }
+
+        controller.close();
+        device.close();
+        System.out.println("--- Control Latency Benchmark Finished ---");
+    }
+
+    /**
+     * Sends the stops in the given lane under telemetry load.
+     *
+     * @return The latency of each stop, sorted, in nanoseconds.
+     */
+    private static long[] run(IOPort controller, long[] received, Message.Priority stopLane) throws InterruptedException {
+        Arrays.fill(received, 0);
+        Message telemetry = new Message(TELEMETRY);
+        Thread load = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                while (controller.getQueueDepth(Message.Priority.BULK) < BACKLOG) {
+                    controller.send(telemetry, Message.Priority.BULK);
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "telemetry-load");
+        load.start();
+        Thread.sleep(200); // Let the backlog and the socket buffers fill
+
+        long[] sent = new long[STOPS];
+        for (int i = 0; i < STOPS; i++) {
+            sent[i] = System.nanoTime();
+            controller.send(new Message("stop:" + i), stopLane);
+            Thread.sleep(STOP_INTERVAL_MILLIS);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received[STOPS - 1] == 0 && System.nanoTime() < deadline) Thread.sleep(1);
+        load.interrupt();
+        load.join();
+        while (controller.getQueueDepth() > 0) Thread.sleep(1); // Drain before the next run
+
+        long[] latencies = new long[STOPS];
+        for (int i = 0; i < STOPS; i++) {
+            latencies[i] = received[i] == 0 ? Long.MAX_VALUE : received[i] - sent[i];
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+}
@@ -0,0 +1,66 @@
+package Tests;
+
+import Main.DeviceManagers.FuelingUpdate;
+import Server.Cents;
+import Server.MilliGallons;
+
+/**
+ * A round-trip benchmark for the fixed-point money and volume path.
+ * Each iteration follows one reading the way a real sale does: the flow meter computes and
+ * formats the reading, the controller parses it, the bank parses the charge amount and the
+ * station log formats it again. Every hop must reproduce the meter's exact values and text.
+ */
+public class BenchmarkFixedPointRoundTrip {
+
+    private static final long[] PRICES_CENTS = {459, 499, 519, 389, 1};
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main(String[] args) {
+        System.out.println("--- Fixed-Point Round-Trip Benchmark Starting ---");
+
+        // Warm up so the JIT has compiled the hot path before timing.
+        long checksum = runRoundTrips(ITERATIONS / 4);
+
+        long start = System.nanoTime();
+        checksum += runRoundTrips(ITERATIONS);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Round trips: %d, %.1f ns/round trip (checksum %d)%n",
+                ITERATIONS, (double) elapsed / ITERATIONS, checksum);
+        System.out.println("--- Fixed-Point Round-Trip Benchmark Finished ---");
+    }
+
+    private static long runRoundTrips(int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            long centsPerGallon = PRICES_CENTS[i % PRICES_CENTS.length];
+            long elapsedNanos = i * 7_919_003L;
+            long milliGallons = MilliGallons.fromFlow(elapsedNanos, 150);
+            long cents = Cents.costOf(centsPerGallon, milliGallons);
+
+            // Meter -> controller (screen protocol update)
+            String gallonsText = MilliGallons.toString(milliGallons);
+            String centsText = Cents.toString(cents);
+            String meterMessage = "t:3/s:3/st:2/c:0/" + gallonsText + " gal;t:5/s:3/st:2/c:0/$" + centsText + ";//";
+            FuelingUpdate update = FuelingUpdate.parseFrom(meterMessage);
+            if (update == null || update.milliGallons() != milliGallons || update.totalCents() != cents) {
+                throw new IllegalStateException("Meter/controller mismatch for " + meterMessage);
+            }
+
+            // Controller -> bank (charge request)
+            String charge = "Charge:4111111111111111," + Cents.toString(update.totalCents());
+            long bankCents = Cents.parse(charge, charge.indexOf(',') + 1, charge.length());
+            if (bankCents != cents) {
+                throw new IllegalStateException("Controller/bank mismatch for " + charge);
+            }
+
+            // Controller -> station log
+            String logged = MilliGallons.toString(update.milliGallons()) + "," + Cents.toString(bankCents);
+            if (!logged.equals(gallonsText + "," + centsText)) {
+                throw new IllegalStateException("Station log mismatch: " + logged);
+            }
+            checksum += bankCents;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,80 @@
+package Tests;
+
+import Server.Log;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the cost of a {@link Log} call on the calling thread, from one thread and from several
+ * at once (as many pumps in one JVM would), with the background writer draining to a null stream.
+ * Calls are made in bursts that fit in the buffer, with a flush between bursts, so the timing is
+ * for accepted entries; a final flood shows the cost when the buffer fills and entries are dropped.
+ * Also times the {@code System.out.println} it replaces for comparison.
+ */
+public class BenchmarkLog {
+
+    private static final int CALLS_PER_THREAD = 1_000_000;
+    private static final int BURST = 1024; // Per thread; 4 threads stay within the default 8192 slots
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("--- Log Benchmark Starting ---");
+        PrintStream nullStream = new PrintStream(OutputStream.nullOutputStream());
+        PrintStream console = System.out;
+        Log.setOutput(nullStream, nullStream);
+        String tag = Log.pumpTag("flow-meter", 3);
+
+        run(tag, 1, BURST); // Warm up
+        for (int threads : new int[]{1, 4}) {
+            long droppedBefore = Log.getDropped();
+            double nanosPerCall = run(tag, threads, BURST);
+            console.printf("Log.info, %d thread(s): %.1f ns/call, %d dropped%n",
+                    threads, nanosPerCall, Log.getDropped() - droppedBefore);
+        }
+        long droppedBefore = Log.getDropped();
+        double floodNanos = run(tag, 4, CALLS_PER_THREAD);
+        console.printf("Log.info flood, 4 threads: %.1f ns/call, %d dropped%n",
+                floodNanos, Log.getDropped() - droppedBefore);
+
+        System.setOut(nullStream);
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+            System.out.println("Flow meter update: " + i + " milli-gallons");
+        }
+        double printlnNanos = (double) (System.nanoTime() - start) / CALLS_PER_THREAD;
+        System.setOut(console);
+        System.out.printf("System.out.println, 1 thread: %.1f ns/call%n", printlnNanos);
+        System.out.println("--- Log Benchmark Finished ---");
+    }
+
+    /**
+     * Logs {@link #CALLS_PER_THREAD} entries from each thread, in bursts of {@code burst} calls with
+     * a flush after each burst that is not timed.
+     *
+     * @return The average time per call, as seen by the calling threads.
+     */
+    private static double run(String tag, int threads, int burst) throws InterruptedException {
+        long[] elapsed = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int worker = t;
+            workers.add(new Thread(() -> {
+                for (int done = 0; done < CALLS_PER_THREAD; done += burst) {
+                    long start = System.nanoTime();
+                    for (int i = done; i < done + burst; i++) {
+                        Log.info(tag, "Flow meter update: {} milli-gallons", i);
+                    }
+                    elapsed[worker] += System.nanoTime() - start;
+                    Log.flush(5000);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) worker.join();
+        long total = 0;
+        for (long e : elapsed) total += e;
+        return (double) total / ((long) threads * CALLS_PER_THREAD);
+    }
+}
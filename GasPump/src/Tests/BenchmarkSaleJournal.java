@@ -0,0 +1,63 @@
+package Tests;
+
+import SmallDevices.SaleJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * An ingest and query benchmark for the gas station's {@link SaleJournal}.
+ * It appends a day's worth of sales to a fresh journal, waits for them to be durable, times
+ * end-of-day queries by time, grade and card, then reopens the journal and checks that every
+ * sale was recovered with the same totals.
+ */
+public class BenchmarkSaleJournal {
+
+    private static final String[] GRADES = {"Regular", "Premium", "Super"};
+    private static final int SALES = 2_000_000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.out.println("--- Sale Journal Benchmark Starting ---");
+        Path file = Files.createTempFile("sales", ".journal");
+
+        SaleJournal.Totals before;
+        try (SaleJournal journal = new SaleJournal(file, 10)) {
+            long start = System.nanoTime();
+            int last = 0;
+            for (int i = 0; i < SALES; i++) {
+                last = journal.append("4000" + (i % 50_000), GRADES[i % GRADES.length], i % 12,
+                        1_000 + i % 20_000, 459 + i % 9_000);
+            }
+            boolean durable = journal.awaitDurable(last, 10_000);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Appended %d sales in %d ms: %.0f sales/s (durable: %b)%n",
+                    SALES, elapsed / 1_000_000, SALES * 1e9 / elapsed, durable);
+
+            long now = System.currentTimeMillis();
+            before = time("All sales", () -> journal.totals(Long.MIN_VALUE, Long.MAX_VALUE, null, null));
+            time("Last hour", () -> journal.totals(now - 3_600_000, Long.MAX_VALUE, null, null));
+            time("Premium", () -> journal.totals(Long.MIN_VALUE, Long.MAX_VALUE, "Premium", null));
+            time("One card", () -> journal.totals(Long.MIN_VALUE, Long.MAX_VALUE, null, "400042"));
+            time("One card, Super", () -> journal.totals(Long.MIN_VALUE, Long.MAX_VALUE, "Super", "400042"));
+        }
+
+        long start = System.nanoTime();
+        try (SaleJournal reopened = new SaleJournal(file, 10)) {
+            System.out.printf("Reopened and re-indexed in %d ms%n", (System.nanoTime() - start) / 1_000_000);
+            SaleJournal.Totals after = reopened.totals(Long.MIN_VALUE, Long.MAX_VALUE, null, null);
+            System.out.println(after.equals(before) ? "Recovery: OK" : "Recovery: MISMATCH " + before + " vs " + after);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println("--- Sale Journal Benchmark Finished ---");
+    }
+
+    private static SaleJournal.Totals time(String label, Supplier<SaleJournal.Totals> query) {
+        long start = System.nanoTime();
+        SaleJournal.Totals totals = query.get();
+        System.out.printf("%-16s %8.3f ms  %s%n", label, (System.nanoTime() - start) / 1e6, totals);
+        return totals;
+    }
+}
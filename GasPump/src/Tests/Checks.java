@@ -0,0 +1,26 @@
+package Tests;
+
+/**
+ * Keeps the verdict of a main()-based test: each check prints "ok" or "FAIL" with what it checked,
+ * and {@link #finish()} prints PASS or FAIL and exits with the verdict.
+ */
+final class Checks {
+
+    private static boolean passed = true;
+
+    private Checks() {
+    }
+
+    static void expect(String what, boolean ok) {
+        System.out.printf("%-4s %s%n", ok ? "ok" : "FAIL", what);
+        passed &= ok;
+    }
+
+    /**
+     * Prints the verdict and exits with 0 if every check passed, 1 otherwise.
+     */
+    static void finish() {
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+}
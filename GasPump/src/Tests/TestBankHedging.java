@@ -0,0 +1,92 @@
+package Tests;
+
+import Main.DeviceManagers.BankManager;
+import Server.DeviceConstants;
+import Server.IOPort;
+import Server.IOPortMultiServer;
+import Server.Message;
+import SmallDevices.Bank;
+import SmallDevices.BankLedger;
+import SmallDevices.FaultProfile;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bank manager's adaptive timeout and hedged requests against the bank simulation. The
+ * bank is reached through a relay that can hold back its answers on the first connection (the
+ * manager's primary one) to play a slow bank. A hedged authorization should
+ * then be answered on the second connection well before the slow answer, and a hedged charge
+ * should be captured once although both connections carry it. Needs the bank's port free, so run
+ * it with no bank running.
+ */
+public class TestBankHedging {
+
+    private static final long SLOW_MILLIS = 1500;
+    private static final int BANK_BEHIND_RELAY_PORT = 7347;
+    private static final String APPROVED_CARD = "4111111111111111";
+
+    private static final BankLedger ledger = new BankLedger();
+    private static final ScheduledExecutorService delayed = Executors.newSingleThreadScheduledExecutor();
+    private static volatile IOPortMultiServer.Connection primary;
+    private static volatile boolean slow;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Bank Hedging Test Starting ---");
+        IOPortMultiServer bank = new Bank(2, 64, FaultProfile.none(), ledger).start(BANK_BEHIND_RELAY_PORT, 0);
+        IOPortMultiServer relay = startRelay();
+        BankManager manager = new BankManager(0);
+        manager.whenConnected().get(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 20; i++) manager.authorizeCreditCard(APPROVED_CARD);
+        long timeout = manager.getAuthorizeTimeoutMillis();
+        Checks.expect("authorization timeout adapts to a fast bank (" + timeout + " ms)", timeout < 5000);
+
+        manager.setHedging(true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (relay.getConnections().size() < 2 && System.nanoTime() < deadline) Thread.sleep(10);
+        slow = true;
+
+        long start = System.nanoTime();
+        BankManager.AuthorizationStatus status = manager.authorizeCreditCard(APPROVED_CARD);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Checks.expect("hedged authorization is approved in " + elapsedMillis + " ms",
+                status == BankManager.AuthorizationStatus.APPROVED && elapsedMillis < SLOW_MILLIS);
+        Checks.expect("the hedge answered first", manager.getHedgesSent() == 1 && manager.getHedgesWon() == 1);
+
+        boolean charged = manager.chargeCreditCard(APPROVED_CARD, 1234);
+        Thread.sleep(SLOW_MILLIS + 500); // Let the slow connection's copy of the charge through
+        Checks.expect("hedged charge is confirmed", charged);
+        Checks.expect("hedged charge is captured once (" + ledger.getCaptureCount(APPROVED_CARD) + " captures)",
+                ledger.getCaptureCount(APPROVED_CARD) == 1 && ledger.getCapturedCents(APPROVED_CARD) == 1234);
+
+        manager.close();
+        relay.close();
+        bank.close();
+        delayed.shutdownNow();
+        Checks.finish();
+    }
+
+    /**
+     * Relays each of the manager's connections to the bank on its own connection, holding back the
+     * bank's answers on the first one (the manager's primary connection) while the bank plays slow.
+     */
+    private static IOPortMultiServer startRelay() throws IOException {
+        return new IOPortMultiServer(DeviceConstants.BANK_PORT, connection -> {
+            boolean first = primary == null;
+            if (first) primary = connection;
+            IOPort upstream = IOPort.connectInBackground("localhost", BANK_BEHIND_RELAY_PORT, 5000);
+            upstream.setMessageHandler(reply -> {
+                Message relayed = new Message(reply.getContent());
+                if (slow && first) {
+                    delayed.schedule(() -> connection.send(relayed), SLOW_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    connection.send(relayed);
+                }
+            });
+            connection.setMessageHandler(request -> upstream.send(new Message(request.getContent())));
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package Tests;
+
+import Main.DeviceManagers.BankManager;
+import Main.DeviceManagers.SettlementQueue;
+import Server.CircuitBreaker;
+import Server.DeviceConstants;
+import Server.IOPortMultiServer;
+import SmallDevices.Bank;
+import SmallDevices.BankLedger;
+import SmallDevices.FaultProfile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the bank manager recovers from a bank restart. The bank simulation is closed, which
+ * drops the manager's connections; authorizations then fail at once instead of waiting out their
+ * timeout, and open the circuit breaker. A new bank is started on the same port: the manager's
+ * connections reconnect by themselves, and once the breaker half-opens its probe is answered and
+ * closes it.
+ * <p>
+ * The bank is then restarted again with a charge waiting in a settlement queue: the queue's own
+ * connection reconnects too, the charge is captured once, and the settled batch closes the
+ * breaker without waiting for a probe. Needs the bank's port free, so run it with no bank
+ * running. Takes about 15 s, most of it waiting for the breaker to half-open.
+ */
+public class TestBankRestart {
+
+    private static final String CARD = "4111111111111111";
+
+    private static final BankLedger ledger = new BankLedger();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Bank Restart Test Starting ---");
+        IOPortMultiServer bank = startBank();
+        BankManager manager = new BankManager(0);
+        manager.whenConnected().get(10, TimeUnit.SECONDS);
+        Checks.expect("the bank approves while it is up", manager.authorizeCreditCard(CARD) == BankManager.AuthorizationStatus.APPROVED);
+
+        bank.close();
+        Thread.sleep(200); // Let the manager see the connection go
+        long openedNanos = System.nanoTime();
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) manager.authorizeCreditCard(CARD);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Checks.expect("requests fail at once while the bank is gone (" + elapsedMillis + " ms for 3)", elapsedMillis < 500);
+        Checks.expect("and open the breaker", manager.getBreakerState() == CircuitBreaker.State.OPEN);
+
+        bank = startBank();
+        long untilHalfOpen = TimeUnit.SECONDS.toMillis(11) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedNanos);
+        if (untilHalfOpen > 0) Thread.sleep(untilHalfOpen);
+        Checks.expect("the probe reaches the restarted bank", manager.authorizeCreditCard(CARD) == BankManager.AuthorizationStatus.APPROVED);
+        Checks.expect("and closes the breaker", manager.getBreakerState() == CircuitBreaker.State.CLOSED);
+
+        SettlementQueue settlement = new SettlementQueue(0, Files.createTempDirectory("bank-restart").resolve("settlement.log"));
+        manager.setSettlementQueue(settlement);
+        bank.close();
+        Thread.sleep(200);
+        for (int i = 0; i < 3; i++) manager.authorizeCreditCard(CARD);
+        Checks.expect("a charge is queued while the bank is gone", settlement.add(CARD, 1500)
+                && manager.getBreakerState() == CircuitBreaker.State.OPEN);
+        Thread.sleep(1500); // The sender finds the connection down and waits for it
+
+        bank = startBank();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (settlement.getPendingCount() > 0 && System.nanoTime() < deadline) Thread.sleep(50);
+        Checks.expect("the settlement connection reconnects and the charge is captured once",
+                settlement.getPendingCount() == 0 && ledger.getCaptureCount(CARD) == 1 && ledger.getCapturedCents(CARD) == 1500);
+        Checks.expect("the settled batch closes the breaker", manager.getBreakerState() == CircuitBreaker.State.CLOSED);
+
+        settlement.close();
+        manager.close();
+        bank.close();
+        Checks.finish();
+    }
+
+    /**
+     * Starts the bank simulation over a ledger that outlives the restart.
+     */
+    private static IOPortMultiServer startBank() throws IOException {
+        return new Bank(2, 64, FaultProfile.none(), ledger).start(DeviceConstants.BANK_PORT, 0);
+    }
+}
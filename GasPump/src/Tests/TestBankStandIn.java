@@ -0,0 +1,92 @@
+package Tests;
+
+import Main.DeviceManagers.BankManager;
+import Main.DeviceManagers.SettlementQueue;
+import Main.DeviceManagers.StandInPolicy;
+import Server.CircuitBreaker;
+import Server.DeviceConstants;
+import Server.IOPortMultiServer;
+import SmallDevices.Bank;
+import SmallDevices.BankLedger;
+import SmallDevices.FaultProfile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the bank manager's circuit breaker and stand-in authorization against the bank
+ * simulation. Once the bank is closed, a few failed authorizations open the breaker; from then on
+ * cards are decided at once by the stand-in policy (blocklist and floor limit, less what the card
+ * already owes in the settlement queue). When the bank is started again, the queue's retries
+ * settle the charge, which the bank captures once, and the settled batch closes the breaker. Needs the bank's port free, so run it with no bank running. Takes about 15 s, most of
+ * it waiting out the queue's retry backoff.
+ */
+public class TestBankStandIn {
+
+    private static final String CARD = "4111111111111111";
+    private static final String BLOCKED_CARD = "4222222222222222";
+    private static final long FLOOR_LIMIT_CENTS = 5000;
+
+    private static final BankLedger ledger = new BankLedger();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Bank Stand-In Test Starting ---");
+        IOPortMultiServer bank = startBank();
+        Path directory = Files.createTempDirectory("stand-in");
+        SettlementQueue settlement = new SettlementQueue(0, directory.resolve("settlement.log"));
+        BankManager manager = new BankManager(0);
+        manager.setStandInPolicy(new StandInPolicy(FLOOR_LIMIT_CENTS, Set.of(BLOCKED_CARD)));
+        manager.setSettlementQueue(settlement);
+        manager.whenConnected().get(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 20; i++) manager.authorizeCreditCard(CARD); // Learn how fast the bank is
+        Checks.expect("the bank approves while it is up, for the $200.00 it holds",
+                manager.authorizeCreditCard(CARD) == BankManager.AuthorizationStatus.APPROVED
+                        && manager.getAuthorizedLimitCents() == 20000);
+
+        bank.close();
+        Thread.sleep(200); // Let the manager see the connection go
+        BankManager.AuthorizationStatus status = null;
+        for (int i = 0; i < 3; i++) status = manager.authorizeCreditCard(CARD);
+        Checks.expect("consecutive failures open the breaker", manager.getBreakerState() == CircuitBreaker.State.OPEN);
+        Checks.expect("the failure that opens it is decided by the stand-in policy",
+                status == BankManager.AuthorizationStatus.APPROVED_STAND_IN);
+
+        long start = System.nanoTime();
+        status = manager.authorizeCreditCard(BLOCKED_CARD);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Checks.expect("a blocklisted card is declined in " + elapsedMillis + " ms",
+                status == BankManager.AuthorizationStatus.DECLINED && elapsedMillis < 100);
+        Checks.expect("a card is approved up to the floor limit",
+                manager.authorizeCreditCard(CARD) == BankManager.AuthorizationStatus.APPROVED_STAND_IN
+                        && manager.getAuthorizedLimitCents() == FLOOR_LIMIT_CENTS);
+        Checks.expect("its charge is queued for settlement", settlement.add(CARD, 3000) && settlement.getPendingCount() == 1);
+        manager.authorizeCreditCard(CARD);
+        Checks.expect("the card's next approval is limited to what it does not owe yet",
+                manager.getAuthorizedLimitCents() == FLOOR_LIMIT_CENTS - 3000);
+
+        bank = startBank();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (settlement.getPendingCount() > 0 && System.nanoTime() < deadline) Thread.sleep(100);
+        Checks.expect("the queue settles the charge once the bank is back", settlement.getPendingCount() == 0);
+        Checks.expect("the bank captures it once (" + ledger.getCaptureCount(CARD) + " captures)",
+                ledger.getCaptureCount(CARD) == 1 && ledger.getCapturedCents(CARD) == 3000);
+        Checks.expect("the settled batch closes the breaker", manager.getBreakerState() == CircuitBreaker.State.CLOSED);
+        Checks.expect("and the bank approves again", manager.authorizeCreditCard(CARD) == BankManager.AuthorizationStatus.APPROVED);
+
+        manager.close();
+        settlement.close();
+        bank.close();
+        Checks.finish();
+    }
+
+    /**
+     * Starts the bank simulation over a ledger that outlives a restart.
+     */
+    private static IOPortMultiServer startBank() throws IOException {
+        return new Bank(2, 64, FaultProfile.none(), ledger).start(DeviceConstants.BANK_PORT, 0);
+    }
+}
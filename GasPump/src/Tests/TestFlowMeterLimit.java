@@ -0,0 +1,81 @@
+package Tests;
+
+import Main.DeviceManagers.FuelGrade;
+import Main.DeviceManagers.PumpAssemblyManager;
+import Server.Cents;
+import Server.DeviceConstants;
+import Server.IOPortServer;
+import Server.MilliGallons;
+import SmallDevices.FlowMeter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the flow meter stops a sale at its dollar limit. The real flow meter is driven by the
+ * real pump assembly manager (with stand-ins for the pump and hose): a sale started with a $0.50
+ * limit must end on a reading of exactly $0.50 marked as the limit, with the meter stopped; starting
+ * it again, as after a pause, must not dispense more; and after a reset, a sale without a limit must
+ * run past it. Takes a few seconds of simulated fueling.
+ */
+public class TestFlowMeterLimit {
+
+    private static final int PUMP = 6; // Out of the way of any dispensers running on this machine
+    private static final FuelGrade GRADE = new FuelGrade("Regular", 349, 87);
+    private static final long LIMIT_CENTS = 50;
+
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Flow Meter Limit Test Starting ---");
+        IOPortServer pump = new IOPortServer(DeviceConstants.portFor(DeviceConstants.PUMP_PORT, PUMP));
+        IOPortServer hose = new IOPortServer(DeviceConstants.portFor(DeviceConstants.HOSE_PORT, PUMP));
+        FlowMeter meter = new FlowMeter(PUMP, Executors.newSingleThreadScheduledExecutor());
+        PumpAssemblyManager pumpAssembly = new PumpAssemblyManager(PUMP);
+        pumpAssembly.connect();
+        CompletableFuture.allOf(pump.whenConnected(), hose.whenConnected()).get(10, TimeUnit.SECONDS);
+
+        long limitMilliGallons = MilliGallons.forCost(GRADE.centsPerGallon(), LIMIT_CENTS);
+        pumpAssembly.startPumping(GRADE, LIMIT_CENTS);
+        boolean stopped = awaitLimit(pumpAssembly);
+        Checks.expect("the meter reports reaching the limit", stopped && !meter.isFueling());
+        Checks.expect("the last reading is exactly the limit ($" + Cents.toString(pumpAssembly.getUpdateTotalCents()) + ", "
+                        + MilliGallons.toString(pumpAssembly.getUpdateMilliGallons()) + " gal)",
+                pumpAssembly.getUpdateTotalCents() == LIMIT_CENTS && pumpAssembly.getUpdateMilliGallons() == limitMilliGallons);
+        Checks.expect("it is the most fuel the limit pays for",
+                Cents.costOf(GRADE.centsPerGallon(), limitMilliGallons + 1) > LIMIT_CENTS);
+
+        pumpAssembly.startPumping(GRADE, LIMIT_CENTS); // Back from a pause
+        stopped = awaitLimit(pumpAssembly);
+        Checks.expect("starting again dispenses nothing more",
+                stopped && !meter.isFueling() && pumpAssembly.getUpdateMilliGallons() == limitMilliGallons);
+
+        pumpAssembly.stopPumping();
+        pumpAssembly.resetFlowMeter();
+        Thread.sleep(300);
+        Checks.expect("a reset clears the limit", meter.getLimitCents() == Long.MAX_VALUE);
+        pumpAssembly.startPumping(GRADE, Long.MAX_VALUE);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && !(pumpAssembly.pollFuelingUpdate() && pumpAssembly.getUpdateTotalCents() > LIMIT_CENTS)) {
+            Thread.sleep(10);
+        }
+        Checks.expect("a sale without a limit runs past it", pumpAssembly.getUpdateTotalCents() > LIMIT_CENTS
+                && !pumpAssembly.isUpdateLimitReached() && meter.isFueling());
+
+        pumpAssembly.stopPumping();
+        pumpAssembly.close();
+        Checks.finish();
+    }
+
+    /**
+     * Takes readings until one is marked as the limit, for at most five seconds.
+     */
+    private static boolean awaitLimit(PumpAssemblyManager pumpAssembly) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (pumpAssembly.pollFuelingUpdate() && pumpAssembly.isUpdateLimitReached()) return true;
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,136 @@
+package Tests;
+
+import Main.DeviceManagers.CustomerManager;
+import Main.DeviceManagers.FuelGrade;
+import Main.DeviceManagers.GasStationManager;
+import Main.DeviceManagers.PumpAssemblyManager;
+import Server.DeviceConstants;
+import Server.IOPortServer;
+import Server.Message;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the fueling loop creates no objects once it is warmed up. Stand-in devices for one
+ * pump (and a stand-in gas station) feed flow meter readings to the real managers, and the test
+ * thread runs the body of the controller's fueling loop for each one: poll the hose, take the
+ * reading, redraw the screen, report the volume to the station, and check for a button press.
+ * <p>
+ * The bytes allocated by the test thread and by the reader and writer threads of the controller's
+ * ports are measured over many updates; any of them above zero is a failure. The stand-in devices
+ * are not measured. Needs the gas station's port free, so run it with no station running.
+ */
+public class TestFuelingAllocation {
+
+    private static final int PUMP = 7; // Out of the way of any dispensers running on this machine
+    private static final int WARM_UP_UPDATES = 20_000;
+    private static final int MEASURED_UPDATES = 20_000;
+    private static final FuelGrade GRADE = new FuelGrade("Regular", 349, 87);
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Fueling Allocation Test Starting ---");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int[] devicePorts = {
+                DeviceConstants.portFor(DeviceConstants.SCREEN_PORT, PUMP),
+                DeviceConstants.portFor(DeviceConstants.CARD_READER_PORT, PUMP),
+                DeviceConstants.portFor(DeviceConstants.PUMP_PORT, PUMP),
+                DeviceConstants.portFor(DeviceConstants.FLOW_METER_PORT, PUMP),
+                DeviceConstants.portFor(DeviceConstants.HOSE_PORT, PUMP),
+                DeviceConstants.GAS_STATION_PORT};
+        List<IOPortServer> devices = new ArrayList<>();
+        for (int port : devicePorts) devices.add(new IOPortServer(port));
+        IOPortServer flowMeter = devices.get(3);
+
+        CustomerManager customer = new CustomerManager(PUMP);
+        GasStationManager station = new GasStationManager(PUMP);
+        PumpAssemblyManager pumpAssembly = new PumpAssemblyManager(PUMP);
+        pumpAssembly.connect();
+        CompletableFuture.allOf(devices.stream().map(IOPortServer::whenConnected).toArray(CompletableFuture[]::new))
+                .get(10, TimeUnit.SECONDS);
+
+        // The stand-in flow meter sends the next reading whenever the last one has been taken. The
+        // measured readings repeat the warm-up ones: the socket keeps a buffer as large as the
+        // longest write so far, and replaces it (once) when a longer line comes along.
+        int totalUpdates = WARM_UP_UPDATES + MEASURED_UPDATES;
+        Message[] readings = new Message[totalUpdates];
+        for (int i = 0; i < totalUpdates; i++) {
+            int milliGallons = i % WARM_UP_UPDATES;
+            readings[i] = new Message(String.format("t:3/s:3/st:2/c:0/%d.%03d gal;t:5/s:3/st:2/c:0/$%d.%02d;",
+                    milliGallons / 1000, milliGallons % 1000, milliGallons * 349 / 100_000, milliGallons * 349 / 1000 % 100));
+        }
+        AtomicInteger taken = new AtomicInteger();
+        Thread feeder = new Thread(() -> {
+            for (int i = 0; i < totalUpdates; i++) {
+                flowMeter.send(readings[i]);
+                while (taken.get() <= i) Thread.onSpinWait();
+            }
+        }, "flow-meter-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+
+        runUpdates(customer, station, pumpAssembly, taken, WARM_UP_UPDATES);
+
+        long[] portThreads = controllerPortThreads(devicePorts);
+        long[] portBefore = threads.getThreadAllocatedBytes(portThreads);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        runUpdates(customer, station, pumpAssembly, taken, MEASURED_UPDATES);
+        long after = threads.getCurrentThreadAllocatedBytes();
+        long[] portAfter = threads.getThreadAllocatedBytes(portThreads);
+
+        boolean passed = report("fueling loop (test thread)", after - before);
+        for (int i = 0; i < portThreads.length; i++) {
+            passed &= report(threads.getThreadInfo(portThreads[i]).getThreadName(), portAfter[i] - portBefore[i]);
+        }
+
+        customer.close();
+        station.close();
+        pumpAssembly.close();
+        for (IOPortServer device : devices) device.close();
+        System.out.println(passed ? "PASS" : "FAIL");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs the body of the controller's fueling loop for the given number of flow meter readings.
+     */
+    private static void runUpdates(CustomerManager customer, GasStationManager station, PumpAssemblyManager pumpAssembly,
+                                   AtomicInteger taken, int updates) {
+        for (int i = 0; i < updates; i++) {
+            while (true) {
+                pumpAssembly.getHoseEvent();
+                if (pumpAssembly.pollFuelingUpdate()) break;
+                Thread.onSpinWait();
+            }
+            taken.incrementAndGet();
+            customer.showPumpingScreen(GRADE.name(), pumpAssembly.getUpdateMilliGallons(), pumpAssembly.getUpdateTotalCents());
+            station.reportDispensing(GRADE, pumpAssembly.getUpdateMilliGallons());
+            customer.waitForButtonPress(0);
+        }
+    }
+
+    /**
+     * @return The ids of the reader and writer threads of the controller's end of each device link.
+     */
+    private static long[] controllerPortThreads(int[] devicePorts) {
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            for (int port : devicePorts) {
+                if (thread.getName().startsWith("io-") && thread.getName().endsWith("->" + port)) ids.add(thread.getId());
+            }
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static boolean report(String what, long bytes) {
+        double perUpdate = (double) bytes / MEASURED_UPDATES;
+        System.out.printf("%-40s %10d bytes, %.2f bytes/update%n", what, bytes, perUpdate);
+        return bytes == 0;
+    }
+}
@@ -0,0 +1,67 @@
+package Tests;
+
+import Server.DeviceConstants;
+import Server.IOPort;
+import Server.IOPortServer;
+import Server.LinkHealth;
+import Server.LinkMonitor;
+import Server.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a link the controller refuses sessions over comes back when its device restarts.
+ * A stand-in device is closed and started again on the same port, as when a device process is
+ * restarted: the controller-side port must reconnect by itself, its link must be usable again
+ * within a few heartbeats, and messages sent while the device was away must reach the new one.
+ */
+public class TestLinkRecovery {
+
+    private static final int PUMP = 5; // Out of the way of any dispensers running on this machine
+    private static final long HEARTBEAT_MS = 100;
+
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Link Recovery Test Starting ---");
+        int port = DeviceConstants.portFor(DeviceConstants.SCREEN_PORT, PUMP);
+        IOPortServer device = new IOPortServer(port);
+        LinkMonitor monitor = new LinkMonitor(HEARTBEAT_MS, 50);
+        IOPort controller = IOPort.connectInBackground("localhost", port, 1000);
+        LinkHealth health = monitor.watch("screen", controller);
+        device.whenConnected().get(10, TimeUnit.SECONDS);
+        Checks.expect("the link is usable while the device is up", awaitUsable(health, true));
+
+        device.close();
+        Checks.expect("the link goes down when the device stops", awaitUsable(health, false)
+                && health.getStatus() == LinkHealth.Status.DOWN);
+        Checks.expect("the port is not closed for good", !controller.isClosed());
+        controller.send(new Message("sent while away"));
+
+        device = new IOPortServer(port);
+        device.whenConnected().get(10, TimeUnit.SECONDS);
+        Checks.expect("the port reconnects to the restarted device and the link is usable again", awaitUsable(health, true));
+        Message received = null;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (received == null && System.nanoTime() < deadline) {
+            received = device.get();
+            Thread.sleep(10);
+        }
+        Checks.expect("a message sent while it was away reaches it", received != null && received.getContent().equals("sent while away"));
+
+        controller.close();
+        device.close();
+        Checks.finish();
+    }
+
+    /**
+     * Waits up to five seconds for the link to become usable, or unusable.
+     */
+    private static boolean awaitUsable(LinkHealth health, boolean usable) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (health.isUsable() == usable && health.getStatus() != LinkHealth.Status.UNKNOWN) return true;
+            Thread.sleep(HEARTBEAT_MS / 2);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,138 @@
+package Tests;
+
+import Server.IOPort;
+import Server.Message;
+import Server.OverflowPolicy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Checks each {@link OverflowPolicy} against a peer that has stopped reading. Bulk filler lines
+ * are sent until the socket's buffers are full and the port's writer is stuck; then the
+ * interactive lane, limited to four messages, is sent a fifth, along with more stop commands than
+ * the limit in the control lane (which is never limited). When the peer starts reading again, the
+ * lines that reach it show what each policy kept.
+ */
+public class TestSendQueueOverflow {
+
+    private static final int PORT = 7346;
+    private static final int LIMIT = 4;
+    private static final String FILLER = "fill:" + "x".repeat(16 * 1024);
+    private static final String[] QUEUED = {"a:1", "b:1", "c:1", "d:1"};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Send Queue Overflow Test Starting ---");
+        try (ServerSocket server = new ServerSocket(PORT)) {
+            check(server, OverflowPolicy.REJECT, false, List.of("a:1", "b:1", "c:1", "d:1"));
+            check(server, OverflowPolicy.DROP_OLDEST, true, List.of("b:1", "c:1", "d:1", "b:2"));
+            check(server, OverflowPolicy.CONFLATE, true, List.of("a:1", "c:1", "d:1", "b:2"));
+            check(server, OverflowPolicy.BLOCK, true, List.of("a:1", "b:1", "c:1", "d:1", "b:2"));
+        }
+        Checks.finish();
+    }
+
+    /**
+     * Overflows the interactive lane with "b:2" under the given policy, then reads what arrives.
+     *
+     * @param expectQueued Whether the policy should accept "b:2" (for BLOCK: once the peer reads).
+     * @param expected     The interactive lines that should arrive, in order.
+     */
+    private static void check(ServerSocket server, OverflowPolicy policy, boolean expectQueued, List<String> expected)
+            throws Exception {
+        IOPort port = new IOPort("localhost", PORT);
+        Socket peer = server.accept();
+        try {
+            fillUntilStuck(port);
+            port.limitQueue(LIMIT, policy, 300);
+            for (String line : QUEUED) port.send(new Message(line));
+            for (int i = 0; i < LIMIT * 2; i++) port.send(new Message("stop:" + i), Message.Priority.CONTROL);
+
+            boolean queued;
+            if (policy == OverflowPolicy.BLOCK) {
+                // Times out while the peer is stalled...
+                long start = System.nanoTime();
+                boolean timedOut = !port.send(new Message("e:1"));
+                long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+                expect(policy, "gives up after its block timeout", timedOut && waitedMillis >= 250);
+                // ...and gets through once it reads again.
+                CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> port.send(new Message("b:2")));
+                Thread.sleep(100);
+                expect(policy, "keeps the sender waiting", !blocked.isDone());
+                List<String> received = readLines(peer);
+                queued = blocked.get();
+                expectLines(policy, received, expected);
+            } else {
+                queued = port.send(new Message("b:2"));
+                expect(policy, "keeps the lane within its limit", port.getQueueDepth(Message.Priority.INTERACTIVE) <= LIMIT);
+                expectLines(policy, readLines(peer), expected);
+            }
+            expect(policy, queued ? "accepts the new message" : "refuses the new message", queued == expectQueued);
+            expect(policy, "counts what overflowed", port.getStatistics().getMessagesOverflowed() > 0);
+        } finally {
+            // The port first: closing the peer first would make it reconnect, into the next check's accept()
+            port.close();
+            peer.close();
+        }
+    }
+
+    /**
+     * Sends filler lines until the peer's and the port's socket buffers are full, so the port's
+     * writer is stuck and its queue grows.
+     */
+    private static void fillUntilStuck(IOPort port) throws InterruptedException {
+        Message filler = new Message(FILLER);
+        long stuckSince = 0;
+        while (true) {
+            if (port.getQueueDepth(Message.Priority.BULK) < 2) port.send(filler, Message.Priority.BULK);
+            if (port.getQueueDepth(Message.Priority.BULK) == 0) {
+                stuckSince = 0;
+            } else if (stuckSince == 0) {
+                stuckSince = System.nanoTime();
+            } else if (System.nanoTime() - stuckSince > 200_000_000L) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Reads lines until none arrive for a second.
+     *
+     * @return The lines that are not filler.
+     */
+    private static List<String> readLines(Socket peer) throws IOException {
+        peer.setSoTimeout(1000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(peer.getInputStream(), StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.startsWith("fill:")) lines.add(line);
+            }
+        } catch (SocketTimeoutException e) {
+            // Quiet for a second: everything queued has arrived.
+        }
+        return lines;
+    }
+
+    private static void expectLines(OverflowPolicy policy, List<String> received, List<String> expectedInteractive) {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < LIMIT * 2; i++) expected.add("stop:" + i); // Control goes first, and none is lost
+        expected.addAll(expectedInteractive);
+        expect(policy, "delivers " + expected, received.equals(expected));
+        if (!received.equals(expected)) System.out.println("    received " + received);
+    }
+
+    private static void expect(OverflowPolicy policy, String what, boolean ok) {
+        Checks.expect(String.format("%-12s %s", policy, what), ok);
+    }
+}
@@ -0,0 +1,78 @@
+package Tests;
+
+import Main.DeviceManagers.SettlementQueue;
+import Server.DeviceConstants;
+import Server.IOPortMultiServer;
+import SmallDevices.Bank;
+import SmallDevices.BankLedger;
+import SmallDevices.FaultProfile;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the settlement queue's recovery and batching against the bank simulation. A log left by a
+ * crash (one charge settled, two not, and a partial last line) is read back; the two unsettled
+ * charges are captured in one batch and the checkpoint is moved past them, so reopening the log
+ * finds nothing to send. A copy of the log taken before settlement is then opened without its
+ * checkpoint, as after restoring a backup: its charges are sent again under the same keys and the
+ * bank does not capture them twice. Needs the bank's port free, so run it with no bank running.
+ */
+public class TestSettlementQueue {
+
+    private static final String CARD = "4111111111111111";
+    private static final String OTHER_CARD = "4222222222222222";
+
+    private static final BankLedger ledger = new BankLedger();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("--- Settlement Queue Test Starting ---");
+        IOPortMultiServer bank = new Bank(2, 64, FaultProfile.none(), ledger).start(DeviceConstants.BANK_PORT, 0);
+        Path directory = Files.createTempDirectory("settlement");
+        Path logFile = directory.resolve("settlement.log");
+        Path restoredLog = directory.resolve("restored.log");
+        Files.writeString(logFile, "C k1 " + CARD + " 1000 0\n"
+                + "C k2 " + CARD + " 2000 0\n"
+                + "S k1 C\n"
+                + "C k3 " + OTHER_CARD + " 500 0\n"
+                + "C k4 41", StandardCharsets.US_ASCII);
+        Files.copy(logFile, restoredLog);
+
+        SettlementQueue queue = new SettlementQueue(0, logFile);
+        Checks.expect("recovery finds the two unsettled charges (" + queue.getPendingCount() + ")",
+                queue.getPendingCount() == 2 && queue.getPendingCents() == 2500 && queue.getPendingCents(CARD) == 2000);
+        Checks.expect("the partial last line is cut off", !Files.readString(logFile, StandardCharsets.US_ASCII).contains("k4"));
+        awaitSettled(queue);
+        Checks.expect("both are captured in one batch (" + queue.getBatchesAnswered() + " batches)",
+                queue.getCaptured() == 2 && queue.getBatchesAnswered() == 1);
+        Checks.expect("the bank captured each once",
+                ledger.getCaptureCount(CARD) == 1 && ledger.getCapturedCents(CARD) == 2000
+                        && ledger.getCaptureCount(OTHER_CARD) == 1 && ledger.getCapturedCents(OTHER_CARD) == 500);
+        queue.close();
+
+        queue = new SettlementQueue(0, logFile);
+        Checks.expect("the checkpoint leaves nothing to send after a restart", queue.getPendingCount() == 0);
+        Checks.expect("a new charge is queued", queue.add(CARD, 750) && queue.getPendingCents(CARD) == 750);
+        awaitSettled(queue);
+        Checks.expect("and captured", ledger.getCaptureCount(CARD) == 2 && ledger.getCapturedCents(CARD) == 2750);
+        queue.close();
+
+        queue = new SettlementQueue(0, restoredLog);
+        Checks.expect("a restored log without its checkpoint sends its charges again", queue.getPendingCount() == 2);
+        awaitSettled(queue);
+        Checks.expect("the bank recognises their keys and does not capture them twice",
+                ledger.getCaptureCount(CARD) == 2 && ledger.getCapturedCents(CARD) == 2750
+                        && ledger.getCaptureCount(OTHER_CARD) == 1);
+        queue.close();
+
+        bank.close();
+        Checks.finish();
+    }
+
+    private static void awaitSettled(SettlementQueue queue) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+        while (queue.getPendingCount() > 0 && System.nanoTime() < deadline) Thread.sleep(50);
+    }
+}